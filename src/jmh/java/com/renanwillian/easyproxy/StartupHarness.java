@@ -0,0 +1,161 @@
+package com.renanwillian.easyproxy;
+
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts easy-proxy over and over and reports how long it takes from launching the process to the first request
+ * proxied to a {@link MockServer}, and the peak resident memory of the process at that point.
+ * <p>
+ * Every argument is an executable to measure, {@code jvm} standing for the proxy run by the current JDK with the
+ * options of {@code -Dstartup.jvmArgs}, from the jar in {@code -Dstartup.jar} or else the compiled classes. Class data
+ * sharing only archives classes from jars. {@code -Dstartup.runs} sets the launches per executable. Peak memory is read
+ * from {@code /proc} and only reported on Linux.
+ */
+public class StartupHarness {
+
+    static final String DEFAULT_JVM_ARGS = "-XX:TieredStopAtLevel=1 -XX:+UseSerialGC";
+
+    private static final long STARTUP_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final byte[] REQUEST = "GET /startup HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private record Sample(long startupNanos, long peakRssKb) {}
+
+    public static void main(String[] args) throws Exception {
+        int runs = Integer.getInteger("startup.runs", 20);
+        List<String> jvmArgs = List.of(System.getProperty("startup.jvmArgs", DEFAULT_JVM_ARGS).trim().split("\\s+"));
+        int mockPort = freePort();
+        MockServer mockServer = new MockServer(mockPort);
+        mockServer.addEndpoint("/startup", "GET", 200, "ok");
+        mockServer.start();
+
+        System.out.printf("%-30s %5s %10s %10s %10s %12s%n", "executable", "runs", "median ms", "p90 ms", "max ms", "peak RSS MB");
+        try {
+            for (String executable : args.length > 0 ? args : new String[]{"jvm"}) {
+                List<String> command;
+                if (executable.equals("jvm")) {
+                    command = jvmCommand(jvmArgs);
+                } else if (Files.isExecutable(Path.of(executable))) {
+                    command = List.of(executable);
+                } else {
+                    System.out.printf("%-30s skipped, not an executable%n", executable);
+                    continue;
+                }
+
+                long[] startupNanos = new long[runs];
+                long peakRssKb = -1;
+                for (int i = 0; i < runs; i++) {
+                    Sample sample = measure(command, mockPort);
+                    startupNanos[i] = sample.startupNanos();
+                    peakRssKb = Math.max(peakRssKb, sample.peakRssKb());
+                }
+                Arrays.sort(startupNanos);
+                System.out.printf("%-30s %5d %10.1f %10.1f %10.1f %12s%n", executable, runs,
+                                  millis(startupNanos[runs / 2]), millis(startupNanos[(int) Math.ceil(runs * 0.9) - 1]),
+                                  millis(startupNanos[runs - 1]),
+                                  peakRssKb < 0 ? "n/a" : String.format("%.1f", peakRssKb / 1024.0));
+            }
+        } finally {
+            mockServer.stop();
+        }
+    }
+
+    private static List<String> jvmCommand(List<String> jvmArgs) throws URISyntaxException {
+        // Only the proxy and picocli, the test classpath of the harness would slow down the class loading measured.
+        String jar = System.getProperty("startup.jar");
+        Path proxy = jar != null && Files.exists(Path.of(jar)) ? Path.of(jar) : codeSource(EasyProxy.class);
+        String classpath = proxy + File.pathSeparator + codeSource(CommandLine.class);
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.addAll(List.of("-cp", classpath, EasyProxy.class.getName()));
+        return command;
+    }
+
+    private static Path codeSource(Class<?> type) throws URISyntaxException {
+        return Path.of(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    private static Sample measure(List<String> executable, int mockPort) throws IOException, InterruptedException {
+        int proxyPort = freePort();
+        List<String> command = new ArrayList<>(executable);
+        command.addAll(List.of("--port", String.valueOf(proxyPort), "http://localhost:" + mockPort));
+        ProcessBuilder builder = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                                                            .redirectError(ProcessBuilder.Redirect.DISCARD);
+
+        long start = System.nanoTime();
+        Process process = builder.start();
+        try {
+            while (!proxied(proxyPort)) {
+                if (!process.isAlive()) throw new IllegalStateException(command + " exited with " + process.exitValue());
+                if (System.nanoTime() - start > STARTUP_TIMEOUT_NANOS) throw new IllegalStateException(command + " did not start");
+                LockSupport.parkNanos(POLL_NANOS);
+            }
+            long startupNanos = System.nanoTime() - start;
+            return new Sample(startupNanos, peakRssKb(process.pid()));
+        } finally {
+            // A normal termination, so an executable built with --pgo-instrument writes its profile.
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) process.destroyForcibly().waitFor();
+        }
+    }
+
+    private static boolean proxied(int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1000);
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(REQUEST);
+            out.flush();
+            String statusLine = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))
+                    .readLine();
+            return statusLine != null && statusLine.startsWith("HTTP/1.1 200");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the VmHWM of the process in kB, or -1 when /proc is not available.
+     */
+    private static long peakRssKb(long pid) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+                if (line.startsWith("VmHWM:")) return Long.parseLong(line.replaceAll("\\D", ""));
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux, or the process is gone.
+        }
+        return -1;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.renanwillian.easyproxy.log;
+
+/**
+ * Access to the package-private pieces of the log service needed by benchmarks in other packages.
+ */
+public class LogBenchmarks {
+
+    private LogBenchmarks() {}
+
+    /**
+     * @return a log service that formats entries on its writer thread and throws the output away.
+     */
+    public static LogService discardingLogService(boolean showHeaders, boolean showDetails) {
+        return new LogService(showHeaders, showDetails, LogService.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP,
+                              output -> {});
+    }
+}
@@ -0,0 +1,93 @@
+package com.renanwillian.easyproxy.log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Formatting of a log entry, with and without --details and --headers, and for plain and gzipped bodies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogFormatBenchmark {
+
+    @Param({"false", "true"})
+    private boolean details;
+
+    @Param({"false", "true"})
+    private boolean headers;
+
+    @Param({"identity", "gzip"})
+    private String responseEncoding;
+
+    private LogService logService;
+    private LogEntry entry;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logService = new LogService(headers, details, LogService.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP,
+                                    output -> {});
+
+        byte[] json = "{\"id\":42,\"name\":\"easy-proxy\",\"tags\":[\"a\",\"b\",\"c\"]}".repeat(64)
+                                                                                     .getBytes(StandardCharsets.UTF_8);
+        Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        responseHeaders.put("Content-Type", "application/json");
+        if (responseEncoding.equals("gzip")) responseHeaders.put("Content-Encoding", "gzip");
+
+        entry = new LogEntry();
+        entry.setMethod("POST");
+        entry.setPath("/api/items?page=2");
+        entry.setStatusCode(201);
+        entry.setResponseMessage("Created");
+        entry.setDuration(12L);
+        entry.setTimestamp(LocalDateTime.now());
+        entry.setTarget("http://localhost:3000");
+        entry.setRequestHeaders(Map.of("Content-Type", "application/json", "Accept", "*/*"));
+        entry.setRequestBody(json);
+        entry.setRequestBodySize(json.length);
+        entry.setResponseHeaders(responseHeaders);
+        entry.setResponseBody(responseEncoding.equals("gzip") ? gzip(json) : json);
+        entry.setResponseBodySize(entry.getResponseBody().length);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        logService.close();
+    }
+
+    @Benchmark
+    public String format() {
+        return logService.format(entry);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,67 @@
+package com.renanwillian.easyproxy.proxy;
+
+import com.sun.net.httpserver.Headers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying headers between the server exchange and the upstream client, done twice per proxied request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderCopyBenchmark {
+
+    private Headers requestHeaders;
+    private Map<String, String> responseHeaders;
+
+    @Setup
+    public void setUp() {
+        requestHeaders = new Headers();
+        requestHeaders.add("Host", "localhost:8000");
+        requestHeaders.add("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 Chrome/120.0 Safari/537.36");
+        requestHeaders.add("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        requestHeaders.add("Accept-Encoding", "gzip, deflate, br");
+        requestHeaders.add("Accept-Language", "en-US,en;q=0.9");
+        requestHeaders.add("Cookie", "session=0123456789abcdef; theme=dark");
+        requestHeaders.add("Connection", "keep-alive");
+        requestHeaders.add("X-Request-Id", "7d3e2a40-5b1c-4c8e-9f0a-1b2c3d4e5f60");
+
+        responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        responseHeaders.put("Content-Type", "application/json; charset=utf-8");
+        responseHeaders.put("Content-Length", "1024");
+        responseHeaders.put("Cache-Control", "max-age=60");
+        responseHeaders.put("Date", "Sat, 17 Oct 2026 12:00:00 GMT");
+        responseHeaders.put("ETag", "\"33a64df551425fcc55e4d42a148795d9f25f89d4\"");
+        responseHeaders.put("Connection", "keep-alive");
+        responseHeaders.put("Vary", "Accept-Encoding");
+        responseHeaders.put("Server", "nginx");
+    }
+
+    @Benchmark
+    public Map<String, String> copyRequestHeaders() {
+        return ProxyHandler.copyRequestHeaders(requestHeaders);
+    }
+
+    @Benchmark
+    public Headers forwardResponseHeaders() {
+        Headers target = new Headers();
+        ProxyHandler.forwardResponseHeaders(target, responseHeaders);
+        return target;
+    }
+}
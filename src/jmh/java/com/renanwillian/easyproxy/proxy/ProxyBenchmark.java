@@ -0,0 +1,95 @@
+package com.renanwillian.easyproxy.proxy;
+
+import com.renanwillian.easyproxy.MockServer;
+import com.renanwillian.easyproxy.config.ProxyConfig;
+import com.renanwillian.easyproxy.log.LogBenchmarks;
+import com.renanwillian.easyproxy.log.LogService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end GET through a running proxy to an in-process {@link MockServer}, logging to a discarding output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Without nodelay the JDK server used by MockServer and the httpserver engine stalls on delayed ACKs.
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class ProxyBenchmark {
+
+    @Param({"0", "1024", "65536"})
+    private int bodySize;
+
+    @Param({"false", "true"})
+    private boolean details;
+
+    @Param({"HTTPSERVER", "NIO"})
+    private Engine engine;
+
+    private MockServer mockServer;
+    private LogService logService;
+    private ProxyServer proxyServer;
+    private HttpClient httpClient;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int mockPort = freePort();
+        int proxyPort = freePort();
+
+        mockServer = new MockServer(mockPort);
+        mockServer.addEndpoint("/bench", "GET", 200, "x".repeat(bodySize));
+        mockServer.start();
+
+        logService = LogBenchmarks.discardingLogService(true, details);
+        ProxyConfig config = ProxyConfig.of(proxyPort, "http://localhost:" + mockPort);
+        config.setEngine(engine);
+        proxyServer = new ProxyServer(config, logService);
+        proxyServer.start();
+
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + proxyPort + "/bench")).GET().build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        proxyServer.stop();
+        logService.close();
+        mockServer.stop();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int get() throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        return response.body().length;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
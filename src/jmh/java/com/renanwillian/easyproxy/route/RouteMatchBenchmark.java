@@ -0,0 +1,72 @@
+package com.renanwillian.easyproxy.route;
+
+import com.renanwillian.easyproxy.balancer.Balancing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking the route of a request, done once per proxied request. Matching walks the compiled trie without allocating,
+ * so {@code gc.alloc.rate.norm} stays at zero whatever the number of routes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteMatchBenchmark {
+
+    @Param({"10", "1000"})
+    public int routes;
+
+    private Router router;
+    private String[] paths;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> definitions = new ArrayList<>();
+        for (int i = 0; i < routes; i++) {
+            definitions.add("/api/service-" + i + "=http://localhost:" + (10000 + i % 16));
+            definitions.add("/api/service-" + i + "/v2=http://localhost:" + (10000 + i % 16) + ";rewrite=/");
+        }
+        router = new Router(definitions, null, List.of("http://localhost:9000"), Balancing.ROUND_ROBIN, null, null, 0);
+        paths = new String[64];
+        for (int i = 0; i < paths.length; i++) {
+            int service = i * 7919 % routes;
+            paths[i] = switch (i % 4) {
+                case 0 -> "/api/service-" + service + "/users/42";
+                case 1 -> "/api/service-" + service + "/v2/orders";
+                case 2 -> "/api/service-" + service + "x/unrouted";
+                default -> "/static/app.js";
+            };
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        router.close();
+    }
+
+    @Benchmark
+    public Route match() {
+        String path = paths[next];
+        next = (next + 1) & (paths.length - 1);
+        return router.match(path);
+    }
+}
@@ -0,0 +1,59 @@
+package com.renanwillian.easyproxy.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decompression of gzipped bodies for display in the log, in full and bounded to the default preview size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GzipBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    private int uncompressedSize;
+
+    @Param({"4096", "2147483646"})
+    private int limit;
+
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder text = new StringBuilder(uncompressedSize);
+        for (int i = 0; text.length() < uncompressedSize; i++) {
+            text.append("{\"id\":").append(i).append(",\"name\":\"item-").append(i).append("\"},");
+        }
+        byte[] data = text.substring(0, uncompressedSize).getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        compressed = out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] uncompress() throws IOException {
+        return CompressionUtils.decompress(compressed, CompressionUtils.GZIP, limit);
+    }
+}
@@ -0,0 +1,56 @@
+package com.renanwillian.easyproxy.utils;
+
+import com.renanwillian.easyproxy.log.BodyCapture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body streaming between the upstream and the client, with and without the bounded copy kept for logging.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamTransferBenchmark {
+
+    private static final int CAPTURE_LIMIT = 64 * 1024;
+
+    @Param({"0", "1024", "65536", "1048576", "16777216"})
+    private int bodySize;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = new byte[bodySize];
+        ThreadLocalRandom.current().nextBytes(body);
+    }
+
+    @Benchmark
+    public long transfer() throws IOException {
+        return StreamUtils.transfer(new ByteArrayInputStream(body), OutputStream.nullOutputStream(), null);
+    }
+
+    @Benchmark
+    public long transferWithCapture() throws IOException {
+        return StreamUtils.transfer(new ByteArrayInputStream(body), OutputStream.nullOutputStream(),
+                                    new BodyCapture(CAPTURE_LIMIT));
+    }
+}
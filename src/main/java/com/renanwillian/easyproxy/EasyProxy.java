@@ -1,41 +1,365 @@
 package com.renanwillian.easyproxy;
 
+import com.renanwillian.easyproxy.balancer.Balancing;
+import com.renanwillian.easyproxy.config.ProxyConfig;
+import com.renanwillian.easyproxy.limit.RateLimitKey;
 import com.renanwillian.easyproxy.log.LogService;
+import com.renanwillian.easyproxy.log.OverflowPolicy;
+import com.renanwillian.easyproxy.proxy.Engine;
+import com.renanwillian.easyproxy.proxy.ExecutorMode;
 import com.renanwillian.easyproxy.proxy.ProxyServer;
+import com.renanwillian.easyproxy.proxy.RequestCoalescer;
+import com.renanwillian.easyproxy.proxy.ResponseCompressor;
+import com.renanwillian.easyproxy.replay.ReplayCommand;
+import com.renanwillian.easyproxy.route.Route;
+import com.renanwillian.easyproxy.stub.StubMiss;
+import com.renanwillian.easyproxy.tls.TlsTerminator;
+import com.renanwillian.easyproxy.upstream.UpstreamClient;
+import com.renanwillian.easyproxy.upstream.UpstreamProtocol;
 import com.renanwillian.easyproxy.utils.TerminalUtils;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Model.OptionSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
 import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 @Command(name = "easy-proxy", mixinStandardHelpOptions = true, version = "0.1.2",
-        description = "Starts a reverse proxy server.")
+        description = "Starts a reverse proxy server.", subcommands = ReplayCommand.class)
 public class EasyProxy implements Runnable {
 
+    /**
+     * Options a changed config file applies without a restart, see {@link ProxyServer#reconfigure}. The targets can
+     * change as well.
+     */
+    private static final Set<String> RELOADABLE_OPTIONS = Set.of("--route", "--request-timeout", "--retries",
+                                                                 "--retry-backoff", "--retry-budget", "--hedge",
+                                                                 "--rate-limit", "--rate-limit-burst",
+                                                                 "--concurrency-limit", "--headers", "--details",
+                                                                 "--log-sample", "--log-rate", "--log-slow",
+                                                                 "--log-errors", "--log-filter");
+
     @Option(names = {"--port"}, description = "The port on which the server will run (default: 8000).")
     private int port = 8000;
 
+    @Option(names = {"--tls-cert"}, description = "Serve HTTPS with this PKCS12 keystore or PEM certificate chain, reloaded when it changes.")
+    private Path tlsCert;
+
+    @Option(names = {"--tls-key"}, description = "PEM private key of the certificate, when it is not in the --tls-cert file.")
+    private Path tlsKey;
+
+    @Option(names = {"--tls-password"}, description = "Password of the PKCS12 keystore.")
+    private String tlsPassword;
+
+    @Option(names = {"--tls-protocols"}, split = ",", description = "TLS versions accepted from clients (default: TLSv1.3, TLSv1.2).")
+    private List<String> tlsProtocols = TlsTerminator.DEFAULT_PROTOCOLS;
+
+    @Option(names = {"--tls-ciphers"}, split = ",", description = "Comma separated cipher suites accepted from clients, in order of preference (default: the JDK defaults).")
+    private List<String> tlsCiphers = List.of();
+
+    @Option(names = {"--tls-session-cache"}, description = "TLS sessions kept so returning clients can skip the full handshake, 0 for no limit (default: 20480).")
+    private int tlsSessionCacheSize = 20480;
+
+    @Option(names = {"--tls-session-timeout"}, description = "Seconds a TLS session can be resumed (default: 86400).")
+    private int tlsSessionTimeout = 86400;
+
+    @Option(names = {"--tls-reload-interval"}, description = "Seconds between checks of the certificate files for changes, 0 never reloads them (default: 60).")
+    private int tlsReloadInterval = 60;
+
+    @Option(names = {"--config"}, description = "File with one argument per line, e.g. --retries=2 or a target URL, read before the command line so the command line takes precedence. Targets, routes, timeouts, retries, limits and logging are applied again when it changes.")
+    private Path configPath;
+
+    @Option(names = {"--config-reload-interval"}, description = "Seconds between checks of the config file for changes, 0 never reloads it (default: 5).")
+    private int configReloadInterval = 5;
+
+    @Option(names = {"--drain-timeout"}, description = "Seconds to wait on shutdown for the requests in progress to complete (default: 10).")
+    private int drainTimeout = 10;
+
     @Option(names = {"--details"}, description = "Show the details of each request / response (default: false).")
     private boolean details = false;
 
     @Option(names = {"--headers"}, description = "Show the headers of each request / response (default: false).")
     private boolean headers = false;
 
-    @Parameters(paramLabel = "TARGET_URL", description = "The target URL for the proxy.")
-    private String targetUrl;
+    @Option(names = {"--log-sample"}, description = "Print one in this many requests, picked at random (default: 1).")
+    private int logSample = 1;
+
+    @Option(names = {"--log-rate"}, description = "Maximum requests printed per second, 0 for no limit (default: 0).")
+    private double logRate = 0;
+
+    @Option(names = {"--log-slow"}, description = "Print the requests sampled out that take at least this many milliseconds, 0 to disable it (default: 0).")
+    private long logSlow = 0;
+
+    // With a field default of true picocli would invert --log-errors, the default and fallback keep both forms literal.
+    @Option(names = {"--log-errors"}, negatable = true, defaultValue = "true", fallbackValue = "true", description = "Print the requests sampled out that fail with a 5xx or no response, --no-log-errors to sample them too (default: true).")
+    private boolean logErrors;
+
+    @Option(names = {"--log-filter"}, description = "Print only the requests matching a filter, as method=GET,POST;path=/api/**;status=500-599;duration=1000-. Repeatable, a request matching any filter is printed.")
+    private List<String> logFilters = List.of();
+
+    @Option(names = {"--max-connections"}, description = "Maximum concurrent upstream connections per target (default: 64).")
+    private int maxConnections = 64;
+
+    @Option(names = {"--idle-timeout"}, description = "Seconds an idle upstream connection is kept alive for reuse (default: 30).")
+    private int idleTimeout = 30;
+
+    @Option(names = {"--connect-timeout"}, description = "Milliseconds allowed to connect to a target or to wait for a free connection (default: 5000).")
+    private int connectTimeout = 5000;
+
+    @Option(names = {"--request-timeout"}, description = "Milliseconds allowed for the target to answer with response headers, a 504 otherwise (default: 10000).")
+    private int requestTimeout = 10000;
+
+    @Option(names = {"--retries"}, description = "Times an idempotent request without a body is sent again after a connection failure, timeout, 502, 503 or 504 (default: 0).")
+    private int retries = 0;
+
+    @Option(names = {"--retry-backoff"}, description = "Milliseconds before the first retry, doubled for each further one and randomized (default: 50).")
+    private int retryBackoff = 50;
+
+    @Option(names = {"--retry-budget"}, description = "Retries and hedges allowed per request sent, so they cannot multiply the load of a failing target (default: 0.2).")
+    private double retryBudget = 0.2;
+
+    @Option(names = {"--hedge"}, description = "Send a second attempt of a GET or HEAD request that takes longer than the p95 upstream latency to another target and keep the first response (default: false).")
+    private boolean hedge = false;
+
+    @Option(names = {"--circuit-breaker"}, description = "Stop calling a target whose calls keep failing or answering slowly and answer 503 right away, probing it again later (default: false).")
+    private boolean circuitBreaker = false;
+
+    @Option(names = {"--circuit-failure-rate"}, description = "Percentage of the last 100 calls to a target that failed, timed out or got a 502, 503 or 504 that opens its circuit (default: 50).")
+    private int circuitFailureRate = 50;
+
+    @Option(names = {"--circuit-slow-call-rate"}, description = "Percentage of the last 100 calls to a target slower than --circuit-slow-call that opens its circuit (default: 80).")
+    private int circuitSlowCallRate = 80;
+
+    @Option(names = {"--circuit-slow-call"}, description = "Milliseconds after which a call counts as slow (default: 5000).")
+    private int circuitSlowCall = 5000;
+
+    @Option(names = {"--circuit-open-time"}, description = "Seconds an open circuit rejects calls before letting probes through (default: 30).")
+    private int circuitOpenTime = 30;
+
+    @Option(names = {"--upstream-protocol"}, description = "HTTP version spoken to the targets: ${COMPLETION-CANDIDATES} (default: http1_1). http2 multiplexes requests over one connection per target.")
+    private UpstreamProtocol upstreamProtocol = UpstreamProtocol.HTTP1_1;
+
+    @Option(names = {"--engine"}, description = "Server implementation: ${COMPLETION-CANDIDATES} (default: httpserver). The nio engine only supports http targets and no cache.")
+    private Engine engine = Engine.HTTPSERVER;
+
+    @Option(names = {"--executor"}, description = "How requests are executed: ${COMPLETION-CANDIDATES} (default: cached).")
+    private ExecutorMode executorMode = ExecutorMode.CACHED;
+
+    @Option(names = {"--threads"}, description = "Worker threads for the fixed executor (default: 200).")
+    private int threads = 200;
+
+    @Option(names = {"--queue-size"}, description = "Queued requests for the fixed executor before answering 503 (default: 1000).")
+    private int queueSize = 1000;
+
+    @Option(names = {"--rate-limit"}, description = "Requests per second allowed for each client, header value or path, others get a 429. 0 disables it (default: 0).")
+    private double rateLimit = 0;
+
+    @Option(names = {"--rate-limit-burst"}, description = "Requests a client can send at once before the rate applies (default: the rate).")
+    private int rateLimitBurst = 0;
+
+    @Option(names = {"--rate-limit-key"}, description = "What the rate limit applies to: ${COMPLETION-CANDIDATES} (default: ip). path limits each first path segment.")
+    private RateLimitKey rateLimitKey = RateLimitKey.IP;
+
+    @Option(names = {"--rate-limit-header"}, description = "Header whose value is limited with --rate-limit-key=header, such as X-Api-Key.")
+    private String rateLimitHeader;
+
+    @Option(names = {"--concurrency-limit"}, description = "Highest adaptive limit on requests in flight, lowered while upstream latency rises, others get a 503. 0 disables it (default: 0).")
+    private int concurrencyLimit = 0;
+
+    @Option(names = {"--log-queue-size"}, description = "Log entries buffered before the overflow policy applies (default: 8192).")
+    private int logQueueSize = LogService.DEFAULT_QUEUE_CAPACITY;
+
+    @Option(names = {"--log-overflow"}, description = "What to do when the log queue is full: ${COMPLETION-CANDIDATES} (default: drop).")
+    private OverflowPolicy logOverflow = OverflowPolicy.DROP;
+
+    @Option(names = {"--log-preview-size"}, description = "Bytes of each decoded body shown with --details (default: 4096).")
+    private int logPreviewSize = LogService.DEFAULT_PREVIEW_SIZE;
+
+    @Option(names = {"--cache-size"}, description = "Size in MB of the response cache, 0 disables caching (default: 0).")
+    private int cacheSize = 0;
+
+    @Option(names = {"--cache-dir"}, description = "Directory where cached response bodies are stored instead of memory, the bodies left by a previous run are deleted on startup.")
+    private Path cacheDir;
+
+    @Option(names = {"--coalesce"}, description = "Send identical concurrent GET and HEAD requests to the target once and share the response (default: false).")
+    private boolean coalesce = false;
+
+    @Option(names = {"--coalesce-timeout"}, description = "Milliseconds a coalesced request waits for the shared response before sending its own (default: 5000).")
+    private int coalesceTimeout = 5000;
+
+    @Option(names = {"--coalesce-max-waiters"}, description = "Requests waiting on one shared response, further ones are sent on their own (default: 100).")
+    private int coalesceMaxWaiters = 100;
+
+    @Option(names = {"--coalesce-vary"}, split = ",", description = "Request headers that must be equal for requests to be coalesced (default: Accept, Accept-Encoding, Accept-Language, Authorization, Cookie).")
+    private List<String> coalesceVary = RequestCoalescer.DEFAULT_VARY;
+
+    @Option(names = {"--compress"}, description = "Compress responses with gzip or deflate for clients that accept it (default: false).")
+    private boolean compression = false;
+
+    @Option(names = {"--compress-level"}, description = "Compression level from 1 (fastest) to 9 (smallest) (default: 6).")
+    private int compressionLevel = 6;
+
+    @Option(names = {"--compress-min-size"}, description = "Smallest response body in bytes that gets compressed (default: 1024).")
+    private int compressionMinSize = 1024;
+
+    @Option(names = {"--compress-types"}, split = ",", description = "Comma separated content types to compress, type/* matches a whole type (default: text, json, javascript, xml and svg types).")
+    private List<String> compressionTypes = ResponseCompressor.DEFAULT_TYPES;
+
+    @Option(names = {"--route"}, description = "Send paths under a prefix to their own targets, as /prefix=URL[,URL...][;rewrite=/path][;timeout=ms][;header=Name:value]. Repeatable, the longest matching prefix wins.")
+    private List<String> routes = List.of();
+
+    @Option(names = {"--routes"}, description = "File with one route per line in the --route format, reloaded when it changes.")
+    private Path routesPath;
+
+    @Option(names = {"--routes-reload-interval"}, description = "Seconds between checks of the routes file for changes, 0 never reloads it (default: 5).")
+    private int routesReloadInterval = 5;
+
+    @Option(names = {"--balancer"}, description = "How requests are spread across targets: ${COMPLETION-CANDIDATES} (default: round_robin).")
+    private Balancing balancing = Balancing.ROUND_ROBIN;
+
+    @Option(names = {"--hash-header"}, description = "Header hashed by the consistent_hash balancer, the client address is used when absent.")
+    private String hashHeader;
+
+    @Option(names = {"--health-check-path"}, description = "Path probed on every target to take unhealthy ones out of rotation.")
+    private String healthCheckPath;
+
+    @Option(names = {"--health-check-interval"}, description = "Seconds between health probes (default: 10).")
+    private int healthCheckInterval = 10;
+
+    @Option(names = {"--admin-port"}, description = "Port of the admin server exposing /metrics in Prometheus format, 0 disables it (default: 0).")
+    private int adminPort = 0;
+
+    @Option(names = {"--traffic-buffer"}, description = "Number of recent exchanges kept off-heap and served on the admin port under /traffic, 0 disables it (default: 0).")
+    private int trafficBuffer = 0;
+
+    @Option(names = {"--traffic-slot-size"}, description = "Bytes recorded per exchange in the traffic buffer, bodies are cut to fit (default: 16384).")
+    private int trafficSlotSize = 16 * 1024;
+
+    @Option(names = {"--record"}, description = "Append every exchange to this capture file, to be replayed with the replay command.")
+    private Path recordPath;
+
+    @Option(names = {"--record-segment-size"}, description = "Size in MB of each memory-mapped capture segment (default: 64).")
+    private int recordSegmentSize = 64;
+
+    @Option(names = {"--stubs"}, description = "Answer requests from this directory of prepared responses or capture, without contacting the targets.")
+    private Path stubPath;
+
+    @Option(names = {"--stub-miss"}, description = "What to do with requests no stub matches: ${COMPLETION-CANDIDATES} (default: forward). fail answers 502.")
+    private StubMiss stubMiss = StubMiss.FORWARD;
+
+    // Optional for picocli so the replay subcommand can run without it, required when starting the proxy.
+    @Parameters(paramLabel = "TARGET_URL", arity = "0..*", description = "The target URL for the proxy, several targets are load balanced. Serves the paths no route matches.")
+    private List<String> targetUrls;
 
     public static void main(String[] args) {
-        int exitCode = new CommandLine(new EasyProxy()).execute(args);
+        int exitCode = new CommandLine(new EasyProxy()).setCaseInsensitiveEnumValuesAllowed(true).execute(args);
         System.exit(exitCode);
     }
 
+    @Spec
+    private CommandSpec spec;
+
+    // The arguments given on the command line, parsed again after the config file on every reload.
+    private List<String> arguments;
+
+    // The options of the configuration last applied and of the one reloaded since, restart-only options compare with the first.
+    private EasyProxy applied = this;
+    private EasyProxy reloaded;
+
     @Override
     public void run() {
-        LogService logService = new LogService(headers, details);
-        try (ProxyServer server = new ProxyServer(port, targetUrl, logService)) {
+        EasyProxy options = this;
+        if (configPath != null) {
+            try {
+                options = withConfigFile(spec.commandLine().getParseResult().originalArgs());
+            } catch (IOException e) {
+                throw new ParameterException(spec.commandLine(), "Error reading the config file: " + e.getMessage());
+            }
+        }
+        options.serve();
+    }
+
+    /**
+     * @return the options of the config file followed by the arguments, so that the arguments take precedence.
+     */
+    private EasyProxy withConfigFile(List<String> arguments) throws IOException {
+        List<String> args = new ArrayList<>();
+        for (String line : Files.readAllLines(configPath, StandardCharsets.UTF_8)) {
+            String arg = line.strip();
+            if (!arg.isEmpty() && !arg.startsWith("#")) args.add(arg);
+        }
+        args.addAll(arguments);
+        EasyProxy options = new EasyProxy();
+        options.arguments = arguments;
+        new CommandLine(options).setCaseInsensitiveEnumValuesAllowed(true)
+                                .setOverwrittenOptionsAllowed(true)
+                                .parseArgs(args.toArray(String[]::new));
+        return options;
+    }
+
+    /**
+     * Reads the config file and the arguments again, warning about the options that need a restart and changed since
+     * the configuration last applied.
+     */
+    private ProxyConfig reloadConfig() throws IOException {
+        EasyProxy next = withConfigFile(arguments);
+        for (OptionSpec option : next.spec.options()) {
+            String name = option.longestName();
+            if (!RELOADABLE_OPTIONS.contains(name)
+                    && !Objects.equals(option.getValue(), applied.spec.findOption(name).getValue())) {
+                TerminalUtils.printlnError(name + " changed in " + configPath + ", it applies after a restart");
+            }
+        }
+        reloaded = next;
+        return next.buildConfig();
+    }
+
+    private void serve() {
+        if (targetUrls == null) targetUrls = List.of();
+        if (targetUrls.isEmpty() && routes.isEmpty() && routesPath == null) {
+            throw new ParameterException(spec.commandLine(), "Missing required parameter: 'TARGET_URL'");
+        }
+        UpstreamClient.setKeepAliveTimeout(idleTimeout);
+        LogService logService = new LogService(headers, details, logQueueSize, logOverflow, logPreviewSize);
+        ProxyServer server = new ProxyServer(buildConfig(), logService);
+        // The hook owns the shutdown, also after a failed start: the requests in progress complete before their
+        // entries are flushed from the log.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            logService.close();
+        }));
+        try {
             server.start();
+            if (configPath != null && configReloadInterval > 0) {
+                server.watchConfig(configPath, configReloadInterval, this::reloadConfig, () -> applied = reloaded);
+            }
 
-            TerminalUtils.println("Proxy server running on http://localhost:" + port + " and redirecting to " + targetUrl);
+            String scheme = tlsCert != null ? "https" : "http";
+            if (targetUrls.isEmpty()) {
+                TerminalUtils.println("Proxy server running on " + scheme + "://localhost:" + port);
+            } else {
+                TerminalUtils.println("Proxy server running on " + scheme + "://localhost:" + port + " and redirecting to " + String.join(", ", targetUrls));
+            }
+            if (server.getRouter() != null) {
+                for (Route route : server.getRouter().getRoutes()) {
+                    if (route.getDefinition().prefix().equals("/") && !targetUrls.isEmpty()) continue;
+                    TerminalUtils.println("Routing " + route.getPrefix() + " to " + String.join(", ", route.getDefinition().targets()));
+                }
+            }
+            if (server.getStubStore() != null) {
+                TerminalUtils.println("Serving " + server.getStubStore().size() + " stubs from " + stubPath);
+            }
             TerminalUtils.println();
 
             Thread.currentThread().join();
@@ -46,4 +370,72 @@ public class EasyProxy implements Runnable {
             TerminalUtils.printlnError("Error starting the server: " + e.getMessage());
         }
     }
+
+    private ProxyConfig buildConfig() {
+        ProxyConfig config = ProxyConfig.of(port, targetUrls != null ? targetUrls.toArray(String[]::new) : new String[0]);
+        config.setTlsCert(tlsCert);
+        config.setTlsKey(tlsKey);
+        config.setTlsPassword(tlsPassword);
+        config.setTlsProtocols(tlsProtocols);
+        config.setTlsCiphers(tlsCiphers);
+        config.setTlsSessionCacheSize(tlsSessionCacheSize);
+        config.setTlsSessionTimeout(tlsSessionTimeout);
+        config.setTlsReloadInterval(tlsReloadInterval);
+        config.setRoutes(routes);
+        config.setRoutesPath(routesPath);
+        config.setRoutesReloadInterval(routesReloadInterval);
+        config.setMaxConnections(maxConnections);
+        config.setIdleTimeout(idleTimeout);
+        config.setConnectTimeout(connectTimeout);
+        config.setRequestTimeout(requestTimeout);
+        config.setRetries(retries);
+        config.setRetryBackoff(retryBackoff);
+        config.setRetryBudget(retryBudget);
+        config.setHedge(hedge);
+        config.setCircuitBreaker(circuitBreaker);
+        config.setCircuitFailureRate(circuitFailureRate);
+        config.setCircuitSlowCallRate(circuitSlowCallRate);
+        config.setCircuitSlowCall(circuitSlowCall);
+        config.setCircuitOpenTime(circuitOpenTime);
+        config.setUpstreamProtocol(upstreamProtocol);
+        config.setEngine(engine);
+        config.setExecutorMode(executorMode);
+        config.setThreads(threads);
+        config.setQueueSize(queueSize);
+        config.setRateLimit(rateLimit);
+        config.setRateLimitBurst(rateLimitBurst);
+        config.setRateLimitKey(rateLimitKey);
+        config.setRateLimitHeader(rateLimitHeader);
+        config.setConcurrencyLimit(concurrencyLimit);
+        config.setCacheSize(cacheSize);
+        config.setCacheDir(cacheDir);
+        config.setCoalesce(coalesce);
+        config.setCoalesceTimeout(coalesceTimeout);
+        config.setCoalesceMaxWaiters(coalesceMaxWaiters);
+        config.setCoalesceVary(coalesceVary);
+        config.setCompression(compression);
+        config.setCompressionLevel(compressionLevel);
+        config.setCompressionMinSize(compressionMinSize);
+        config.setCompressionTypes(compressionTypes);
+        config.setBalancing(balancing);
+        config.setHashHeader(hashHeader);
+        config.setHealthCheckPath(healthCheckPath);
+        config.setHealthCheckInterval(healthCheckInterval);
+        config.setAdminPort(adminPort);
+        config.setTrafficBuffer(trafficBuffer);
+        config.setTrafficSlotSize(trafficSlotSize);
+        config.setRecordPath(recordPath);
+        config.setRecordSegmentSize(recordSegmentSize);
+        config.setStubPath(stubPath);
+        config.setStubMiss(stubMiss);
+        config.setShowHeaders(headers);
+        config.setShowDetails(details);
+        config.setDrainTimeout(drainTimeout);
+        config.setLogSample(logSample);
+        config.setLogRate(logRate);
+        config.setLogSlow(logSlow);
+        config.setLogErrors(logErrors);
+        config.setLogFilters(logFilters);
+        return config;
+    }
 }
\ No newline at end of file
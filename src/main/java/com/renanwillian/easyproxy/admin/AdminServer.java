@@ -0,0 +1,44 @@
+package com.renanwillian.easyproxy.admin;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Small HTTP server on a separate port for operational endpoints, so they never compete with proxied traffic for
+ * the proxy context or executor.
+ */
+public class AdminServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public AdminServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "easy-proxy-admin");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(executor);
+    }
+
+    public AdminServer addHandler(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+        return this;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
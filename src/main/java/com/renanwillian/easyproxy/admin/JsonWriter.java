@@ -0,0 +1,104 @@
+package com.renanwillian.easyproxy.admin;
+
+import java.util.Map;
+
+/**
+ * Builds a JSON document by appending values in order. Commas between members and elements are handled by the writer.
+ */
+public class JsonWriter {
+
+    private final StringBuilder sb = new StringBuilder();
+    private boolean needsComma = false;
+
+    public JsonWriter beginObject() {
+        separate();
+        sb.append('{');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        sb.append('}');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separate();
+        sb.append('[');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        sb.append(']');
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Starts an object member, to be followed by its value.
+     */
+    public JsonWriter name(String name) {
+        separate();
+        appendString(name);
+        sb.append(':');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            sb.append("null");
+        } else {
+            appendString(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separate();
+        sb.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(Map<String, String> values) {
+        beginObject();
+        values.forEach((name, value) -> name(name).value(value));
+        return endObject();
+    }
+
+    private void separate() {
+        if (needsComma) sb.append(',');
+    }
+
+    private void appendString(String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
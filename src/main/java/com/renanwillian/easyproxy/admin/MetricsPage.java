@@ -0,0 +1,196 @@
+package com.renanwillian.easyproxy.admin;
+
+import com.renanwillian.easyproxy.balancer.Upstream;
+import com.renanwillian.easyproxy.cache.CacheStats;
+import com.renanwillian.easyproxy.config.ConfigReloader;
+import com.renanwillian.easyproxy.limit.ConcurrencyLimiter;
+import com.renanwillian.easyproxy.limit.RateLimiter;
+import com.renanwillian.easyproxy.metrics.MetricsRegistry;
+import com.renanwillian.easyproxy.metrics.PrometheusWriter;
+import com.renanwillian.easyproxy.proxy.ProxyServer;
+import com.renanwillian.easyproxy.proxy.RequestCoalescer;
+import com.renanwillian.easyproxy.proxy.ResponseCompressor;
+import com.renanwillian.easyproxy.proxy.UpstreamCaller;
+import com.renanwillian.easyproxy.route.Router;
+import com.renanwillian.easyproxy.stub.StubStore;
+import com.renanwillian.easyproxy.tls.TlsTerminator;
+import com.renanwillian.easyproxy.upstream.PoolStats;
+
+import java.util.List;
+
+/**
+ * Renders every counter of a running {@link ProxyServer} in the Prometheus text format.
+ */
+public class MetricsPage {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private MetricsPage() {}
+
+    public static String render(ProxyServer server) {
+        PrometheusWriter writer = new PrometheusWriter();
+        writeRequestMetrics(writer, server.getMetrics());
+        writeTlsMetrics(writer, server.getTlsTerminator());
+        writeRouteMetrics(writer, server.getRouter());
+        writeConfigMetrics(writer, server.getConfigReloader());
+        writeUpstreamMetrics(writer, server);
+        writeRetryMetrics(writer, server.getUpstreamCaller());
+        writeCacheMetrics(writer, server.getCacheStats());
+        writeCoalescingMetrics(writer, server.getCoalescer());
+        writeCompressionMetrics(writer, server.getCompressor());
+        writeStubMetrics(writer, server.getStubStore());
+        writeLimitMetrics(writer, server.getRateLimiter(), server.getConcurrencyLimiter());
+        writer.counter("easyproxy_shed_requests_total", "Requests rejected with 503 by the fixed executor.", server.getShedCount());
+        writer.counter("easyproxy_capture_failed_total", "Exchanges that could not be appended to the capture.", server.getCaptureFailedCount());
+        writer.counter("easyproxy_log_dropped_total", "Log entries dropped because the log queue was full.", server.getLogDroppedCount());
+        writer.counter("easyproxy_log_skipped_total", "Log entries left out by the log filters and sampling.", server.getLogSkippedCount());
+        return writer.toString();
+    }
+
+    private static void writeRequestMetrics(PrometheusWriter writer, MetricsRegistry metrics) {
+        writer.gauge("easyproxy_requests_in_flight", "Requests currently being handled.", metrics.getInFlight());
+
+        writer.header("easyproxy_responses_total", "counter", "Responses sent, by status code.");
+        for (int status = 100; status < metrics.getMaxStatusCode(); status++) {
+            long count = metrics.getStatusCount(status);
+            if (count > 0) writer.sample("easyproxy_responses_total", "status", String.valueOf(status), count);
+        }
+
+        writer.header("easyproxy_route_requests_total", "counter", "Requests handled, by route.");
+        metrics.getRoutes().forEach((route, routeMetrics) ->
+                writer.sample("easyproxy_route_requests_total", "route", route, routeMetrics.getRequests()));
+        writer.header("easyproxy_route_server_errors_total", "counter", "Responses with a 5xx status, by route.");
+        metrics.getRoutes().forEach((route, routeMetrics) ->
+                writer.sample("easyproxy_route_server_errors_total", "route", route, routeMetrics.getServerErrors()));
+        writer.header("easyproxy_route_duration_seconds", "summary", "Total request duration, by route.");
+        metrics.getRoutes().forEach((route, routeMetrics) ->
+                writer.summary("easyproxy_route_duration_seconds", "route", route, routeMetrics.getLatency()));
+
+        writer.header("easyproxy_request_duration_seconds", "summary", "Request duration by phase: upstream connection ready, upstream first byte and total.");
+        writer.summary("easyproxy_request_duration_seconds", "phase", "upstream_connect", metrics.getUpstreamConnectLatency());
+        writer.summary("easyproxy_request_duration_seconds", "phase", "upstream_first_byte", metrics.getUpstreamFirstByteLatency());
+        writer.summary("easyproxy_request_duration_seconds", "phase", "total", metrics.getTotalLatency());
+
+        writer.counter("easyproxy_received_bytes_total", "Request body bytes received from clients.", metrics.getBytesReceived());
+        writer.counter("easyproxy_sent_bytes_total", "Response body bytes sent to clients.", metrics.getBytesSent());
+    }
+
+    private static void writeTlsMetrics(PrometheusWriter writer, TlsTerminator tls) {
+        if (tls == null) return;
+        writer.header("easyproxy_tls_handshakes_total", "counter", "TLS handshakes, full or resuming a session.");
+        writer.sample("easyproxy_tls_handshakes_total", "type", "full", tls.getFullHandshakeCount());
+        writer.sample("easyproxy_tls_handshakes_total", "type", "resumed", tls.getResumedHandshakeCount());
+        writer.counter("easyproxy_tls_certificate_reloads_total", "Times a changed certificate was loaded.", tls.getReloadCount());
+        writer.counter("easyproxy_tls_certificate_reload_failures_total", "Changed certificates that could not be loaded.", tls.getReloadFailedCount());
+    }
+
+    private static void writeRouteMetrics(PrometheusWriter writer, Router router) {
+        if (router == null) return;
+        writer.gauge("easyproxy_routes", "Routes in the current routing table.", router.getRoutes().size());
+        writer.counter("easyproxy_route_reloads_total", "Routes files compiled and swapped in after a change.", router.getReloadCount());
+        writer.counter("easyproxy_route_reload_failures_total", "Changed routes files that could not be compiled.", router.getReloadFailedCount());
+    }
+
+    private static void writeConfigMetrics(PrometheusWriter writer, ConfigReloader reloader) {
+        if (reloader == null) return;
+        writer.counter("easyproxy_config_reloads_total", "Changed config files applied without a restart.", reloader.getReloadCount());
+        writer.counter("easyproxy_config_reload_failures_total", "Changed config files that could not be loaded or applied.", reloader.getReloadFailedCount());
+    }
+
+    private static void writeUpstreamMetrics(PrometheusWriter writer, ProxyServer server) {
+        PoolStats pool = server.getUpstreamStats();
+        if (pool != null) {
+            writer.gauge("easyproxy_upstream_connections_active", "Upstream connections carrying an exchange.", pool.active());
+            writer.gauge("easyproxy_upstream_connections_peak", "Highest number of concurrently active upstream connections.", pool.peakActive());
+            writer.gauge("easyproxy_upstream_connections_max", "Maximum concurrent upstream connections per target.", pool.maxConnections());
+            writer.counter("easyproxy_upstream_connection_waits_total", "Exchanges that waited for a free upstream connection.", pool.waited());
+            writer.counter("easyproxy_upstream_connection_exhausted_total", "Exchanges that gave up waiting for an upstream connection.", pool.exhausted());
+            writer.counter("easyproxy_upstream_http2_exchanges_total", "Exchanges the upstream answered over HTTP/2.", pool.http2());
+        }
+
+        writer.header("easyproxy_target_requests_total", "counter", "Requests sent, by target.");
+        for (Upstream upstream : server.getUpstreams()) {
+            writer.sample("easyproxy_target_requests_total", "target", upstream.getUrl(), upstream.getRequests());
+        }
+        writer.header("easyproxy_target_failures_total", "counter", "Connection failures and timeouts, by target.");
+        for (Upstream upstream : server.getUpstreams()) {
+            writer.sample("easyproxy_target_failures_total", "target", upstream.getUrl(), upstream.getFailures());
+        }
+        writer.header("easyproxy_target_ejections_total", "counter", "Times a target was taken out of rotation after failures.");
+        for (Upstream upstream : server.getUpstreams()) {
+            writer.sample("easyproxy_target_ejections_total", "target", upstream.getUrl(), upstream.getEjections());
+        }
+        writer.header("easyproxy_target_available", "gauge", "Whether a target currently receives traffic.");
+        for (Upstream upstream : server.getUpstreams()) {
+            writer.sample("easyproxy_target_available", "target", upstream.getUrl(), upstream.isAvailable() ? 1 : 0);
+        }
+        writeCircuitMetrics(writer, server.getUpstreams());
+    }
+
+    private static void writeCircuitMetrics(PrometheusWriter writer, List<Upstream> upstreams) {
+        if (upstreams.isEmpty() || upstreams.get(0).getCircuitBreaker() == null) return;
+        writer.header("easyproxy_target_circuit_state", "gauge", "Circuit of a target: 0 closed, 1 open, 2 half-open.");
+        for (Upstream upstream : upstreams) {
+            writer.sample("easyproxy_target_circuit_state", "target", upstream.getUrl(), upstream.getCircuitBreaker().getState().ordinal());
+        }
+        writer.header("easyproxy_target_circuit_opened_total", "counter", "Times the circuit of a target opened.");
+        for (Upstream upstream : upstreams) {
+            writer.sample("easyproxy_target_circuit_opened_total", "target", upstream.getUrl(), upstream.getCircuitBreaker().getOpenedCount());
+        }
+        writer.header("easyproxy_target_circuit_rejected_total", "counter", "Calls not sent because the circuit of the target was open.");
+        for (Upstream upstream : upstreams) {
+            writer.sample("easyproxy_target_circuit_rejected_total", "target", upstream.getUrl(), upstream.getCircuitBreaker().getRejectedCount());
+        }
+    }
+
+    private static void writeCacheMetrics(PrometheusWriter writer, CacheStats cache) {
+        if (cache == null) return;
+        writer.counter("easyproxy_cache_hits_total", "Requests answered from a fresh cached response.", cache.hits());
+        writer.counter("easyproxy_cache_misses_total", "Cacheable requests sent upstream.", cache.misses());
+        writer.counter("easyproxy_cache_revalidated_total", "Stale cached responses confirmed by the upstream.", cache.revalidated());
+        writer.counter("easyproxy_cache_stores_total", "Responses written to the cache.", cache.stores());
+        writer.counter("easyproxy_cache_evictions_total", "Responses evicted to respect the cache size.", cache.evictions());
+        writer.gauge("easyproxy_cache_entries", "Responses currently cached.", cache.entries());
+        writer.gauge("easyproxy_cache_bytes", "Body bytes currently cached.", cache.bytes());
+    }
+
+    private static void writeRetryMetrics(PrometheusWriter writer, UpstreamCaller caller) {
+        if (caller == null) return;
+        writer.counter("easyproxy_upstream_retries_total", "Requests sent again after a failed attempt.", caller.getRetriedCount());
+        writer.counter("easyproxy_retry_budget_exhausted_total", "Retries and hedges not sent because the retry budget was spent.", caller.getBudgetExhaustedCount());
+        writer.counter("easyproxy_hedged_requests_total", "Requests also sent to a second target because the first was slow.", caller.getHedgedCount());
+        writer.counter("easyproxy_hedge_wins_total", "Hedged requests answered by the second attempt.", caller.getHedgeWinCount());
+    }
+
+    private static void writeLimitMetrics(PrometheusWriter writer, RateLimiter rateLimiter, ConcurrencyLimiter concurrencyLimiter) {
+        if (rateLimiter != null) {
+            writer.counter("easyproxy_rate_limited_total", "Requests rejected with 429 by the rate limit.", rateLimiter.getLimitedCount());
+            writer.gauge("easyproxy_rate_limit_keys", "Keys with a token bucket currently tracked.", rateLimiter.getBucketCount());
+            writer.counter("easyproxy_rate_limit_overflow_total", "Requests of new keys sharing the overflow bucket because too many keys were tracked.", rateLimiter.getOverflowCount());
+        }
+        if (concurrencyLimiter != null) {
+            writer.counter("easyproxy_concurrency_limited_total", "Requests rejected with 503 by the concurrency limit.", concurrencyLimiter.getLimitedCount());
+            writer.gauge("easyproxy_concurrency_limit", "Current adaptive limit on requests in flight.", concurrencyLimiter.getLimit());
+        }
+    }
+
+    private static void writeCoalescingMetrics(PrometheusWriter writer, RequestCoalescer coalescer) {
+        if (coalescer == null) return;
+        writer.counter("easyproxy_coalesced_requests_total", "Requests answered with the response of an identical request in flight.", coalescer.getCoalescedCount());
+        writer.counter("easyproxy_coalesce_timeouts_total", "Coalesced requests that stopped waiting and were sent on their own.", coalescer.getTimedOutCount());
+        writer.counter("easyproxy_coalesce_overflow_total", "Requests sent on their own because too many were already waiting.", coalescer.getOverflowedCount());
+    }
+
+    private static void writeCompressionMetrics(PrometheusWriter writer, ResponseCompressor compressor) {
+        if (compressor == null) return;
+        writer.counter("easyproxy_compressed_responses_total", "Responses compressed by the proxy.", compressor.getCompressedCount());
+        writer.counter("easyproxy_compression_memoized_total", "Compressed responses served from the cache without compressing again.", compressor.getMemoizedCount());
+    }
+
+    private static void writeStubMetrics(PrometheusWriter writer, StubStore stubStore) {
+        if (stubStore == null) return;
+        writer.gauge("easyproxy_stubs", "Prepared responses loaded in the stub store.", stubStore.size());
+        writer.counter("easyproxy_stub_hits_total", "Requests answered with a stub.", stubStore.getHitCount());
+        writer.counter("easyproxy_stub_misses_total", "Requests no stub matched.", stubStore.getMissCount());
+    }
+}
@@ -0,0 +1,39 @@
+package com.renanwillian.easyproxy.admin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Answers GET requests with a text body rendered on demand.
+ */
+public class TextResponseHandler implements HttpHandler {
+
+    private final String contentType;
+    private final Supplier<String> body;
+
+    public TextResponseHandler(String contentType, Supplier<String> body) {
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] responseBytes = body.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, responseBytes.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(responseBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.renanwillian.easyproxy.admin;
+
+import com.renanwillian.easyproxy.log.BodyPreview;
+import com.renanwillian.easyproxy.traffic.RecordedExchange;
+import com.renanwillian.easyproxy.traffic.TrafficRecorder;
+import com.renanwillian.easyproxy.utils.UrlUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Inspection API over the {@link TrafficRecorder}:
+ * <ul>
+ *     <li>{@code GET /traffic} lists the newest exchanges, filtered by the {@code method}, {@code status} (such as
+ *     {@code 404} or {@code 5xx}), {@code path} and {@code target} parameters, up to {@code limit}.</li>
+ *     <li>{@code GET /traffic/{id}} fetches one exchange with its headers and decoded bodies.</li>
+ *     <li>{@code GET /traffic/{id}/request} and {@code /response} return the recorded body bytes as they were sent.</li>
+ * </ul>
+ */
+public class TrafficHandler implements HttpHandler {
+
+    public static final String PATH = "/traffic";
+
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int BODY_PREVIEW_SIZE = 1024 * 1024;
+
+    private final TrafficRecorder recorder;
+
+    public TrafficHandler(TrafficRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String[] segments = exchange.getRequestURI().getPath().substring(PATH.length()).split("/");
+            if (segments.length <= 1) {
+                Map<String, String> query = UrlUtils.parseQuery(exchange.getRequestURI().getRawQuery());
+                send(exchange, 200, JSON, list(query).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            RecordedExchange recorded = recorder.get(parseId(segments[1]));
+            if (recorded == null || segments.length > 3) {
+                send(exchange, 404, JSON, "{\"error\":\"exchange not found\"}".getBytes(StandardCharsets.UTF_8));
+            } else if (segments.length == 2) {
+                send(exchange, 200, JSON, detail(recorded).getBytes(StandardCharsets.UTF_8));
+            } else if (segments[2].equals("request")) {
+                sendBody(exchange, recorded.requestHeaders(), recorded.requestBody());
+            } else if (segments[2].equals("response")) {
+                sendBody(exchange, recorded.responseHeaders(), recorded.responseBody());
+            } else {
+                send(exchange, 404, JSON, "{\"error\":\"unknown body\"}".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private String list(Map<String, String> query) {
+        int limit = (int) Math.max(1, parseId(query.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT))));
+        List<RecordedExchange> exchanges = recorder.list(filter(query), limit);
+
+        JsonWriter json = new JsonWriter().beginObject();
+        json.name("recorded").value(recorder.getRecordedCount());
+        json.name("capacity").value(recorder.getCapacity());
+        json.name("exchanges").beginArray();
+        for (RecordedExchange recorded : exchanges) {
+            json.beginObject();
+            writeSummary(json, recorded);
+            json.endObject();
+        }
+        return json.endArray().endObject().toString();
+    }
+
+    private static String detail(RecordedExchange recorded) {
+        JsonWriter json = new JsonWriter().beginObject();
+        writeSummary(json, recorded);
+        json.name("requestHeaders").value(recorded.requestHeaders());
+        json.name("requestBodySize").value(recorded.requestBodySize());
+        json.name("requestBody").value(BodyPreview.of(recorded.requestBody(), recorded.requestHeaders(), BODY_PREVIEW_SIZE).text());
+        json.name("responseHeaders").value(recorded.responseHeaders());
+        json.name("responseBodySize").value(recorded.responseBodySize());
+        json.name("responseBody").value(BodyPreview.of(recorded.responseBody(), recorded.responseHeaders(), BODY_PREVIEW_SIZE).text());
+        return json.endObject().toString();
+    }
+
+    private static void writeSummary(JsonWriter json, RecordedExchange recorded) {
+        json.name("id").value(recorded.id());
+        json.name("timestamp").value(Instant.ofEpochMilli(recorded.timestamp()).toString());
+        json.name("method").value(recorded.method());
+        json.name("path").value(recorded.path());
+        json.name("target").value(recorded.target());
+        json.name("status").value(recorded.statusCode());
+        json.name("message").value(recorded.responseMessage());
+        json.name("duration").value(recorded.duration());
+        json.name("cache").value(recorded.cacheStatus());
+    }
+
+    private static Predicate<RecordedExchange> filter(Map<String, String> query) {
+        String method = query.get("method");
+        String status = query.get("status");
+        String path = query.get("path");
+        String target = query.get("target");
+        return recorded -> (method == null || method.equalsIgnoreCase(recorded.method()))
+                && (status == null || matchesStatus(status, recorded.statusCode()))
+                && (path == null || (recorded.path() != null && recorded.path().contains(path)))
+                && (target == null || (recorded.target() != null && recorded.target().contains(target)));
+    }
+
+    private static boolean matchesStatus(String status, int statusCode) {
+        if (status.length() == 3 && status.substring(1).equalsIgnoreCase("xx")) {
+            return status.charAt(0) - '0' == statusCode / 100;
+        }
+        return status.equals(String.valueOf(statusCode));
+    }
+
+    private static long parseId(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void sendBody(HttpExchange exchange, Map<String, String> headers, byte[] body) throws IOException {
+        String contentType = headers.getOrDefault("Content-Type", "application/octet-stream");
+        String contentEncoding = headers.get("Content-Encoding");
+        if (contentEncoding != null) exchange.getResponseHeaders().add("Content-Encoding", contentEncoding);
+        send(exchange, 200, contentType, body);
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+        if (body.length == 0) return;
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+}
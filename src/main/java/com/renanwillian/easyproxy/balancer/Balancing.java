@@ -0,0 +1,22 @@
+package com.renanwillian.easyproxy.balancer;
+
+import java.util.List;
+
+/**
+ * The balancing strategies selectable from the command line.
+ */
+public enum Balancing {
+    ROUND_ROBIN,
+    LEAST_IN_FLIGHT,
+    POWER_OF_TWO,
+    CONSISTENT_HASH;
+
+    public BalancingStrategy create(List<Upstream> upstreams) {
+        return switch (this) {
+            case ROUND_ROBIN -> new RoundRobinStrategy();
+            case LEAST_IN_FLIGHT -> new LeastInFlightStrategy();
+            case POWER_OF_TWO -> new PowerOfTwoChoicesStrategy();
+            case CONSISTENT_HASH -> new ConsistentHashStrategy(upstreams);
+        };
+    }
+}
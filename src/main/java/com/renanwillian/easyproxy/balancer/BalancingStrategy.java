@@ -0,0 +1,16 @@
+package com.renanwillian.easyproxy.balancer;
+
+import java.util.List;
+
+/**
+ * Picks the target for a request among the configured upstreams.
+ */
+public interface BalancingStrategy {
+
+    /**
+     * @param upstreams all upstreams of the pool, some of them may be unavailable.
+     * @param hashKey   value used by affinity based strategies, may be null.
+     * @return an available upstream, or null if none is available.
+     */
+    Upstream select(List<Upstream> upstreams, String hashKey);
+}
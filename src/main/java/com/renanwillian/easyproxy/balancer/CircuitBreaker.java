@@ -0,0 +1,236 @@
+package com.renanwillian.easyproxy.balancer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending requests to a target that keeps failing or answering slowly, so they fail right away instead of each
+ * holding a thread for the whole timeout. The outcome of the last {@code windowSize} calls is kept, and once at least
+ * {@code minimumCalls} are known the circuit opens when the share of failed or of slow calls reaches its threshold.
+ * An open circuit rejects every call for {@code openNanos}, then lets {@code halfOpenCalls} probes through: if they all
+ * succeed in time the circuit closes again, the first one that does not opens it again.
+ * <p>
+ * Every change of state starts a new generation, and each call carries the generation it was let through in. Outcomes
+ * of calls from an earlier generation are ignored, so a slow call let through while the circuit was closed cannot be
+ * taken for a probe once it is half-open.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 5;
+
+    /**
+     * Returned by {@link #tryAcquire} when the call must not reach the target.
+     */
+    public static final long REJECTED = -1;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final LongSupplier clock;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private Consumer<State> listener = state -> {};
+
+    // The window, a ring of the last outcomes, and the half-open bookkeeping are guarded by the monitor. The phase
+    // is also read without it, so a closed circuit costs one volatile read per call.
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slow;
+    private volatile Phase phase = new Phase(State.CLOSED, 0);
+    private long openUntil;
+    private int probesLeft;
+    private int probesSucceeded;
+
+    /**
+     * @param failureRateThreshold  share of failed calls, between 0 and 1, that opens the circuit.
+     * @param slowCallRateThreshold share of calls slower than {@code slowCallNanos} that opens the circuit.
+     * @param openNanos             how long an open circuit rejects calls before probing the target.
+     */
+    public CircuitBreaker(double failureRateThreshold, double slowCallRateThreshold, long slowCallNanos,
+                          long openNanos) {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, failureRateThreshold, slowCallRateThreshold, slowCallNanos,
+             openNanos, DEFAULT_HALF_OPEN_CALLS, System::nanoTime);
+    }
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, double slowCallRateThreshold,
+                   long slowCallNanos, long openNanos, int halfOpenCalls, LongSupplier clock) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1
+                || slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+            throw new IllegalArgumentException("The circuit breaker rates must be between 0 and 100%");
+        }
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallNanos;
+        this.openNanos = openNanos;
+        this.halfOpenCalls = halfOpenCalls;
+        this.clock = clock;
+    }
+
+    /**
+     * The state of the circuit and its generation, changed together.
+     */
+    private record Phase(State state, long generation) {}
+
+    /**
+     * @param listener told about every change of state, from the thread that caused it.
+     */
+    void setListener(Consumer<State> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return whether a call would currently be let through, without taking a probe.
+     */
+    public boolean isCallPermitted() {
+        if (phase.state() == State.CLOSED) return true;
+        synchronized (this) {
+            State state = phase.state();
+            if (state == State.OPEN) return clock.getAsLong() - openUntil >= 0;
+            return state == State.CLOSED || probesLeft > 0;
+        }
+    }
+
+    /**
+     * @return the permit of the call, to be passed to {@link #onResult} or {@link #onCancelled}, or {@link #REJECTED}
+     * if the call must not go to the target.
+     */
+    public long tryAcquire() {
+        Phase current = phase;
+        if (current.state() == State.CLOSED) return current.generation();
+        State changed = null;
+        long permit = REJECTED;
+        synchronized (this) {
+            if (phase.state() == State.OPEN && clock.getAsLong() - openUntil >= 0) {
+                changed = transition(State.HALF_OPEN);
+                probesLeft = halfOpenCalls;
+                probesSucceeded = 0;
+            }
+            State state = phase.state();
+            if (state == State.CLOSED || (state == State.HALF_OPEN && probesLeft > 0)) {
+                if (state == State.HALF_OPEN) probesLeft--;
+                permit = phase.generation();
+            }
+        }
+        announce(changed);
+        if (permit == REJECTED) rejected.increment();
+        return permit;
+    }
+
+    /**
+     * Records the outcome of a call let through by {@link #tryAcquire}, unless the circuit changed state since.
+     *
+     * @param permit       returned by {@link #tryAcquire} for the call.
+     * @param latencyNanos the time until the target answered, or gave up.
+     */
+    public void onResult(long permit, boolean failed, long latencyNanos) {
+        boolean wasSlow = latencyNanos > slowCallNanos;
+        State changed = null;
+        synchronized (this) {
+            if (permit != phase.generation()) return;
+            switch (phase.state()) {
+                case CLOSED -> {
+                    record(failed, wasSlow);
+                    if (calls >= minimumCalls && (failures >= failureRateThreshold * calls
+                            || slow >= slowCallRateThreshold * calls)) {
+                        changed = open();
+                    }
+                }
+                case HALF_OPEN -> {
+                    if (failed || wasSlow) {
+                        changed = open();
+                    } else if (++probesSucceeded >= halfOpenCalls) {
+                        changed = transition(State.CLOSED);
+                    }
+                }
+                // An open circuit lets no call through, so no permit is of its generation.
+                case OPEN -> {}
+            }
+        }
+        announce(changed);
+    }
+
+    /**
+     * Gives back a call let through by {@link #tryAcquire} that ended without an outcome for the target.
+     *
+     * @param permit returned by {@link #tryAcquire} for the call.
+     */
+    public synchronized void onCancelled(long permit) {
+        if (permit == phase.generation() && phase.state() == State.HALF_OPEN) probesLeft++;
+    }
+
+    private void record(boolean failed, boolean wasSlow) {
+        if (calls == failedCalls.length) {
+            if (failedCalls[next]) failures--;
+            if (slowCalls[next]) slow--;
+        } else {
+            calls++;
+        }
+        failedCalls[next] = failed;
+        slowCalls[next] = wasSlow;
+        if (failed) failures++;
+        if (wasSlow) slow++;
+        next = (next + 1) % failedCalls.length;
+    }
+
+    private State open() {
+        openUntil = clock.getAsLong() + openNanos;
+        opened.increment();
+        return transition(State.OPEN);
+    }
+
+    private State transition(State target) {
+        phase = new Phase(target, phase.generation() + 1);
+        if (target != State.OPEN) {
+            // A closed or half-open circuit starts from a clean window, the failures that opened it are over.
+            calls = 0;
+            failures = 0;
+            slow = 0;
+            next = 0;
+        }
+        return target;
+    }
+
+    private void announce(State changed) {
+        if (changed != null) listener.accept(changed);
+    }
+
+    public State getState() {
+        return phase.state();
+    }
+
+    /**
+     * @return calls rejected because the circuit was open.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return times the circuit opened.
+     */
+    public long getOpenedCount() {
+        return opened.sum();
+    }
+}
@@ -0,0 +1,15 @@
+package com.renanwillian.easyproxy.balancer;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to a target whose circuit is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,48 @@
+package com.renanwillian.easyproxy.balancer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Maps the hash key onto a ring of virtual nodes so the same key keeps reaching the same upstream, and only the
+ * keys of a removed upstream move when it becomes unavailable.
+ */
+public class ConsistentHashStrategy implements BalancingStrategy {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final NavigableMap<Long, Upstream> ring = new TreeMap<>();
+    private final RoundRobinStrategy fallback = new RoundRobinStrategy();
+
+    public ConsistentHashStrategy(List<Upstream> upstreams) {
+        for (Upstream upstream : upstreams) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(upstream.getUrl() + "#" + i), upstream);
+            }
+        }
+    }
+
+    @Override
+    public Upstream select(List<Upstream> upstreams, String hashKey) {
+        if (hashKey == null) return fallback.select(upstreams, null);
+
+        long hash = hash(hashKey);
+        for (Map.Entry<Long, Upstream> entry : ring.tailMap(hash, true).entrySet()) {
+            if (entry.getValue().isAvailable()) return entry.getValue();
+        }
+        for (Map.Entry<Long, Upstream> entry : ring.headMap(hash, false).entrySet()) {
+            if (entry.getValue().isAvailable()) return entry.getValue();
+        }
+        return null;
+    }
+
+    private static long hash(String value) {
+        CRC32 crc = new CRC32();
+        crc.update(value.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,79 @@
+package com.renanwillian.easyproxy.balancer;
+
+import com.renanwillian.easyproxy.utils.TerminalUtils;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Periodically sends a GET to {@code healthPath} on every upstream and takes the ones that do not answer with a
+ * 2xx or 3xx out of rotation until they do.
+ */
+public class HealthChecker implements AutoCloseable {
+
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(2);
+
+    private final Supplier<List<Upstream>> upstreams;
+    private final String healthPath;
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param upstreams the current targets, which may change when routes are reloaded.
+     */
+    public HealthChecker(Supplier<List<Upstream>> upstreams, String healthPath, int intervalSeconds) {
+        this.upstreams = upstreams;
+        this.healthPath = healthPath.startsWith("/") ? healthPath : "/" + healthPath;
+        this.httpClient = HttpClient.newBuilder()
+                                    .version(HttpClient.Version.HTTP_1_1)
+                                    .connectTimeout(PROBE_TIMEOUT)
+                                    .build();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "easy-proxy-health-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::probeAll, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void probeAll() {
+        for (Upstream upstream : upstreams.get()) {
+            boolean healthy = probe(upstream);
+            if (healthy != upstream.isHealthy()) {
+                upstream.setHealthy(healthy);
+                String state = healthy ? "healthy" : "unhealthy";
+                TerminalUtils.printlnError("Upstream " + upstream.getUrl() + " is " + state);
+            }
+        }
+    }
+
+    private boolean probe(Upstream upstream) {
+        HttpRequest request = HttpRequest.newBuilder()
+                                         .uri(URI.create(upstream.getUrl() + healthPath))
+                                         .timeout(PROBE_TIMEOUT)
+                                         .GET()
+                                         .build();
+        try {
+            int statusCode = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            return statusCode >= 200 && statusCode < 400;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return upstream.isHealthy();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,17 @@
+package com.renanwillian.easyproxy.balancer;
+
+import java.util.List;
+
+public class LeastInFlightStrategy implements BalancingStrategy {
+
+    @Override
+    public Upstream select(List<Upstream> upstreams, String hashKey) {
+        Upstream selected = null;
+        for (Upstream upstream : upstreams) {
+            if (upstream.isAvailable() && (selected == null || upstream.getInFlight() < selected.getInFlight())) {
+                selected = upstream;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,29 @@
+package com.renanwillian.easyproxy.balancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples two random upstreams and keeps the one with fewer requests in flight, which spreads load almost as well
+ * as least-in-flight without scanning every target.
+ */
+public class PowerOfTwoChoicesStrategy implements BalancingStrategy {
+
+    private final LeastInFlightStrategy fallback = new LeastInFlightStrategy();
+
+    @Override
+    public Upstream select(List<Upstream> upstreams, String hashKey) {
+        int size = upstreams.size();
+        if (size == 1) return upstreams.get(0).isAvailable() ? upstreams.get(0) : null;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = (first + 1 + random.nextInt(size - 1)) % size;
+        Upstream a = upstreams.get(first);
+        Upstream b = upstreams.get(second);
+        if (a.isAvailable() && b.isAvailable()) return a.getInFlight() <= b.getInFlight() ? a : b;
+        if (a.isAvailable()) return a;
+        if (b.isAvailable()) return b;
+        return fallback.select(upstreams, hashKey);
+    }
+}
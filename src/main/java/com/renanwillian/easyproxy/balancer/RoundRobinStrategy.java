@@ -0,0 +1,20 @@
+package com.renanwillian.easyproxy.balancer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RoundRobinStrategy implements BalancingStrategy {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public Upstream select(List<Upstream> upstreams, String hashKey) {
+        int size = upstreams.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Upstream upstream = upstreams.get((start + i) % size);
+            if (upstream.isAvailable()) return upstream;
+        }
+        return null;
+    }
+}
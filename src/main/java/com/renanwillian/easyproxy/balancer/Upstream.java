@@ -0,0 +1,128 @@
+package com.renanwillian.easyproxy.balancer;
+
+import com.renanwillian.easyproxy.utils.TerminalUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One upstream target with its live load and health. Passive health comes from the outcome of proxied requests,
+ * active health from the background probe, and the optional circuit breaker from the failure and slow-call rates.
+ */
+public class Upstream {
+
+    static final int FAILURES_BEFORE_EJECTION = 3;
+    static final long EJECTION_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final String url;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder ejections = new LongAdder();
+    private volatile long ejectedUntil = 0;
+    private volatile boolean healthy = true;
+    private final CircuitBreaker circuitBreaker;
+
+    public Upstream(String url) {
+        this(url, null);
+    }
+
+    /**
+     * @param circuitBreaker guards the target, or null without circuit breaking.
+     */
+    public Upstream(String url, CircuitBreaker circuitBreaker) {
+        this.url = url;
+        this.circuitBreaker = circuitBreaker;
+        if (circuitBreaker != null) {
+            circuitBreaker.setListener(state -> TerminalUtils.printlnError("Upstream " + url + " circuit is " + state));
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isAvailable() {
+        return healthy && (ejectedUntil == 0 || System.nanoTime() - ejectedUntil >= 0)
+                && (circuitBreaker == null || circuitBreaker.isCallPermitted());
+    }
+
+    /**
+     * @return {@link CircuitBreaker#REJECTED} when the circuit is open and the call must not reach the target.
+     * Otherwise the permit of the call, which has to be passed to {@link #onCallEnd} or {@link #onCallCancelled}.
+     */
+    public long tryAcquireCall() {
+        return circuitBreaker == null ? 0 : circuitBreaker.tryAcquire();
+    }
+
+    /**
+     * @param permit       returned by {@link #tryAcquireCall} for the call.
+     * @param failed       whether the target could not be reached, timed out or answered as overloaded.
+     * @param latencyNanos the time until the target answered or the call failed.
+     */
+    public void onCallEnd(long permit, boolean failed, long latencyNanos) {
+        if (circuitBreaker != null) circuitBreaker.onResult(permit, failed, latencyNanos);
+    }
+
+    public void onCallCancelled(long permit) {
+        if (circuitBreaker != null) circuitBreaker.onCancelled(permit);
+    }
+
+    /**
+     * @return the circuit breaker of the target, or null without circuit breaking.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void onRequestStart() {
+        requests.increment();
+        inFlight.incrementAndGet();
+    }
+
+    public void onRequestEnd() {
+        inFlight.decrementAndGet();
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Records a connection failure or timeout. Too many in a row take the target out of rotation for a while.
+     */
+    public void onFailure() {
+        failures.increment();
+        if (consecutiveFailures.incrementAndGet() >= FAILURES_BEFORE_EJECTION) {
+            consecutiveFailures.set(0);
+            ejectedUntil = System.nanoTime() + EJECTION_NANOS;
+            ejections.increment();
+        }
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getEjections() {
+        return ejections.sum();
+    }
+}
@@ -0,0 +1,112 @@
+package com.renanwillian.easyproxy.balancer;
+
+import com.renanwillian.easyproxy.utils.UrlUtils;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The set of upstream targets behind the proxy and the strategy used to spread requests across them.
+ */
+public class UpstreamPool {
+
+    private final List<Upstream> upstreams;
+    private final BalancingStrategy strategy;
+    private final String hashHeader;
+
+    public UpstreamPool(List<String> targetUrls, Balancing balancing, String hashHeader) {
+        this(targetUrls, balancing, hashHeader, null);
+    }
+
+    /**
+     * @param circuitBreakers creates the circuit breaker of each target, or null without circuit breaking.
+     */
+    public UpstreamPool(List<String> targetUrls, Balancing balancing, String hashHeader,
+                        Supplier<CircuitBreaker> circuitBreakers) {
+        this.upstreams = targetUrls.stream()
+                                   .map(UrlUtils::sanitizeUrl)
+                                   .map(url -> new Upstream(url, circuitBreakers != null ? circuitBreakers.get() : null))
+                                   .toList();
+        this.strategy = balancing.create(upstreams);
+        this.hashHeader = hashHeader;
+    }
+
+    private UpstreamPool(List<Upstream> upstreams, BalancingStrategy strategy, String hashHeader) {
+        this.upstreams = upstreams;
+        this.strategy = strategy;
+        this.hashHeader = hashHeader;
+    }
+
+    /**
+     * Balances across existing targets, which may also belong to other pools.
+     */
+    public static UpstreamPool of(List<Upstream> upstreams, Balancing balancing, String hashHeader) {
+        return new UpstreamPool(List.copyOf(upstreams), balancing.create(upstreams), hashHeader);
+    }
+
+    public static UpstreamPool single(String targetUrl) {
+        return new UpstreamPool(List.of(targetUrl), Balancing.ROUND_ROBIN, null);
+    }
+
+    /**
+     * Picks the upstream for the exchange. When every target is ejected, unhealthy or has its circuit open the request
+     * still goes to one of them, since failing all traffic is worse than trying a target that may have recovered. An
+     * open circuit then fails it right away.
+     */
+    public Upstream select(HttpExchange exchange) {
+        return select(getHashKey(exchange));
+    }
+
+    /**
+     * @param hashKey the value of the hash header, or the client address, used by the consistent_hash strategy.
+     */
+    public Upstream select(String hashKey) {
+        Upstream selected = strategy.select(upstreams, hashKey);
+        if (selected != null) return selected;
+        Upstream leastLoaded = upstreams.get(0);
+        for (Upstream upstream : upstreams) {
+            if (upstream.getInFlight() < leastLoaded.getInFlight()) leastLoaded = upstream;
+        }
+        return leastLoaded;
+    }
+
+    /**
+     * Picks a target other than {@code excluded} for a second attempt of the exchange, such as a hedge.
+     *
+     * @return the target, or null when no other target is available.
+     */
+    public Upstream selectOther(HttpExchange exchange, Upstream excluded) {
+        return selectOther(getHashKey(exchange), excluded);
+    }
+
+    public Upstream selectOther(String hashKey, Upstream excluded) {
+        Upstream selected = select(hashKey);
+        if (selected != excluded && selected.isAvailable()) return selected;
+        // The strategy keeps choosing the same target, as consistent_hash does for a key, so take the idlest other one.
+        Upstream other = null;
+        for (Upstream upstream : upstreams) {
+            if (upstream != excluded && upstream.isAvailable()
+                    && (other == null || upstream.getInFlight() < other.getInFlight())) {
+                other = upstream;
+            }
+        }
+        return other;
+    }
+
+    private String getHashKey(HttpExchange exchange) {
+        if (hashHeader != null) {
+            String value = exchange.getRequestHeaders().getFirst(hashHeader);
+            if (value != null) return value;
+        }
+        return exchange.getRemoteAddress() != null ? exchange.getRemoteAddress().getAddress().getHostAddress() : null;
+    }
+
+    public String getHashHeader() {
+        return hashHeader;
+    }
+
+    public List<Upstream> getUpstreams() {
+        return upstreams;
+    }
+}
@@ -0,0 +1,50 @@
+package com.renanwillian.easyproxy.cache;
+
+import java.util.Locale;
+
+/**
+ * The Cache-Control directives the cache acts on.
+ *
+ * @param maxAge       max-age in seconds, or -1 when absent.
+ * @param sharedMaxAge s-maxage in seconds, or -1 when absent.
+ * @param noStore      the response must not be stored.
+ * @param noCache      a stored response must be revalidated before every use.
+ * @param isPrivate    the response is meant for a single user and must not be shared.
+ */
+public record CacheControl(long maxAge, long sharedMaxAge, boolean noStore, boolean noCache, boolean isPrivate) {
+
+    public static final CacheControl EMPTY = new CacheControl(-1, -1, false, false, false);
+
+    public static CacheControl parse(String header) {
+        if (header == null || header.isBlank()) return EMPTY;
+
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        boolean noStore = false;
+        boolean noCache = false;
+        boolean isPrivate = false;
+        for (String directive : header.split(",")) {
+            String[] parts = directive.trim().split("=", 2);
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            String value = parts.length > 1 ? parts[1].trim().replace("\"", "") : null;
+            switch (name) {
+                case "max-age" -> maxAge = parseSeconds(value);
+                case "s-maxage" -> sharedMaxAge = parseSeconds(value);
+                case "no-store" -> noStore = true;
+                case "no-cache" -> noCache = true;
+                case "private" -> isPrivate = true;
+                default -> { /* directive not relevant for a shared proxy cache */ }
+            }
+        }
+        return new CacheControl(maxAge, sharedMaxAge, noStore, noCache, isPrivate);
+    }
+
+    private static long parseSeconds(String value) {
+        if (value == null) return -1;
+        try {
+            return Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.renanwillian.easyproxy.cache;
+
+/**
+ * Snapshot of the cache counters.
+ *
+ * @param hits        requests answered from a fresh stored response.
+ * @param misses      cacheable requests that had to go upstream.
+ * @param revalidated stale responses confirmed by the upstream with a 304.
+ * @param stores      responses written to the cache.
+ * @param evictions   responses removed to stay under the size limit.
+ * @param entries     responses currently stored.
+ * @param bytes       body bytes currently stored, compressed representations included.
+ */
+public record CacheStats(long hits, long misses, long revalidated, long stores, long evictions, int entries,
+                         long bytes) {}
@@ -0,0 +1,124 @@
+package com.renanwillian.easyproxy.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A stored upstream response. The body lives either in memory or in a file of the cache directory, compressed
+ * representations produced by the proxy are kept in memory next to it.
+ */
+public class CachedResponse {
+
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private final Map<String, String> varyValues;
+    private final byte[] body;
+    private final Path bodyFile;
+    private final long bodySize;
+    private final long storedAt;
+    private final long freshUntil;
+    private final Map<String, byte[]> encodedBodies = new ConcurrentHashMap<>();
+
+    CachedResponse(int statusCode, Map<String, String> headers, Map<String, String> varyValues, byte[] body,
+                   Path bodyFile, long bodySize, long storedAt, long freshUntil) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.varyValues = varyValues;
+        this.body = body;
+        this.bodyFile = bodyFile;
+        this.bodySize = bodySize;
+        this.storedAt = storedAt;
+        this.freshUntil = freshUntil;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public long getBodySize() {
+        return bodySize;
+    }
+
+    /**
+     * @return the body compressed with the content encoding, or null when it was not memoized yet.
+     */
+    public byte[] getEncodedBody(String contentEncoding) {
+        return encodedBodies.get(contentEncoding);
+    }
+
+    public InputStream openBody() throws IOException {
+        return body != null ? new ByteArrayInputStream(body) : Files.newInputStream(bodyFile);
+    }
+
+    public boolean isFresh(long now) {
+        return now < freshUntil;
+    }
+
+    public long ageSeconds(long now) {
+        return Math.max(0, (now - storedAt) / 1000);
+    }
+
+    public String getETag() {
+        return headers.get("ETag");
+    }
+
+    public String getLastModified() {
+        return headers.get("Last-Modified");
+    }
+
+    public boolean hasValidators() {
+        return getETag() != null || getLastModified() != null;
+    }
+
+    boolean matchesVary(Map<String, String> requestHeaders) {
+        for (Map.Entry<String, String> vary : varyValues.entrySet()) {
+            String value = requestHeaders.getOrDefault(vary.getKey(), "");
+            if (!value.equals(vary.getValue())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true when the encoding was not memoized before.
+     */
+    boolean putEncodedBody(String contentEncoding, byte[] encodedBody) {
+        return encodedBodies.putIfAbsent(contentEncoding, encodedBody) == null;
+    }
+
+    /**
+     * Carries the compressed representations over to a refreshed copy of the same body.
+     */
+    void copyEncodedBodies(CachedResponse source) {
+        encodedBodies.putAll(source.encodedBodies);
+    }
+
+    /**
+     * @return the bytes the response takes in the cache, body plus compressed representations.
+     */
+    long getStoredSize() {
+        long size = bodySize;
+        for (byte[] encodedBody : encodedBodies.values()) size += encodedBody.length;
+        return size;
+    }
+
+    Path getBodyFile() {
+        return bodyFile;
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    Map<String, String> getVaryValues() {
+        return varyValues;
+    }
+}
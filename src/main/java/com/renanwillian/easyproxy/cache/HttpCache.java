@@ -0,0 +1,288 @@
+package com.renanwillian.easyproxy.cache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Size-bounded LRU cache of upstream responses, keyed on method and URI plus the request headers named by the
+ * response Vary header. Bodies are kept in memory, or in {@code directory} when one is given. Every stored body gets a
+ * file of its own, so a response being served keeps reading its own bytes while a newer one replaces it. The entries
+ * are not kept across restarts, and the body files left by a previous run are deleted on startup.
+ * <p>
+ * Only one variant is kept per URI: a response with different Vary values replaces the previous one.
+ */
+public class HttpCache {
+
+    private static final Set<Integer> CACHEABLE_STATUS_CODES = Set.of(200, 203, 300, 301, 404, 410);
+    private static final String BODY_FILE_SUFFIX = ".body";
+    // Body files of this and earlier versions, which named them after the hash of the key alone.
+    private static final Pattern BODY_FILE = Pattern.compile("[0-9a-f]{16}-\\d+\\.body|[0-9a-f]{64}|entry\\d+\\.tmp");
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Path directory;
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public HttpCache(long maxBytes, Path directory) throws IOException {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(Math.max(1, maxBytes / 8), Integer.MAX_VALUE - 8);
+        this.directory = directory;
+        if (directory != null) {
+            Files.createDirectories(directory);
+            deleteBodyFiles(directory);
+        }
+    }
+
+    public static String key(String method, String uri) {
+        return method.toUpperCase(Locale.ROOT) + " " + uri;
+    }
+
+    /**
+     * @return the largest body the cache accepts, bigger responses are only streamed.
+     */
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * Tells whether a request may be answered from, or stored in, the cache.
+     */
+    public static boolean isCacheableRequest(String method, Map<String, String> requestHeaders) {
+        if (!method.equalsIgnoreCase("GET")) return false;
+        if (requestHeaders.containsKey("Authorization")) return false;
+        return !CacheControl.parse(requestHeaders.get("Cache-Control")).noStore();
+    }
+
+    /**
+     * Tells whether the client asked to skip stored responses and go to the upstream.
+     */
+    public static boolean requiresRevalidation(Map<String, String> requestHeaders) {
+        CacheControl cacheControl = CacheControl.parse(requestHeaders.get("Cache-Control"));
+        return cacheControl.noCache() || cacheControl.maxAge() == 0
+                || "no-cache".equalsIgnoreCase(requestHeaders.get("Pragma"));
+    }
+
+    public static boolean isStorable(int statusCode, Map<String, String> responseHeaders) {
+        if (!CACHEABLE_STATUS_CODES.contains(statusCode)) return false;
+        CacheControl cacheControl = CacheControl.parse(responseHeaders.get("Cache-Control"));
+        if (cacheControl.noStore() || cacheControl.isPrivate()) return false;
+        if ("*".equals(responseHeaders.getOrDefault("Vary", "").trim())) return false;
+        return freshnessMillis(responseHeaders) > 0 || cacheControl.noCache()
+                || responseHeaders.containsKey("ETag") || responseHeaders.containsKey("Last-Modified");
+    }
+
+    public synchronized CachedResponse lookup(String key, Map<String, String> requestHeaders) {
+        CachedResponse cached = entries.get(key);
+        return cached != null && cached.matchesVary(requestHeaders) ? cached : null;
+    }
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void store(String key, int statusCode, Map<String, String> responseHeaders,
+                      Map<String, String> requestHeaders, byte[] body) {
+        if (body.length > maxEntryBytes) return;
+
+        long now = System.currentTimeMillis();
+        Map<String, String> varyValues = getVaryValues(responseHeaders, requestHeaders);
+        Path bodyFile = null;
+        if (directory != null) {
+            bodyFile = writeBodyFile(key, body);
+            if (bodyFile == null) return;
+        }
+        CachedResponse cached = new CachedResponse(statusCode, copyOf(responseHeaders), varyValues,
+                                                   bodyFile == null ? body : null, bodyFile, body.length, now,
+                                                   now + freshnessMillis(responseHeaders));
+        synchronized (this) {
+            CachedResponse previous = entries.put(key, cached);
+            if (previous != null) {
+                currentBytes -= previous.getStoredSize();
+                deleteBodyFile(previous);
+            }
+            currentBytes += cached.getStoredSize();
+            evictIfNeeded();
+        }
+        stores.increment();
+    }
+
+    /**
+     * Refreshes a stored response after the upstream answered a conditional request with 304.
+     *
+     * @return the refreshed response to serve.
+     */
+    public CachedResponse revalidate(String key, CachedResponse cached, Map<String, String> notModifiedHeaders) {
+        long now = System.currentTimeMillis();
+        Map<String, String> headers = copyOf(cached.getHeaders());
+        notModifiedHeaders.forEach((name, value) -> {
+            if (!name.equalsIgnoreCase("Content-Length")) headers.put(name, value);
+        });
+        CachedResponse refreshed = new CachedResponse(cached.getStatusCode(), headers, cached.getVaryValues(),
+                                                      cached.getBody(), cached.getBodyFile(), cached.getBodySize(),
+                                                      now, now + freshnessMillis(headers));
+        synchronized (this) {
+            refreshed.copyEncodedBodies(cached);
+            if (entries.get(key) == cached) entries.put(key, refreshed);
+        }
+        revalidated.increment();
+        return refreshed;
+    }
+
+    /**
+     * Memoizes a compressed representation of a stored body so it is not compressed again, its size counts against
+     * the cache limit.
+     */
+    public void storeEncoded(String key, CachedResponse cached, String contentEncoding, byte[] encodedBody) {
+        synchronized (this) {
+            if (entries.get(key) != cached || !cached.putEncodedBody(contentEncoding, encodedBody)) return;
+            currentBytes += encodedBody.length;
+            evictIfNeeded();
+        }
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits.sum(), misses.sum(), revalidated.sum(), stores.sum(), evictions.sum(),
+                              entries.size(), currentBytes);
+    }
+
+    private void evictIfNeeded() {
+        Iterator<CachedResponse> iterator = entries.values().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            CachedResponse eldest = iterator.next();
+            iterator.remove();
+            currentBytes -= eldest.getStoredSize();
+            evictions.increment();
+            deleteBodyFile(eldest);
+        }
+    }
+
+    private static Map<String, String> getVaryValues(Map<String, String> responseHeaders,
+                                                     Map<String, String> requestHeaders) {
+        String vary = responseHeaders.get("Vary");
+        if (vary == null || vary.isBlank()) return Map.of();
+        Map<String, String> values = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String name : vary.split(",")) {
+            String headerName = name.trim();
+            if (!headerName.isEmpty()) values.put(headerName, requestHeaders.getOrDefault(headerName, ""));
+        }
+        return values;
+    }
+
+    /**
+     * Freshness lifetime per RFC 9111: s-maxage, then max-age, then Expires minus Date, less the current Age.
+     */
+    static long freshnessMillis(Map<String, String> responseHeaders) {
+        CacheControl cacheControl = CacheControl.parse(responseHeaders.get("Cache-Control"));
+        if (cacheControl.noCache()) return 0;
+
+        long lifetimeSeconds = cacheControl.sharedMaxAge() >= 0 ? cacheControl.sharedMaxAge() : cacheControl.maxAge();
+        if (lifetimeSeconds < 0) lifetimeSeconds = expiresLifetimeSeconds(responseHeaders);
+        if (lifetimeSeconds <= 0) return 0;
+
+        long age = parseLong(responseHeaders.get("Age"));
+        return Math.max(0, lifetimeSeconds - age) * 1000;
+    }
+
+    private static long expiresLifetimeSeconds(Map<String, String> responseHeaders) {
+        String expires = responseHeaders.get("Expires");
+        if (expires == null) return -1;
+        try {
+            long expiresAt = ZonedDateTime.parse(expires, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            String date = responseHeaders.get("Date");
+            long dateAt = date != null
+                    ? ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond()
+                    : System.currentTimeMillis() / 1000;
+            return expiresAt - dateAt;
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return 0;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Map<String, String> copyOf(Map<String, String> headers) {
+        Map<String, String> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        copy.putAll(headers);
+        return copy;
+    }
+
+    /**
+     * Writes the body to a new file, named after the key with a unique suffix. The file is only referenced once it is
+     * complete, and replacing the entry later writes another file instead of overwriting this one.
+     *
+     * @return the written file, or null when the body could not be persisted and should not be cached.
+     */
+    private Path writeBodyFile(String key, byte[] body) {
+        Path file = null;
+        try {
+            file = Files.createTempFile(directory, sha256(key).substring(0, 16) + "-", BODY_FILE_SUFFIX);
+            Files.write(file, body);
+            return file;
+        } catch (IOException e) {
+            if (file != null) deleteQuietly(file);
+            return null;
+        }
+    }
+
+    private static void deleteBodyFiles(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (BODY_FILE.matcher(file.getFileName().toString()).matches()) deleteQuietly(file);
+            }
+        }
+    }
+
+    private static void deleteBodyFile(CachedResponse cached) {
+        if (cached.getBodyFile() != null) deleteQuietly(cached.getBodyFile());
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {}
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.renanwillian.easyproxy.config;
+
+import com.renanwillian.easyproxy.utils.TerminalUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Loads the configuration again when its file changes and hands it to the running server. Like the certificate and
+ * routes files, the file is polled for its modification time instead of watched with a {@code WatchService}, which
+ * misses files replaced through a symlink, as mounted Kubernetes config maps are, and polls anyway on some platforms.
+ * A file that fails to load or apply is reported and the running configuration is kept.
+ */
+public final class ConfigReloader implements AutoCloseable {
+
+    private final Path path;
+    private final Callable<ProxyConfig> loader;
+    private final Consumer<ProxyConfig> consumer;
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder reloadFailures = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+    private FileTime modified;
+
+    /**
+     * @param loader   reads the whole configuration, the file and the command line it complements.
+     * @param consumer applies a configuration, throwing an {@link IllegalArgumentException} when it is invalid.
+     */
+    public ConfigReloader(Path path, int intervalSeconds, Callable<ProxyConfig> loader, Consumer<ProxyConfig> consumer)
+            throws IOException {
+        this.path = path;
+        this.loader = loader;
+        this.consumer = consumer;
+        this.modified = Files.getLastModifiedTime(path);
+        if (intervalSeconds > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "easy-proxy-config-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::reloadIfChanged, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Loads and applies the configuration when its file was modified since the last load.
+     *
+     * @return true if the new configuration is now used.
+     */
+    public synchronized boolean reloadIfChanged() {
+        try {
+            FileTime current = Files.getLastModifiedTime(path);
+            if (current.equals(modified)) return false;
+            // Remembered before loading, so a file caught half written is retried once it is written again.
+            modified = current;
+            consumer.accept(loader.call());
+            reloads.increment();
+            TerminalUtils.printlnError("Reloaded the configuration from " + path);
+            return true;
+        } catch (Exception e) {
+            reloadFailures.increment();
+            TerminalUtils.printlnError("Error reloading the configuration: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    public long getReloadFailedCount() {
+        return reloadFailures.sum();
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+}
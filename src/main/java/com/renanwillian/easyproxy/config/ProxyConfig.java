@@ -0,0 +1,744 @@
+package com.renanwillian.easyproxy.config;
+
+import com.renanwillian.easyproxy.balancer.Balancing;
+import com.renanwillian.easyproxy.limit.RateLimitKey;
+import com.renanwillian.easyproxy.proxy.Engine;
+import com.renanwillian.easyproxy.proxy.ExecutorMode;
+import com.renanwillian.easyproxy.proxy.RequestCoalescer;
+import com.renanwillian.easyproxy.proxy.ResponseCompressor;
+import com.renanwillian.easyproxy.stub.StubMiss;
+import com.renanwillian.easyproxy.tls.TlsTerminator;
+import com.renanwillian.easyproxy.upstream.UpstreamProtocol;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public class ProxyConfig {
+
+    private int port = 8000;
+    private Path tlsCert;
+    private Path tlsKey;
+    private String tlsPassword;
+    private List<String> tlsProtocols = TlsTerminator.DEFAULT_PROTOCOLS;
+    private List<String> tlsCiphers = List.of();
+    private int tlsSessionCacheSize = 20480;
+    private int tlsSessionTimeout = 86400;
+    private int tlsReloadInterval = 60;
+    private List<String> targetUrls = List.of();
+    private List<String> routes = List.of();
+    private Path routesPath;
+    private int routesReloadInterval = 5;
+    private int maxConnections = 64;
+    private int idleTimeout = 30;
+    private int connectTimeout = 5000;
+    private int requestTimeout = 10000;
+    private int retries = 0;
+    private int retryBackoff = 50;
+    private double retryBudget = 0.2;
+    private boolean hedge = false;
+    private boolean circuitBreaker = false;
+    private int circuitFailureRate = 50;
+    private int circuitSlowCallRate = 80;
+    private int circuitSlowCall = 5000;
+    private int circuitOpenTime = 30;
+    private ExecutorMode executorMode = ExecutorMode.CACHED;
+    private int threads = 200;
+    private int queueSize = 1000;
+    private double rateLimit = 0;
+    private int rateLimitBurst = 0;
+    private RateLimitKey rateLimitKey = RateLimitKey.IP;
+    private String rateLimitHeader;
+    private int concurrencyLimit = 0;
+    private int cacheSize = 0;
+    private Path cacheDir;
+    private boolean coalesce = false;
+    private int coalesceTimeout = 5000;
+    private int coalesceMaxWaiters = 100;
+    private List<String> coalesceVary = RequestCoalescer.DEFAULT_VARY;
+    private Balancing balancing = Balancing.ROUND_ROBIN;
+    private String hashHeader;
+    private String healthCheckPath;
+    private int healthCheckInterval = 10;
+    private int adminPort = 0;
+    private Engine engine = Engine.HTTPSERVER;
+    private UpstreamProtocol upstreamProtocol = UpstreamProtocol.HTTP1_1;
+    private boolean compression = false;
+    private int compressionLevel = 6;
+    private int compressionMinSize = 1024;
+    private List<String> compressionTypes = ResponseCompressor.DEFAULT_TYPES;
+    private int trafficBuffer = 0;
+    private int trafficSlotSize = 16 * 1024;
+    private Path recordPath;
+    private int recordSegmentSize = 64;
+    private Path stubPath;
+    private StubMiss stubMiss = StubMiss.FORWARD;
+    private boolean showHeaders = false;
+    private boolean showDetails = false;
+    private int drainTimeout = 10;
+    private int logSample = 1;
+    private double logRate = 0;
+    private long logSlow = 0;
+    private boolean logErrors = true;
+    private List<String> logFilters = List.of();
+
+    public static ProxyConfig of(int port, String... targetUrls) {
+        ProxyConfig config = new ProxyConfig();
+        config.setPort(port);
+        config.setTargetUrls(List.of(targetUrls));
+        return config;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * @return the PKCS12 keystore or PEM certificate chain served on the listener, or null to serve plain HTTP.
+     */
+    public Path getTlsCert() {
+        return tlsCert;
+    }
+
+    public void setTlsCert(Path tlsCert) {
+        this.tlsCert = tlsCert;
+    }
+
+    /**
+     * @return the PEM private key when it is not in the certificate file, or null.
+     */
+    public Path getTlsKey() {
+        return tlsKey;
+    }
+
+    public void setTlsKey(Path tlsKey) {
+        this.tlsKey = tlsKey;
+    }
+
+    public String getTlsPassword() {
+        return tlsPassword;
+    }
+
+    public void setTlsPassword(String tlsPassword) {
+        this.tlsPassword = tlsPassword;
+    }
+
+    public List<String> getTlsProtocols() {
+        return tlsProtocols;
+    }
+
+    public void setTlsProtocols(List<String> tlsProtocols) {
+        this.tlsProtocols = tlsProtocols;
+    }
+
+    /**
+     * @return the cipher suites enabled, in order of preference, or an empty list for the JDK defaults.
+     */
+    public List<String> getTlsCiphers() {
+        return tlsCiphers;
+    }
+
+    public void setTlsCiphers(List<String> tlsCiphers) {
+        this.tlsCiphers = tlsCiphers;
+    }
+
+    /**
+     * @return the TLS sessions kept for resumption, 0 for no limit.
+     */
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+    /**
+     * @return the seconds a TLS session can be resumed.
+     */
+    public int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    public void setTlsSessionTimeout(int tlsSessionTimeout) {
+        this.tlsSessionTimeout = tlsSessionTimeout;
+    }
+
+    /**
+     * @return the seconds between checks of the certificate files for changes, 0 to never reload.
+     */
+    public int getTlsReloadInterval() {
+        return tlsReloadInterval;
+    }
+
+    public void setTlsReloadInterval(int tlsReloadInterval) {
+        this.tlsReloadInterval = tlsReloadInterval;
+    }
+
+    public List<String> getTargetUrls() {
+        return targetUrls;
+    }
+
+    public void setTargetUrls(List<String> targetUrls) {
+        this.targetUrls = targetUrls;
+    }
+
+    /**
+     * @return the routes given on the command line, as parsed by
+     * {@link com.renanwillian.easyproxy.route.RouteDefinition#parse}.
+     */
+    public List<String> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(List<String> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * @return the file with one route per line, or null without one.
+     */
+    public Path getRoutesPath() {
+        return routesPath;
+    }
+
+    public void setRoutesPath(Path routesPath) {
+        this.routesPath = routesPath;
+    }
+
+    /**
+     * @return the seconds between checks of the routes file for changes, 0 to never reload.
+     */
+    public int getRoutesReloadInterval() {
+        return routesReloadInterval;
+    }
+
+    public void setRoutesReloadInterval(int routesReloadInterval) {
+        this.routesReloadInterval = routesReloadInterval;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the seconds an idle upstream connection is kept. The upstream HttpClient can only apply it process-wide,
+     * through {@link com.renanwillian.easyproxy.upstream.UpstreamClient#setKeepAliveTimeout} at startup.
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return the milliseconds allowed to open an upstream connection or to wait for a free one.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return the milliseconds allowed for the upstream response headers to arrive.
+     */
+    public int getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public void setRequestTimeout(int requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * @return how many times an idempotent request without a body is sent again after failing, 0 to never retry.
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * @return the milliseconds of the first retry backoff, doubled on every further retry.
+     */
+    public int getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public void setRetryBackoff(int retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * @return the retries and hedges allowed per request sent, e.g. 0.2 for at most one in five.
+     */
+    public double getRetryBudget() {
+        return retryBudget;
+    }
+
+    public void setRetryBudget(double retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    public boolean isHedge() {
+        return hedge;
+    }
+
+    public void setHedge(boolean hedge) {
+        this.hedge = hedge;
+    }
+
+    public boolean isCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(boolean circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return the percentage of failed calls to a target that opens its circuit.
+     */
+    public int getCircuitFailureRate() {
+        return circuitFailureRate;
+    }
+
+    public void setCircuitFailureRate(int circuitFailureRate) {
+        this.circuitFailureRate = circuitFailureRate;
+    }
+
+    /**
+     * @return the percentage of slow calls to a target that opens its circuit.
+     */
+    public int getCircuitSlowCallRate() {
+        return circuitSlowCallRate;
+    }
+
+    public void setCircuitSlowCallRate(int circuitSlowCallRate) {
+        this.circuitSlowCallRate = circuitSlowCallRate;
+    }
+
+    /**
+     * @return the milliseconds after which a call counts as slow.
+     */
+    public int getCircuitSlowCall() {
+        return circuitSlowCall;
+    }
+
+    public void setCircuitSlowCall(int circuitSlowCall) {
+        this.circuitSlowCall = circuitSlowCall;
+    }
+
+    /**
+     * @return the seconds an open circuit rejects calls before probing the target.
+     */
+    public int getCircuitOpenTime() {
+        return circuitOpenTime;
+    }
+
+    public void setCircuitOpenTime(int circuitOpenTime) {
+        this.circuitOpenTime = circuitOpenTime;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    public void setExecutorMode(ExecutorMode executorMode) {
+        this.executorMode = executorMode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @return the response cache size in megabytes, 0 disables the cache.
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public Path getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @return whether identical concurrent GET and HEAD requests share one upstream call.
+     */
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    public void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * @return the milliseconds a coalesced request waits for the shared response before sending its own.
+     */
+    public int getCoalesceTimeout() {
+        return coalesceTimeout;
+    }
+
+    public void setCoalesceTimeout(int coalesceTimeout) {
+        this.coalesceTimeout = coalesceTimeout;
+    }
+
+    public int getCoalesceMaxWaiters() {
+        return coalesceMaxWaiters;
+    }
+
+    public void setCoalesceMaxWaiters(int coalesceMaxWaiters) {
+        this.coalesceMaxWaiters = coalesceMaxWaiters;
+    }
+
+    /**
+     * @return the request headers that must be equal for requests to be coalesced.
+     */
+    public List<String> getCoalesceVary() {
+        return coalesceVary;
+    }
+
+    public void setCoalesceVary(List<String> coalesceVary) {
+        this.coalesceVary = coalesceVary;
+    }
+
+    public Balancing getBalancing() {
+        return balancing;
+    }
+
+    public void setBalancing(Balancing balancing) {
+        this.balancing = balancing;
+    }
+
+    public String getHashHeader() {
+        return hashHeader;
+    }
+
+    public void setHashHeader(String hashHeader) {
+        this.hashHeader = hashHeader;
+    }
+
+    /**
+     * @return the path probed on every target by the health checker, or null when active checks are disabled.
+     */
+    public String getHealthCheckPath() {
+        return healthCheckPath;
+    }
+
+    public void setHealthCheckPath(String healthCheckPath) {
+        this.healthCheckPath = healthCheckPath;
+    }
+
+    public int getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public void setHealthCheckInterval(int healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    /**
+     * @return the requests per second allowed for each rate limit key, 0 disables rate limiting.
+     */
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(double rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * @return the requests a key can send at once, 0 for the rate rounded up.
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    public RateLimitKey getRateLimitKey() {
+        return rateLimitKey;
+    }
+
+    public void setRateLimitKey(RateLimitKey rateLimitKey) {
+        this.rateLimitKey = rateLimitKey;
+    }
+
+    /**
+     * @return the header keying the rate limit when the key is {@link RateLimitKey#HEADER}.
+     */
+    public String getRateLimitHeader() {
+        return rateLimitHeader;
+    }
+
+    public void setRateLimitHeader(String rateLimitHeader) {
+        this.rateLimitHeader = rateLimitHeader;
+    }
+
+    /**
+     * @return the highest adaptive limit on requests in flight, 0 disables concurrency limiting.
+     */
+    public int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    public void setConcurrencyLimit(int concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * @return the port of the admin server exposing metrics, 0 disables it.
+     */
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    public void setAdminPort(int adminPort) {
+        this.adminPort = adminPort;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public UpstreamProtocol getUpstreamProtocol() {
+        return upstreamProtocol;
+    }
+
+    public void setUpstreamProtocol(UpstreamProtocol upstreamProtocol) {
+        this.upstreamProtocol = upstreamProtocol;
+    }
+
+    /**
+     * @return whether responses are compressed by the proxy for clients that accept it.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return the smallest response body, in bytes, that gets compressed.
+     */
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public void setCompressionMinSize(int compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    public List<String> getCompressionTypes() {
+        return compressionTypes;
+    }
+
+    public void setCompressionTypes(List<String> compressionTypes) {
+        this.compressionTypes = compressionTypes;
+    }
+
+    /**
+     * @return the number of recent exchanges kept off-heap for the admin traffic API, 0 disables recording.
+     */
+    public int getTrafficBuffer() {
+        return trafficBuffer;
+    }
+
+    public void setTrafficBuffer(int trafficBuffer) {
+        this.trafficBuffer = trafficBuffer;
+    }
+
+    /**
+     * @return the bytes available to each recorded exchange, bodies are cut to fit.
+     */
+    public int getTrafficSlotSize() {
+        return trafficSlotSize;
+    }
+
+    public void setTrafficSlotSize(int trafficSlotSize) {
+        this.trafficSlotSize = trafficSlotSize;
+    }
+
+    /**
+     * @return the capture file every exchange is appended to, or null when not recording.
+     */
+    public Path getRecordPath() {
+        return recordPath;
+    }
+
+    public void setRecordPath(Path recordPath) {
+        this.recordPath = recordPath;
+    }
+
+    /**
+     * @return the size in MB of each capture segment.
+     */
+    public int getRecordSegmentSize() {
+        return recordSegmentSize;
+    }
+
+    public void setRecordSegmentSize(int recordSegmentSize) {
+        this.recordSegmentSize = recordSegmentSize;
+    }
+
+    /**
+     * @return the stub directory or capture requests are answered from, or null without stubs.
+     */
+    public Path getStubPath() {
+        return stubPath;
+    }
+
+    public void setStubPath(Path stubPath) {
+        this.stubPath = stubPath;
+    }
+
+    public StubMiss getStubMiss() {
+        return stubMiss;
+    }
+
+    public void setStubMiss(StubMiss stubMiss) {
+        this.stubMiss = stubMiss;
+    }
+
+    /**
+     * @return whether log entries show the request headers, applied to the log when the configuration is reloaded.
+     */
+    public boolean isShowHeaders() {
+        return showHeaders;
+    }
+
+    public void setShowHeaders(boolean showHeaders) {
+        this.showHeaders = showHeaders;
+    }
+
+    /**
+     * @return whether log entries show their details and bodies, applied to the log when the configuration is reloaded.
+     */
+    public boolean isShowDetails() {
+        return showDetails;
+    }
+
+    public void setShowDetails(boolean showDetails) {
+        this.showDetails = showDetails;
+    }
+
+    /**
+     * @return the seconds to wait on shutdown for the requests in progress to complete.
+     */
+    public int getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    public void setDrainTimeout(int drainTimeout) {
+        this.drainTimeout = drainTimeout;
+    }
+
+    /**
+     * @return one in how many requests is printed, 1 to print every request.
+     */
+    public int getLogSample() {
+        return logSample;
+    }
+
+    public void setLogSample(int logSample) {
+        this.logSample = logSample;
+    }
+
+    /**
+     * @return the most requests printed per second, or 0 for no limit.
+     */
+    public double getLogRate() {
+        return logRate;
+    }
+
+    public void setLogRate(double logRate) {
+        this.logRate = logRate;
+    }
+
+    /**
+     * @return the milliseconds from which a request sampled out is printed anyway, or 0 to disable it.
+     */
+    public long getLogSlow() {
+        return logSlow;
+    }
+
+    public void setLogSlow(long logSlow) {
+        this.logSlow = logSlow;
+    }
+
+    /**
+     * @return whether failed requests sampled out are printed anyway.
+     */
+    public boolean isLogErrors() {
+        return logErrors;
+    }
+
+    public void setLogErrors(boolean logErrors) {
+        this.logErrors = logErrors;
+    }
+
+    /**
+     * @return the log filter expressions, one of which a request must match to be printed, or empty for every request.
+     */
+    public List<String> getLogFilters() {
+        return logFilters;
+    }
+
+    public void setLogFilters(List<String> logFilters) {
+        this.logFilters = logFilters;
+    }
+}
@@ -0,0 +1,117 @@
+package com.renanwillian.easyproxy.limit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive limit on the requests in flight, adjusted by additive increase and multiplicative decrease from the latency
+ * of the upstream calls only, so cache hits, stubs and slow clients do not move it. Two smoothed latencies are kept: a
+ * baseline following the upstream over about {@link #BASELINE_SAMPLES} calls and a recent one over the last few. The
+ * limit grows by one every {@code limit} calls while the recent latency stays under {@link #TOLERANCE} times the
+ * baseline and the limit is actually in use, and shrinks by {@link #BACKOFF} when it goes above or a call fails. The
+ * requests admitted before a decrease only complete about one recent latency later, so no further decrease happens
+ * before then. Requests over the limit are rejected right away instead of queueing in front of a struggling upstream.
+ */
+public class ConcurrencyLimiter {
+
+    static final double BACKOFF = 0.9;
+    static final double TOLERANCE = 2.0;
+    static final int BASELINE_SAMPLES = 100;
+    static final int RECENT_SAMPLES = 5;
+
+    private final int minLimit;
+    private int maxLimit;
+    private final LongSupplier clock;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder limited = new LongAdder();
+    // Written under the monitor, read without it on every request.
+    private volatile double limit;
+    private double baselineNanos;
+    private double recentNanos;
+    private long samples;
+    private long nextDecreaseNanos;
+
+    /**
+     * @param maxLimit the initial and highest limit.
+     */
+    public ConcurrencyLimiter(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, System::nanoTime);
+    }
+
+    ConcurrencyLimiter(int minLimit, int maxLimit, LongSupplier clock) {
+        if (minLimit < 1 || maxLimit < minLimit) throw new IllegalArgumentException("Invalid concurrency limits");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+        this.clock = clock;
+        this.nextDecreaseNanos = clock.getAsLong();
+    }
+
+    /**
+     * @return true if the request may proceed, in which case {@link #release} must be called once it completes.
+     */
+    public boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= getLimit()) {
+                limited.increment();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Adjusts the limit after a call to the upstream.
+     *
+     * @param latencyNanos how long the upstream took to answer.
+     * @param failed       whether the upstream answered 502, 503 or 504, failed to connect or timed out, which counts
+     *                     as overload.
+     */
+    public synchronized void onUpstreamCall(long latencyNanos, boolean failed) {
+        // Plain averages until enough calls were seen, so the first calls do not set the baseline alone.
+        samples++;
+        baselineNanos += (latencyNanos - baselineNanos) / Math.min(samples, BASELINE_SAMPLES);
+        recentNanos += (latencyNanos - recentNanos) / Math.min(samples, RECENT_SAMPLES);
+
+        if (failed || recentNanos > baselineNanos * TOLERANCE) {
+            long now = clock.getAsLong();
+            if (now - nextDecreaseNanos >= 0) {
+                limit = Math.max(minLimit, limit * BACKOFF);
+                nextDecreaseNanos = now + (long) recentNanos;
+            }
+        } else if (inFlight.get() * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Changes the highest limit. A lower one applies at once, a higher one is reached by the usual additive increase.
+     */
+    public synchronized void setMaxLimit(int maxLimit) {
+        if (maxLimit < minLimit) throw new IllegalArgumentException("Invalid concurrency limits");
+        this.maxLimit = maxLimit;
+        limit = Math.min(limit, maxLimit);
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return requests rejected because the limit was reached.
+     */
+    public long getLimitedCount() {
+        return limited.sum();
+    }
+}
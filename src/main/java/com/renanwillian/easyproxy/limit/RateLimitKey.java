@@ -0,0 +1,13 @@
+package com.renanwillian.easyproxy.limit;
+
+/**
+ * What a {@link RateLimiter} gives each token bucket to.
+ */
+public enum RateLimitKey {
+    /** The client address. */
+    IP,
+    /** The value of a request header such as an API key, requests without it are limited by address. */
+    HEADER,
+    /** The first segment of the path, so {@code /api/users/1} counts against {@code /api}. */
+    PATH
+}
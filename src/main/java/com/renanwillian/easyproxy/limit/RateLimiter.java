@@ -0,0 +1,132 @@
+package com.renanwillian.easyproxy.limit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets per key, refilled at {@code rate} tokens a second up to {@code burst}. Each bucket is a single
+ * {@link AtomicLong} holding the time at which it will be full again (the generic cell rate algorithm), so taking a
+ * token is one compare-and-set and never blocks. Buckets live in a {@link ConcurrentHashMap}, whose bins are locked
+ * independently. Once there are {@code maxKeys} of them, the full buckets are swept by one request at most every
+ * {@link #SWEEP_INTERVAL_NANOS}, and new keys share a single overflow bucket while the map is still full, so the map
+ * stays bounded when many clients are limited at once.
+ * <p>
+ * The rate can be changed while requests are admitted. Buckets keep the time they will be full at, so a client keeps
+ * the tokens it had spent and gets them back at the new rate.
+ */
+public class RateLimiter {
+
+    public static final int DEFAULT_MAX_KEYS = 100_000;
+
+    static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private volatile Rate rate;
+    private final int maxKeys;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflow;
+    private final AtomicLong nextSweep;
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+
+    /**
+     * @param rate  tokens added to each bucket per second.
+     * @param burst tokens a bucket holds, the requests a client can send at once after being idle.
+     */
+    public RateLimiter(double rate, int burst) {
+        this(rate, burst, DEFAULT_MAX_KEYS, System::nanoTime);
+    }
+
+    RateLimiter(double rate, int burst, int maxKeys, LongSupplier clock) {
+        this.rate = Rate.of(rate, burst);
+        this.maxKeys = maxKeys;
+        this.clock = clock;
+        long now = clock.getAsLong();
+        this.overflow = new AtomicLong(now);
+        this.nextSweep = new AtomicLong(now);
+    }
+
+    /**
+     * The interval between two tokens and how far ahead of the clock a bucket may go, read together by each request.
+     */
+    private record Rate(long intervalNanos, long toleranceNanos) {
+        static Rate of(double rate, int burst) {
+            if (rate <= 0) throw new IllegalArgumentException("The rate limit must be positive");
+            if (burst < 1) throw new IllegalArgumentException("The rate limit burst must be at least 1");
+            long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            return new Rate(intervalNanos, intervalNanos * (burst - 1));
+        }
+    }
+
+    /**
+     * Changes the rate and burst of every bucket from the next request on.
+     */
+    public void setRate(double rate, int burst) {
+        this.rate = Rate.of(rate, burst);
+    }
+
+    /**
+     * Takes a token from the bucket of the key.
+     *
+     * @return 0 if the request may proceed, otherwise the nanoseconds until the bucket has a token again.
+     */
+    public long acquire(String key) {
+        long now = clock.getAsLong();
+        Rate rate = this.rate;
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) bucket = bucketFor(key, now);
+
+        while (true) {
+            long fullAt = bucket.get();
+            long start = Math.max(fullAt, now);
+            if (start - rate.toleranceNanos() > now) {
+                limited.increment();
+                return start - rate.toleranceNanos() - now;
+            }
+            if (bucket.compareAndSet(fullAt, start + rate.intervalNanos())) return 0;
+        }
+    }
+
+    private AtomicLong bucketFor(String key, long now) {
+        if (buckets.size() >= maxKeys) {
+            long next = nextSweep.get();
+            if (now - next >= 0 && nextSweep.compareAndSet(next, now + SWEEP_INTERVAL_NANOS)) sweep(now);
+            if (buckets.size() >= maxKeys) {
+                overflowed.increment();
+                return overflow;
+            }
+        }
+        return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+
+    /**
+     * Drops the buckets that refilled completely, a new bucket behaves exactly the same.
+     */
+    private void sweep(long now) {
+        buckets.values().removeIf(bucket -> bucket.get() <= now);
+    }
+
+    /**
+     * @return requests rejected because their bucket was empty.
+     */
+    public long getLimitedCount() {
+        return limited.sum();
+    }
+
+    /**
+     * @return requests of new keys that shared the overflow bucket because {@code maxKeys} buckets were in use.
+     */
+    public long getOverflowCount() {
+        return overflowed.sum();
+    }
+
+    /**
+     * @return keys with a bucket currently tracked.
+     */
+    public int getBucketCount() {
+        return buckets.size();
+    }
+}
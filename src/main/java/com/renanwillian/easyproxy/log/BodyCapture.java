@@ -0,0 +1,64 @@
+package com.renanwillian.easyproxy.log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps a bounded prefix of a body that is being streamed, so logging never holds more than {@code limit} bytes
+ * regardless of the real body size. With a limit of 0 it only counts the bytes and allocates nothing.
+ */
+public class BodyCapture {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int limit;
+    private byte[] buffer = EMPTY;
+    private int captured;
+    private long totalBytes;
+
+    public BodyCapture(int limit) {
+        this.limit = limit;
+    }
+
+    public synchronized void write(byte[] data, int offset, int length) {
+        int toCopy = reserve(length);
+        System.arraycopy(data, offset, buffer, captured, toCopy);
+        captured += toCopy;
+    }
+
+    /**
+     * Captures the remaining bytes of the buffer without moving its position.
+     */
+    public synchronized void write(ByteBuffer data) {
+        int toCopy = reserve(data.remaining());
+        data.get(data.position(), buffer, captured, toCopy);
+        captured += toCopy;
+    }
+
+    /**
+     * Counts the bytes and makes room for the part of them that still fits under the limit.
+     *
+     * @return how many of the bytes to copy.
+     */
+    private int reserve(int length) {
+        totalBytes += length;
+        int toCopy = Math.max(0, Math.min(length, limit - captured));
+        if (captured + toCopy > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.min(limit, Math.max(captured + toCopy, buffer.length * 2)));
+        }
+        return toCopy;
+    }
+
+    public synchronized byte[] toByteArray() {
+        if (captured == 0) return EMPTY;
+        return Arrays.copyOf(buffer, captured);
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized boolean isTruncated() {
+        return totalBytes > captured;
+    }
+}
@@ -0,0 +1,105 @@
+package com.renanwillian.easyproxy.log;
+
+import com.renanwillian.easyproxy.utils.CompressionUtils;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The part of a logged body that is printed. Only what is shown gets decoded: compressed bodies are inflated up to
+ * the preview size and binary content is summarized instead of being turned into text.
+ *
+ * @param text      what to print.
+ * @param truncated whether the body goes on past the text.
+ */
+public record BodyPreview(String text, boolean truncated) {
+
+    private static final String[] TEXT_TYPES = {"text/", "json", "xml", "javascript", "ecmascript", "yaml", "csv",
+                                                "x-www-form-urlencoded", "graphql", "html"};
+    private static final String[] BINARY_TYPES = {"image/", "audio/", "video/", "font/", "application/octet-stream",
+                                                  "application/pdf", "application/zip", "application/gzip",
+                                                  "protobuf", "grpc", "msgpack", "cbor", "wasm"};
+
+    public static BodyPreview of(byte[] body, Map<String, String> headers, int limit) {
+        if (body == null || body.length == 0) return new BodyPreview("(empty)", false);
+
+        String contentType = header(headers, "Content-Type");
+        String contentEncoding = header(headers, "Content-Encoding");
+        if (isBinaryType(contentType)) return summary("binary " + mediaType(contentType), body.length);
+
+        byte[] decoded;
+        if (contentEncoding == null || contentEncoding.isBlank() || contentEncoding.equalsIgnoreCase("identity")) {
+            decoded = body.length > limit ? Arrays.copyOf(body, limit + 1) : body;
+        } else if (CompressionUtils.isSupported(contentEncoding)) {
+            try {
+                decoded = CompressionUtils.decompress(body, contentEncoding, limit);
+            } catch (IOException e) {
+                return summary("undecodable " + contentEncoding, body.length);
+            }
+        } else {
+            return summary(contentEncoding + " encoded", body.length);
+        }
+
+        boolean truncated = decoded.length > limit;
+        int length = Math.min(decoded.length, limit);
+        if (contentType == null && looksBinary(decoded, length)) return summary("binary", body.length);
+        return new BodyPreview(new String(decoded, 0, length, charset(contentType)), truncated);
+    }
+
+    private static BodyPreview summary(String kind, int capturedBytes) {
+        return new BodyPreview("(" + kind + " body, " + capturedBytes + " bytes not shown)", false);
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        return headers != null ? headers.get(name) : null;
+    }
+
+    private static boolean isBinaryType(String contentType) {
+        if (contentType == null) return false;
+        String type = contentType.toLowerCase(Locale.ROOT);
+        for (String textType : TEXT_TYPES) {
+            if (type.contains(textType)) return false;
+        }
+        for (String binaryType : BINARY_TYPES) {
+            if (type.contains(binaryType)) return true;
+        }
+        return false;
+    }
+
+    private static String mediaType(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+    }
+
+    /**
+     * Sniffs bodies without a Content-Type: NUL bytes or many control characters mean it is not text.
+     */
+    private static boolean looksBinary(byte[] data, int length) {
+        int control = 0;
+        for (int i = 0; i < length; i++) {
+            int b = data[i] & 0xFF;
+            if (b == 0) return true;
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f') control++;
+        }
+        return control > length / 10;
+    }
+
+    private static Charset charset(String contentType) {
+        if (contentType == null) return StandardCharsets.UTF_8;
+        for (String parameter : contentType.split(";")) {
+            String[] pair = parameter.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].equalsIgnoreCase("charset")) {
+                try {
+                    return Charset.forName(pair[1].replace("\"", "").trim());
+                } catch (IllegalArgumentException e) {
+                    return StandardCharsets.UTF_8;
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+}
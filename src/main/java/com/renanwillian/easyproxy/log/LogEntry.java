@@ -13,8 +13,15 @@ public class LogEntry {
     private LocalDateTime timestamp;
     private Map<String, String> requestHeaders;
     private byte[] requestBody;
+    private long requestBodySize;
     private Map<String, String> responseHeaders;
     private byte[] responseBody;
+    private long responseBodySize;
+    private String cacheStatus;
+    private String target;
+    private int attempts;
+    private boolean hedged;
+    private Boolean sampled;
 
     public String getMethod() {
         return method;
@@ -80,6 +87,14 @@ public class LogEntry {
         this.requestBody = requestBody;
     }
 
+    public long getRequestBodySize() {
+        return requestBodySize;
+    }
+
+    public void setRequestBodySize(long requestBodySize) {
+        this.requestBodySize = requestBodySize;
+    }
+
     public Map<String, String> getResponseHeaders() {
         return responseHeaders;
     }
@@ -95,4 +110,61 @@ public class LogEntry {
     public void setResponseBody(byte[] responseBody) {
         this.responseBody = responseBody;
     }
+
+    public long getResponseBodySize() {
+        return responseBodySize;
+    }
+
+    public void setResponseBodySize(long responseBodySize) {
+        this.responseBodySize = responseBodySize;
+    }
+
+    public String getCacheStatus() {
+        return cacheStatus;
+    }
+
+    public void setCacheStatus(String cacheStatus) {
+        this.cacheStatus = cacheStatus;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    /**
+     * @return requests sent to the upstream for this exchange, more than one when it was retried or hedged.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return whether a second attempt was sent because the first one was slow.
+     */
+    public boolean isHedged() {
+        return hedged;
+    }
+
+    public void setHedged(boolean hedged) {
+        this.hedged = hedged;
+    }
+
+    /**
+     * @return whether {@link LogService#sample} chose the exchange for printing, or null if it was not asked yet.
+     */
+    public Boolean getSampled() {
+        return sampled;
+    }
+
+    public void setSampled(Boolean sampled) {
+        this.sampled = sampled;
+    }
 }
@@ -0,0 +1,107 @@
+package com.renanwillian.easyproxy.log;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Selects log entries: {@code method=GET,POST;path=/api/**;status=500-599;duration=1000-}. Every term given must
+ * match. The path glob is matched against the path without the query, {@code *} and {@code ?} within a segment and
+ * {@code **} across segments. Status and duration, in milliseconds, are inclusive ranges whose ends may be left open,
+ * and {@code status=5xx} is short for {@code status=500-599}.
+ *
+ * @param methods the methods matched, in any case, or empty for every method.
+ * @param path    the compiled path glob, or null for every path.
+ */
+public record LogFilter(Set<String> methods, Pattern path, long minStatus, long maxStatus, long minDuration,
+                        long maxDuration) {
+
+    public static LogFilter parse(String spec) {
+        Set<String> methods = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        Pattern path = null;
+        long[] status = {0, Long.MAX_VALUE};
+        long[] duration = {0, Long.MAX_VALUE};
+        for (String term : spec.split(";")) {
+            if (term.isBlank()) continue;
+            int separator = term.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid log filter term, expected name=value: " + term.trim());
+            }
+            String name = term.substring(0, separator).trim();
+            String value = term.substring(separator + 1).trim();
+            switch (name) {
+                case "method" -> {
+                    for (String method : value.split(",")) {
+                        if (!method.isBlank()) methods.add(method.trim());
+                    }
+                }
+                case "path" -> path = compileGlob(value);
+                case "status" -> status = parseRange(name, value.toLowerCase(Locale.ROOT).matches("[1-5]xx")
+                        ? value.charAt(0) + "00-" + value.charAt(0) + "99" : value);
+                case "duration" -> duration = parseRange(name, value);
+                default -> throw new IllegalArgumentException("Unknown log filter term: " + name);
+            }
+        }
+        return new LogFilter(Collections.unmodifiableSet(methods), path, status[0], status[1], duration[0],
+                             duration[1]);
+    }
+
+    /**
+     * @return whether an exchange with this method and path can be selected, before its response is known.
+     */
+    public boolean matchesRequest(String method, String uri) {
+        if (!methods.isEmpty() && (method == null || !methods.contains(method))) return false;
+        if (path == null) return true;
+        if (uri == null) return false;
+        int query = uri.indexOf('?');
+        Matcher matcher = path.matcher(uri);
+        if (query >= 0) matcher.region(0, query);
+        return matcher.matches();
+    }
+
+    public boolean matches(LogEntry entry) {
+        long duration = entry.getDuration() != null ? entry.getDuration() : 0;
+        return matchesRequest(entry.getMethod(), entry.getPath())
+                && entry.getStatusCode() >= minStatus && entry.getStatusCode() <= maxStatus
+                && duration >= minDuration && duration <= maxDuration;
+    }
+
+    static Pattern compileGlob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static long[] parseRange(String name, String value) {
+        try {
+            int dash = value.indexOf('-');
+            if (dash < 0) {
+                long exact = Long.parseLong(value);
+                return new long[]{exact, exact};
+            }
+            String from = value.substring(0, dash).trim();
+            String to = value.substring(dash + 1).trim();
+            long[] range = {from.isEmpty() ? 0 : Long.parseLong(from),
+                            to.isEmpty() ? Long.MAX_VALUE : Long.parseLong(to)};
+            if (range[0] <= range[1] && !(from.isEmpty() && to.isEmpty())) return range;
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Invalid " + name + " range of log filter: " + value);
+    }
+}
@@ -0,0 +1,80 @@
+package com.renanwillian.easyproxy.log;
+
+import com.renanwillian.easyproxy.limit.RateLimiter;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which exchanges are printed. The filters select the exchanges of interest, of which one in
+ * {@code sampleEvery}, picked at random, and at most {@code rate} a second are sampled. Exchanges left out by the
+ * sampling are still printed when they fail, without a response or with a 5xx, or take {@code slowMillis} or longer.
+ * <p>
+ * Sampling only needs the method and path, so it is decided before the exchange is handled and the bodies of an
+ * exchange that is not sampled are never copied. An exchange printed later because it failed or was slow is printed
+ * without its bodies.
+ */
+public final class LogPolicy {
+
+    public static final LogPolicy ALL = new LogPolicy(List.of(), 1, 0, 0, true);
+
+    // The single bucket of the rate, under this key.
+    private static final String RATE_KEY = "";
+
+    private final List<LogFilter> filters;
+    private final int sampleEvery;
+    private final RateLimiter rateLimiter;
+    private final long slowMillis;
+    private final boolean errors;
+
+    /**
+     * @param filters     exchanges matching none of them are never printed, empty to select every exchange.
+     * @param sampleEvery 1 to sample every selected exchange, otherwise one in that many.
+     * @param rate        sampled exchanges per second, 0 for no limit.
+     * @param slowMillis  duration from which an exchange is printed even if not sampled, 0 to disable it.
+     * @param errors      whether failed exchanges are printed even if not sampled.
+     */
+    public LogPolicy(List<LogFilter> filters, int sampleEvery, double rate, long slowMillis, boolean errors) {
+        if (sampleEvery < 1) throw new IllegalArgumentException("The log sample must be at least 1");
+        if (rate < 0) throw new IllegalArgumentException("The log rate cannot be negative");
+        this.filters = List.copyOf(filters);
+        this.sampleEvery = sampleEvery;
+        this.rateLimiter = rate > 0 ? new RateLimiter(rate, (int) Math.ceil(rate)) : null;
+        this.slowMillis = slowMillis;
+        this.errors = errors;
+    }
+
+    /**
+     * @return whether an exchange with this method and path is sampled, false also when no filter selects it.
+     */
+    boolean sample(String method, String path) {
+        if (!filters.isEmpty() && !matchesAnyRequest(method, path)) return false;
+        if (sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0) return false;
+        return rateLimiter == null || rateLimiter.acquire(RATE_KEY) == 0;
+    }
+
+    /**
+     * @param sampled what {@link #sample} decided for the exchange.
+     * @return whether the completed exchange is printed.
+     */
+    boolean shouldPrint(LogEntry entry, boolean sampled) {
+        if (!filters.isEmpty() && !matchesAny(entry)) return false;
+        if (sampled) return true;
+        if (errors && (entry.getStatusCode() == 0 || entry.getStatusCode() >= 500)) return true;
+        return slowMillis > 0 && entry.getDuration() != null && entry.getDuration() >= slowMillis;
+    }
+
+    private boolean matchesAnyRequest(String method, String path) {
+        for (LogFilter filter : filters) {
+            if (filter.matchesRequest(method, path)) return true;
+        }
+        return false;
+    }
+
+    private boolean matchesAny(LogEntry entry) {
+        for (LogFilter filter : filters) {
+            if (filter.matches(entry)) return true;
+        }
+        return false;
+    }
+}
@@ -1,25 +1,208 @@
 package com.renanwillian.easyproxy.log;
 
 import com.renanwillian.easyproxy.utils.AnsiUtils;
-import com.renanwillian.easyproxy.utils.GzipUtils;
 import com.renanwillian.easyproxy.utils.TerminalUtils;
 
-import java.io.IOException;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
-public class LogService {
+/**
+ * Formats and prints log entries on a dedicated writer thread. Request threads only enqueue the entry, so request
+ * latency does not depend on body decoding, string building or how fast the terminal is.
+ */
+public final class LogService implements AutoCloseable {
 
     public static final String BREAK = "\n";
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    public static final int DEFAULT_PREVIEW_SIZE = 4096;
 
-    private final boolean showHeaders;
-    private final boolean showDetails;
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    // Read by request threads and the writer, changed when the configuration is reloaded.
+    private volatile boolean showHeaders;
+    private volatile boolean showDetails;
+    private volatile LogPolicy policy = LogPolicy.ALL;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int previewSize;
+    private final Consumer<String> output;
+    private final Queue<LogEntry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean writerParked = false;
+    private volatile boolean running = true;
+    private long reportedDropped = 0;
 
     public LogService(boolean showHeaders, boolean showDetails) {
+        this(showHeaders, showDetails, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    public LogService(boolean showHeaders, boolean showDetails, int capacity, OverflowPolicy overflowPolicy) {
+        this(showHeaders, showDetails, capacity, overflowPolicy, DEFAULT_PREVIEW_SIZE);
+    }
+
+    /**
+     * @param previewSize maximum number of decoded body bytes printed per body.
+     */
+    public LogService(boolean showHeaders, boolean showDetails, int capacity, OverflowPolicy overflowPolicy,
+                      int previewSize) {
+        this(showHeaders, showDetails, capacity, overflowPolicy, previewSize, TerminalUtils::print);
+    }
+
+    LogService(boolean showHeaders, boolean showDetails, int capacity, OverflowPolicy overflowPolicy,
+               Consumer<String> output) {
+        this(showHeaders, showDetails, capacity, overflowPolicy, DEFAULT_PREVIEW_SIZE, output);
+    }
+
+    LogService(boolean showHeaders, boolean showDetails, int capacity, OverflowPolicy overflowPolicy,
+               int previewSize, Consumer<String> output) {
         this.showHeaders = showHeaders;
         this.showDetails = showDetails;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.previewSize = previewSize;
+        this.output = output;
+        this.writer = new Thread(this::drain, "easy-proxy-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Decides, from its method and path, whether the exchange is printed by the {@link LogPolicy}. Callers ask before
+     * handling the exchange, so they capture bodies only for the entries sampled.
+     *
+     * @return whether the entry is sampled.
+     */
+    public boolean sample(LogEntry logEntry) {
+        boolean sampled = policy.sample(logEntry.getMethod(), logEntry.getPath());
+        logEntry.setSampled(sampled);
+        return sampled;
     }
 
+    /**
+     * Queues the entry for printing, unless the {@link LogPolicy} leaves it out. Depending on the
+     * {@link OverflowPolicy} a full queue either drops the entry or makes the caller wait for space.
+     */
     public void log(LogEntry logEntry) {
+        LogPolicy current = policy;
+        // Entries of exchanges that failed before they were sampled are sampled now.
+        Boolean sampled = logEntry.getSampled();
+        if (sampled == null) sampled = current.sample(logEntry.getMethod(), logEntry.getPath());
+        if (!current.shouldPrint(logEntry, sampled)) {
+            skipped.increment();
+            return;
+        }
+        if (!reserveSlot()) {
+            dropped.increment();
+            return;
+        }
+        queue.offer(logEntry);
+        if (writerParked) LockSupport.unpark(writer);
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int current = queued.get();
+            if (current < capacity) {
+                if (queued.compareAndSet(current, current + 1)) return true;
+            } else if (overflowPolicy == OverflowPolicy.DROP || !running) {
+                return false;
+            } else {
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * @return whether entries are printed with their bodies, so callers can skip capturing them otherwise.
+     */
+    public boolean isShowingDetails() {
+        return showDetails;
+    }
+
+    /**
+     * Changes what is printed from the next entry on. Entries queued before details were turned on have no bodies.
+     */
+    public void setVerbosity(boolean showHeaders, boolean showDetails) {
+        this.showHeaders = showHeaders;
+        this.showDetails = showDetails;
+    }
+
+    /**
+     * Changes which exchanges are printed from the next one on.
+     */
+    public void setPolicy(LogPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return entries the {@link LogPolicy} left out.
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void drain() {
+        StringBuilder batch = new StringBuilder();
+        while (running || !queue.isEmpty()) {
+            int batchSize = 0;
+            LogEntry entry;
+            while (batchSize < MAX_BATCH_SIZE && (entry = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.append(format(entry)).append(BREAK);
+                batchSize++;
+            }
+            appendDroppedNotice(batch);
+
+            if (!batch.isEmpty()) {
+                output.accept(batch.toString());
+                batch.setLength(0);
+            } else {
+                writerParked = true;
+                if (running && queue.isEmpty()) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                writerParked = false;
+            }
+        }
+    }
+
+    private void appendDroppedNotice(StringBuilder batch) {
+        long totalDropped = dropped.sum();
+        if (totalDropped > reportedDropped) {
+            batch.append(AnsiUtils.colorize("(" + (totalDropped - reportedDropped) + " log entries dropped)", AnsiUtils.RED_BOLD))
+                 .append(BREAK);
+            reportedDropped = totalDropped;
+        }
+    }
+
+    /**
+     * Stops the writer after the queued entries are printed.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String format(LogEntry logEntry) {
         StringBuilder sb = new StringBuilder();
         sb.append(AnsiUtils.colorize(logEntry.getMethod(), AnsiUtils.CYAN));
         sb.append(" ").append(logEntry.getPath());
@@ -32,6 +215,13 @@ public class LogService {
         }
 
         sb.append(AnsiUtils.colorize(" (" + logEntry.getDuration() + "ms)", AnsiUtils.PURPLE_BOLD));
+        if (logEntry.getCacheStatus() != null) {
+            sb.append(AnsiUtils.colorize(" [cache " + logEntry.getCacheStatus() + "]", AnsiUtils.CYAN));
+        }
+        if (logEntry.getAttempts() > 1) {
+            String attempts = " [" + logEntry.getAttempts() + " attempts" + (logEntry.isHedged() ? ", hedged]" : "]");
+            sb.append(AnsiUtils.colorize(attempts, AnsiUtils.CYAN));
+        }
 
         if (showDetails) {
             sb.append(AnsiUtils.colorize("\n-------------------------------------------------------------\n", AnsiUtils.WHITE));
@@ -39,6 +229,11 @@ public class LogService {
             sb.append(AnsiUtils.colorize("Timestamp: ", AnsiUtils.WHITE_BOLD));
             sb.append(AnsiUtils.colorize(logEntry.getTimestamp().toString(), AnsiUtils.WHITE));
             sb.append(BREAK);
+            if (logEntry.getTarget() != null) {
+                sb.append(AnsiUtils.colorize("Target: ", AnsiUtils.WHITE_BOLD));
+                sb.append(AnsiUtils.colorize(logEntry.getTarget(), AnsiUtils.WHITE));
+                sb.append(BREAK);
+            }
             if (showHeaders && logEntry.getRequestHeaders() != null) {
                 sb.append(AnsiUtils.colorize("Headers: ", AnsiUtils.WHITE_BOLD));
                 logEntry.getRequestHeaders().forEach((k, v) -> sb.append(AnsiUtils.colorize("\n  " + k + ": " + v, AnsiUtils.WHITE)));
@@ -47,27 +242,28 @@ public class LogService {
 
             if (logEntry.getRequestBody() != null) {
                 sb.append(AnsiUtils.colorize("Request Body: ", AnsiUtils.WHITE_BOLD));
-                sb.append(AnsiUtils.colorize(getBodyAsString(logEntry.getRequestBody(), logEntry.getRequestHeaders()), AnsiUtils.WHITE));
+                appendBody(sb, logEntry.getRequestBody(), logEntry.getRequestBodySize(), logEntry.getRequestHeaders());
                 sb.append(BREAK);
             }
             if (logEntry.getResponseBody() != null) {
                 sb.append(AnsiUtils.colorize("Response Body: ", AnsiUtils.WHITE_BOLD));
-                sb.append(AnsiUtils.colorize(getBodyAsString(logEntry.getResponseBody(), logEntry.getResponseHeaders()), AnsiUtils.WHITE));
+                appendBody(sb, logEntry.getResponseBody(), logEntry.getResponseBodySize(), logEntry.getResponseHeaders());
                 sb.append(BREAK);
             }
             sb.append(AnsiUtils.colorize("-------------------------------------------------------------\n", AnsiUtils.WHITE));
         }
 
-        TerminalUtils.println(sb.toString());
+        return sb.toString();
     }
 
-    private String getBodyAsString(byte[] body, Map<String, String> headers) {
-        if (body == null) return "(empty)";
-        String contentEncoding = headers != null ? headers.getOrDefault("Content-Encoding", null) : null;
-        try {
-            return new String(GzipUtils.uncompressIfGzipped(body, contentEncoding));
-        } catch (IOException e) {
-            return "(error decompressing body) " + new String(body);
+    /**
+     * Bodies are decoded here, on the writer thread and only when details are shown, and never past the preview size.
+     */
+    private void appendBody(StringBuilder sb, byte[] body, long bodySize, Map<String, String> headers) {
+        BodyPreview preview = BodyPreview.of(body, headers, previewSize);
+        sb.append(AnsiUtils.colorize(preview.text(), AnsiUtils.WHITE));
+        if (preview.truncated() || bodySize > body.length) {
+            sb.append(AnsiUtils.colorize(" ... (truncated, " + bodySize + " bytes total)", AnsiUtils.WHITE_BOLD));
         }
     }
 }
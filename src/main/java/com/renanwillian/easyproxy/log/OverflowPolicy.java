@@ -0,0 +1,11 @@
+package com.renanwillian.easyproxy.log;
+
+/**
+ * What {@link LogService} does with a new entry when its queue is full.
+ */
+public enum OverflowPolicy {
+    /** Discard the entry and count it as dropped, the request thread never waits. */
+    DROP,
+    /** Wait until the writer frees space in the queue. */
+    BLOCK
+}
@@ -0,0 +1,89 @@
+package com.renanwillian.easyproxy.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters and latency histograms of the proxy. Every recording method is lock-free and allocation-free
+ * once a route has been seen, so it stays on under full load.
+ */
+public class MetricsRegistry {
+
+    private static final int MAX_STATUS_CODE = 600;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS_CODE);
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+    private final LatencyHistogram upstreamConnectLatency = new LatencyHistogram();
+    private final LatencyHistogram upstreamFirstByteLatency = new LatencyHistogram();
+    private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+    public void onRequestStart() {
+        inFlight.incrementAndGet();
+    }
+
+    public void onRequestEnd(String route, int statusCode, long durationNanos, long requestBytes, long responseBytes) {
+        inFlight.decrementAndGet();
+        if (statusCode > 0 && statusCode < MAX_STATUS_CODE) statusCounts.incrementAndGet(statusCode);
+        bytesReceived.add(requestBytes);
+        bytesSent.add(responseBytes);
+        totalLatency.recordNanos(durationNanos);
+        routes.computeIfAbsent(route, k -> new RouteMetrics()).record(statusCode, durationNanos);
+    }
+
+    /**
+     * Time until the upstream connection was ready to carry the request, which includes connect and TLS handshake
+     * for new connections and is close to zero for reused ones.
+     */
+    public void recordUpstreamConnect(long nanos) {
+        upstreamConnectLatency.recordNanos(nanos);
+    }
+
+    /**
+     * Time from sending the request upstream until its response headers arrived.
+     */
+    public void recordUpstreamFirstByte(long nanos) {
+        upstreamFirstByteLatency.recordNanos(nanos);
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getStatusCount(int statusCode) {
+        return statusCounts.get(statusCode);
+    }
+
+    public int getMaxStatusCode() {
+        return MAX_STATUS_CODE;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public LatencyHistogram getTotalLatency() {
+        return totalLatency;
+    }
+
+    public LatencyHistogram getUpstreamConnectLatency() {
+        return upstreamConnectLatency;
+    }
+
+    public LatencyHistogram getUpstreamFirstByteLatency() {
+        return upstreamFirstByteLatency;
+    }
+
+    public Map<String, RouteMetrics> getRoutes() {
+        return routes;
+    }
+}
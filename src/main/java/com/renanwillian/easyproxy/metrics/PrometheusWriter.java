@@ -0,0 +1,64 @@
+package com.renanwillian.easyproxy.metrics;
+
+/**
+ * Builds a page in the Prometheus text exposition format.
+ */
+public class PrometheusWriter {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final StringBuilder sb = new StringBuilder();
+
+    public PrometheusWriter header(String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    public PrometheusWriter sample(String name, double value) {
+        sb.append(name).append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    public PrometheusWriter sample(String name, String labelName, String labelValue, double value) {
+        sb.append(name).append('{').append(labelName).append("=\"").append(escape(labelValue)).append("\"} ")
+          .append(format(value)).append('\n');
+        return this;
+    }
+
+    public PrometheusWriter counter(String name, String help, double value) {
+        return header(name, "counter", help).sample(name, value);
+    }
+
+    public PrometheusWriter gauge(String name, String help, double value) {
+        return header(name, "gauge", help).sample(name, value);
+    }
+
+    /**
+     * Writes the histogram as a summary in seconds with p50, p90, p99 and p999 quantiles.
+     */
+    public PrometheusWriter summary(String name, String labelName, String labelValue, LatencyHistogram histogram) {
+        String labels = labelName + "=\"" + escape(labelValue) + "\"";
+        for (double quantile : QUANTILES) {
+            sb.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+              .append(format(histogram.percentileMicros(quantile) / 1_000_000d)).append('\n');
+        }
+        sb.append(name).append("_sum{").append(labels).append("} ")
+          .append(format(histogram.getSumMicros() / 1_000_000d)).append('\n');
+        sb.append(name).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+        return this;
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
@@ -0,0 +1,28 @@
+package com.renanwillian.easyproxy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class RouteMetrics {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    void record(int statusCode, long durationNanos) {
+        requests.increment();
+        if (statusCode >= 500) serverErrors.increment();
+        latency.recordNanos(durationNanos);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getServerErrors() {
+        return serverErrors.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,155 @@
+package com.renanwillian.easyproxy.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Finds where a message body ends while its bytes are relayed untouched. Chunked bodies are parsed only to follow
+ * the chunk sizes, the chunk framing itself is forwarded as is.
+ */
+abstract class BodyFramer {
+
+    /**
+     * Advances over the body bytes at the start of the buffer, without moving its position.
+     *
+     * @return how many bytes from the buffer position belong to the body.
+     */
+    abstract int scan(ByteBuffer buffer) throws IOException;
+
+    abstract boolean isComplete();
+
+    /**
+     * Called when the peer closed the connection, which ends a body delimited by the connection.
+     */
+    void onEndOfStream() {}
+
+    static BodyFramer none() {
+        return new Fixed(0);
+    }
+
+    static BodyFramer fixed(long length) {
+        return new Fixed(length);
+    }
+
+    static BodyFramer chunked() {
+        return new Chunked();
+    }
+
+    static BodyFramer untilClose() {
+        return new UntilClose();
+    }
+
+    private static final class Fixed extends BodyFramer {
+        private long remaining;
+
+        Fixed(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        int scan(ByteBuffer buffer) {
+            int count = (int) Math.min(remaining, buffer.remaining());
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        boolean isComplete() {
+            return remaining == 0;
+        }
+    }
+
+    private static final class UntilClose extends BodyFramer {
+        private boolean ended;
+
+        @Override
+        int scan(ByteBuffer buffer) {
+            return buffer.remaining();
+        }
+
+        @Override
+        boolean isComplete() {
+            return ended;
+        }
+
+        @Override
+        void onEndOfStream() {
+            ended = true;
+        }
+    }
+
+    private static final class Chunked extends BodyFramer {
+        private static final long MAX_CHUNK_SIZE = 1L << 40;
+
+        private enum State { SIZE, DATA, DATA_END, TRAILER, DONE }
+
+        private State state = State.SIZE;
+        private long chunkSize;
+        private boolean sizeDigits;
+        private boolean extension;
+        private long remaining;
+        private int lineLength;
+
+        @Override
+        int scan(ByteBuffer buffer) throws IOException {
+            int position = buffer.position();
+            int limit = buffer.limit();
+            int index = position;
+            while (index < limit && state != State.DONE) {
+                if (state == State.DATA) {
+                    int count = (int) Math.min(remaining, limit - index);
+                    index += count;
+                    remaining -= count;
+                    if (remaining == 0) state = State.DATA_END;
+                    continue;
+                }
+                byte b = buffer.get(index++);
+                switch (state) {
+                    case SIZE -> readSizeLine(b);
+                    case DATA_END -> {
+                        if (b == '\n') state = State.SIZE;
+                    }
+                    case TRAILER -> {
+                        if (b == '\n') {
+                            if (lineLength == 0) state = State.DONE;
+                            lineLength = 0;
+                        } else if (b != '\r') {
+                            lineLength++;
+                        }
+                    }
+                    default -> {}
+                }
+            }
+            return index - position;
+        }
+
+        private void readSizeLine(byte b) throws IOException {
+            if (b == '\n') {
+                if (!sizeDigits) throw new IOException("Missing chunk size");
+                if (chunkSize == 0) {
+                    state = State.TRAILER;
+                    lineLength = 0;
+                } else {
+                    state = State.DATA;
+                    remaining = chunkSize;
+                }
+                chunkSize = 0;
+                sizeDigits = false;
+                extension = false;
+            } else if (b == ';') {
+                extension = true;
+            } else if (!extension && b != '\r' && b != ' ' && b != '\t') {
+                int digit = Character.digit(b, 16);
+                if (digit < 0) throw new IOException("Invalid chunk size character: " + (char) b);
+                chunkSize = chunkSize * 16 + digit;
+                sizeDigits = true;
+                if (chunkSize > MAX_CHUNK_SIZE) throw new IOException("Chunk size too large");
+            }
+        }
+
+        @Override
+        boolean isComplete() {
+            return state == State.DONE;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.renanwillian.easyproxy.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Direct buffers reused across connections of one event loop. Only the loop thread touches the pool, so it needs
+ * no synchronization.
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return an empty buffer in read mode, i.e. with no remaining bytes.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) buffer = ByteBuffer.allocateDirect(bufferSize);
+        return buffer.clear().flip();
+    }
+
+    void release(ByteBuffer buffer) {
+        if (buffer != null && free.size() < maxPooled) free.push(buffer);
+    }
+}
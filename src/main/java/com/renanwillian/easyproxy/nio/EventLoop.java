@@ -0,0 +1,198 @@
+package com.renanwillian.easyproxy.nio;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One selector thread serving a share of the client connections together with the upstream connections they use.
+ * Everything a loop owns, buffers and idle upstream connections included, is only touched from its thread.
+ */
+final class EventLoop implements Runnable {
+
+    private static final long SWEEP_INTERVAL_MILLIS = 500;
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    private final NioProxyEngine engine;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+    private final BufferPool buffers = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final Map<String, ArrayDeque<UpstreamChannel>> idleUpstreams = new HashMap<>();
+    private final Set<ProxyConnection> connections = new HashSet<>();
+    private final ByteBuffer idleProbe = ByteBuffer.allocate(1);
+    private volatile boolean running = true;
+
+    EventLoop(NioProxyEngine engine, int index) throws IOException {
+        this.engine = engine;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "easy-proxy-nio-" + index);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Hands an accepted client connection over to this loop.
+     */
+    void register(SocketChannel client) {
+        accepted.add(client);
+        selector.wakeup();
+    }
+
+    private void open(SocketChannel client) {
+        try {
+            client.configureBlocking(false);
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connections.add(new ProxyConnection(this, client));
+        } catch (IOException e) {
+            closeQuietly(client);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    @Override
+    public void run() {
+        long nextSweep = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL_MILLIS);
+        while (running) {
+            try {
+                selector.select(SWEEP_INTERVAL_MILLIS);
+            } catch (IOException e) {
+                break;
+            }
+
+            SocketChannel client;
+            while ((client = accepted.poll()) != null) open(client);
+
+            Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+            while (selected.hasNext()) {
+                SelectionKey key = selected.next();
+                selected.remove();
+                if (!key.isValid()) continue;
+                if (key.attachment() instanceof ProxyConnection connection) connection.onReady(key);
+                else if (key.attachment() instanceof UpstreamChannel idle) onIdleReadable(idle);
+            }
+
+            long now = System.nanoTime();
+            if (now - nextSweep >= 0) {
+                sweep(now);
+                nextSweep = now + TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL_MILLIS);
+            }
+        }
+        shutdown();
+    }
+
+    private void sweep(long now) {
+        for (ProxyConnection connection : new ArrayList<>(connections)) connection.checkTimeouts(now);
+
+        long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(engine.getConfig().getIdleTimeout());
+        for (ArrayDeque<UpstreamChannel> idle : idleUpstreams.values()) {
+            // The deque is used as a stack, so the connections idle for longest are at its tail.
+            while (!idle.isEmpty() && now - idle.peekLast().idleSince() > idleTimeoutNanos) {
+                idle.pollLast().close();
+            }
+        }
+    }
+
+    /**
+     * @return an idle connection to the authority, most recently used first, or null if there is none.
+     */
+    UpstreamChannel takeIdle(String authority) {
+        ArrayDeque<UpstreamChannel> idle = idleUpstreams.get(authority);
+        while (idle != null && !idle.isEmpty()) {
+            UpstreamChannel upstreamChannel = idle.pop();
+            if (upstreamChannel.channel().isOpen() && upstreamChannel.key().isValid()) return upstreamChannel;
+        }
+        return null;
+    }
+
+    /**
+     * Keeps a connection whose exchange completed cleanly for the next request to the same target. While idle the
+     * connection is watched for reads, which means the upstream closed it.
+     */
+    void releaseIdle(UpstreamChannel upstreamChannel) {
+        ArrayDeque<UpstreamChannel> idle = idleUpstreams.computeIfAbsent(upstreamChannel.authority(), k -> new ArrayDeque<>());
+        if (!running || idle.size() >= engine.getConfig().getMaxConnections()) {
+            upstreamChannel.close();
+            return;
+        }
+        upstreamChannel.setIdleSince(System.nanoTime());
+        upstreamChannel.key().attach(upstreamChannel);
+        upstreamChannel.key().interestOps(SelectionKey.OP_READ);
+        idle.push(upstreamChannel);
+    }
+
+    /**
+     * An idle connection has nothing to say, so data or end of stream means the upstream closed it or broke the
+     * protocol. The readiness may be stale when the connection was only just returned, hence the check.
+     */
+    private void onIdleReadable(UpstreamChannel upstreamChannel) {
+        try {
+            if (upstreamChannel.channel().read(idleProbe.clear()) == 0) return;
+        } catch (IOException ignored) {}
+        closeIdle(upstreamChannel);
+    }
+
+    private void closeIdle(UpstreamChannel upstreamChannel) {
+        ArrayDeque<UpstreamChannel> idle = idleUpstreams.get(upstreamChannel.authority());
+        if (idle != null) idle.remove(upstreamChannel);
+        upstreamChannel.close();
+    }
+
+    void remove(ProxyConnection connection) {
+        connections.remove(connection);
+    }
+
+    NioProxyEngine getEngine() {
+        return engine;
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    BufferPool getBuffers() {
+        return buffers;
+    }
+
+    void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void shutdown() {
+        SocketChannel client;
+        while ((client = accepted.poll()) != null) closeQuietly(client);
+        for (ProxyConnection connection : new ArrayList<>(connections)) connection.abort("Server stopped");
+        idleUpstreams.values().forEach(idle -> idle.forEach(UpstreamChannel::close));
+        idleUpstreams.clear();
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,64 @@
+package com.renanwillian.easyproxy.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Accumulates the start line and headers of a message as they arrive, in as many reads as it takes, up to the
+ * blank line that ends them. Body bytes after the blank line are left in the source buffer.
+ */
+final class HeadReader {
+
+    static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    private byte[] bytes = new byte[1024];
+    private int length;
+    private int lineLength;
+    private boolean complete;
+
+    /**
+     * Consumes bytes from the buffer until the head is complete or the buffer is empty.
+     *
+     * @return true once the whole head was read.
+     * @throws IOException if the head is bigger than {@link #MAX_HEAD_SIZE}.
+     */
+    boolean read(ByteBuffer buffer) throws IOException {
+        while (!complete && buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                // Empty lines before the start line are allowed and skipped.
+                if (lineLength == 0 && length > 0) complete = true;
+                else if (lineLength > 0) append(b);
+                lineLength = 0;
+            } else if (b != '\r') {
+                append(b);
+                lineLength++;
+            }
+        }
+        return complete;
+    }
+
+    private void append(byte b) throws IOException {
+        if (length == MAX_HEAD_SIZE) throw new IOException("Message head is larger than " + MAX_HEAD_SIZE + " bytes");
+        if (length == bytes.length) bytes = Arrays.copyOf(bytes, Math.min(MAX_HEAD_SIZE, bytes.length * 2));
+        bytes[length++] = b;
+    }
+
+    boolean hasStarted() {
+        return length > 0;
+    }
+
+    /**
+     * @return the head with line ends normalized to a single {@code \n}, without the trailing blank line.
+     */
+    HttpHead parse() throws IOException {
+        return HttpHead.parse(bytes, length);
+    }
+
+    void reset() {
+        length = 0;
+        lineLength = 0;
+        complete = false;
+    }
+}
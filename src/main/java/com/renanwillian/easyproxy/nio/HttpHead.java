@@ -0,0 +1,135 @@
+package com.renanwillian.easyproxy.nio;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Start line and headers of an HTTP/1.x request or response, with the headers in their original order.
+ */
+final class HttpHead {
+
+    private final String[] startLine;
+    private final List<String> names;
+    private final List<String> values;
+
+    private HttpHead(String[] startLine, List<String> names, List<String> values) {
+        this.startLine = startLine;
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * @param bytes the head as produced by {@link HeadReader}, one line per {@code \n}.
+     */
+    static HttpHead parse(byte[] bytes, int length) throws IOException {
+        String[] lines = new String(bytes, 0, length, StandardCharsets.ISO_8859_1).split("\n");
+        String[] startLine = lines[0].split(" ", 3);
+        if (startLine.length < 2) throw new IOException("Malformed start line: " + lines[0]);
+
+        List<String> names = new ArrayList<>(lines.length);
+        List<String> values = new ArrayList<>(lines.length);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) throw new IOException("Malformed header line: " + lines[i]);
+            names.add(lines[i].substring(0, colon).trim());
+            values.add(lines[i].substring(colon + 1).trim());
+        }
+        return new HttpHead(startLine, names, values);
+    }
+
+    String method() {
+        return startLine[0];
+    }
+
+    String target() {
+        return startLine[1];
+    }
+
+    /**
+     * @return the version of a request, e.g. {@code HTTP/1.1}.
+     */
+    String requestVersion() {
+        return startLine.length > 2 ? startLine[2] : "HTTP/1.0";
+    }
+
+    String responseVersion() {
+        return startLine[0];
+    }
+
+    int statusCode() throws IOException {
+        try {
+            return Integer.parseInt(startLine[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status code: " + startLine[1]);
+        }
+    }
+
+    String reasonPhrase() {
+        return startLine.length > 2 ? startLine[2] : "";
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    String name(int index) {
+        return names.get(index);
+    }
+
+    String value(int index) {
+        return values.get(index);
+    }
+
+    /**
+     * @return the first value of the header, or null.
+     */
+    String get(String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) return values.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether a comma separated header such as Connection or Transfer-Encoding lists the token.
+     */
+    boolean hasToken(String name, String token) {
+        for (int i = 0; i < names.size(); i++) {
+            if (!names.get(i).equalsIgnoreCase(name)) continue;
+            for (String value : values.get(i).split(",")) {
+                if (value.trim().equalsIgnoreCase(token)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the lower case header names listed in the Connection header, which only apply to one hop.
+     */
+    List<String> connectionTokens() {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (!names.get(i).equalsIgnoreCase("Connection")) continue;
+            for (String value : values.get(i).split(",")) {
+                if (!value.isBlank()) tokens.add(value.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the headers as the log expects them, repeated headers joined with commas.
+     */
+    Map<String, String> toMap() {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < names.size(); i++) {
+            headers.merge(names.get(i), values.get(i), (a, b) -> a + "," + b);
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,150 @@
+package com.renanwillian.easyproxy.nio;
+
+import com.renanwillian.easyproxy.balancer.Upstream;
+import com.renanwillian.easyproxy.balancer.UpstreamPool;
+import com.renanwillian.easyproxy.config.ProxyConfig;
+import com.renanwillian.easyproxy.log.LogService;
+import com.renanwillian.easyproxy.metrics.MetricsRegistry;
+import com.renanwillian.easyproxy.traffic.ExchangeRecorder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Proxy engine built directly on non-blocking sockets: an acceptor thread spreads client connections over one
+ * {@link EventLoop} per core, and each loop parses requests incrementally and relays bodies between pooled direct
+ * buffers and the sockets without copying them to the heap.
+ * <p>
+ * Only plain http targets are supported, and the response cache is not available with this engine.
+ */
+public class NioProxyEngine implements AutoCloseable {
+
+    private final ProxyConfig config;
+    private final UpstreamPool upstreamPool;
+    private final MetricsRegistry metrics;
+    private final LogService logService;
+    private final ExchangeRecorder exchangeRecorder;
+    private final Map<Upstream, Target> targets = new HashMap<>();
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private Thread acceptor;
+
+    /**
+     * @param exchangeRecorder records every exchange, or null when recording is disabled.
+     */
+    public NioProxyEngine(ProxyConfig config, UpstreamPool upstreamPool, MetricsRegistry metrics,
+                          LogService logService, ExchangeRecorder exchangeRecorder) {
+        this.config = config;
+        this.upstreamPool = upstreamPool;
+        this.metrics = metrics;
+        this.logService = logService;
+        this.exchangeRecorder = exchangeRecorder;
+        for (Upstream upstream : upstreamPool.getUpstreams()) {
+            targets.put(upstream, Target.of(upstream.getUrl()));
+        }
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(config.getPort()), 1024);
+
+        loops = new EventLoop[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(this, i);
+            loops[i].start();
+        }
+
+        acceptor = new Thread(this::accept, "easy-proxy-nio-acceptor");
+        acceptor.start();
+    }
+
+    private void accept() {
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                loops[next].register(client);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // Typically running out of file descriptors, back off instead of spinning.
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+    }
+
+    ProxyConfig getConfig() {
+        return config;
+    }
+
+    UpstreamPool getUpstreamPool() {
+        return upstreamPool;
+    }
+
+    MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    LogService getLogService() {
+        return logService;
+    }
+
+    ExchangeRecorder getExchangeRecorder() {
+        return exchangeRecorder;
+    }
+
+    Target getTarget(Upstream upstream) {
+        return targets.get(upstream);
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {}
+        if (acceptor != null) {
+            try {
+                acceptor.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (loops != null) {
+            for (EventLoop loop : loops) loop.close();
+        }
+    }
+
+    /**
+     * Where requests for an upstream go: the address to connect to, the Host header and the path prefix.
+     */
+    record Target(String host, int port, String authority, String basePath) {
+
+        static Target of(String url) {
+            URI uri = URI.create(url);
+            if (!"http".equalsIgnoreCase(uri.getScheme())) {
+                throw new IllegalArgumentException("The nio engine only supports http targets: " + url);
+            }
+            int port = uri.getPort() != -1 ? uri.getPort() : 80;
+            String basePath = uri.getRawPath() != null ? uri.getRawPath() : "";
+            return new Target(uri.getHost(), port, uri.getRawAuthority(), basePath);
+        }
+
+        /**
+         * Resolved on every new connection, so DNS changes are picked up as the JVM cache expires.
+         */
+        InetSocketAddress address() {
+            return new InetSocketAddress(host, port);
+        }
+    }
+}
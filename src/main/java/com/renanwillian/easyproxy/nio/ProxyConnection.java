@@ -0,0 +1,718 @@
+package com.renanwillian.easyproxy.nio;
+
+import com.renanwillian.easyproxy.balancer.Upstream;
+import com.renanwillian.easyproxy.config.ProxyConfig;
+import com.renanwillian.easyproxy.log.BodyCapture;
+import com.renanwillian.easyproxy.log.LogEntry;
+import com.renanwillian.easyproxy.log.LogService;
+import com.renanwillian.easyproxy.utils.HttpStatusUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One client connection and the exchanges made on it, driven by its {@link EventLoop}. Every readiness event runs
+ * {@link #pump()}, which moves bytes in both directions for as long as it can and then registers interest in
+ * whatever it is blocked on.
+ * <p>
+ * Heads are parsed into small heap buffers, bodies are relayed from the direct buffer they were read into,
+ * following Content-Length or the chunk sizes to find where they end. Requests on a connection are handled one at a
+ * time, so pipelined requests wait in the client buffer until the previous response is sent.
+ */
+final class ProxyConnection {
+
+    private static final int LOG_BODY_LIMIT = 64 * 1024;
+    private static final String ROUTE = "/";
+    private static final String CRLF = "\r\n";
+    private static final Set<String> HOP_BY_HOP_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "te",
+                                                                 "trailer", "upgrade");
+
+    private static final String BAD_REQUEST = "Bad Request: Malformed request.";
+    private static final String HEADERS_TOO_LARGE = "Request Header Fields Too Large";
+    private static final String NOT_IMPLEMENTED = "Not Implemented: CONNECT is not supported.";
+    private static final String BAD_GATEWAY_CONNECT = "Bad Gateway: Unable to connect to upstream server.";
+    private static final String BAD_GATEWAY_RESPONSE = "Bad Gateway: Invalid response from upstream server.";
+    private static final String GATEWAY_TIMEOUT = "Gateway Timeout: Upstream server took too long to respond.";
+
+    private enum State { READING_REQUEST, CONNECTING, EXCHANGING, CLOSING, CLOSED }
+
+    private final EventLoop loop;
+    private final NioProxyEngine engine;
+    private final SocketChannel client;
+    private final SelectionKey clientKey;
+    private final HeadReader requestReader = new HeadReader();
+    private final HeadReader responseReader = new HeadReader();
+    private ByteBuffer clientIn;
+    private ByteBuffer clientOut;
+    private State state = State.READING_REQUEST;
+    private long lastActivityNanos = System.nanoTime();
+
+    private LogEntry log;
+    private long startNanos;
+    private boolean clientKeepAlive;
+    private boolean closeAfterResponse;
+
+    private HttpHead request;
+    private BodyFramer requestFramer;
+    private byte[] upstreamRequestHead;
+    private ByteBuffer upstreamOut;
+    private int pendingRequestBytes;
+    private long requestBodyBytes;
+    private boolean requestAbandoned;
+    private BodyCapture requestCapture;
+
+    private Upstream upstream;
+    private NioProxyEngine.Target target;
+    private UpstreamChannel upstreamChannel;
+    private ByteBuffer upstreamIn;
+    private boolean reusedConnection;
+    private boolean retried;
+    private long connectStartNanos;
+    private long requestSentNanos;
+    private boolean firstByteRecorded;
+
+    private HttpHead response;
+    private BodyFramer responseFramer;
+    private boolean responseStarted;
+    private boolean upstreamKeepAlive;
+    private int pendingResponseBytes;
+    private long responseBodyBytes;
+    private BodyCapture responseCapture;
+
+    private boolean wantClientRead;
+    private boolean wantClientWrite;
+    private boolean wantUpstreamRead;
+    private boolean wantUpstreamWrite;
+
+    ProxyConnection(EventLoop loop, SocketChannel client) throws IOException {
+        this.loop = loop;
+        this.engine = loop.getEngine();
+        this.client = client;
+        this.clientIn = loop.getBuffers().acquire();
+        this.clientKey = client.register(loop.getSelector(), SelectionKey.OP_READ, this);
+    }
+
+    void onReady(SelectionKey key) {
+        try {
+            if (state == State.CONNECTING && upstreamChannel != null && key == upstreamChannel.key()) {
+                finishConnect();
+            }
+            pump();
+        } catch (IOException | RuntimeException e) {
+            abort("Client connection failed: " + e.getMessage());
+        }
+    }
+
+    private void pump() throws IOException {
+        boolean progress;
+        do {
+            wantClientRead = wantClientWrite = wantUpstreamRead = wantUpstreamWrite = false;
+            progress = switch (state) {
+                case READING_REQUEST -> readRequestHead();
+                case EXCHANGING -> exchange();
+                case CLOSING -> flushAndClose();
+                case CONNECTING, CLOSED -> false;
+            };
+        } while (progress && state != State.CLOSED);
+        if (state != State.CLOSED) updateInterest();
+    }
+
+    private void updateInterest() {
+        int clientOps = (wantClientRead ? SelectionKey.OP_READ : 0) | (wantClientWrite ? SelectionKey.OP_WRITE : 0);
+        if (clientKey.interestOps() != clientOps) clientKey.interestOps(clientOps);
+        if (state == State.EXCHANGING && upstreamChannel != null) {
+            int upstreamOps = (wantUpstreamRead ? SelectionKey.OP_READ : 0) | (wantUpstreamWrite ? SelectionKey.OP_WRITE : 0);
+            if (upstreamChannel.key().interestOps() != upstreamOps) upstreamChannel.key().interestOps(upstreamOps);
+        }
+    }
+
+    /**
+     * Closes connections idle for longer than the idle timeout and fails exchanges whose upstream does not connect
+     * or answer in time, with the same limits as the default engine.
+     */
+    void checkTimeouts(long now) {
+        ProxyConfig config = engine.getConfig();
+        try {
+            switch (state) {
+                case READING_REQUEST, CLOSING -> {
+                    if (now - lastActivityNanos > TimeUnit.SECONDS.toNanos(config.getIdleTimeout())) close();
+                }
+                case CONNECTING -> {
+                    if (now - connectStartNanos > TimeUnit.MILLISECONDS.toNanos(config.getConnectTimeout())) {
+                        failUpstream(504, GATEWAY_TIMEOUT, true);
+                    }
+                }
+                case EXCHANGING -> {
+                    if (response == null
+                            && now - requestSentNanos > TimeUnit.MILLISECONDS.toNanos(config.getRequestTimeout())) {
+                        failUpstream(504, GATEWAY_TIMEOUT, true);
+                    }
+                }
+                default -> {}
+            }
+            if (state == State.CLOSING) pump();
+        } catch (IOException | RuntimeException e) {
+            abort("Client connection failed: " + e.getMessage());
+        }
+    }
+
+    private boolean readRequestHead() throws IOException {
+        if (!clientIn.hasRemaining()) {
+            int read = readClient();
+            if (read < 0) {
+                close();
+                return false;
+            }
+            if (read == 0) {
+                wantClientRead = true;
+                return false;
+            }
+        }
+
+        boolean complete;
+        try {
+            complete = requestReader.read(clientIn);
+        } catch (IOException e) {
+            beginLog();
+            respondError(431, HEADERS_TOO_LARGE);
+            return true;
+        }
+        if (complete) startExchange();
+        return true;
+    }
+
+    private void beginLog() {
+        startNanos = System.nanoTime();
+        engine.getMetrics().onRequestStart();
+        log = new LogEntry();
+        log.setTimestamp(LocalDateTime.now());
+    }
+
+    private void startExchange() throws IOException {
+        beginLog();
+        try {
+            request = requestReader.parse();
+            requestReader.reset();
+            log.setMethod(request.method());
+            log.setPath(request.target());
+            log.setRequestHeaders(request.toMap());
+            requestFramer = requestFramer(request);
+        } catch (IOException e) {
+            respondError(400, BAD_REQUEST);
+            return;
+        }
+
+        boolean http11 = request.requestVersion().equals("HTTP/1.1");
+        clientKeepAlive = http11 ? !request.hasToken("Connection", "close") : request.hasToken("Connection", "keep-alive");
+        if (request.method().equalsIgnoreCase("CONNECT")) {
+            respondError(501, NOT_IMPLEMENTED);
+            return;
+        }
+
+        LogService logService = engine.getLogService();
+        boolean captureBodies = logService.sample(log) && logService.isShowingDetails()
+                || engine.getExchangeRecorder() != null;
+        requestCapture = captureBodies ? new BodyCapture(LOG_BODY_LIMIT) : null;
+        upstream = engine.getUpstreamPool().select(getHashKey());
+        upstream.onRequestStart();
+        target = engine.getTarget(upstream);
+        log.setTarget(upstream.getUrl());
+        upstreamRequestHead = buildUpstreamRequestHead(http11);
+        connectUpstream(true);
+    }
+
+    private String getHashKey() throws IOException {
+        String hashHeader = engine.getUpstreamPool().getHashHeader();
+        if (hashHeader != null) {
+            String value = request.get(hashHeader);
+            if (value != null) return value;
+        }
+        return client.getRemoteAddress() instanceof InetSocketAddress address
+                ? address.getAddress().getHostAddress() : null;
+    }
+
+    private static BodyFramer requestFramer(HttpHead request) throws IOException {
+        if (request.hasToken("Transfer-Encoding", "chunked")) return BodyFramer.chunked();
+        String contentLength = request.get("Content-Length");
+        if (contentLength == null) return BodyFramer.none();
+        return BodyFramer.fixed(parseContentLength(contentLength));
+    }
+
+    private BodyFramer responseFramer(HttpHead response, int statusCode) throws IOException {
+        if (request.method().equalsIgnoreCase("HEAD") || statusCode == 204 || statusCode == 304 || statusCode < 200) {
+            return BodyFramer.none();
+        }
+        if (response.hasToken("Transfer-Encoding", "chunked")) return BodyFramer.chunked();
+        String contentLength = response.get("Content-Length");
+        if (contentLength == null) return BodyFramer.untilClose();
+        return BodyFramer.fixed(parseContentLength(contentLength));
+    }
+
+    private static long parseContentLength(String value) throws IOException {
+        try {
+            long length = Long.parseLong(value.trim());
+            if (length < 0) throw new IOException("Negative Content-Length");
+            return length;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Length: " + value);
+        }
+    }
+
+    /**
+     * The request as the target expects it: its own Host, the target base path, and no headers that only apply to
+     * the client connection. The body framing headers are kept since the body is relayed as is.
+     */
+    private byte[] buildUpstreamRequestHead(boolean http11) {
+        StringBuilder head = new StringBuilder(256);
+        head.append(request.method()).append(' ').append(target.basePath()).append(request.target()).append(' ')
+            .append(http11 ? "HTTP/1.1" : "HTTP/1.0").append(CRLF);
+        head.append("Host: ").append(target.authority()).append(CRLF);
+        appendEndToEndHeaders(head, request, Set.of("host"));
+        head.append(CRLF);
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private byte[] buildClientResponseHead(HttpHead response, int statusCode) {
+        String reason = response.reasonPhrase().isEmpty() ? HttpStatusUtils.reasonPhrase(statusCode) : response.reasonPhrase();
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(statusCode).append(' ').append(reason).append(CRLF);
+        appendEndToEndHeaders(head, response, Set.of());
+        if (statusCode >= 200) {
+            if (closeAfterResponse) head.append("Connection: close").append(CRLF);
+            else if (!request.requestVersion().equals("HTTP/1.1")) head.append("Connection: keep-alive").append(CRLF);
+        }
+        head.append(CRLF);
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void appendEndToEndHeaders(StringBuilder head, HttpHead message, Set<String> excluded) {
+        List<String> connectionTokens = message.connectionTokens();
+        for (int i = 0; i < message.size(); i++) {
+            String name = message.name(i).toLowerCase(Locale.ROOT);
+            if (HOP_BY_HOP_HEADERS.contains(name) || connectionTokens.contains(name) || excluded.contains(name)) continue;
+            head.append(message.name(i)).append(": ").append(message.value(i)).append(CRLF);
+        }
+    }
+
+    private void connectUpstream(boolean allowIdle) throws IOException {
+        UpstreamChannel idle = allowIdle ? loop.takeIdle(target.authority()) : null;
+        if (idle != null) {
+            idle.key().attach(this);
+            upstreamChannel = idle;
+            reusedConnection = true;
+            beginExchange();
+            return;
+        }
+
+        reusedConnection = false;
+        connectStartNanos = System.nanoTime();
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            upstreamChannel = new UpstreamChannel(target.authority(), channel,
+                                                  channel.register(loop.getSelector(), SelectionKey.OP_CONNECT, this));
+            state = State.CONNECTING;
+            if (channel.connect(target.address())) onConnected();
+        } catch (IOException | UnresolvedAddressException e) {
+            if (upstreamChannel == null) channel.close();
+            failUpstream(502, BAD_GATEWAY_CONNECT, true);
+        }
+    }
+
+    private void finishConnect() {
+        try {
+            if (upstreamChannel.channel().finishConnect()) onConnected();
+        } catch (IOException e) {
+            failUpstream(502, BAD_GATEWAY_CONNECT, true);
+        }
+    }
+
+    private void onConnected() throws IOException {
+        engine.getMetrics().recordUpstreamConnect(System.nanoTime() - connectStartNanos);
+        upstreamChannel.channel().setOption(StandardSocketOptions.TCP_NODELAY, true);
+        upstreamChannel.key().interestOps(0);
+        beginExchange();
+    }
+
+    private void beginExchange() {
+        state = State.EXCHANGING;
+        upstreamOut = ByteBuffer.wrap(upstreamRequestHead);
+        if (upstreamIn == null) upstreamIn = loop.getBuffers().acquire();
+        requestSentNanos = System.nanoTime();
+    }
+
+    private boolean exchange() throws IOException {
+        boolean progress = sendRequest();
+        if (state != State.EXCHANGING) return true;
+        progress |= receiveResponse();
+        if (state != State.EXCHANGING) return true;
+        progress |= sendResponse();
+
+        if (response != null && responseFramer.isComplete() && pendingResponseBytes == 0 && !clientOut.hasRemaining()) {
+            finishExchange();
+            return true;
+        }
+        return progress;
+    }
+
+    private boolean sendRequest() throws IOException {
+        if (requestAbandoned) return false;
+        boolean progress = false;
+        if (upstreamOut.hasRemaining()) {
+            int written = writeUpstream(upstreamOut);
+            if (written < 0) return true;
+            if (upstreamOut.hasRemaining()) {
+                wantUpstreamWrite = true;
+                return written > 0;
+            }
+            progress = true;
+        }
+
+        if (pendingRequestBytes == 0 && !requestFramer.isComplete() && clientIn.hasRemaining()) {
+            pendingRequestBytes = requestFramer.scan(clientIn);
+        }
+        if (pendingRequestBytes > 0) {
+            int written = relay(clientIn, pendingRequestBytes, null, requestCapture);
+            if (written < 0) return true;
+            pendingRequestBytes -= written;
+            requestBodyBytes += written;
+            if (pendingRequestBytes > 0) wantUpstreamWrite = true;
+            return progress || written > 0;
+        }
+        if (!requestFramer.isComplete()) {
+            int read = readClient();
+            if (read < 0) {
+                abort("Client closed the connection before sending the whole body");
+                return false;
+            }
+            if (read == 0) wantClientRead = true;
+            return progress || read > 0;
+        }
+        return progress;
+    }
+
+    private boolean receiveResponse() throws IOException {
+        if (response != null && (responseFramer.isComplete() || pendingResponseBytes > 0)) return false;
+
+        if (!upstreamIn.hasRemaining()) {
+            int read = readUpstream();
+            if (read < 0) {
+                onUpstreamEndOfStream();
+                return true;
+            }
+            if (read == 0) {
+                wantUpstreamRead = true;
+                return false;
+            }
+            responseStarted = true;
+        }
+
+        if (response == null) {
+            try {
+                if (responseReader.read(upstreamIn)) onResponseHead(responseReader.parse());
+            } catch (IOException e) {
+                failUpstream(502, BAD_GATEWAY_RESPONSE, false);
+            }
+            return true;
+        }
+
+        try {
+            pendingResponseBytes = responseFramer.scan(upstreamIn);
+        } catch (IOException e) {
+            abort("Invalid response body from upstream: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private void onUpstreamEndOfStream() throws IOException {
+        if (response != null) {
+            responseFramer.onEndOfStream();
+            upstreamKeepAlive = false;
+            if (!responseFramer.isComplete()) abort("Upstream closed the connection before sending the whole body");
+            return;
+        }
+        // A pooled connection the target closed in the meantime; the request can be sent again when none of it
+        // was consumed from the client yet.
+        if (reusedConnection && !responseStarted && !retried && requestBodyBytes == 0 && pendingRequestBytes == 0) {
+            retried = true;
+            closeUpstreamChannel();
+            connectUpstream(false);
+            return;
+        }
+        failUpstream(502, BAD_GATEWAY_RESPONSE, false);
+    }
+
+    private void onResponseHead(HttpHead head) throws IOException {
+        int statusCode = head.statusCode();
+        if (!firstByteRecorded) {
+            engine.getMetrics().recordUpstreamFirstByte(System.nanoTime() - requestSentNanos);
+            firstByteRecorded = true;
+            upstream.onSuccess();
+        }
+        responseReader.reset();
+
+        if (statusCode >= 100 && statusCode < 200) {
+            if (statusCode == 101) throw new IOException("Unexpected protocol switch");
+            // Interim responses such as 100 Continue are passed on to HTTP/1.1 clients before the final one.
+            if (request.requestVersion().equals("HTTP/1.1")) queueClientOutput(buildClientResponseHead(head, statusCode));
+            return;
+        }
+
+        response = head;
+        responseFramer = responseFramer(head, statusCode);
+        boolean http11 = head.responseVersion().equals("HTTP/1.1");
+        upstreamKeepAlive = http11 ? !head.hasToken("Connection", "close") : head.hasToken("Connection", "keep-alive");
+        boolean delimitedByClose = !responseFramer.isComplete() && head.get("Content-Length") == null
+                && !head.hasToken("Transfer-Encoding", "chunked");
+        if (delimitedByClose) upstreamKeepAlive = false;
+        closeAfterResponse = !clientKeepAlive || delimitedByClose;
+
+        queueClientOutput(buildClientResponseHead(head, statusCode));
+        responseCapture = requestCapture != null ? new BodyCapture(LOG_BODY_LIMIT) : null;
+        log.setStatusCode(statusCode);
+        log.setResponseMessage(HttpStatusUtils.reasonPhrase(statusCode));
+        log.setResponseHeaders(head.toMap());
+    }
+
+    private boolean sendResponse() throws IOException {
+        if (clientOut != null && clientOut.hasRemaining()) {
+            int written = client.write(clientOut);
+            if (clientOut.hasRemaining()) wantClientWrite = true;
+            return written > 0;
+        }
+        if (pendingResponseBytes > 0) {
+            int written = relay(upstreamIn, pendingResponseBytes, client, responseCapture);
+            pendingResponseBytes -= written;
+            responseBodyBytes += written;
+            if (pendingResponseBytes > 0) wantClientWrite = true;
+            return written > 0;
+        }
+        return false;
+    }
+
+    private void finishExchange() throws IOException {
+        boolean requestComplete = requestFramer.isComplete() && pendingRequestBytes == 0;
+        if (upstreamKeepAlive && requestComplete && !upstreamIn.hasRemaining()) {
+            loop.releaseIdle(upstreamChannel);
+            upstreamChannel = null;
+        } else {
+            closeUpstreamChannel();
+        }
+        if (!requestComplete) closeAfterResponse = true;
+
+        completeLog();
+        resetExchange();
+        if (closeAfterResponse) {
+            close();
+        } else {
+            state = State.READING_REQUEST;
+            lastActivityNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Relays body bytes straight from the direct buffer they were read into. The destination is the upstream when
+     * {@code destination} is null.
+     *
+     * @return the bytes written, or -1 if writing to the upstream failed and the exchange was ended.
+     */
+    private int relay(ByteBuffer source, int count, SocketChannel destination, BodyCapture capture) throws IOException {
+        ByteBuffer slice = source.slice(source.position(), count);
+        int written = destination != null ? destination.write(slice) : writeUpstream(slice);
+        if (written > 0) {
+            if (capture != null) capture.write(source.slice(source.position(), written));
+            source.position(source.position() + written);
+        }
+        return written;
+    }
+
+    private int readClient() throws IOException {
+        clientIn.compact();
+        try {
+            int read = client.read(clientIn);
+            if (read > 0) lastActivityNanos = System.nanoTime();
+            return read;
+        } finally {
+            clientIn.flip();
+        }
+    }
+
+    private int readUpstream() {
+        upstreamIn.compact();
+        try {
+            return upstreamChannel.channel().read(upstreamIn);
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            upstreamIn.flip();
+        }
+    }
+
+    /**
+     * @return the bytes written, or -1 if the upstream connection failed, in which case the exchange was retried
+     * on a new connection or answered with an error.
+     */
+    private int writeUpstream(ByteBuffer buffer) throws IOException {
+        try {
+            return upstreamChannel.channel().write(buffer);
+        } catch (IOException e) {
+            // Targets may answer early and stop reading the request, the response is still relayed in that case.
+            if (response != null) requestAbandoned = true;
+            else onUpstreamEndOfStream();
+            return -1;
+        }
+    }
+
+    private void queueClientOutput(byte[] bytes) {
+        if (clientOut == null || !clientOut.hasRemaining()) {
+            clientOut = ByteBuffer.wrap(bytes);
+            return;
+        }
+        ByteBuffer combined = ByteBuffer.allocate(clientOut.remaining() + bytes.length);
+        combined.put(clientOut).put(bytes).flip();
+        clientOut = combined;
+    }
+
+    /**
+     * Answers the client with an error once the upstream connection failed, or just drops the client when part of
+     * the upstream response was already sent.
+     */
+    private void failUpstream(int statusCode, String message, boolean countsAsFailure) {
+        closeUpstreamChannel();
+        if (countsAsFailure && upstream != null) upstream.onFailure();
+        if (response != null) {
+            abort(message);
+            return;
+        }
+        respondError(statusCode, message);
+    }
+
+    private void respondError(int statusCode, String message) {
+        log.setStatusCode(statusCode);
+        log.setResponseMessage(message);
+        if (log.getMethod() == null) {
+            log.setMethod("-");
+            log.setPath("-");
+        }
+
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + statusCode + " " + HttpStatusUtils.reasonPhrase(statusCode) + CRLF
+                + "Content-Type: text/plain; charset=UTF-8" + CRLF
+                + "Content-Length: " + body.length + CRLF
+                + "Connection: close" + CRLF + CRLF;
+        queueClientOutput(head.getBytes(StandardCharsets.ISO_8859_1));
+        queueClientOutput(body);
+        responseBodyBytes = body.length;
+
+        completeLog();
+        resetExchange();
+        state = State.CLOSING;
+    }
+
+    private boolean flushAndClose() throws IOException {
+        if (clientOut != null && clientOut.hasRemaining()) {
+            int written = client.write(clientOut);
+            if (clientOut.hasRemaining()) {
+                wantClientWrite = true;
+                return written > 0;
+            }
+        }
+        close();
+        return false;
+    }
+
+    private void completeLog() {
+        if (log == null) return;
+        if (requestCapture != null && requestCapture.getTotalBytes() > 0) log.setRequestBody(requestCapture.toByteArray());
+        if (responseCapture != null && responseCapture.getTotalBytes() > 0) log.setResponseBody(responseCapture.toByteArray());
+        log.setRequestBodySize(requestBodyBytes);
+        log.setResponseBodySize(responseBodyBytes);
+
+        long durationNanos = System.nanoTime() - startNanos;
+        engine.getMetrics().onRequestEnd(ROUTE, log.getStatusCode(), durationNanos, requestBodyBytes, responseBodyBytes);
+        log.setDuration(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+        if (engine.getExchangeRecorder() != null) engine.getExchangeRecorder().record(log);
+        engine.getLogService().log(log);
+        log = null;
+    }
+
+    private void resetExchange() {
+        if (upstream != null) upstream.onRequestEnd();
+        upstream = null;
+        target = null;
+        request = null;
+        requestFramer = null;
+        upstreamRequestHead = null;
+        upstreamOut = null;
+        pendingRequestBytes = 0;
+        requestBodyBytes = 0;
+        requestAbandoned = false;
+        requestCapture = null;
+        reusedConnection = false;
+        retried = false;
+        requestSentNanos = 0;
+        firstByteRecorded = false;
+        response = null;
+        responseFramer = null;
+        responseStarted = false;
+        upstreamKeepAlive = false;
+        pendingResponseBytes = 0;
+        responseBodyBytes = 0;
+        responseCapture = null;
+        responseReader.reset();
+        if (upstreamIn != null && !upstreamIn.hasRemaining()) {
+            loop.getBuffers().release(upstreamIn);
+            upstreamIn = null;
+        }
+    }
+
+    /**
+     * Ends the connection without answering, logging the exchange in progress if there is one.
+     */
+    void abort(String reason) {
+        if (log != null) {
+            if (log.getStatusCode() == 0) log.setResponseMessage(reason);
+            if (log.getMethod() == null) {
+                log.setMethod("-");
+                log.setPath("-");
+            }
+            completeLog();
+        }
+        close();
+    }
+
+    private void closeUpstreamChannel() {
+        if (upstreamChannel != null) {
+            upstreamChannel.close();
+            upstreamChannel = null;
+        }
+        if (upstreamIn != null) upstreamIn.clear().flip();
+    }
+
+    private void close() {
+        if (state == State.CLOSED) return;
+        state = State.CLOSED;
+        closeUpstreamChannel();
+        resetExchange();
+        clientKey.cancel();
+        try {
+            client.close();
+        } catch (IOException ignored) {}
+        loop.getBuffers().release(clientIn);
+        if (upstreamIn != null) loop.getBuffers().release(upstreamIn);
+        clientIn = null;
+        upstreamIn = null;
+        loop.remove(this);
+    }
+}
@@ -0,0 +1,48 @@
+package com.renanwillian.easyproxy.nio;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connection to an upstream target, owned by one event loop and kept open between exchanges.
+ */
+final class UpstreamChannel {
+
+    private final String authority;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private long idleSince;
+
+    UpstreamChannel(String authority, SocketChannel channel, SelectionKey key) {
+        this.authority = authority;
+        this.channel = channel;
+        this.key = key;
+    }
+
+    String authority() {
+        return authority;
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    SelectionKey key() {
+        return key;
+    }
+
+    long idleSince() {
+        return idleSince;
+    }
+
+    void setIdleSince(long idleSince) {
+        this.idleSince = idleSince;
+    }
+
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (Exception ignored) {}
+    }
+}
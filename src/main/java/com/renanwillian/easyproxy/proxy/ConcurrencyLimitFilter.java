@@ -0,0 +1,49 @@
+package com.renanwillian.easyproxy.proxy;
+
+import com.renanwillian.easyproxy.limit.ConcurrencyLimiter;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Answers requests over the adaptive concurrency limit with a 503 and counts the others in flight. The limit itself
+ * follows the upstream calls, measured by the {@link UpstreamCaller}, so requests served without the upstream or
+ * aborted by the client do not change it.
+ */
+public class ConcurrencyLimitFilter extends Filter {
+
+    private static final byte[] MESSAGE = "Service Unavailable: Concurrency limit reached.".getBytes(StandardCharsets.UTF_8);
+
+    private final ConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitFilter(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (!limiter.tryAcquire()) {
+            try (exchange; OutputStream responseBody = exchange.getResponseBody()) {
+                exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.sendResponseHeaders(503, MESSAGE.length);
+                responseBody.write(MESSAGE);
+            }
+            return;
+        }
+
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            limiter.release();
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Rejects requests over the adaptive concurrency limit";
+    }
+}
@@ -0,0 +1,11 @@
+package com.renanwillian.easyproxy.proxy;
+
+/**
+ * The server implementation accepting client connections.
+ */
+public enum Engine {
+    /** The JDK com.sun.net.httpserver server with blocking handlers, supporting every feature. */
+    HTTPSERVER,
+    /** Non-blocking event loops relaying bytes between sockets, for http targets and without the cache. */
+    NIO
+}
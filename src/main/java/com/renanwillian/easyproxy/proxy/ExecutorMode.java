@@ -0,0 +1,13 @@
+package com.renanwillian.easyproxy.proxy;
+
+/**
+ * How the server runs its request handlers.
+ */
+public enum ExecutorMode {
+    /** Unbounded pool of platform threads, one per concurrent request. */
+    CACHED,
+    /** Bounded pool of platform threads with a bounded queue, excess requests get a 503. */
+    FIXED,
+    /** One virtual thread per request. */
+    VIRTUAL
+}
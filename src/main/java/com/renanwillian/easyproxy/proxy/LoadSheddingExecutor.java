@@ -0,0 +1,70 @@
+package com.renanwillian.easyproxy.proxy;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed thread pool with a bounded queue. Exchanges that do not fit are not dropped silently: they run on a small
+ * side pool flagged as shedding, so {@link LoadSheddingFilter} can answer them with a 503 right away. When the side
+ * pool is saturated as well, the exchange is answered on the server thread that submitted it, which also slows down
+ * accepting new connections until the burst passes.
+ */
+public final class LoadSheddingExecutor extends ThreadPoolExecutor {
+
+    private static final ThreadLocal<Boolean> SHEDDING = ThreadLocal.withInitial(() -> false);
+
+    private final ThreadPoolExecutor shedPool;
+    private final LongAdder shedCount = new LongAdder();
+
+    public LoadSheddingExecutor(int threads, int queueSize) {
+        super(threads, threads, 60, TimeUnit.SECONDS, createQueue(queueSize));
+        this.shedPool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads),
+                                               (task, executor) -> {
+                                                   if (!executor.isShutdown()) task.run();
+                                               });
+        this.shedPool.allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler((task, executor) -> {
+            shedCount.increment();
+            shedPool.execute(() -> {
+                SHEDDING.set(true);
+                try {
+                    task.run();
+                } finally {
+                    SHEDDING.remove();
+                }
+            });
+        });
+    }
+
+    private static BlockingQueue<Runnable> createQueue(int queueSize) {
+        return queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+    }
+
+    /**
+     * @return true if the current thread is running an exchange that did not fit in the pool.
+     */
+    public static boolean isShedding() {
+        return SHEDDING.get();
+    }
+
+    public long getShedCount() {
+        return shedCount.sum();
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        shedPool.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shedPool.shutdownNow();
+        return super.shutdownNow();
+    }
+}
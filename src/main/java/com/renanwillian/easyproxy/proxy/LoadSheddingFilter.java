@@ -0,0 +1,36 @@
+package com.renanwillian.easyproxy.proxy;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Answers exchanges rejected by {@link LoadSheddingExecutor} with a 503 instead of forwarding them.
+ */
+public class LoadSheddingFilter extends Filter {
+
+    private static final byte[] MESSAGE = "Service Unavailable: Proxy is overloaded.".getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (!LoadSheddingExecutor.isShedding()) {
+            chain.doFilter(exchange);
+            return;
+        }
+
+        try (exchange; OutputStream responseBody = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+            exchange.getResponseHeaders().add("Retry-After", "1");
+            exchange.sendResponseHeaders(503, MESSAGE.length);
+            responseBody.write(MESSAGE);
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Rejects exchanges that did not fit in the bounded executor";
+    }
+}
@@ -0,0 +1,43 @@
+package com.renanwillian.easyproxy.proxy;
+
+import com.renanwillian.easyproxy.config.ProxyConfig;
+import com.renanwillian.easyproxy.utils.TerminalUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ProxyExecutors {
+
+    private ProxyExecutors() {}
+
+    public static ExecutorService create(ProxyConfig config) {
+        return switch (config.getExecutorMode()) {
+            case CACHED -> Executors.newCachedThreadPool();
+            case FIXED -> new LoadSheddingExecutor(config.getThreads(), config.getQueueSize());
+            case VIRTUAL -> newVirtualThreadExecutor();
+        };
+    }
+
+    /**
+     * Virtual threads are a preview API on Java 19 and 20, which the project still targets, so the executor is looked up
+     * instead of referenced: a direct call does not compile for 19 and fails at runtime without --enable-preview.
+     *
+     * @return an executor starting a virtual thread per task, or a cached thread pool where they are not available.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            MethodHandle factory = MethodHandles.publicLookup()
+                                                .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                                                            MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invokeExact();
+        } catch (UnsupportedOperationException | ReflectiveOperationException e) {
+            TerminalUtils.printlnError("Virtual threads are not available (" + e.getMessage() + "), using cached executor.");
+            return Executors.newCachedThreadPool();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Error creating the virtual thread executor", e);
+        }
+    }
+}
@@ -1,175 +1,609 @@
 package com.renanwillian.easyproxy.proxy;
 
+import com.renanwillian.easyproxy.balancer.Upstream;
+import com.renanwillian.easyproxy.balancer.CircuitOpenException;
+import com.renanwillian.easyproxy.cache.CachedResponse;
+import com.renanwillian.easyproxy.cache.HttpCache;
+import com.renanwillian.easyproxy.log.BodyCapture;
 import com.renanwillian.easyproxy.log.LogEntry;
 import com.renanwillian.easyproxy.log.LogService;
-import com.renanwillian.easyproxy.utils.UrlUtils;
+import com.renanwillian.easyproxy.metrics.MetricsRegistry;
+import com.renanwillian.easyproxy.route.Route;
+import com.renanwillian.easyproxy.route.Router;
+import com.renanwillian.easyproxy.stub.StubMiss;
+import com.renanwillian.easyproxy.stub.StubResponse;
+import com.renanwillian.easyproxy.stub.StubStore;
+import com.renanwillian.easyproxy.traffic.ExchangeRecorder;
+import com.renanwillian.easyproxy.upstream.PoolExhaustedException;
+import com.renanwillian.easyproxy.upstream.TimedBodyPublisher;
+import com.renanwillian.easyproxy.upstream.UpstreamResponse;
+import com.renanwillian.easyproxy.utils.CapturingInputStream;
+import com.renanwillian.easyproxy.utils.CompressionUtils;
+import com.renanwillian.easyproxy.utils.HttpStatusUtils;
+import com.renanwillian.easyproxy.utils.StreamUtils;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ConnectException;
-import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 public class ProxyHandler implements HttpHandler {
 
-    private final String targetUrl;
+    /**
+     * Maximum number of bytes of each body kept for logging, the rest is streamed without being retained.
+     */
+    public static final int LOG_BODY_LIMIT = 64 * 1024;
+
+    // Case-insensitive sets, so header names are looked up without lowercasing a copy of each one.
+    private static final Set<String> HOP_BY_HOP_HEADERS = headerNames("connection", "keep-alive", "proxy-connection",
+                                                                      "transfer-encoding", "te", "trailer", "upgrade",
+                                                                      "content-length");
+
+    /**
+     * Request headers the upstream client sets by itself and refuses to take from the caller.
+     */
+    private static final Set<String> RESTRICTED_REQUEST_HEADERS = headerNames("host", "expect");
+
+    private static final String CACHE_HIT = "HIT";
+    private static final String CACHE_MISS = "MISS";
+    private static final String CACHE_REVALIDATED = "REVALIDATED";
+    private static final String COALESCED = "COALESCED";
+
+    private static final String STUB_TARGET = "stub";
+
+    private final Router router;
+    private final UpstreamCaller upstreamCaller;
+    private final HttpCache httpCache;
+    private final StubStore stubStore;
+    private final RequestCoalescer coalescer;
+    private final ResponseCompressor compressor;
+    private final ExchangeRecorder exchangeRecorder;
+    private final MetricsRegistry metrics;
     private final LogService logService;
 
-    public ProxyHandler(String targetUrl, LogService logService) {
-        this.targetUrl = targetUrl;
+    /**
+     * @param router           picks the route, and so the targets, of each request.
+     * @param upstreamCaller   sends the requests to the targets.
+     * @param httpCache        the response cache, or null when caching is disabled.
+     * @param stubStore        prepared responses served before the cache and the targets, or null without stubs.
+     * @param coalescer        merges identical concurrent requests into one upstream call, or null when disabled.
+     * @param compressor       compresses responses for clients that accept it, or null when compression is disabled.
+     * @param exchangeRecorder records every exchange, or null when recording is disabled.
+     */
+    public ProxyHandler(Router router, UpstreamCaller upstreamCaller, HttpCache httpCache, StubStore stubStore,
+                        RequestCoalescer coalescer, ResponseCompressor compressor, ExchangeRecorder exchangeRecorder,
+                        MetricsRegistry metrics, LogService logService) {
+        this.router = router;
+        this.upstreamCaller = upstreamCaller;
+        this.httpCache = httpCache;
+        this.stubStore = stubStore;
+        this.coalescer = coalescer;
+        this.compressor = compressor;
+        this.exchangeRecorder = exchangeRecorder;
+        this.metrics = metrics;
         this.logService = logService;
     }
 
     @Override
     public void handle(HttpExchange exchange) {
-        Instant start = Instant.now();
+        long startNanos = System.nanoTime();
+        metrics.onRequestStart();
         LogEntry log = new LogEntry();
         log.setTimestamp(LocalDateTime.now());
+        log.setMethod(exchange.getRequestMethod());
+        log.setPath(exchange.getRequestURI().toString());
+        RequestCoalescer.Flight flight = null;
+        Route route = null;
+        // Bodies are only copied when they are printed or recorded, otherwise the captures just count bytes. Sampling
+        // is decided here, so the exchanges sampled out copy nothing.
+        boolean sampled = logService.sample(log);
+        int logBodyLimit = sampled && logService.isShowingDetails() || exchangeRecorder != null ? LOG_BODY_LIMIT : 0;
         try {
-            log.setMethod(exchange.getRequestMethod());
-            log.setPath(exchange.getRequestURI().toString());
-
-            HttpURLConnection connection = getHttpURLConnection(exchange);
-            Map<String, String> requestHeaders = getRequestHeaders(exchange);
-            forwardRequestHeaders(requestHeaders, connection);
+            Map<String, String> requestHeaders = copyRequestHeaders(exchange.getRequestHeaders());
             log.setRequestHeaders(requestHeaders);
 
-            if (hasRequestBody(exchange)) {
-                byte[] requestBody = getRequestBody(exchange);
-                log.setRequestBody(requestBody);
-                forwardRequestBody(connection, requestBody);
+            if (stubStore != null) {
+                StubResponse stub = stubStore.lookup(exchange.getRequestMethod(), exchange.getRequestURI().toString());
+                if (stub != null || stubStore.getMiss() == StubMiss.FAIL) {
+                    serveStub(exchange, stub, logBodyLimit, log);
+                    return;
+                }
             }
 
-            log.setStatusCode(connection.getResponseCode());
-            log.setResponseMessage(connection.getResponseMessage());
+            route = router.match(exchange.getRequestURI().getRawPath());
+            if (route == null) {
+                sendError(exchange, 404, "Not Found: No route matches the path.", log);
+                return;
+            }
+
+            String cacheKey = null;
+            CachedResponse cached = null;
+            if (httpCache != null && HttpCache.isCacheableRequest(exchange.getRequestMethod(), requestHeaders)) {
+                cacheKey = HttpCache.key(exchange.getRequestMethod(), exchange.getRequestURI().toString());
+                cached = httpCache.lookup(cacheKey, requestHeaders);
+                if (cached != null && cached.isFresh(System.currentTimeMillis())
+                        && !HttpCache.requiresRevalidation(requestHeaders)) {
+                    httpCache.recordHit();
+                    serveCachedResponse(exchange, cacheKey, cached, CACHE_HIT, requestHeaders, logBodyLimit, log);
+                    return;
+                }
+                httpCache.recordMiss();
+            }
+
+            Map<String, String> conditionalHeaders = getConditionalHeaders(cached, requestHeaders);
+            if (coalescer != null && conditionalHeaders.isEmpty()
+                    && RequestCoalescer.isCoalescable(exchange.getRequestMethod(), requestHeaders)) {
+                flight = coalescer.join(coalescer.key(exchange.getRequestMethod(), exchange.getRequestURI().toString(),
+                                                      requestHeaders));
+                if (flight != null && !flight.isLeader()) {
+                    RequestCoalescer.SharedResponse shared = flight.await();
+                    flight = null;
+                    if (shared != null) {
+                        serveSharedResponse(exchange, shared, requestHeaders, logBodyLimit, log);
+                        return;
+                    }
+                }
+            }
 
-            Map<String, String> responseHeaders = getResponseHeaders(connection);
-            forwardResponseHeaders(exchange, responseHeaders);
+            BodyCapture requestCapture = new BodyCapture(logBodyLimit);
+            try (UpstreamCaller.Call call = send(exchange, route, requestHeaders, conditionalHeaders, requestCapture,
+                                                 flight, log)) {
+                UpstreamResponse response = call.response();
+                int statusCode = response.statusCode();
+                Map<String, String> responseHeaders = getResponseHeaders(response);
 
-            byte[] responseBody = getResponseBody(connection);
-            forwardResponse(exchange, connection.getResponseCode(), responseBody);
+                if (statusCode == 304 && !conditionalHeaders.isEmpty()) {
+                    CachedResponse refreshed = httpCache.revalidate(cacheKey, cached, responseHeaders);
+                    serveCachedResponse(exchange, cacheKey, refreshed, CACHE_REVALIDATED, requestHeaders,
+                                        logBodyLimit, log);
+                } else {
+                    log.setStatusCode(statusCode);
+                    log.setResponseMessage(HttpStatusUtils.reasonPhrase(statusCode));
+                    String encoding = null;
+                    Map<String, String> clientHeaders = responseHeaders;
+                    if (compressor != null && response.contentLength() != 0 && canHaveResponseBody(exchange, statusCode)
+                            && compressor.isCompressible(responseHeaders, response.contentLength())) {
+                        encoding = compressor.negotiate(requestHeaders);
+                        clientHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                        clientHeaders.putAll(responseHeaders);
+                        ResponseCompressor.prepareHeaders(clientHeaders, encoding);
+                    }
+                    forwardResponseHeaders(exchange.getResponseHeaders(), clientHeaders);
+                    log.setResponseHeaders(responseHeaders);
 
-            log.setResponseHeaders(responseHeaders);
-            log.setResponseBody(responseBody);
+                    // The whole upstream body is kept when it is stored in the cache or shared with waiters.
+                    int bodyLimit = 0;
+                    boolean storable = cacheKey != null && HttpCache.isStorable(statusCode, responseHeaders)
+                            && response.contentLength() <= httpCache.getMaxEntryBytes();
+                    if (storable) {
+                        bodyLimit = (int) httpCache.getMaxEntryBytes();
+                        log.setCacheStatus(CACHE_MISS);
+                    }
+                    if (flight != null) bodyLimit = Math.max(bodyLimit, coalescer.getMaxBodySize());
+                    BodyCapture bodyCapture = bodyLimit > 0 ? new BodyCapture(bodyLimit) : null;
+
+                    // Stored and shared before the response completes, so the next request of the client finds it.
+                    String storeKey = storable ? cacheKey : null;
+                    RequestCoalescer.Flight leader = flight;
+                    Runnable shareBody = () -> {
+                        if (bodyCapture == null || bodyCapture.isTruncated()) return;
+                        byte[] body = bodyCapture.toByteArray();
+                        if (storeKey != null && body.length <= httpCache.getMaxEntryBytes()) {
+                            httpCache.store(storeKey, statusCode, responseHeaders, requestHeaders, body);
+                        }
+                        if (leader != null && body.length <= coalescer.getMaxBodySize()) {
+                            leader.complete(new RequestCoalescer.SharedResponse(statusCode, responseHeaders,
+                                                                                call.upstream().getUrl(), body));
+                        }
+                    };
+
+                    BodyCapture responseCapture = new BodyCapture(logBodyLimit);
+                    if (streamResponseBody(exchange, response, responseCapture, bodyCapture, encoding, shareBody)) {
+                        log.setResponseBody(responseCapture.toByteArray());
+                        log.setResponseBodySize(responseCapture.getTotalBytes());
+                    }
+                }
+            }
+
+            if (requestCapture.getTotalBytes() > 0) {
+                log.setRequestBody(requestCapture.toByteArray());
+                log.setRequestBodySize(requestCapture.getTotalBytes());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            handleException(exchange, ie, log);
         } catch (Exception e) {
             handleException(exchange, e, log);
         } finally {
+            // Waiters of a response that could not be shared, or of a client that went away, send their own requests.
+            if (flight != null) flight.complete(null);
             exchange.close();
+            long durationNanos = System.nanoTime() - startNanos;
+            metrics.onRequestEnd(route != null ? route.getPrefix() : exchange.getHttpContext().getPath(),
+                                 log.getStatusCode(), durationNanos,
+                                 log.getRequestBodySize(), log.getResponseBodySize());
+            log.setDuration(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+            if (exchangeRecorder != null) exchangeRecorder.record(log);
+            logService.log(log);
         }
-        long duration = Instant.now().toEpochMilli() - start.toEpochMilli();
-        log.setDuration(duration);
-        logService.log(log);
     }
 
-    private static void forwardResponseHeaders(HttpExchange exchange, Map<String, String> responseHeaders) {
-        responseHeaders.forEach(exchange.getResponseHeaders()::add);
+    static void forwardResponseHeaders(Headers target, Map<String, String> responseHeaders) {
+        responseHeaders.forEach((key, value) -> {
+            if (!HOP_BY_HOP_HEADERS.contains(key)) target.add(key, value);
+        });
     }
 
-    private byte[] getResponseBody(HttpURLConnection connection) throws IOException {
-        InputStream responseStream = connection.getResponseCode() >= 400
-                ? connection.getErrorStream()
-                : connection.getInputStream();
-        if (responseStream != null) {
-            return readBodyFromInputStream(responseStream);
+    /**
+     * Sends the request through the caller, which retries or hedges it when configured to.
+     *
+     * @param flight the flight led by the request, whose waiters get the same failure, or null.
+     */
+    private UpstreamCaller.Call send(HttpExchange exchange, Route route, Map<String, String> requestHeaders,
+                                     Map<String, String> conditionalHeaders, BodyCapture requestCapture,
+                                     RequestCoalescer.Flight flight, LogEntry log)
+            throws IOException, InterruptedException {
+        try {
+            return upstreamCaller.call(exchange, route.getPool(),
+                                       upstream -> buildUpstreamRequest(upstream, route, exchange, requestHeaders,
+                                                                        conditionalHeaders, requestCapture),
+                                       !hasRequestBody(exchange), log);
+        } catch (IOException e) {
+            if (flight != null) flight.fail(e);
+            throw e;
         }
-        return null;
     }
 
-    private HttpURLConnection getHttpURLConnection(HttpExchange exchange) throws IOException {
-        String fullTargetUrl = targetUrl + exchange.getRequestURI().toString();
-        URL url = new URL(fullTargetUrl);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod(exchange.getRequestMethod());
-        connection.setConnectTimeout(5000);
-        connection.setReadTimeout(10000);
-        return connection;
+    private HttpRequest buildUpstreamRequest(Upstream upstream, Route route, HttpExchange exchange,
+                                             Map<String, String> requestHeaders,
+                                             Map<String, String> conditionalHeaders, BodyCapture requestCapture) {
+        Duration timeout = route.getRequestTimeout() != null ? route.getRequestTimeout()
+                                                             : upstreamCaller.getRequestTimeout();
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                                                 .uri(URI.create(upstream.getUrl()
+                                                                 + route.rewrite(exchange.getRequestURI().toString())))
+                                                 .timeout(timeout)
+                                                 .method(exchange.getRequestMethod(),
+                                                         getRequestBodyPublisher(exchange, requestCapture));
+        requestHeaders.forEach((key, value) -> {
+            if (!HOP_BY_HOP_HEADERS.contains(key) && !RESTRICTED_REQUEST_HEADERS.contains(key)
+                    && !(compressor != null && key.equalsIgnoreCase("Accept-Encoding"))) {
+                builder.header(key, value);
+            }
+        });
+        // The proxy compresses by itself, identity bodies from the upstream can be compressed once and cached.
+        if (compressor != null) builder.header("Accept-Encoding", "identity");
+        conditionalHeaders.forEach(builder::header);
+        route.getHeaders().forEach(builder::setHeader);
+        return builder.build();
     }
 
-    private Map<String, String> getRequestHeaders(HttpExchange exchange) {
-        Map<String, String> headers = new HashMap<>();
-        exchange.getRequestHeaders().forEach((k, v) -> headers.put(k, String.join(",", v)));
+    static Map<String, String> copyRequestHeaders(Headers requestHeaders) {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        requestHeaders.forEach((k, v) -> headers.put(k, joinValues(v)));
         return headers;
     }
 
-    private void forwardRequestHeaders(Map<String, String> requestHeaders, HttpURLConnection connection) {
-        requestHeaders.forEach(connection::setRequestProperty);
+    /**
+     * @return the values of a header as one comma-separated value, the single value itself in the usual case.
+     */
+    static String joinValues(List<String> values) {
+        return values.size() == 1 ? values.get(0) : String.join(",", values);
+    }
+
+    private static Set<String> headerNames(String... names) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        Collections.addAll(set, names);
+        return Collections.unmodifiableSet(set);
     }
 
     private static boolean hasRequestBody(HttpExchange exchange) {
         if (exchange.getRequestBody() == null) return false;
         String method = exchange.getRequestMethod().toUpperCase();
-        return method.equals("POST") || method.equals("PUT") || method.equals("PATCH");
+        boolean allowsBody = method.equals("POST") || method.equals("PUT") || method.equals("PATCH");
+        return allowsBody && getRequestContentLength(exchange) != 0;
     }
 
-    private byte[] getRequestBody(HttpExchange exchange) throws IOException {
-        try (InputStream requestBody = exchange.getRequestBody()) {
-            return readBodyFromInputStream(requestBody);
-        }
-    }
+    /**
+     * Streams the client body to the upstream as the upstream client consumes it, keeping a bounded copy for
+     * logging. A known Content-Length is preserved, otherwise the body is sent chunked.
+     */
+    private HttpRequest.BodyPublisher getRequestBodyPublisher(HttpExchange exchange, BodyCapture capture) {
+        if (!hasRequestBody(exchange)) return HttpRequest.BodyPublishers.noBody();
 
-    private void forwardRequestBody(HttpURLConnection connection, byte[] requestBody) throws IOException {
-        connection.setDoOutput(true);
-        try (OutputStream connectionOut = connection.getOutputStream()) {
-            connectionOut.write(requestBody);
-        }
+        HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofInputStream(
+                () -> new CapturingInputStream(exchange.getRequestBody(), capture));
+        long contentLength = getRequestContentLength(exchange);
+        if (contentLength > 0) publisher = HttpRequest.BodyPublishers.fromPublisher(publisher, contentLength);
+        return new TimedBodyPublisher(publisher, metrics);
     }
 
-    private byte[] readBodyFromInputStream(InputStream requestBody) throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        byte[] buffer = new byte[2048];
-        int bytesRead;
-        while ((bytesRead = requestBody.read(buffer)) != -1) {
-            byteArrayOutputStream.write(buffer, 0, bytesRead);
+    private static long getRequestContentLength(HttpExchange exchange) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength == null) return -1;
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
         }
-        return byteArrayOutputStream.toByteArray();
     }
 
-    private Map<String, String> getResponseHeaders(HttpURLConnection connection) {
-        Map<String, List<String>> headers = connection.getHeaderFields();
-        if (headers == null) return Map.of();
-        Map<String, String> responseHeaders = new HashMap<>();
+    private Map<String, String> getResponseHeaders(UpstreamResponse response) {
+        Map<String, List<String>> headers = response.response().headers().map();
+        Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         headers.forEach((key, value) -> {
-            if (key != null && value != null) {
-                responseHeaders.put(key, String.join(",", value));
+            if (key != null && value != null && !key.startsWith(":")) {
+                responseHeaders.put(key, joinValues(value));
             }
         });
         return responseHeaders;
     }
 
-    private void forwardResponse(HttpExchange exchange, int responseCode, byte[] responseData) throws IOException {
-        if (responseData != null) {
-            exchange.sendResponseHeaders(responseCode, responseData.length);
+    /**
+     * Sends the response headers and pipes the upstream body to the client. A known upstream length is kept,
+     * otherwise the body goes out with chunked transfer encoding, as does a body compressed on the way.
+     *
+     * @param encoding the content encoding to compress with, or null to send the body as is.
+     * @param bodyCapture receives the body as the upstream sent it, may be null.
+     * @param onBodyRead runs once the whole upstream body was read, before the response to the client completes.
+     * @return true if the upstream response had a body.
+     */
+    private boolean streamResponseBody(HttpExchange exchange, UpstreamResponse response, BodyCapture capture,
+                                       BodyCapture bodyCapture, String encoding, Runnable onBodyRead)
+            throws IOException {
+        int statusCode = response.statusCode();
+        long contentLength = response.contentLength();
+        if (contentLength == 0 || !canHaveResponseBody(exchange, statusCode)) {
+            onBodyRead.run();
+            exchange.sendResponseHeaders(statusCode, -1);
+            return false;
+        }
+
+        exchange.sendResponseHeaders(statusCode, encoding != null ? 0 : Math.max(contentLength, 0));
+        try (InputStream in = bodyCapture != null ? new CapturingInputStream(response.body(), bodyCapture) : response.body();
+             OutputStream responseBody = encoding != null
+                     ? CompressionUtils.compressor(exchange.getResponseBody(), encoding, compressor.getLevel())
+                     : exchange.getResponseBody()) {
+            StreamUtils.transfer(in, responseBody, capture);
+            onBodyRead.run();
+        }
+        if (encoding != null) compressor.recordCompressed();
+        return true;
+    }
+
+    /**
+     * Validators for revalidating a stale stored response, unless the client sent its own conditional request.
+     */
+    private static Map<String, String> getConditionalHeaders(CachedResponse cached, Map<String, String> requestHeaders) {
+        if (cached == null || !cached.hasValidators()) return Map.of();
+        if (requestHeaders.containsKey("If-None-Match") || requestHeaders.containsKey("If-Modified-Since")) return Map.of();
+
+        Map<String, String> conditionalHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (cached.getETag() != null) conditionalHeaders.put("If-None-Match", cached.getETag());
+        if (cached.getLastModified() != null) conditionalHeaders.put("If-Modified-Since", cached.getLastModified());
+        return conditionalHeaders;
+    }
+
+    private void serveCachedResponse(HttpExchange exchange, String cacheKey, CachedResponse cached, String cacheStatus,
+                                     Map<String, String> requestHeaders, int logBodyLimit, LogEntry log)
+            throws IOException {
+        long now = System.currentTimeMillis();
+        String encoding = null;
+        Map<String, String> clientHeaders = cached.getHeaders();
+        if (compressor != null && cached.getBodySize() > 0 && compressor.isCompressible(clientHeaders, cached.getBodySize())) {
+            encoding = compressor.negotiate(requestHeaders);
+            clientHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            clientHeaders.putAll(cached.getHeaders());
+            ResponseCompressor.prepareHeaders(clientHeaders, encoding);
+        }
+        forwardResponseHeaders(exchange.getResponseHeaders(), clientHeaders);
+        exchange.getResponseHeaders().set("Age", String.valueOf(cached.ageSeconds(now)));
+        exchange.getResponseHeaders().set("X-Cache", cacheStatus);
+
+        log.setCacheStatus(cacheStatus);
+        log.setResponseHeaders(clientHeaders);
+
+        String ifNoneMatch = requestHeaders.get("If-None-Match");
+        if (ifNoneMatch != null && etagMatches(ifNoneMatch, cached.getETag())) {
+            log.setStatusCode(304);
+            log.setResponseMessage(HttpStatusUtils.reasonPhrase(304));
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        int statusCode = cached.getStatusCode();
+        log.setStatusCode(statusCode);
+        log.setResponseMessage(HttpStatusUtils.reasonPhrase(statusCode));
+        if (cached.getBodySize() == 0) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            return;
+        }
+
+        BodyCapture responseCapture = new BodyCapture(logBodyLimit);
+        if (encoding != null) {
+            byte[] encodedBody = getEncodedBody(cacheKey, cached, encoding);
+            exchange.sendResponseHeaders(statusCode, encodedBody.length);
             try (OutputStream responseBody = exchange.getResponseBody()) {
-                responseBody.write(responseData);
+                responseBody.write(encodedBody);
             }
-        } else {
-            exchange.sendResponseHeaders(responseCode, -1);
+            responseCapture.write(encodedBody, 0, encodedBody.length);
+            log.setResponseBody(responseCapture.toByteArray());
+            log.setResponseBodySize(encodedBody.length);
+            return;
         }
+
+        // Opened before the headers are sent, so a body file deleted by a newer response fails the exchange cleanly.
+        try (InputStream in = cached.openBody()) {
+            exchange.sendResponseHeaders(statusCode, cached.getBodySize());
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                StreamUtils.transfer(in, responseBody, responseCapture);
+            }
+        }
+        log.setResponseBody(responseCapture.toByteArray());
+        log.setResponseBodySize(responseCapture.getTotalBytes());
+    }
+
+    /**
+     * Answers from the stub store without any upstream I/O, or with 502 when no stub matches. The request body is
+     * read first so the client connection can be reused.
+     */
+    private static void serveStub(HttpExchange exchange, StubResponse stub, int logBodyLimit, LogEntry log)
+            throws IOException {
+        BodyCapture requestCapture = new BodyCapture(logBodyLimit);
+        try (InputStream in = exchange.getRequestBody()) {
+            StreamUtils.transfer(in, OutputStream.nullOutputStream(), requestCapture);
+        }
+        if (requestCapture.getTotalBytes() > 0) {
+            log.setRequestBody(requestCapture.toByteArray());
+            log.setRequestBodySize(requestCapture.getTotalBytes());
+        }
+        log.setTarget(STUB_TARGET);
+        if (stub == null) {
+            sendError(exchange, 502, "Bad Gateway: No stub matches the request.", log);
+            return;
+        }
+
+        int statusCode = stub.statusCode();
+        forwardResponseHeaders(exchange.getResponseHeaders(), stub.headers());
+        log.setStatusCode(statusCode);
+        log.setResponseMessage(HttpStatusUtils.reasonPhrase(statusCode));
+        log.setResponseHeaders(stub.headers());
+        if (stub.getBodySize() == 0 || !canHaveResponseBody(exchange, statusCode)) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            return;
+        }
+
+        ByteBuffer body = stub.openBody();
+        BodyCapture responseCapture = new BodyCapture(logBodyLimit);
+        responseCapture.write(body);
+        exchange.sendResponseHeaders(statusCode, body.remaining());
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            Channels.newChannel(responseBody).write(body);
+        }
+        log.setResponseBody(responseCapture.toByteArray());
+        log.setResponseBodySize(responseCapture.getTotalBytes());
+    }
+
+    /**
+     * Answers a waiter with the response of the identical request it was coalesced with, compressed for this client
+     * when it accepts it.
+     */
+    private void serveSharedResponse(HttpExchange exchange, RequestCoalescer.SharedResponse shared,
+                                     Map<String, String> requestHeaders, int logBodyLimit, LogEntry log)
+            throws IOException {
+        int statusCode = shared.statusCode();
+        byte[] body = shared.body();
+        Map<String, String> clientHeaders = shared.headers();
+        if (compressor != null && body.length > 0 && canHaveResponseBody(exchange, statusCode)
+                && compressor.isCompressible(clientHeaders, body.length)) {
+            String encoding = compressor.negotiate(requestHeaders);
+            clientHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            clientHeaders.putAll(shared.headers());
+            ResponseCompressor.prepareHeaders(clientHeaders, encoding);
+            if (encoding != null) {
+                body = CompressionUtils.compress(body, encoding, compressor.getLevel());
+                compressor.recordCompressed();
+            }
+        }
+        forwardResponseHeaders(exchange.getResponseHeaders(), clientHeaders);
+
+        log.setTarget(shared.target());
+        log.setCacheStatus(COALESCED);
+        log.setStatusCode(statusCode);
+        log.setResponseMessage(HttpStatusUtils.reasonPhrase(statusCode));
+        log.setResponseHeaders(shared.headers());
+        if (body.length == 0 || !canHaveResponseBody(exchange, statusCode)) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+        BodyCapture responseCapture = new BodyCapture(logBodyLimit);
+        responseCapture.write(body, 0, body.length);
+        log.setResponseBody(responseCapture.toByteArray());
+        log.setResponseBodySize(body.length);
+    }
+
+    /**
+     * @return the cached body compressed with the encoding, compressing and memoizing it on first use.
+     */
+    private byte[] getEncodedBody(String cacheKey, CachedResponse cached, String encoding) throws IOException {
+        byte[] encodedBody = cached.getEncodedBody(encoding);
+        if (encodedBody != null) {
+            compressor.recordMemoized();
+            return encodedBody;
+        }
+        try (InputStream in = cached.openBody()) {
+            encodedBody = CompressionUtils.compress(in.readAllBytes(), encoding, compressor.getLevel());
+        }
+        compressor.recordCompressed();
+        httpCache.storeEncoded(cacheKey, cached, encoding, encodedBody);
+        return encodedBody;
+    }
+
+    /**
+     * Weak comparison of If-None-Match against the stored ETag, as a compressed response carries a weakened ETag.
+     */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (etag == null) return false;
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(opaqueTag) || tag.equals("*")) return true;
+        }
+        return false;
+    }
+
+    private static boolean canHaveResponseBody(HttpExchange exchange, int statusCode) {
+        return !exchange.getRequestMethod().equalsIgnoreCase("HEAD")
+                && statusCode != 204 && statusCode != 304 && statusCode >= 200;
     }
 
     private static void handleException(HttpExchange exchange, Exception e, LogEntry log) {
         int statusCode = 500;
         String message = "Internal Server Error";
 
-        if (e instanceof ConnectException) {
-            statusCode = 502;
-            message = "Bad Gateway: Unable to connect to upstream server.";
-        } else if (e instanceof SocketTimeoutException) {
+        if (e instanceof PoolExhaustedException) {
+            statusCode = 503;
+            message = "Service Unavailable: No upstream connection available.";
+        } else if (e instanceof CircuitOpenException) {
+            statusCode = 503;
+            message = "Service Unavailable: The upstream circuit is open.";
+        } else if (e instanceof HttpTimeoutException || e instanceof SocketTimeoutException) {
             statusCode = 504;
             message = "Gateway Timeout: Upstream server took too long to respond.";
+        } else if (isCausedBy(e, ConnectException.class)) {
+            statusCode = 502;
+            message = "Bad Gateway: Unable to connect to upstream server.";
         }
 
+        sendError(exchange, statusCode, message, log);
+    }
+
+    private static void sendError(HttpExchange exchange, int statusCode, String message, LogEntry log) {
         log.setStatusCode(statusCode);
         log.setResponseMessage(message);
 
@@ -180,4 +614,11 @@ public class ProxyHandler implements HttpHandler {
             exchange.getResponseBody().write(responseBytes);
         } catch (Exception ignored) {}
     }
+
+    static boolean isCausedBy(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) return true;
+        }
+        return false;
+    }
 }
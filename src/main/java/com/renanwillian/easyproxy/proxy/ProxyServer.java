@@ -1,45 +1,303 @@
 package com.renanwillian.easyproxy.proxy;
 
+import com.renanwillian.easyproxy.admin.AdminServer;
+import com.renanwillian.easyproxy.admin.MetricsPage;
+import com.renanwillian.easyproxy.admin.TextResponseHandler;
+import com.renanwillian.easyproxy.admin.TrafficHandler;
+import com.renanwillian.easyproxy.balancer.CircuitBreaker;
+import com.renanwillian.easyproxy.balancer.HealthChecker;
+import com.renanwillian.easyproxy.balancer.Upstream;
+import com.renanwillian.easyproxy.balancer.UpstreamPool;
+import com.renanwillian.easyproxy.cache.CacheStats;
+import com.renanwillian.easyproxy.cache.HttpCache;
+import com.renanwillian.easyproxy.config.ConfigReloader;
+import com.renanwillian.easyproxy.config.ProxyConfig;
+import com.renanwillian.easyproxy.limit.ConcurrencyLimiter;
+import com.renanwillian.easyproxy.limit.RateLimiter;
+import com.renanwillian.easyproxy.log.LogFilter;
+import com.renanwillian.easyproxy.log.LogPolicy;
 import com.renanwillian.easyproxy.log.LogService;
-import com.renanwillian.easyproxy.utils.UrlUtils;
+import com.renanwillian.easyproxy.metrics.MetricsRegistry;
+import com.renanwillian.easyproxy.nio.NioProxyEngine;
+import com.renanwillian.easyproxy.route.Router;
+import com.renanwillian.easyproxy.stub.StubStore;
+import com.renanwillian.easyproxy.tls.TlsTerminator;
+import com.renanwillian.easyproxy.traffic.CaptureWriter;
+import com.renanwillian.easyproxy.traffic.ExchangeRecorder;
+import com.renanwillian.easyproxy.traffic.TrafficRecorder;
+import com.renanwillian.easyproxy.upstream.PoolStats;
+import com.renanwillian.easyproxy.upstream.RetryBudget;
+import com.renanwillian.easyproxy.upstream.UpstreamClient;
+import com.renanwillian.easyproxy.upstream.UpstreamProtocol;
+import com.renanwillian.easyproxy.utils.TerminalUtils;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsServer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class ProxyServer implements AutoCloseable {
 
     private final int port;
-    private final String targetUrl;
+    private final ProxyConfig config;
     private final LogService logService;
     private HttpServer server;
+    private TlsTerminator tlsTerminator;
     private ExecutorService executor;
+    private UpstreamClient upstreamClient;
+    private UpstreamCaller upstreamCaller;
+    private HttpCache httpCache;
+    private StubStore stubStore;
+    private RequestCoalescer coalescer;
+    private RateLimiter rateLimiter;
+    private ConcurrencyLimiter concurrencyLimiter;
+    private ResponseCompressor compressor;
+    private TrafficRecorder trafficRecorder;
+    private CaptureWriter captureWriter;
+    private ExchangeRecorder exchangeRecorder;
+    private UpstreamPool upstreamPool;
+    private Router router;
+    private HealthChecker healthChecker;
+    private NioProxyEngine nioEngine;
+    private AdminServer adminServer;
+    private ConfigReloader configReloader;
+    private final MetricsRegistry metrics = new MetricsRegistry();
     private boolean isRunning = false;
 
     public ProxyServer(int port, String targetUrl, LogService logService) {
-        this.port = port;
-        this.targetUrl = UrlUtils.sanitizeUrl(targetUrl);
+        this(ProxyConfig.of(port, targetUrl), logService);
+    }
+
+    public ProxyServer(ProxyConfig config, LogService logService) {
+        this.port = config.getPort();
+        this.config = config;
         this.logService = logService;
     }
 
     public void start() throws IOException {
-        server = HttpServer.create(new InetSocketAddress(port), 0);
-        server.createContext("/", new ProxyHandler(targetUrl, logService));
+        logService.setPolicy(logPolicyOf(config));
+        Supplier<CircuitBreaker> circuitBreakers = null;
+        if (config.isCircuitBreaker()) {
+            circuitBreakers = () -> new CircuitBreaker(config.getCircuitFailureRate() / 100.0,
+                                                       config.getCircuitSlowCallRate() / 100.0,
+                                                       TimeUnit.MILLISECONDS.toNanos(config.getCircuitSlowCall()),
+                                                       TimeUnit.SECONDS.toNanos(config.getCircuitOpenTime()));
+        }
+        if (config.getTrafficBuffer() > 0) {
+            if (config.getAdminPort() <= 0) {
+                throw new IllegalArgumentException("The traffic buffer is inspected on the admin server, an admin port is required");
+            }
+            trafficRecorder = new TrafficRecorder(config.getTrafficBuffer(), config.getTrafficSlotSize());
+        }
+        if (config.getRecordPath() != null) {
+            captureWriter = new CaptureWriter(config.getRecordPath(), config.getRecordSegmentSize() * 1024L * 1024L);
+        }
+        List<ExchangeRecorder> recorders = new ArrayList<>();
+        if (trafficRecorder != null) recorders.add(trafficRecorder);
+        if (captureWriter != null) recorders.add(captureWriter);
+        exchangeRecorder = ExchangeRecorder.of(recorders);
+
+        if (config.getEngine() == Engine.NIO) {
+            if (config.getCacheSize() > 0) throw new IllegalArgumentException("The response cache requires the httpserver engine");
+            if (config.getStubPath() != null) throw new IllegalArgumentException("Stubs require the httpserver engine");
+            if (config.getRateLimit() > 0 || config.getConcurrencyLimit() > 0) {
+                throw new IllegalArgumentException("Rate and concurrency limits require the httpserver engine");
+            }
+            if (config.isCoalesce()) throw new IllegalArgumentException("Request coalescing requires the httpserver engine");
+            if (config.getRetries() > 0 || config.isHedge()) {
+                throw new IllegalArgumentException("Retries and hedging require the httpserver engine");
+            }
+            if (config.isCircuitBreaker()) throw new IllegalArgumentException("Circuit breaking requires the httpserver engine");
+            if (config.isCompression()) throw new IllegalArgumentException("Compression requires the httpserver engine");
+            if (config.getTlsCert() != null) throw new IllegalArgumentException("TLS requires the httpserver engine");
+            if (config.getUpstreamProtocol() != UpstreamProtocol.HTTP1_1) {
+                throw new IllegalArgumentException("The nio engine only speaks HTTP/1.1 to the upstream");
+            }
+            if (!config.getRoutes().isEmpty() || config.getRoutesPath() != null) {
+                throw new IllegalArgumentException("Routes require the httpserver engine");
+            }
+            upstreamPool = new UpstreamPool(config.getTargetUrls(), config.getBalancing(), config.getHashHeader(),
+                                            circuitBreakers);
+            nioEngine = new NioProxyEngine(config, upstreamPool, metrics, logService, exchangeRecorder);
+            nioEngine.start();
+        } else {
+            startHttpServer(circuitBreakers);
+        }
+        if (config.getHealthCheckPath() != null) {
+            healthChecker = new HealthChecker(this::getUpstreams, config.getHealthCheckPath(),
+                                              config.getHealthCheckInterval());
+        }
+        isRunning = true;
+
+        if (config.getAdminPort() > 0) {
+            adminServer = new AdminServer(config.getAdminPort());
+            adminServer.addHandler("/metrics", new TextResponseHandler(MetricsPage.CONTENT_TYPE, () -> MetricsPage.render(this)));
+            if (trafficRecorder != null) adminServer.addHandler(TrafficHandler.PATH, new TrafficHandler(trafficRecorder));
+            adminServer.start();
+        }
+    }
+
+    private void startHttpServer(Supplier<CircuitBreaker> circuitBreakers) throws IOException {
+        router = new Router(config.getRoutes(), config.getRoutesPath(), config.getTargetUrls(), config.getBalancing(),
+                            config.getHashHeader(), circuitBreakers, config.getRoutesReloadInterval());
+        upstreamClient = new UpstreamClient(config.getMaxConnections(), config.getUpstreamProtocol(),
+                                           Duration.ofMillis(config.getConnectTimeout()));
+        upstreamCaller = new UpstreamCaller(upstreamClient, metrics, policyOf(config),
+                                            new RetryBudget(config.getRetryBudget()));
+        if (config.getCacheSize() > 0) {
+            httpCache = new HttpCache(config.getCacheSize() * 1024L * 1024L, config.getCacheDir());
+        }
+        if (config.getStubPath() != null) {
+            stubStore = StubStore.load(config.getStubPath(), config.getStubMiss());
+        }
+        if (config.isCoalesce()) {
+            coalescer = new RequestCoalescer(config.getCoalesceTimeout(), config.getCoalesceMaxWaiters(),
+                                             config.getCoalesceVary());
+        }
+        if (config.isCompression()) {
+            compressor = new ResponseCompressor(config.getCompressionLevel(), config.getCompressionMinSize(),
+                                                config.getCompressionTypes());
+        }
+
+        if (config.getTlsCert() != null) {
+            tlsTerminator = new TlsTerminator(config);
+            HttpsServer httpsServer = HttpsServer.create(new InetSocketAddress(port), 0);
+            httpsServer.setHttpsConfigurator(tlsTerminator.getConfigurator());
+            server = httpsServer;
+        } else {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+        }
+        HttpContext context = server.createContext("/", new ProxyHandler(router, upstreamCaller, httpCache,
+                                                                         stubStore, coalescer, compressor,
+                                                                         exchangeRecorder, metrics, logService));
+        context.getFilters().add(new LoadSheddingFilter());
+        if (config.getRateLimit() > 0) {
+            rateLimiter = new RateLimiter(config.getRateLimit(), burstOf(config));
+            context.getFilters().add(new RateLimitFilter(rateLimiter, config.getRateLimitKey(), config.getRateLimitHeader()));
+        }
+        if (config.getConcurrencyLimit() > 0) {
+            concurrencyLimiter = new ConcurrencyLimiter(1, config.getConcurrencyLimit());
+            upstreamCaller.setConcurrencyLimiter(concurrencyLimiter);
+            context.getFilters().add(new ConcurrencyLimitFilter(concurrencyLimiter));
+        }
 
-        executor = Executors.newCachedThreadPool();
+        executor = ProxyExecutors.create(config);
         server.setExecutor(executor);
 
         server.start();
-        isRunning = true;
+    }
+
+    private static UpstreamCaller.Policy policyOf(ProxyConfig config) {
+        return new UpstreamCaller.Policy(Duration.ofMillis(config.getRequestTimeout()), config.getRetries(),
+                                         config.getRetryBackoff(), config.isHedge());
+    }
+
+    private static LogPolicy logPolicyOf(ProxyConfig config) {
+        List<LogFilter> filters = config.getLogFilters().stream().map(LogFilter::parse).toList();
+        return new LogPolicy(filters, config.getLogSample(), config.getLogRate(), config.getLogSlow(),
+                             config.isLogErrors());
+    }
+
+    private static int burstOf(ProxyConfig config) {
+        return config.getRateLimitBurst() > 0 ? config.getRateLimitBurst() : (int) Math.ceil(config.getRateLimit());
+    }
+
+    /**
+     * Applies the configuration from {@code loader} whenever the file at {@code path} changes.
+     *
+     * @param loader reads the whole configuration again, see {@link #reconfigure}.
+     * @param onApplied runs after a configuration from {@code loader} was applied, on the same thread.
+     */
+    public void watchConfig(Path path, int intervalSeconds, Callable<ProxyConfig> loader, Runnable onApplied)
+            throws IOException {
+        if (router == null) throw new IllegalArgumentException("Reloading the configuration requires the httpserver engine");
+        configReloader = new ConfigReloader(path, intervalSeconds, loader, config -> {
+            reconfigure(config);
+            onApplied.run();
+        });
+    }
+
+    /**
+     * Applies the settings that can change without a restart: the targets and routes, the timeout, retry and hedging
+     * policy, the rate and concurrency limits and what the log shows and samples. Requests in progress complete with
+     * the settings they started with. The other settings of {@code next} are ignored.
+     *
+     * @throws IllegalArgumentException if a route or log filter is invalid, before anything was changed.
+     */
+    public synchronized void reconfigure(ProxyConfig next) {
+        if (router == null) throw new IllegalArgumentException("Reloading the configuration requires the httpserver engine");
+        LogPolicy logPolicy = logPolicyOf(next);
+        try {
+            router.setRoutes(next.getRoutes(), next.getTargetUrls());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Error reading the routes: " + e.getMessage(), e);
+        }
+        upstreamCaller.setPolicy(policyOf(next));
+        upstreamCaller.getBudget().setRatio(next.getRetryBudget());
+
+        // The limit filters are only installed at start, so turning a limit on or off needs a restart.
+        if (rateLimiter != null && next.getRateLimit() > 0) {
+            rateLimiter.setRate(next.getRateLimit(), burstOf(next));
+        } else if ((rateLimiter != null) != (next.getRateLimit() > 0)) {
+            TerminalUtils.printlnError("Turning the rate limit on or off applies after a restart");
+        }
+        if (concurrencyLimiter != null && next.getConcurrencyLimit() > 0) {
+            concurrencyLimiter.setMaxLimit(next.getConcurrencyLimit());
+        } else if ((concurrencyLimiter != null) != (next.getConcurrencyLimit() > 0)) {
+            TerminalUtils.printlnError("Turning the concurrency limit on or off applies after a restart");
+        }
+        logService.setVerbosity(next.isShowHeaders(), next.isShowDetails());
+        logService.setPolicy(logPolicy);
     }
 
     public void stop() {
+        if (configReloader != null) {
+            configReloader.close();
+            configReloader = null;
+        }
         if (server != null) {
-            server.stop(0);
-            isRunning = false;
+            // The listener closes at once and stop returns when the last exchange completes, or at the drain timeout.
+            // With no exchange in progress it would still wait the whole timeout for idle keep-alive connections.
+            server.stop(metrics.getInFlight() > 0 ? config.getDrainTimeout() : 0);
+            server = null;
+        }
+        if (nioEngine != null) {
+            nioEngine.close();
+            nioEngine = null;
+        }
+        isRunning = false;
+
+        if (adminServer != null) {
+            adminServer.close();
+            adminServer = null;
+        }
+
+        if (healthChecker != null) {
+            healthChecker.close();
+            healthChecker = null;
+        }
+
+        if (tlsTerminator != null) {
+            tlsTerminator.close();
+            tlsTerminator = null;
+        }
+
+        if (router != null) {
+            router.close();
+        }
+
+        if (upstreamCaller != null) {
+            upstreamCaller.close();
+            upstreamCaller = null;
         }
 
         if (executor != null) {
@@ -53,6 +311,117 @@ public class ProxyServer implements AutoCloseable {
                 Thread.currentThread().interrupt();
             }
         }
+
+        if (captureWriter != null) {
+            try {
+                captureWriter.close();
+            } catch (IOException e) {
+                TerminalUtils.printlnError("Error closing the capture: " + e.getMessage());
+            }
+            captureWriter = null;
+        }
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public long getLogDroppedCount() {
+        return logService.getDroppedCount();
+    }
+
+    public long getLogSkippedCount() {
+        return logService.getSkippedCount();
+    }
+
+    public PoolStats getUpstreamStats() {
+        return upstreamClient != null ? upstreamClient.getStats() : null;
+    }
+
+    /**
+     * @return the targets of every route, or of the pool of the nio engine.
+     */
+    public List<Upstream> getUpstreams() {
+        if (router != null) return router.getUpstreams();
+        return upstreamPool != null ? upstreamPool.getUpstreams() : List.of();
+    }
+
+    /**
+     * @return the reloader of the configuration file, or null when it is not watched.
+     */
+    public ConfigReloader getConfigReloader() {
+        return configReloader;
+    }
+
+    /**
+     * @return the routes of the requests, or null with the nio engine.
+     */
+    public Router getRouter() {
+        return router;
+    }
+
+    public CacheStats getCacheStats() {
+        return httpCache != null ? httpCache.getStats() : null;
+    }
+
+    /**
+     * @return the prepared responses served in place of the targets, or null without stubs.
+     */
+    public StubStore getStubStore() {
+        return stubStore;
+    }
+
+    /**
+     * @return the per key rate limiter, or null when rate limiting is disabled.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the adaptive concurrency limiter, or null when concurrency limiting is disabled.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * @return the caller sending requests to the targets, or null with the nio engine.
+     */
+    public UpstreamCaller getUpstreamCaller() {
+        return upstreamCaller;
+    }
+
+    /**
+     * @return the TLS settings and handshake counters of the listener, or null when serving plain HTTP.
+     */
+    public TlsTerminator getTlsTerminator() {
+        return tlsTerminator;
+    }
+
+    /**
+     * @return the single-flight layer for identical concurrent requests, or null when coalescing is disabled.
+     */
+    public RequestCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * @return the response compressor, or null when compression is disabled.
+     */
+    public ResponseCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * @return exchanges that could not be appended to the capture, 0 when not recording.
+     */
+    public long getCaptureFailedCount() {
+        return captureWriter != null ? captureWriter.getFailedCount() : 0;
+    }
+
+    public long getShedCount() {
+        return executor instanceof LoadSheddingExecutor sheddingExecutor ? sheddingExecutor.getShedCount() : 0;
     }
 
     public boolean isRunning() {
@@ -0,0 +1,72 @@
+package com.renanwillian.easyproxy.proxy;
+
+import com.renanwillian.easyproxy.limit.RateLimitKey;
+import com.renanwillian.easyproxy.limit.RateLimiter;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers requests over the rate of their client, header value or path with a 429 before they reach the upstream.
+ */
+public class RateLimitFilter extends Filter {
+
+    private static final byte[] MESSAGE = "Too Many Requests: Rate limit exceeded.".getBytes(StandardCharsets.UTF_8);
+
+    private final RateLimiter rateLimiter;
+    private final RateLimitKey key;
+    private final String header;
+
+    /**
+     * @param header the header keying the buckets when {@code key} is {@link RateLimitKey#HEADER}.
+     */
+    public RateLimitFilter(RateLimiter rateLimiter, RateLimitKey key, String header) {
+        if (key == RateLimitKey.HEADER && header == null) {
+            throw new IllegalArgumentException("Rate limiting by header requires a header name");
+        }
+        this.rateLimiter = rateLimiter;
+        this.key = key;
+        this.header = header;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long waitNanos = rateLimiter.acquire(keyOf(exchange));
+        if (waitNanos == 0) {
+            chain.doFilter(exchange);
+            return;
+        }
+
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        try (exchange; OutputStream responseBody = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+            exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfter));
+            exchange.sendResponseHeaders(429, MESSAGE.length);
+            responseBody.write(MESSAGE);
+        }
+    }
+
+    private String keyOf(HttpExchange exchange) {
+        if (key == RateLimitKey.PATH) {
+            String path = exchange.getRequestURI().getPath();
+            int end = path.indexOf('/', 1);
+            return end > 0 ? path.substring(0, end) : path;
+        }
+        if (key == RateLimitKey.HEADER) {
+            String value = exchange.getRequestHeaders().getFirst(header);
+            if (value != null) return header + ":" + value;
+        }
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+    }
+
+    @Override
+    public String description() {
+        return "Rejects requests over the rate limit of their key";
+    }
+}
@@ -0,0 +1,195 @@
+package com.renanwillian.easyproxy.proxy;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single-flight for identical GET and HEAD requests: while one request is with the upstream, the ones with the same
+ * method, URI and vary headers wait for its response instead of sending their own. A waiter goes to the upstream
+ * itself when the response takes longer than the timeout or its body is too large to share, and a request arriving
+ * when {@code maxWaiters} are already waiting is not coalesced.
+ */
+public class RequestCoalescer {
+
+    public static final List<String> DEFAULT_VARY = List.of("Accept", "Accept-Encoding", "Accept-Language",
+                                                            "Authorization", "Cookie");
+    public static final int DEFAULT_MAX_BODY_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Request headers that make the response specific to the request, such as a 304 or a partial body.
+     */
+    private static final List<String> SPECIFIC_REQUEST_HEADERS = List.of("Range", "If-Range", "If-None-Match",
+                                                                         "If-Modified-Since", "If-Match",
+                                                                         "If-Unmodified-Since");
+
+    private final ConcurrentHashMap<String, FlightState> flights = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+    private final int maxWaiters;
+    private final List<String> vary;
+    private final int maxBodySize;
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+
+    /**
+     * @param timeoutMillis how long a waiter waits for the shared response.
+     * @param maxWaiters    waiters allowed on one flight.
+     * @param vary          request headers that must match for requests to be coalesced.
+     */
+    public RequestCoalescer(long timeoutMillis, int maxWaiters, List<String> vary) {
+        this(timeoutMillis, maxWaiters, vary, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /**
+     * @param maxBodySize largest response body shared with the waiters.
+     */
+    public RequestCoalescer(long timeoutMillis, int maxWaiters, List<String> vary, int maxBodySize) {
+        if (timeoutMillis <= 0) throw new IllegalArgumentException("The coalescing timeout must be positive");
+        this.timeoutMillis = timeoutMillis;
+        this.maxWaiters = maxWaiters;
+        this.vary = vary.stream().map(String::trim).filter(name -> !name.isEmpty()).toList();
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * @return whether the request is idempotent, carries no body and is not conditional or partial, so its response
+     * can stand for identical ones.
+     */
+    public static boolean isCoalescable(String method, Map<String, String> requestHeaders) {
+        if (!method.equalsIgnoreCase("GET") && !method.equalsIgnoreCase("HEAD")) return false;
+        String contentLength = requestHeaders.get("Content-Length");
+        if (contentLength != null && !contentLength.trim().equals("0")) return false;
+        if (requestHeaders.containsKey("Transfer-Encoding")) return false;
+        return SPECIFIC_REQUEST_HEADERS.stream().noneMatch(requestHeaders::containsKey);
+    }
+
+    public String key(String method, String uri, Map<String, String> requestHeaders) {
+        StringBuilder key = new StringBuilder(method.toUpperCase(Locale.ROOT)).append(' ').append(uri);
+        for (String name : vary) {
+            key.append('\n').append(requestHeaders.getOrDefault(name, ""));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return a flight led by the caller when none is in progress for the key, a flight to wait on when one is, or
+     * null when that flight already has {@code maxWaiters} waiters.
+     */
+    public Flight join(String key) {
+        FlightState created = new FlightState(key);
+        FlightState existing = flights.putIfAbsent(key, created);
+        if (existing == null) return new Flight(created, true);
+
+        if (existing.waiters.incrementAndGet() > maxWaiters) {
+            existing.waiters.decrementAndGet();
+            overflowed.increment();
+            return null;
+        }
+        return new Flight(existing, false);
+    }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * @return requests answered with the response, or the failure, of an identical request in flight.
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return waiters that gave up on the shared response and went to the upstream themselves.
+     */
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    /**
+     * @return requests not coalesced because the flight already had the maximum number of waiters.
+     */
+    public long getOverflowedCount() {
+        return overflowed.sum();
+    }
+
+    /**
+     * A response as the upstream sent it, shared with the waiters of its flight.
+     */
+    public record SharedResponse(int statusCode, Map<String, String> headers, String target, byte[] body) {}
+
+    private static final class FlightState {
+        private final String key;
+        private final CompletableFuture<SharedResponse> result = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        private FlightState(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A request's part in a flight, either leading it or waiting on it.
+     */
+    public final class Flight {
+        private final FlightState state;
+        private final boolean leader;
+
+        private Flight(FlightState state, boolean leader) {
+            this.state = state;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Hands the response to the waiters and ends the flight, later requests start a new one.
+         *
+         * @param response the response, or null when it cannot be shared and each waiter must send its own request.
+         */
+        public void complete(SharedResponse response) {
+            flights.remove(state.key, state);
+            state.result.complete(response);
+        }
+
+        /**
+         * Ends the flight with the failure of its request, which the waiters answer with as well.
+         */
+        public void fail(Exception failure) {
+            flights.remove(state.key, state);
+            state.result.completeExceptionally(failure);
+        }
+
+        /**
+         * @return the shared response, or null when the waiter has to send its own request.
+         * @throws IOException the failure of the leading request.
+         */
+        public SharedResponse await() throws IOException, InterruptedException {
+            try {
+                SharedResponse response = state.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                if (response != null) coalesced.increment();
+                return response;
+            } catch (TimeoutException e) {
+                timedOut.increment();
+                return null;
+            } catch (ExecutionException e) {
+                coalesced.increment();
+                if (e.getCause() instanceof IOException cause) throw cause;
+                throw new IOException(e.getCause());
+            } finally {
+                state.waiters.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.renanwillian.easyproxy.proxy;
+
+import com.renanwillian.easyproxy.utils.CompressionUtils;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when the proxy compresses a response itself, so the upstream only ever produces identity bodies.
+ * A response is compressed when it has no Content-Encoding yet, its Content-Type is allowed, it is not smaller than
+ * {@code minSize} and the client accepts gzip or deflate.
+ */
+public class ResponseCompressor {
+
+    public static final List<String> DEFAULT_TYPES = List.of("text/html", "text/plain", "text/css", "text/xml",
+                                                             "text/javascript", "application/javascript",
+                                                             "application/json", "application/xml",
+                                                             "image/svg+xml");
+
+    private final int level;
+    private final long minSize;
+    private final List<String> types;
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder memoized = new LongAdder();
+
+    /**
+     * @param level   deflate level, from 1 (fastest) to 9 (smallest).
+     * @param minSize smallest body compressed, responses of unknown length are always compressed.
+     * @param types   media types compressed, {@code type/*} matches a whole type.
+     */
+    public ResponseCompressor(int level, long minSize, List<String> types) {
+        if (level < 1 || level > 9) throw new IllegalArgumentException("The compression level must be between 1 and 9");
+        this.level = level;
+        this.minSize = minSize;
+        this.types = types.stream().map(type -> type.trim().toLowerCase(Locale.ROOT)).toList();
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the encoding to use from the client Accept-Encoding, gzip winning ties, or null for identity.
+     */
+    public String negotiate(Map<String, String> requestHeaders) {
+        String acceptEncoding = requestHeaders.get("Accept-Encoding");
+        if (acceptEncoding == null) return null;
+
+        double gzip = -1;
+        double deflate = -1;
+        double wildcard = 0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.split(";");
+            String coding = tokens[0].trim().toLowerCase(Locale.ROOT);
+            double quality = parseQuality(tokens);
+            switch (coding) {
+                case CompressionUtils.GZIP, "x-gzip" -> gzip = quality;
+                case CompressionUtils.DEFLATE -> deflate = quality;
+                case "*" -> wildcard = quality;
+                default -> {}
+            }
+        }
+        if (gzip < 0) gzip = wildcard;
+        if (deflate < 0) deflate = wildcard;
+        if (gzip <= 0 && deflate <= 0) return null;
+        return gzip >= deflate ? CompressionUtils.GZIP : CompressionUtils.DEFLATE;
+    }
+
+    /**
+     * @param contentLength body length, or -1 when unknown.
+     * @return whether the response may be compressed for a client that accepts it.
+     */
+    public boolean isCompressible(Map<String, String> responseHeaders, long contentLength) {
+        if (contentLength >= 0 && contentLength < minSize) return false;
+        String contentEncoding = responseHeaders.get("Content-Encoding");
+        if (contentEncoding != null && !contentEncoding.isBlank() && !contentEncoding.equalsIgnoreCase("identity")) {
+            return false;
+        }
+        if (responseHeaders.getOrDefault("Cache-Control", "").toLowerCase(Locale.ROOT).contains("no-transform")) {
+            return false;
+        }
+        return isAllowedType(responseHeaders.get("Content-Type"));
+    }
+
+    private boolean isAllowedType(String contentType) {
+        if (contentType == null) return false;
+        int semicolon = contentType.indexOf(';');
+        String mediaType = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+        mediaType = mediaType.toLowerCase(Locale.ROOT);
+        for (String type : types) {
+            if (type.endsWith("/*") ? mediaType.startsWith(type.substring(0, type.length() - 1)) : mediaType.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adjusts the headers of a compressible response: caches are told it varies on Accept-Encoding and, when it is
+     * compressed, its ETag is weakened because the bytes differ from the upstream representation.
+     */
+    static void prepareHeaders(Map<String, String> headers, String encoding) {
+        String vary = headers.get("Vary");
+        if (vary == null || vary.isBlank()) {
+            headers.put("Vary", "Accept-Encoding");
+        } else if (!vary.toLowerCase(Locale.ROOT).contains("accept-encoding") && !vary.trim().equals("*")) {
+            headers.put("Vary", vary + ", Accept-Encoding");
+        }
+        if (encoding == null) return;
+
+        headers.put("Content-Encoding", encoding);
+        String etag = headers.get("ETag");
+        if (etag != null && !etag.startsWith("W/")) headers.put("ETag", "W/" + etag);
+    }
+
+    void recordCompressed() {
+        compressed.increment();
+    }
+
+    void recordMemoized() {
+        memoized.increment();
+    }
+
+    /**
+     * @return responses compressed by running the deflater.
+     */
+    public long getCompressedCount() {
+        return compressed.sum();
+    }
+
+    /**
+     * @return responses served from a compressed body memoized in the cache.
+     */
+    public long getMemoizedCount() {
+        return memoized.sum();
+    }
+
+    private static double parseQuality(String[] tokens) {
+        for (int i = 1; i < tokens.length; i++) {
+            String parameter = tokens[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,415 @@
+package com.renanwillian.easyproxy.proxy;
+
+import com.renanwillian.easyproxy.balancer.CircuitBreaker;
+import com.renanwillian.easyproxy.balancer.CircuitOpenException;
+import com.renanwillian.easyproxy.balancer.Upstream;
+import com.renanwillian.easyproxy.balancer.UpstreamPool;
+import com.renanwillian.easyproxy.limit.ConcurrencyLimiter;
+import com.renanwillian.easyproxy.log.LogEntry;
+import com.renanwillian.easyproxy.metrics.LatencyHistogram;
+import com.renanwillian.easyproxy.metrics.MetricsRegistry;
+import com.renanwillian.easyproxy.upstream.PoolExhaustedException;
+import com.renanwillian.easyproxy.upstream.RetryBudget;
+import com.renanwillian.easyproxy.upstream.UpstreamClient;
+import com.renanwillian.easyproxy.upstream.UpstreamResponse;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Sends requests to the upstream targets. An idempotent request without a body is sent again, to the next target the
+ * balancer picks, when the target cannot be reached, times out or answers 502, 503 or 504, after an exponential
+ * backoff with jitter. With hedging, a GET or HEAD still unanswered after the p95 upstream latency is also sent to a
+ * second target and the first response wins. Retries and hedges both draw from one {@link RetryBudget}, so they cannot
+ * multiply the load of a target that is already failing. A target whose circuit is open is not called at all.
+ * <p>
+ * The timeout, retry and hedging settings form one {@link Policy}, which can be replaced while requests are sent: each
+ * request reads it once and keeps it until it completes.
+ */
+public class UpstreamCaller implements AutoCloseable {
+
+    static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE");
+    static final double HEDGE_QUANTILE = 0.95;
+
+    /**
+     * Upstream responses measured before the hedge delay is trusted, requests are not hedged until then.
+     */
+    static final long HEDGE_MIN_SAMPLES = 100;
+
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = Set.of(502, 503, 504);
+    private static final long MAX_BACKOFF_MILLIS = 2000;
+    private static final long HEDGE_DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final UpstreamClient upstreamClient;
+    private final MetricsRegistry metrics;
+    private final RetryBudget budget;
+    // Created the first time hedging is turned on, and set before the policy that hedges.
+    private volatile ExecutorService hedgeExecutor;
+    private volatile Policy policy;
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    // Recomputing the percentile walks the whole histogram, so the delay is refreshed once a second.
+    private volatile long hedgeDelayNanos;
+    private volatile long hedgeDelayRefreshAt = System.nanoTime();
+
+    /**
+     * Sends every request once.
+     */
+    public UpstreamCaller(UpstreamClient upstreamClient, MetricsRegistry metrics, Duration requestTimeout) {
+        this(upstreamClient, metrics, new Policy(requestTimeout, 0, 0, false), new RetryBudget(0));
+    }
+
+    /**
+     * @param budget extra attempts allowed, shared by retries and hedges.
+     */
+    public UpstreamCaller(UpstreamClient upstreamClient, MetricsRegistry metrics, Policy policy, RetryBudget budget) {
+        this.upstreamClient = upstreamClient;
+        this.metrics = metrics;
+        this.policy = policy;
+        this.budget = budget;
+        if (policy.hedge()) startHedging();
+    }
+
+    /**
+     * How requests are sent to the targets.
+     *
+     * @param requestTimeout the timeout of routes without one of their own.
+     * @param retries        times a failed idempotent request is sent again.
+     * @param backoffMillis  wait before the first retry, doubled for every further one.
+     * @param hedge          whether slow GET and HEAD requests are also sent to a second target.
+     */
+    public record Policy(Duration requestTimeout, int retries, long backoffMillis, boolean hedge) {}
+
+    /**
+     * Sends the request until a target answers with a response that is not worth retrying, or the retries or the
+     * budget run out. The attempts and the target that answered are recorded in the log entry.
+     *
+     * @param pool       the targets of the route of the request.
+     * @param requestFor builds the request for a target.
+     * @param replayable whether the request can be sent more than once, i.e. it has no streamed body.
+     * @return the response, which the caller must close.
+     * @throws IOException the failure of the last attempt.
+     */
+    public Call call(HttpExchange exchange, UpstreamPool pool, Function<Upstream, HttpRequest> requestFor,
+                     boolean replayable, LogEntry log) throws IOException, InterruptedException {
+        Policy policy = this.policy;
+        budget.onRequest();
+        String method = exchange.getRequestMethod().toUpperCase(Locale.ROOT);
+        boolean retryable = replayable && policy.retries() > 0 && IDEMPOTENT_METHODS.contains(method);
+        boolean hedgeable = replayable && policy.hedge() && (method.equals("GET") || method.equals("HEAD"));
+
+        for (int retry = 0; ; retry++) {
+            Upstream upstream = pool.select(exchange);
+            log.setTarget(upstream.getUrl());
+            boolean canRetry = retryable && retry < policy.retries();
+            Call call;
+            try {
+                call = hedgeable ? sendHedged(exchange, pool, upstream, requestFor, log) : send(upstream, requestFor, log);
+            } catch (PoolExhaustedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (!canRetry || !budget.tryWithdraw()) throw e;
+                backoff(policy, retry);
+                continue;
+            }
+
+            if (canRetry && RETRYABLE_STATUS_CODES.contains(call.response().statusCode()) && budget.tryWithdraw()) {
+                call.close();
+                backoff(policy, retry);
+                continue;
+            }
+            return call;
+        }
+    }
+
+    private Call send(Upstream upstream, Function<Upstream, HttpRequest> requestFor, LogEntry log)
+            throws IOException, InterruptedException {
+        long permit = acquireCall(upstream);
+        log.setAttempts(log.getAttempts() + 1);
+        return send(upstream, permit, requestFor.apply(upstream));
+    }
+
+    /**
+     * @return the permit of the call.
+     */
+    private static long acquireCall(Upstream upstream) throws CircuitOpenException {
+        long permit = upstream.tryAcquireCall();
+        if (permit == CircuitBreaker.REJECTED) {
+            throw new CircuitOpenException("The circuit of " + upstream.getUrl() + " is open");
+        }
+        return permit;
+    }
+
+    /**
+     * Sends a request the circuit of the target already let through with {@code permit}.
+     */
+    private Call send(Upstream upstream, long permit, HttpRequest request) throws IOException, InterruptedException {
+        upstream.onRequestStart();
+        long sentAt = System.nanoTime();
+        try {
+            UpstreamResponse response = upstreamClient.send(request);
+            long latencyNanos = System.nanoTime() - sentAt;
+            boolean failed = RETRYABLE_STATUS_CODES.contains(response.statusCode());
+            metrics.recordUpstreamFirstByte(latencyNanos);
+            upstream.onSuccess();
+            upstream.onCallEnd(permit, failed, latencyNanos);
+            onUpstreamCall(latencyNanos, failed);
+            return new Call(upstream, response);
+        } catch (PoolExhaustedException e) {
+            // The local connection pool is full, which says nothing about the target.
+            upstream.onCallCancelled(permit);
+            upstream.onRequestEnd();
+            throw e;
+        } catch (IOException e) {
+            if (e instanceof HttpTimeoutException || e instanceof SocketTimeoutException
+                    || ProxyHandler.isCausedBy(e, ConnectException.class)) {
+                upstream.onFailure();
+                onUpstreamCall(System.nanoTime() - sentAt, true);
+            }
+            upstream.onCallEnd(permit, true, System.nanoTime() - sentAt);
+            upstream.onRequestEnd();
+            throw e;
+        } catch (InterruptedException | RuntimeException e) {
+            upstream.onCallCancelled(permit);
+            upstream.onRequestEnd();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request and, if it is still unanswered after the hedge delay, a copy to another target. The first
+     * response wins and the other one is closed when it arrives. The request only fails when both attempts fail.
+     * Without another available target the request is not hedged.
+     */
+    private Call sendHedged(HttpExchange exchange, UpstreamPool pool, Upstream upstream,
+                            Function<Upstream, HttpRequest> requestFor, LogEntry log)
+            throws IOException, InterruptedException {
+        long delayNanos = getHedgeDelayNanos();
+        if (delayNanos <= 0) return send(upstream, requestFor, log);
+
+        long permit = acquireCall(upstream);
+        log.setAttempts(log.getAttempts() + 1);
+        CompletableFuture<Call> first = sendAsync(upstream, permit, requestFor.apply(upstream));
+        try {
+            return first.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Too slow, hedge below.
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+        Upstream second = pool.selectOther(exchange, upstream);
+        if (second == null) return await(first);
+        long secondPermit = second.tryAcquireCall();
+        if (secondPermit == CircuitBreaker.REJECTED) return await(first);
+        if (!budget.tryWithdraw()) {
+            second.onCallCancelled(secondPermit);
+            return await(first);
+        }
+
+        hedged.increment();
+        log.setHedged(true);
+        log.setAttempts(log.getAttempts() + 1);
+        CompletableFuture<Call> hedge = sendAsync(second, secondPermit, requestFor.apply(second));
+
+        CompletableFuture<Call> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<Call> attempt : List.of(first, hedge)) {
+            attempt.whenComplete((call, failure) -> {
+                if (failure == null) {
+                    if (!winner.complete(call)) closeQuietly(call);
+                } else if (failures.incrementAndGet() == 2) {
+                    winner.completeExceptionally(failure);
+                }
+            });
+        }
+        Call call = await(winner);
+        if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.join() == call) hedgeWins.increment();
+        log.setTarget(call.upstream().getUrl());
+        return call;
+    }
+
+    private CompletableFuture<Call> sendAsync(Upstream upstream, long permit, HttpRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return send(upstream, permit, request);
+            } catch (IOException | InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        }, hedgeExecutor);
+    }
+
+    private static Call await(CompletableFuture<Call> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            // Nobody reads the response any more, give its connection back once it arrives.
+            future.thenAccept(UpstreamCaller::closeQuietly);
+            throw e;
+        }
+    }
+
+    private void onUpstreamCall(long latencyNanos, boolean failed) {
+        ConcurrencyLimiter limiter = concurrencyLimiter;
+        if (limiter != null) limiter.onUpstreamCall(latencyNanos, failed);
+    }
+
+    private static IOException unwrap(ExecutionException e) throws InterruptedException {
+        Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+        if (cause instanceof IOException io) return io;
+        if (cause instanceof InterruptedException ie) throw ie;
+        if (cause instanceof RuntimeException re) throw re;
+        return new IOException(cause);
+    }
+
+    private static void closeQuietly(Call call) {
+        try {
+            call.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Waits the backoff of a retry: a random time up to {@code backoffMillis * 2^retry}, so clients failing together
+     * do not retry together.
+     */
+    private void backoff(Policy policy, int retry) throws InterruptedException {
+        retried.increment();
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, policy.backoffMillis() << Math.min(retry, 20));
+        if (ceiling > 0) Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    /**
+     * @return the p95 upstream response time, or 0 while too few responses were measured to hedge.
+     */
+    long getHedgeDelayNanos() {
+        long now = System.nanoTime();
+        if (now - hedgeDelayRefreshAt >= 0) {
+            hedgeDelayRefreshAt = now + HEDGE_DELAY_REFRESH_NANOS;
+            LatencyHistogram latency = metrics.getUpstreamFirstByteLatency();
+            hedgeDelayNanos = latency.getCount() < HEDGE_MIN_SAMPLES
+                    ? 0 : TimeUnit.MICROSECONDS.toNanos(latency.percentileMicros(HEDGE_QUANTILE));
+        }
+        return hedgeDelayNanos;
+    }
+
+    /**
+     * @return the request timeout of routes without one of their own.
+     */
+    public Duration getRequestTimeout() {
+        return policy.requestTimeout();
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Replaces the policy for the requests sent from now on, the requests in progress keep theirs.
+     */
+    public void setPolicy(Policy policy) {
+        if (policy.hedge()) startHedging();
+        this.policy = policy;
+    }
+
+    private synchronized void startHedging() {
+        if (hedgeExecutor == null) hedgeExecutor = ProxyExecutors.newVirtualThreadExecutor();
+    }
+
+    /**
+     * @param concurrencyLimiter adjusted after every call to a target, or null.
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return requests sent again after a failed attempt.
+     */
+    public long getRetriedCount() {
+        return retried.sum();
+    }
+
+    /**
+     * @return retries and hedges not sent because the budget was spent.
+     */
+    public long getBudgetExhaustedCount() {
+        return budget.getExhaustedCount();
+    }
+
+    /**
+     * @return requests also sent to a second target because the first was slow.
+     */
+    public long getHedgedCount() {
+        return hedged.sum();
+    }
+
+    /**
+     * @return hedged requests answered by the second attempt.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (hedgeExecutor != null) hedgeExecutor.shutdown();
+    }
+
+    /**
+     * A response and the target it came from. Closing it releases the connection and ends the request on the target.
+     */
+    public static final class Call implements AutoCloseable {
+        private final Upstream upstream;
+        private final UpstreamResponse response;
+        private boolean closed = false;
+
+        private Call(Upstream upstream, UpstreamResponse response) {
+            this.upstream = upstream;
+            this.response = response;
+        }
+
+        public Upstream upstream() {
+            return upstream;
+        }
+
+        public UpstreamResponse response() {
+            return response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                response.close();
+            } finally {
+                upstream.onRequestEnd();
+            }
+        }
+    }
+}
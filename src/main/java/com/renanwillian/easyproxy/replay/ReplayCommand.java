@@ -0,0 +1,58 @@
+package com.renanwillian.easyproxy.replay;
+
+import com.renanwillian.easyproxy.traffic.CaptureReader;
+import com.renanwillian.easyproxy.utils.TerminalUtils;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.Callable;
+
+@Command(name = "replay", mixinStandardHelpOptions = true,
+        description = "Replays a capture written with --record against a target and reports throughput and latency.")
+public class ReplayCommand implements Callable<Integer> {
+
+    @Option(names = {"--rate"}, description = "Speed relative to the captured timing, 2 replays twice as fast and 0 sends requests back to back (default: 1).")
+    private double rate = 1;
+
+    @Option(names = {"--concurrency"}, description = "Maximum requests in flight (default: 16).")
+    private int concurrency = 16;
+
+    @Option(names = {"--from"}, description = "Only replay requests that arrived at or after this instant, e.g. 2024-05-01T10:00:00Z.")
+    private Instant from;
+
+    @Parameters(index = "0", paramLabel = "CAPTURE", description = "The capture file given to --record.")
+    private Path capture;
+
+    @Parameters(index = "1", paramLabel = "TARGET_URL", description = "The target URL the requests are sent to.")
+    private String targetUrl;
+
+    @Override
+    public Integer call() {
+        if (concurrency < 1) {
+            TerminalUtils.printlnError("The concurrency must be at least 1");
+            return 2;
+        }
+        try {
+            if (CaptureReader.segments(capture).isEmpty()) {
+                TerminalUtils.printlnError("No capture found at " + capture);
+                return 2;
+            }
+            CaptureReader reader = new CaptureReader(capture, from != null ? from.toEpochMilli() : 0);
+            ReplayReport report = new Replayer(targetUrl, rate, concurrency).replay(reader);
+            TerminalUtils.println(report.format());
+            return report.errors() > 0 ? 1 : 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            TerminalUtils.printlnError("Replay interrupted");
+            return 1;
+        } catch (IOException | UncheckedIOException e) {
+            TerminalUtils.printlnError("Error reading the capture: " + e.getMessage());
+            return 1;
+        }
+    }
+}
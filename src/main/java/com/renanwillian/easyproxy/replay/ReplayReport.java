@@ -0,0 +1,43 @@
+package com.renanwillian.easyproxy.replay;
+
+import com.renanwillian.easyproxy.metrics.LatencyHistogram;
+
+import java.util.Locale;
+
+/**
+ * Outcome of a replay.
+ *
+ * @param requests       requests sent.
+ * @param errors         requests that got no response.
+ * @param statusClasses  responses by status class, index 1 for 1xx up to 5 for 5xx.
+ * @param truncated      requests sent with a body cut short when it was captured.
+ * @param durationMillis wall time of the whole replay.
+ * @param latency        response time of every answered request.
+ */
+public record ReplayReport(long requests, long errors, long[] statusClasses, long truncated, long durationMillis,
+                           LatencyHistogram latency) {
+
+    public double throughput() {
+        return durationMillis > 0 ? requests * 1000.0 / durationMillis : 0;
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Replayed %d requests in %.1fs (%.1f req/s)%n", requests,
+                                durationMillis / 1000.0, throughput()));
+        sb.append("Responses:");
+        for (int statusClass = 1; statusClass < statusClasses.length; statusClass++) {
+            if (statusClasses[statusClass] > 0) sb.append(' ').append(statusClass).append("xx=").append(statusClasses[statusClass]);
+        }
+        sb.append(" errors=").append(errors);
+        if (truncated > 0) sb.append(" truncated-bodies=").append(truncated);
+        sb.append(System.lineSeparator());
+        sb.append(String.format(Locale.ROOT, "Latency: p50=%s p90=%s p99=%s p999=%s", millis(0.5), millis(0.9),
+                                millis(0.99), millis(0.999)));
+        return sb.toString();
+    }
+
+    private String millis(double quantile) {
+        return String.format(Locale.ROOT, "%.2fms", latency.percentileMicros(quantile) / 1000.0);
+    }
+}
@@ -0,0 +1,118 @@
+package com.renanwillian.easyproxy.replay;
+
+import com.renanwillian.easyproxy.metrics.LatencyHistogram;
+import com.renanwillian.easyproxy.traffic.RecordedExchange;
+import com.renanwillian.easyproxy.upstream.UpstreamClient;
+import com.renanwillian.easyproxy.utils.UrlUtils;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends captured requests to a target. Requests are spaced as they originally arrived, sped up by {@code rate}, or
+ * sent back to back when the rate is 0. At most {@code concurrency} requests are in flight, when all workers are
+ * busy the next request waits and the replay falls behind the original timing.
+ */
+public class Replayer {
+
+    private static final Set<String> SKIPPED_HEADERS = Set.of("host", "connection", "content-length", "expect",
+                                                              "keep-alive", "proxy-connection", "te", "trailer",
+                                                              "transfer-encoding", "upgrade", "http2-settings");
+
+    private final String targetUrl;
+    private final double rate;
+    private final int concurrency;
+    private final HttpClient httpClient;
+
+    public Replayer(String targetUrl, double rate, int concurrency) {
+        this.targetUrl = UrlUtils.sanitizeUrl(targetUrl);
+        this.rate = rate;
+        this.concurrency = concurrency;
+        this.httpClient = HttpClient.newBuilder()
+                                    .version(HttpClient.Version.HTTP_1_1)
+                                    .followRedirects(HttpClient.Redirect.NEVER)
+                                    .connectTimeout(UpstreamClient.CONNECT_TIMEOUT)
+                                    .build();
+    }
+
+    public ReplayReport replay(Iterable<RecordedExchange> exchanges) throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLongArray statusClasses = new AtomicLongArray(6);
+        LongAdder errors = new LongAdder();
+        long requests = 0;
+        long truncated = 0;
+
+        Semaphore slots = new Semaphore(concurrency);
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long startNanos = System.nanoTime();
+        try {
+            long firstTimestamp = -1;
+            for (RecordedExchange exchange : exchanges) {
+                if (firstTimestamp < 0) firstTimestamp = exchange.timestamp();
+                waitUntilDue(startNanos, exchange.timestamp() - firstTimestamp);
+                if (exchange.requestBodySize() > exchange.requestBody().length) truncated++;
+                HttpRequest request = buildRequest(exchange);
+
+                slots.acquire();
+                requests++;
+                workers.execute(() -> {
+                    long sentAt = System.nanoTime();
+                    try {
+                        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                        latency.recordNanos(System.nanoTime() - sentAt);
+                        statusClasses.incrementAndGet(Math.min(Math.max(response.statusCode() / 100, 0), 5));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        errors.increment();
+                    } catch (Exception e) {
+                        errors.increment();
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            slots.acquire(concurrency);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        long[] classes = new long[statusClasses.length()];
+        for (int i = 0; i < classes.length; i++) classes[i] = statusClasses.get(i);
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return new ReplayReport(requests, errors.sum(), classes, truncated, durationMillis, latency);
+    }
+
+    private void waitUntilDue(long startNanos, long offsetMillis) throws InterruptedException {
+        if (rate <= 0 || offsetMillis <= 0) return;
+        long dueNanos = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(offsetMillis) / rate);
+        long waitNanos;
+        while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(waitNanos);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    private HttpRequest buildRequest(RecordedExchange exchange) {
+        byte[] body = exchange.requestBody();
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                                                 .uri(URI.create(targetUrl + exchange.path()))
+                                                 .timeout(UpstreamClient.REQUEST_TIMEOUT)
+                                                 .method(exchange.method(), body.length > 0
+                                                         ? HttpRequest.BodyPublishers.ofByteArray(body)
+                                                         : HttpRequest.BodyPublishers.noBody());
+        exchange.requestHeaders().forEach((name, value) -> {
+            if (!SKIPPED_HEADERS.contains(name.toLowerCase())) builder.header(name, value);
+        });
+        return builder.build();
+    }
+}
@@ -0,0 +1,61 @@
+package com.renanwillian.easyproxy.route;
+
+import com.renanwillian.easyproxy.balancer.UpstreamPool;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * A compiled route: its definition and the pool of the targets it balances across.
+ */
+public final class Route {
+
+    private final RouteDefinition definition;
+    private final UpstreamPool pool;
+    private final Duration requestTimeout;
+
+    Route(RouteDefinition definition, UpstreamPool pool) {
+        this.definition = definition;
+        this.pool = pool;
+        this.requestTimeout = definition.timeoutMillis() > 0 ? Duration.ofMillis(definition.timeoutMillis()) : null;
+    }
+
+    public String getPrefix() {
+        return definition.prefix();
+    }
+
+    public UpstreamPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return the request timeout of the route, or null for the global one.
+     */
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * @return headers set on every request sent to the targets of the route.
+     */
+    public Map<String, String> getHeaders() {
+        return definition.headers();
+    }
+
+    public RouteDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * @param uri the path and query of a request matched by this route.
+     * @return the path and query sent to the targets.
+     */
+    public String rewrite(String uri) {
+        String rewrite = definition.rewrite();
+        if (rewrite == null) return uri;
+        String prefix = definition.prefix();
+        String rest = prefix.equals("/") ? uri.substring(1) : uri.substring(prefix.length());
+        if (rewrite.equals("/")) return rest.startsWith("/") ? rest : "/" + rest;
+        return rest.isEmpty() || rest.startsWith("/") || rest.startsWith("?") ? rewrite + rest : rewrite + "/" + rest;
+    }
+}
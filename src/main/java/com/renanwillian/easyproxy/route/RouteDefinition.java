@@ -0,0 +1,92 @@
+package com.renanwillian.easyproxy.route;
+
+import com.renanwillian.easyproxy.utils.UrlUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A route as configured: {@code /api=http://a,http://b;rewrite=/v1;timeout=2000;header=X-Env:prod}. Requests whose
+ * path is the prefix or continues it with a {@code /} go to the targets, with the prefix replaced by {@code rewrite},
+ * the upstream response awaited for {@code timeout} milliseconds and every {@code header} set on the request.
+ *
+ * @param rewrite       the prefix sent to the targets instead of the matched one, or null to keep the path.
+ * @param timeoutMillis the request timeout of the route, or 0 for the global one.
+ */
+public record RouteDefinition(String prefix, List<String> targets, String rewrite, long timeoutMillis,
+                              Map<String, String> headers) {
+
+    /**
+     * Request headers the upstream client sets by itself and refuses to take from the caller.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = restrictedHeaders();
+
+    public static RouteDefinition parse(String spec) {
+        int equals = spec.indexOf('=');
+        if (equals <= 0) throw new IllegalArgumentException("Invalid route, expected /prefix=target: " + spec);
+        String prefix = normalizePrefix(spec.substring(0, equals).trim());
+
+        String[] parts = spec.substring(equals + 1).split(";");
+        List<String> targets = new ArrayList<>();
+        for (String target : parts[0].split(",")) {
+            if (!target.isBlank()) targets.add(UrlUtils.sanitizeUrl(target.trim()));
+        }
+        if (targets.isEmpty()) throw new IllegalArgumentException("Route " + prefix + " has no target");
+
+        String rewrite = null;
+        long timeoutMillis = 0;
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < parts.length; i++) {
+            String option = parts[i].trim();
+            int separator = option.indexOf('=');
+            String name = separator > 0 ? option.substring(0, separator).trim() : option;
+            String value = separator > 0 ? option.substring(separator + 1).trim() : "";
+            switch (name) {
+                case "rewrite" -> rewrite = value.isEmpty() ? "/" : normalizePrefix(value);
+                case "timeout" -> timeoutMillis = parseTimeout(prefix, value);
+                case "header" -> {
+                    int colon = value.indexOf(':');
+                    if (colon <= 0) throw new IllegalArgumentException("Invalid header of route " + prefix + ", expected Name:Value");
+                    String header = value.substring(0, colon).trim();
+                    if (RESTRICTED_HEADERS.contains(header)) {
+                        throw new IllegalArgumentException("Route " + prefix + " cannot set the " + header + " header");
+                    }
+                    headers.put(header, value.substring(colon + 1).trim());
+                }
+                default -> throw new IllegalArgumentException("Unknown option of route " + prefix + ": " + name);
+            }
+        }
+        return new RouteDefinition(prefix, List.copyOf(targets), rewrite, timeoutMillis,
+                                   Collections.unmodifiableMap(headers));
+    }
+
+    private static long parseTimeout(String prefix, String value) {
+        try {
+            long timeoutMillis = Long.parseLong(value);
+            if (timeoutMillis > 0) return timeoutMillis;
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Invalid timeout of route " + prefix + ": " + value);
+    }
+
+    /**
+     * @return the prefix starting with a slash and without a trailing one, except for the root.
+     */
+    static String normalizePrefix(String prefix) {
+        if (!prefix.startsWith("/")) prefix = "/" + prefix;
+        while (prefix.length() > 1 && prefix.endsWith("/")) prefix = prefix.substring(0, prefix.length() - 1);
+        return prefix;
+    }
+
+    private static Set<String> restrictedHeaders() {
+        Set<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        Collections.addAll(names, "connection", "content-length", "expect", "host", "upgrade");
+        return Collections.unmodifiableSet(names);
+    }
+}
@@ -0,0 +1,107 @@
+package com.renanwillian.easyproxy.route;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable radix trie of route prefixes, finding the longest prefix of a path in one pass over its characters. A
+ * prefix only matches whole segments: {@code /api} matches {@code /api} and {@code /api/users}, not {@code /apis}.
+ * Matching reads the path in place and allocates nothing.
+ */
+final class RouteTrie {
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final char[] NO_KEYS = new char[0];
+
+    private final Node root;
+
+    private RouteTrie(Node root) {
+        this.root = root;
+    }
+
+    static RouteTrie compile(List<Route> routes) {
+        BuildNode root = new BuildNode();
+        for (Route route : routes) {
+            BuildNode node = root;
+            for (char c : route.getPrefix().toCharArray()) {
+                node = node.children.computeIfAbsent(c, k -> new BuildNode());
+            }
+            if (node.route != null) throw new IllegalArgumentException("Duplicate route " + route.getPrefix());
+            node.route = route;
+        }
+        return new RouteTrie(root.freeze(""));
+    }
+
+    /**
+     * @param path the raw path of the request, without the query.
+     * @return the route with the longest matching prefix, or null when none matches.
+     */
+    Route match(String path) {
+        Node node = root;
+        int position = 0;
+        Route matched = null;
+        int length = path.length();
+        while (true) {
+            if (node.route != null && (position == length || path.charAt(position) == '/'
+                    || (position > 0 && path.charAt(position - 1) == '/'))) {
+                matched = node.route;
+            }
+            if (position == length) return matched;
+            Node child = node.child(path.charAt(position));
+            if (child == null || !path.startsWith(child.label, position)) return matched;
+            position += child.label.length();
+            node = child;
+        }
+    }
+
+    private static final class Node {
+        private final String label;
+        private final Route route;
+        private final char[] keys;
+        private final Node[] children;
+
+        private Node(String label, Route route, char[] keys, Node[] children) {
+            this.label = label;
+            this.route = route;
+            this.keys = keys;
+            this.children = children;
+        }
+
+        // A handful of children at most, a linear scan beats a binary search.
+        private Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) return children[i];
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One node per character while inserting, chains without routes are merged into one labelled edge when frozen.
+     */
+    private static final class BuildNode {
+        private final Map<Character, BuildNode> children = new TreeMap<>();
+        private Route route;
+
+        private Node freeze(String label) {
+            StringBuilder edge = new StringBuilder(label);
+            BuildNode node = this;
+            while (node.route == null && node.children.size() == 1 && !edge.isEmpty()) {
+                Map.Entry<Character, BuildNode> only = node.children.entrySet().iterator().next();
+                edge.append(only.getKey());
+                node = only.getValue();
+            }
+            if (node.children.isEmpty()) return new Node(edge.toString(), node.route, NO_KEYS, NO_CHILDREN);
+
+            char[] keys = new char[node.children.size()];
+            Node[] children = new Node[keys.length];
+            int i = 0;
+            for (Map.Entry<Character, BuildNode> child : node.children.entrySet()) {
+                keys[i] = child.getKey();
+                children[i++] = child.getValue().freeze(String.valueOf(child.getKey()));
+            }
+            return new Node(edge.toString(), node.route, keys, children);
+        }
+    }
+}
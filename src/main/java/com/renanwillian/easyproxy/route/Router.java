@@ -0,0 +1,202 @@
+package com.renanwillian.easyproxy.route;
+
+import com.renanwillian.easyproxy.balancer.Balancing;
+import com.renanwillian.easyproxy.balancer.CircuitBreaker;
+import com.renanwillian.easyproxy.balancer.Upstream;
+import com.renanwillian.easyproxy.balancer.UpstreamPool;
+import com.renanwillian.easyproxy.utils.TerminalUtils;
+import com.renanwillian.easyproxy.utils.UrlUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Picks the route of each request from a compiled {@link RouteTrie}. Routes come from the command line, from a routes
+ * file with one route per line and {@code #} comments, and from the positional targets, which are the {@code /} route.
+ * <p>
+ * When the routes file changes the table is compiled again and swapped in at once; requests already routed finish
+ * on the old one. Targets are shared by URL between routes and across reloads, so a target keeps its load, health and
+ * circuit state, and a file that fails to compile leaves the current table in place.
+ */
+public final class Router implements AutoCloseable {
+
+    // Replaced under the monitor when the configuration is reloaded.
+    private List<RouteDefinition> staticRoutes;
+    private RouteDefinition defaultRoute;
+    private final Path routesPath;
+    private final Balancing balancing;
+    private final String hashHeader;
+    private final Supplier<CircuitBreaker> circuitBreakers;
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder reloadFailures = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+    // Replaced as a whole on reload, so a request always sees one consistent table.
+    private volatile Table table;
+    private FileTime routesModified;
+
+    private record Table(RouteTrie trie, List<Route> routes, List<Upstream> upstreams) {}
+
+    /**
+     * @param routes          routes given on the command line.
+     * @param routesPath      file of routes reloaded when it changes, or null.
+     * @param defaultTargets  targets of the {@code /} route, unless a route of its own claims it.
+     * @param circuitBreakers creates the circuit breaker of each target, or null without circuit breaking.
+     */
+    public Router(List<String> routes, Path routesPath, List<String> defaultTargets, Balancing balancing,
+                  String hashHeader, Supplier<CircuitBreaker> circuitBreakers, int reloadIntervalSeconds)
+            throws IOException {
+        this.staticRoutes = parse(routes);
+        this.defaultRoute = defaultRoute(defaultTargets);
+        this.routesPath = routesPath;
+        this.balancing = balancing;
+        this.hashHeader = hashHeader;
+        this.circuitBreakers = circuitBreakers;
+
+        if (routesPath != null) routesModified = Files.getLastModifiedTime(routesPath);
+        this.table = compile(readRoutes(), Map.of());
+        if (routesPath != null && reloadIntervalSeconds > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "easy-proxy-routes-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::reloadIfChanged, reloadIntervalSeconds, reloadIntervalSeconds,
+                                             TimeUnit.SECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    private static List<RouteDefinition> parse(List<String> routes) {
+        return routes.stream().map(RouteDefinition::parse).toList();
+    }
+
+    private static RouteDefinition defaultRoute(List<String> targets) {
+        if (targets.isEmpty()) return null;
+        return new RouteDefinition("/", targets.stream().map(UrlUtils::sanitizeUrl).toList(), null, 0, Map.of());
+    }
+
+    private List<RouteDefinition> readRoutes() throws IOException {
+        List<RouteDefinition> definitions = new ArrayList<>(staticRoutes);
+        if (routesPath != null) {
+            for (String line : Files.readAllLines(routesPath, StandardCharsets.UTF_8)) {
+                String route = line.strip();
+                if (!route.isEmpty() && !route.startsWith("#")) definitions.add(RouteDefinition.parse(route));
+            }
+        }
+        // A / route of its own takes over from the positional targets.
+        if (defaultRoute != null && definitions.stream().noneMatch(route -> route.prefix().equals("/"))) {
+            definitions.add(defaultRoute);
+        }
+        return definitions;
+    }
+
+    private Table compile(List<RouteDefinition> definitions, Map<String, Upstream> previous) {
+        if (definitions.isEmpty()) throw new IllegalArgumentException("No route or target configured");
+        Map<String, Upstream> upstreams = new LinkedHashMap<>();
+        List<Route> routes = new ArrayList<>();
+        for (RouteDefinition definition : definitions) {
+            List<Upstream> targets = new ArrayList<>();
+            for (String url : definition.targets()) {
+                targets.add(upstreams.computeIfAbsent(url, key -> {
+                    Upstream existing = previous.get(key);
+                    return existing != null ? existing : new Upstream(key, circuitBreakers != null ? circuitBreakers.get() : null);
+                }));
+            }
+            routes.add(new Route(definition, UpstreamPool.of(targets, balancing, hashHeader)));
+        }
+        return new Table(RouteTrie.compile(routes), List.copyOf(routes), List.copyOf(upstreams.values()));
+    }
+
+    /**
+     * @param path the raw path of the request, without the query.
+     * @return the route with the longest matching prefix, or null when no route matches.
+     */
+    public Route match(String path) {
+        return table.trie().match(path);
+    }
+
+    /**
+     * Compiles the routes file again when it was modified since the last load.
+     *
+     * @return true if a new table is now used.
+     */
+    public synchronized boolean reloadIfChanged() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(routesPath);
+            if (modified.equals(routesModified)) return false;
+            // Remembered before compiling, so a file caught half written is retried once it is written again.
+            routesModified = modified;
+            table = compile(readRoutes(), currentUpstreams());
+            reloads.increment();
+            TerminalUtils.printlnError("Reloaded " + table.routes().size() + " routes from " + routesPath);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            reloadFailures.increment();
+            TerminalUtils.printlnError("Error reloading the routes: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the routes given on the command line and the targets of the {@code /} route, keeping the routes file.
+     *
+     * @throws IllegalArgumentException if a route is invalid, in which case the current table is kept.
+     */
+    public synchronized void setRoutes(List<String> routes, List<String> defaultTargets) throws IOException {
+        List<RouteDefinition> previousRoutes = staticRoutes;
+        RouteDefinition previousDefault = defaultRoute;
+        try {
+            staticRoutes = parse(routes);
+            defaultRoute = defaultRoute(defaultTargets);
+            table = compile(readRoutes(), currentUpstreams());
+        } catch (IOException | RuntimeException e) {
+            staticRoutes = previousRoutes;
+            defaultRoute = previousDefault;
+            throw e;
+        }
+    }
+
+    private Map<String, Upstream> currentUpstreams() {
+        Map<String, Upstream> upstreams = new HashMap<>();
+        table.upstreams().forEach(upstream -> upstreams.put(upstream.getUrl(), upstream));
+        return upstreams;
+    }
+
+    public List<Route> getRoutes() {
+        return table.routes();
+    }
+
+    /**
+     * @return every target of the current routes, once each.
+     */
+    public List<Upstream> getUpstreams() {
+        return table.upstreams();
+    }
+
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    public long getReloadFailedCount() {
+        return reloadFailures.sum();
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+}
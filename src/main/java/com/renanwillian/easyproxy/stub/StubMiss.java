@@ -0,0 +1,11 @@
+package com.renanwillian.easyproxy.stub;
+
+/**
+ * What the proxy does with a request no stub matches.
+ */
+public enum StubMiss {
+    /** Send the request to the targets as usual. */
+    FORWARD,
+    /** Answer 502 without contacting any target. */
+    FAIL
+}
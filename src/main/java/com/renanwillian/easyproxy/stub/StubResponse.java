@@ -0,0 +1,24 @@
+package com.renanwillian.easyproxy.stub;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A prepared response served in place of the upstream.
+ *
+ * @param headers response headers, hop-by-hop ones are dropped when serving.
+ * @param body    read-only body, mapped from its file when the store is a directory.
+ */
+public record StubResponse(int statusCode, Map<String, String> headers, ByteBuffer body) {
+
+    /**
+     * @return a view of the body positioned at its start, safe to consume on any thread.
+     */
+    public ByteBuffer openBody() {
+        return body.duplicate();
+    }
+
+    public int getBodySize() {
+        return body.remaining();
+    }
+}
@@ -0,0 +1,182 @@
+package com.renanwillian.easyproxy.stub;
+
+import com.renanwillian.easyproxy.traffic.CaptureReader;
+import com.renanwillian.easyproxy.traffic.RecordedExchange;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Prepared responses indexed by method, path and query, loaded once at startup. The store is either:
+ * <ul>
+ *     <li>a directory where {@code GET/api/users} answers {@code GET /api/users}. A file named {@code index} answers
+ *     its directory, a {@code ?} in the URL is written {@code %3F} in the file name and query parameters match in
+ *     any order. An optional {@code <file>.headers} sidecar holds a status line and response headers, otherwise
+ *     the response is a 200 with a Content-Type guessed from the file name.</li>
+ *     <li>a capture written with {@code --record}, where the last complete response recorded for a request wins.</li>
+ * </ul>
+ */
+public class StubStore {
+
+    public static final String HEADERS_SUFFIX = ".headers";
+
+    private static final String INDEX_FILE = "index";
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    private final Map<String, StubResponse> stubs;
+    private final StubMiss miss;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    StubStore(Map<String, StubResponse> stubs, StubMiss miss) {
+        this.stubs = Map.copyOf(stubs);
+        this.miss = miss;
+    }
+
+    /**
+     * @param path a stub directory, or the base path of a capture.
+     */
+    public static StubStore load(Path path, StubMiss miss) throws IOException {
+        Map<String, StubResponse> stubs = new HashMap<>();
+        if (Files.isDirectory(path)) {
+            loadDirectory(path, stubs);
+        } else if (Files.isDirectory(path.toAbsolutePath().getParent()) && !CaptureReader.segments(path).isEmpty()) {
+            loadCapture(path, stubs);
+        } else {
+            throw new IllegalArgumentException("No stub directory or capture found at " + path);
+        }
+        return new StubStore(stubs, miss);
+    }
+
+    /**
+     * @param uri the request path with its raw query, if any.
+     * @return the stub for the request, or null when none matches.
+     */
+    public StubResponse lookup(String method, String uri) {
+        StubResponse stub = stubs.get(key(method, uri));
+        if (stub != null) hits.increment();
+        else misses.increment();
+        return stub;
+    }
+
+    public StubMiss getMiss() {
+        return miss;
+    }
+
+    public int size() {
+        return stubs.size();
+    }
+
+    /**
+     * @return requests answered with a stub.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return requests no stub matched.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the method followed by the path and the query parameters sorted, so their order does not matter.
+     */
+    static String key(String method, String uri) {
+        int question = uri.indexOf('?');
+        String path = question >= 0 ? uri.substring(0, question) : uri;
+        if (path.isEmpty()) path = "/";
+        String key = method.toUpperCase(Locale.ROOT) + " " + path;
+        if (question < 0 || question == uri.length() - 1) return key;
+
+        String[] parameters = uri.substring(question + 1).split("&");
+        Arrays.sort(parameters);
+        return key + "?" + String.join("&", parameters);
+    }
+
+    private static void loadDirectory(Path directory, Map<String, StubResponse> stubs) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile)
+                        .filter(file -> !file.getFileName().toString().endsWith(HEADERS_SUFFIX))
+                        .toList();
+        }
+        for (Path file : files) {
+            Path relative = directory.relativize(file);
+            // Files directly in the store have no method directory.
+            if (relative.getNameCount() < 2) continue;
+
+            String method = relative.getName(0).toString();
+            String uri = uriOf(relative.subpath(1, relative.getNameCount()));
+            stubs.put(key(method, uri), readFile(file));
+        }
+    }
+
+    private static String uriOf(Path relative) {
+        StringBuilder uri = new StringBuilder();
+        for (Path name : relative) uri.append('/').append(name);
+        String decoded = uri.toString().replace("%3F", "?").replace("%3f", "?");
+
+        int question = decoded.indexOf('?');
+        String path = question >= 0 ? decoded.substring(0, question) : decoded;
+        String query = question >= 0 ? decoded.substring(question) : "";
+        if (path.equals("/" + INDEX_FILE)) path = "/";
+        else if (path.endsWith("/" + INDEX_FILE)) path = path.substring(0, path.length() - INDEX_FILE.length() - 1);
+        return path + query;
+    }
+
+    private static StubResponse readFile(Path file) throws IOException {
+        int statusCode = 200;
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        Path sidecar = file.resolveSibling(file.getFileName() + HEADERS_SUFFIX);
+        if (Files.exists(sidecar)) {
+            for (String line : Files.readAllLines(sidecar)) {
+                if (line.isBlank()) continue;
+                if (line.startsWith("HTTP/")) {
+                    statusCode = Integer.parseInt(line.split("\\s+")[1]);
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0) headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+        if (!headers.containsKey("Content-Type")) {
+            String contentType = URLConnection.guessContentTypeFromName(file.getFileName().toString());
+            headers.put("Content-Type", contentType != null ? contentType : DEFAULT_CONTENT_TYPE);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer body = channel.size() == 0
+                    ? ByteBuffer.allocate(0)
+                    : channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StubResponse(statusCode, headers, body.asReadOnlyBuffer());
+        }
+    }
+
+    private static void loadCapture(Path capture, Map<String, StubResponse> stubs) {
+        for (RecordedExchange exchange : new CaptureReader(capture, 0)) {
+            // Failed exchanges and bodies cut to the capture limit cannot stand in for the upstream.
+            if (exchange.statusCode() == 0 || exchange.responseBody().length < exchange.responseBodySize()) continue;
+
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(exchange.responseHeaders());
+            ByteBuffer body = ByteBuffer.wrap(exchange.responseBody()).asReadOnlyBuffer();
+            stubs.put(key(exchange.method(), exchange.path()), new StubResponse(exchange.statusCode(), headers, body));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.renanwillian.easyproxy.tls;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the certificate chain and private key of the listener, from a PKCS12 keystore or from PEM files, into a
+ * keystore holding them under {@link #ALIAS}. The alias never changes so a handshake that picked it before a reload
+ * still finds the key after it.
+ */
+final class KeyMaterial {
+
+    static final String ALIAS = "easy-proxy";
+
+    private static final Pattern PEM_BLOCK = Pattern.compile(
+            "-----BEGIN ([A-Z ]+)-----([A-Za-z0-9+/=\\s]+)-----END \\1-----");
+    private static final String[] KEY_ALGORITHMS = {"RSA", "EC", "Ed25519", "Ed448"};
+
+    private KeyMaterial() {}
+
+    /**
+     * @param certPath a PKCS12 keystore, or PEM certificates optionally followed by the key.
+     * @param keyPath  the PEM private key when it is not in {@code certPath}, or null.
+     */
+    static KeyStore load(Path certPath, Path keyPath, char[] password) throws IOException, GeneralSecurityException {
+        byte[] content = Files.readAllBytes(certPath);
+        String text = new String(content, StandardCharsets.ISO_8859_1);
+        if (!text.contains("-----BEGIN ")) return fromPkcs12(content, password);
+
+        List<Certificate> chain = new ArrayList<>();
+        PrivateKey key = null;
+        CertificateFactory certificates = CertificateFactory.getInstance("X.509");
+        List<String> texts = keyPath != null
+                ? List.of(text, Files.readString(keyPath, StandardCharsets.ISO_8859_1))
+                : List.of(text);
+        for (String pem : texts) {
+            Matcher block = PEM_BLOCK.matcher(pem);
+            while (block.find()) {
+                byte[] der = Base64.getMimeDecoder().decode(block.group(2));
+                switch (block.group(1)) {
+                    case "CERTIFICATE" -> chain.add(certificates.generateCertificate(new ByteArrayInputStream(der)));
+                    case "PRIVATE KEY" -> key = privateKey(der);
+                    case "RSA PRIVATE KEY", "EC PRIVATE KEY" -> throw new IllegalArgumentException(
+                            "Only PKCS#8 private keys are supported, convert it with openssl pkcs8 -topk8 -nocrypt");
+                    default -> {}
+                }
+            }
+        }
+        if (chain.isEmpty()) throw new IllegalArgumentException("No certificate found in " + certPath);
+        if (key == null) throw new IllegalArgumentException("No private key found, pass it with --tls-key");
+        return keyStore(key, chain.toArray(Certificate[]::new));
+    }
+
+    private static KeyStore fromPkcs12(byte[] content, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore source = KeyStore.getInstance("PKCS12");
+        source.load(new ByteArrayInputStream(content), password);
+        for (String alias : Collections.list(source.aliases())) {
+            if (!source.isKeyEntry(alias)) continue;
+            Key key = source.getKey(alias, password);
+            if (key instanceof PrivateKey privateKey) return keyStore(privateKey, source.getCertificateChain(alias));
+        }
+        throw new IllegalArgumentException("No private key entry found in the keystore");
+    }
+
+    private static PrivateKey privateKey(byte[] der) throws GeneralSecurityException {
+        PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(der);
+        for (String algorithm : KEY_ALGORITHMS) {
+            try {
+                return KeyFactory.getInstance(algorithm).generatePrivate(spec);
+            } catch (GeneralSecurityException e) {
+                // Not a key of this algorithm, try the next one.
+            }
+        }
+        throw new IllegalArgumentException("Unsupported private key algorithm");
+    }
+
+    private static KeyStore keyStore(PrivateKey key, Certificate[] chain) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(ALIAS, key, new char[0], chain);
+        return keyStore;
+    }
+}
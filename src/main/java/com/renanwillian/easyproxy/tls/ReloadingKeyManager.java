@@ -0,0 +1,77 @@
+package com.renanwillian.easyproxy.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Key manager whose certificate can be replaced while the listener runs. The SSL context, and with it the session
+ * cache and ticket keys, stays the same, so clients keep resuming their sessions across a reload.
+ * <p>
+ * The key is only needed when a handshake authenticates with the certificate, never when it resumes a session, so
+ * the calls to {@link #getPrivateKey} count the full handshakes.
+ */
+final class ReloadingKeyManager extends X509ExtendedKeyManager {
+
+    private final LongAdder fullHandshakes = new LongAdder();
+    private volatile X509ExtendedKeyManager delegate;
+
+    ReloadingKeyManager(X509ExtendedKeyManager delegate) {
+        this.delegate = delegate;
+    }
+
+    void setDelegate(X509ExtendedKeyManager delegate) {
+        this.delegate = delegate;
+    }
+
+    long getFullHandshakeCount() {
+        return fullHandshakes.sum();
+    }
+
+    @Override
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+        return delegate.chooseEngineServerAlias(keyType, issuers, engine);
+    }
+
+    @Override
+    public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+        return delegate.chooseServerAlias(keyType, issuers, socket);
+    }
+
+    @Override
+    public String[] getServerAliases(String keyType, Principal[] issuers) {
+        return delegate.getServerAliases(keyType, issuers);
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias) {
+        return delegate.getCertificateChain(alias);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias) {
+        fullHandshakes.increment();
+        return delegate.getPrivateKey(alias);
+    }
+
+    // The listener never authenticates as a client.
+
+    @Override
+    public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+        return null;
+    }
+
+    @Override
+    public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+        return null;
+    }
+
+    @Override
+    public String[] getClientAliases(String keyType, Principal[] issuers) {
+        return null;
+    }
+}
@@ -0,0 +1,184 @@
+package com.renanwillian.easyproxy.tls;
+
+import com.renanwillian.easyproxy.config.ProxyConfig;
+import com.renanwillian.easyproxy.utils.TerminalUtils;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TLS settings of the listener: the certificate, enabled protocols and cipher suites, and the server session cache
+ * that lets returning clients resume a session instead of running a full handshake. Session tickets, enabled by
+ * default since JDK 13, resume TLS 1.3 and 1.2 sessions without a cache lookup.
+ * <p>
+ * Every {@code reloadIntervalSeconds} the certificate files are checked and reloaded when they changed; new
+ * connections get the new certificate, established ones keep theirs. A file that fails to load leaves the current
+ * certificate in place.
+ */
+public final class TlsTerminator implements AutoCloseable {
+
+    public static final List<String> DEFAULT_PROTOCOLS = List.of("TLSv1.3", "TLSv1.2");
+
+    private final Path certPath;
+    private final Path keyPath;
+    private final char[] password;
+    private final ReloadingKeyManager keyManager;
+    private final SSLContext sslContext;
+    private final SSLParameters sslParameters;
+    private final Configurator configurator;
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder reloadFailures = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+    private FileTime certModified;
+    private FileTime keyModified;
+
+    public TlsTerminator(ProxyConfig config) throws IOException {
+        this.certPath = config.getTlsCert();
+        this.keyPath = config.getTlsKey();
+        this.password = config.getTlsPassword() != null ? config.getTlsPassword().toCharArray() : new char[0];
+        try {
+            certModified = Files.getLastModifiedTime(certPath);
+            keyModified = keyPath != null ? Files.getLastModifiedTime(keyPath) : null;
+            keyManager = new ReloadingKeyManager(loadKeyManager());
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(new KeyManager[]{keyManager}, null, null);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot load the TLS certificate: " + e.getMessage(), e);
+        }
+
+        SSLSessionContext sessions = sslContext.getServerSessionContext();
+        sessions.setSessionCacheSize(config.getTlsSessionCacheSize());
+        sessions.setSessionTimeout(config.getTlsSessionTimeout());
+
+        SSLParameters supported = sslContext.getSupportedSSLParameters();
+        sslParameters = sslContext.getDefaultSSLParameters();
+        sslParameters.setProtocols(checkSupported("protocol", config.getTlsProtocols(), supported.getProtocols()));
+        if (!config.getTlsCiphers().isEmpty()) {
+            sslParameters.setCipherSuites(checkSupported("cipher suite", config.getTlsCiphers(), supported.getCipherSuites()));
+        }
+        // Negotiate the suites in the configured order, fastest first, instead of the order the client prefers.
+        sslParameters.setUseCipherSuitesOrder(true);
+        configurator = new Configurator();
+
+        if (config.getTlsReloadInterval() > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "easy-proxy-tls-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::reloadIfChanged, config.getTlsReloadInterval(),
+                                             config.getTlsReloadInterval(), TimeUnit.SECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    private static String[] checkSupported(String kind, List<String> names, String[] supported) {
+        Set<String> available = Set.of(supported);
+        for (String name : names) {
+            if (!available.contains(name)) throw new IllegalArgumentException("Unsupported TLS " + kind + ": " + name);
+        }
+        return names.toArray(String[]::new);
+    }
+
+    private X509ExtendedKeyManager loadKeyManager() throws IOException, GeneralSecurityException {
+        KeyManagerFactory factory = KeyManagerFactory.getInstance("SunX509");
+        factory.init(KeyMaterial.load(certPath, keyPath, password), new char[0]);
+        return (X509ExtendedKeyManager) factory.getKeyManagers()[0];
+    }
+
+    /**
+     * Loads the certificate again when its files were modified since the last load.
+     *
+     * @return true if a new certificate is now served.
+     */
+    public synchronized boolean reloadIfChanged() {
+        try {
+            FileTime certTime = Files.getLastModifiedTime(certPath);
+            FileTime keyTime = keyPath != null ? Files.getLastModifiedTime(keyPath) : null;
+            if (certTime.equals(certModified) && (keyTime == null || keyTime.equals(keyModified))) return false;
+            // Remembered before loading, so a file caught half written is retried once it is written again.
+            certModified = certTime;
+            keyModified = keyTime;
+            keyManager.setDelegate(loadKeyManager());
+            reloads.increment();
+            TerminalUtils.printlnError("Reloaded the TLS certificate from " + certPath);
+            return true;
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            reloadFailures.increment();
+            TerminalUtils.printlnError("Error reloading the TLS certificate: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public HttpsConfigurator getConfigurator() {
+        return configurator;
+    }
+
+    /**
+     * @return TLS connections accepted, each of which starts a handshake.
+     */
+    public long getHandshakeCount() {
+        return connections.sum();
+    }
+
+    /**
+     * @return handshakes that authenticated with the certificate instead of resuming a session.
+     */
+    public long getFullHandshakeCount() {
+        return keyManager.getFullHandshakeCount();
+    }
+
+    /**
+     * @return handshakes that did not need the certificate, which are resumed sessions and the few handshakes
+     * abandoned before the certificate was sent.
+     */
+    public long getResumedHandshakeCount() {
+        return Math.max(0, getHandshakeCount() - getFullHandshakeCount());
+    }
+
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    public long getReloadFailedCount() {
+        return reloadFailures.sum();
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private final class Configurator extends HttpsConfigurator {
+
+        Configurator() {
+            super(sslContext);
+        }
+
+        @Override
+        public void configure(HttpsParameters params) {
+            // Called once for every connection the HttpsServer accepts, before its handshake.
+            connections.increment();
+            params.setSSLParameters(sslParameters);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.renanwillian.easyproxy.traffic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Reads back a capture written by {@link CaptureWriter}, segment by segment, in the order exchanges completed.
+ */
+public class CaptureReader implements Iterable<RecordedExchange> {
+
+    private static final String INDEX_SUFFIX = ".index";
+
+    private final Path base;
+    private final long fromMillis;
+
+    /**
+     * @param fromMillis skip exchanges that arrived before this epoch millisecond, using the index to start close
+     *                   to it.
+     */
+    public CaptureReader(Path base, long fromMillis) {
+        this.base = base.toAbsolutePath();
+        this.fromMillis = fromMillis;
+    }
+
+    static Path segmentPath(Path base, int segmentNumber) {
+        return base.resolveSibling(base.getFileName() + String.format(".%06d", segmentNumber));
+    }
+
+    static Path indexPath(Path base) {
+        return base.resolveSibling(base.getFileName() + INDEX_SUFFIX);
+    }
+
+    static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * @return the segment files of the capture, oldest first.
+     */
+    public static List<Path> segments(Path base) throws IOException {
+        Path absolute = base.toAbsolutePath();
+        String prefix = absolute.getFileName() + ".";
+        try (Stream<Path> files = Files.list(absolute.getParent())) {
+            return files.filter(file -> {
+                            String name = file.getFileName().toString();
+                            return name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+");
+                        })
+                        .sorted(Comparator.comparingInt(CaptureReader::segmentNumber))
+                        .toList();
+        }
+    }
+
+    @Override
+    public Iterator<RecordedExchange> iterator() {
+        try {
+            return new RecordIterator(segments(base), seek());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the segment number and offset of the last indexed second not after {@code fromMillis}.
+     */
+    private long[] seek() throws IOException {
+        long[] start = {-1, 0};
+        Path indexPath = indexPath(base);
+        if (fromMillis <= 0 || !Files.exists(indexPath)) return start;
+
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        while (index.remaining() >= CaptureWriter.INDEX_ENTRY_SIZE) {
+            long timestamp = index.getLong();
+            int segmentNumber = index.getInt();
+            int offset = index.getInt();
+            if (timestamp / 1000 > fromMillis / 1000) break;
+            start[0] = segmentNumber;
+            start[1] = offset;
+        }
+        return start;
+    }
+
+    private class RecordIterator implements Iterator<RecordedExchange> {
+
+        private final List<Path> segments;
+        private final long startSegment;
+        private int segmentIndex = -1;
+        private MappedByteBuffer segment;
+        private int offset;
+        private RecordedExchange next;
+
+        RecordIterator(List<Path> segments, long[] start) {
+            this.segments = new ArrayList<>(segments);
+            this.startSegment = start[0];
+            this.offset = (int) start[1];
+            if (startSegment >= 0) this.segments.removeIf(path -> segmentNumber(path) < startSegment);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                RecordedExchange candidate = readNext();
+                if (candidate == null) return false;
+                if (candidate.timestamp() >= fromMillis) next = candidate;
+            }
+            return true;
+        }
+
+        @Override
+        public RecordedExchange next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            RecordedExchange result = next;
+            next = null;
+            return result;
+        }
+
+        private RecordedExchange readNext() {
+            while (true) {
+                if (segment != null && offset + Integer.BYTES <= segment.limit()) {
+                    int length = segment.getInt(offset);
+                    if (length > 0 && offset + Integer.BYTES + length <= segment.limit()) {
+                        RecordedExchange exchange = ExchangeCodec.decode(segment.slice(offset + Integer.BYTES, length), true);
+                        offset += Integer.BYTES + length;
+                        return exchange;
+                    }
+                }
+                if (!openNextSegment()) return null;
+            }
+        }
+
+        private boolean openNextSegment() {
+            segmentIndex++;
+            if (segmentIndex >= segments.size()) return false;
+            Path path = segments.get(segmentIndex);
+            if (segmentIndex > 0 || segmentNumber(path) != startSegment) offset = 0;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
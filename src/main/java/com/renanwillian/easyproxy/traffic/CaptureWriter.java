@@ -0,0 +1,127 @@
+package com.renanwillian.easyproxy.traffic;
+
+import com.renanwillian.easyproxy.log.LogEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Appends every exchange to a capture on disk, for offline replay. The capture is a series of memory-mapped segment
+ * files next to {@code base}, each a sequence of records made of an int length and the {@link ExchangeCodec} bytes,
+ * ended by a zero length. An index file maps each second that saw traffic to where its first record starts, so
+ * readers can seek by time.
+ * <p>
+ * Every run starts a new segment, earlier segments of the same capture are kept.
+ */
+public class CaptureWriter implements ExchangeRecorder, AutoCloseable {
+
+    /**
+     * Largest record written, bodies are cut to fit.
+     */
+    public static final int MAX_RECORD_SIZE = 256 * 1024;
+    public static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES * 2;
+
+    private final Path base;
+    private final long segmentSize;
+    private final FileChannel index;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+    private final LongAdder failed = new LongAdder();
+    private int segmentNumber;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private long sequence = 0;
+    private long indexedSecond = -1;
+    private boolean closed = false;
+
+    /**
+     * @param base        path of the capture, segments and index are named after it.
+     * @param segmentSize bytes mapped per segment file.
+     */
+    public CaptureWriter(Path base, long segmentSize) throws IOException {
+        if (segmentSize < MAX_RECORD_SIZE * 4L || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The capture segment size must be between 1 MB and 2 GB");
+        }
+        this.base = base.toAbsolutePath();
+        this.segmentSize = segmentSize;
+        Files.createDirectories(this.base.getParent());
+        List<Path> existing = CaptureReader.segments(this.base);
+        this.segmentNumber = existing.isEmpty() ? 0 : CaptureReader.segmentNumber(existing.get(existing.size() - 1));
+        this.index = FileChannel.open(CaptureReader.indexPath(this.base), StandardOpenOption.CREATE,
+                                      StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public synchronized void record(LogEntry entry) {
+        if (closed) return;
+        try {
+            if (segment == null || segment.remaining() < Integer.BYTES + MAX_RECORD_SIZE + Integer.BYTES) roll();
+            int start = segment.position();
+            int length = ExchangeCodec.encode(++sequence, entry, segment.slice(start + Integer.BYTES, MAX_RECORD_SIZE));
+            segment.putInt(start, length);
+            segment.position(start + Integer.BYTES + length);
+            indexIfNewSecond(ExchangeCodec.timestampOf(entry), start);
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+        }
+    }
+
+    private void indexIfNewSecond(long timestamp, int offset) throws IOException {
+        long second = timestamp / 1000;
+        if (second == indexedSecond) return;
+        indexedSecond = second;
+        indexEntry.clear();
+        indexEntry.putLong(timestamp).putInt(segmentNumber).putInt(offset).flip();
+        while (indexEntry.hasRemaining()) index.write(indexEntry);
+    }
+
+    private void roll() throws IOException {
+        finishSegment();
+        segmentNumber++;
+        segmentChannel = FileChannel.open(CaptureReader.segmentPath(base, segmentNumber), StandardOpenOption.CREATE_NEW,
+                                          StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        indexedSecond = -1;
+    }
+
+    /**
+     * Flushes the segment and trims the unused end of the file, the zero length after the last record stays.
+     */
+    private void finishSegment() throws IOException {
+        if (segment == null) return;
+        int end = segment.position();
+        segment.force();
+        segment = null;
+        try {
+            segmentChannel.truncate(end + Integer.BYTES);
+        } catch (IOException e) {
+            // Some platforms refuse to truncate a mapped file, readers stop at the zero length anyway.
+        } finally {
+            segmentChannel.close();
+        }
+    }
+
+    /**
+     * @return exchanges that could not be written.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            finishSegment();
+        } finally {
+            index.close();
+        }
+    }
+}
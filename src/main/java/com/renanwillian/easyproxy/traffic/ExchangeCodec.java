@@ -0,0 +1,170 @@
+package com.renanwillian.easyproxy.traffic;
+
+import com.renanwillian.easyproxy.log.LogEntry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact binary form of an exchange. The summary fields come first so listings never read headers or bodies:
+ * <pre>
+ * id:long timestamp:long duration:long status:short method path target message cacheStatus
+ * requestHeaders responseHeaders requestBodySize:long requestBody responseBodySize:long responseBody
+ * </pre>
+ * Strings are an unsigned short length followed by UTF-8 bytes, header blocks a short count of name and value
+ * strings, bodies an int length followed by the bytes. Bodies are cut to what fits in the slot.
+ */
+final class ExchangeCodec {
+
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int FIXED_BYTES = Long.BYTES * 5 + Short.BYTES * 3 + Integer.BYTES * 2;
+
+    private ExchangeCodec() {}
+
+    /**
+     * @return the number of bytes written, at most {@code slot.capacity()}.
+     */
+    static int encode(long id, LogEntry entry, ByteBuffer slot) {
+        int maxString = Math.min(MAX_STRING_BYTES, (slot.capacity() - FIXED_BYTES) / 5 - Short.BYTES);
+        byte[][] strings = {utf8(entry.getMethod(), maxString), utf8(entry.getPath(), maxString),
+                            utf8(entry.getTarget(), maxString), utf8(entry.getResponseMessage(), maxString),
+                            utf8(entry.getCacheStatus(), maxString)};
+        List<byte[]> requestHeaders = encodeHeaders(entry.getRequestHeaders());
+        List<byte[]> responseHeaders = encodeHeaders(entry.getResponseHeaders());
+
+        int stringBytes = sizeOf(strings) + Short.BYTES * strings.length;
+        int headerBytes = sizeOf(requestHeaders) + sizeOf(responseHeaders)
+                + Short.BYTES * (requestHeaders.size() + responseHeaders.size());
+        if (FIXED_BYTES + stringBytes + headerBytes > slot.capacity()) {
+            requestHeaders = List.of();
+            responseHeaders = List.of();
+            headerBytes = 0;
+        }
+        int budget = Math.max(0, slot.capacity() - FIXED_BYTES - stringBytes - headerBytes);
+
+        byte[] requestBody = entry.getRequestBody() != null ? entry.getRequestBody() : new byte[0];
+        byte[] responseBody = entry.getResponseBody() != null ? entry.getResponseBody() : new byte[0];
+        int responseLength = Math.min(responseBody.length, budget - Math.min(requestBody.length, budget / 2));
+        int requestLength = Math.min(requestBody.length, budget - responseLength);
+
+        slot.clear();
+        slot.putLong(id);
+        slot.putLong(timestampOf(entry));
+        slot.putLong(entry.getDuration() != null ? entry.getDuration() : 0);
+        slot.putShort((short) entry.getStatusCode());
+        for (byte[] string : strings) putString(slot, string);
+        putHeaders(slot, requestHeaders);
+        putHeaders(slot, responseHeaders);
+        slot.putLong(Math.max(entry.getRequestBodySize(), requestBody.length));
+        slot.putInt(requestLength).put(requestBody, 0, requestLength);
+        slot.putLong(Math.max(entry.getResponseBodySize(), responseBody.length));
+        slot.putInt(responseLength).put(responseBody, 0, responseLength);
+        return slot.position();
+    }
+
+    /**
+     * @return when the request arrived, in epoch milliseconds.
+     */
+    static long timestampOf(LogEntry entry) {
+        if (entry.getTimestamp() == null) return 0;
+        return entry.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    static long readId(ByteBuffer slot) {
+        return slot.getLong(0);
+    }
+
+    /**
+     * @param full whether headers and bodies are decoded too, or only the summary fields.
+     */
+    static RecordedExchange decode(ByteBuffer slot, boolean full) {
+        slot.clear();
+        long id = slot.getLong();
+        long timestamp = slot.getLong();
+        long duration = slot.getLong();
+        int statusCode = slot.getShort();
+        String method = getString(slot);
+        String path = getString(slot);
+        String target = getString(slot);
+        String responseMessage = getString(slot);
+        String cacheStatus = getString(slot);
+        if (!full) {
+            return new RecordedExchange(id, timestamp, method, path, target, statusCode, responseMessage, duration,
+                                        cacheStatus, Map.of(), Map.of(), new byte[0], 0, new byte[0], 0);
+        }
+
+        Map<String, String> requestHeaders = getHeaders(slot);
+        Map<String, String> responseHeaders = getHeaders(slot);
+        long requestBodySize = slot.getLong();
+        byte[] requestBody = new byte[slot.getInt()];
+        slot.get(requestBody);
+        long responseBodySize = slot.getLong();
+        byte[] responseBody = new byte[slot.getInt()];
+        slot.get(responseBody);
+        return new RecordedExchange(id, timestamp, method, path, target, statusCode, responseMessage, duration,
+                                    cacheStatus, requestHeaders, responseHeaders, requestBody, requestBodySize,
+                                    responseBody, responseBodySize);
+    }
+
+    private static List<byte[]> encodeHeaders(Map<String, String> headers) {
+        if (headers == null) return List.of();
+        List<byte[]> encoded = new ArrayList<>(headers.size() * 2);
+        headers.forEach((name, value) -> {
+            encoded.add(utf8(name, MAX_STRING_BYTES));
+            encoded.add(utf8(value, MAX_STRING_BYTES));
+        });
+        return encoded;
+    }
+
+    private static void putHeaders(ByteBuffer slot, List<byte[]> headers) {
+        slot.putShort((short) (headers.size() / 2));
+        for (byte[] string : headers) putString(slot, string);
+    }
+
+    private static Map<String, String> getHeaders(ByteBuffer slot) {
+        int count = Short.toUnsignedInt(slot.getShort());
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < count; i++) {
+            String name = getString(slot);
+            String value = getString(slot);
+            headers.put(name != null ? name : "", value != null ? value : "");
+        }
+        return headers;
+    }
+
+    private static void putString(ByteBuffer slot, byte[] string) {
+        slot.putShort((short) string.length).put(string);
+    }
+
+    private static String getString(ByteBuffer slot) {
+        int length = Short.toUnsignedInt(slot.getShort());
+        if (length == 0) return null;
+        byte[] bytes = new byte[length];
+        slot.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value, int limit) {
+        if (value == null) return new byte[0];
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > limit ? Arrays.copyOf(bytes, limit) : bytes;
+    }
+
+    private static int sizeOf(byte[][] strings) {
+        int size = 0;
+        for (byte[] string : strings) size += string.length;
+        return size;
+    }
+
+    private static int sizeOf(List<byte[]> strings) {
+        int size = 0;
+        for (byte[] string : strings) size += string.length;
+        return size;
+    }
+}
@@ -0,0 +1,23 @@
+package com.renanwillian.easyproxy.traffic;
+
+import com.renanwillian.easyproxy.log.LogEntry;
+
+import java.util.List;
+
+/**
+ * Receives every completed exchange, on the thread that handled it.
+ */
+public interface ExchangeRecorder {
+
+    void record(LogEntry entry);
+
+    /**
+     * @return a recorder feeding all of the given ones, or null when there are none.
+     */
+    static ExchangeRecorder of(List<ExchangeRecorder> recorders) {
+        if (recorders.isEmpty()) return null;
+        if (recorders.size() == 1) return recorders.get(0);
+        List<ExchangeRecorder> all = List.copyOf(recorders);
+        return entry -> all.forEach(recorder -> recorder.record(entry));
+    }
+}
@@ -0,0 +1,19 @@
+package com.renanwillian.easyproxy.traffic;
+
+import java.util.Map;
+
+/**
+ * An exchange read back from the {@link TrafficRecorder}. Summaries leave headers and bodies empty.
+ *
+ * @param id               sequence number of the exchange, starting at 1.
+ * @param timestamp        when the request arrived, in epoch milliseconds.
+ * @param requestBody      the recorded part of the request body.
+ * @param requestBodySize  total size of the request body, larger than the recorded part when it did not fit.
+ * @param responseBody     the recorded part of the response body.
+ * @param responseBodySize total size of the response body, larger than the recorded part when it did not fit.
+ */
+public record RecordedExchange(long id, long timestamp, String method, String path, String target, int statusCode,
+                               String responseMessage, long duration, String cacheStatus,
+                               Map<String, String> requestHeaders, Map<String, String> responseHeaders,
+                               byte[] requestBody, long requestBodySize, byte[] responseBody,
+                               long responseBodySize) {}
@@ -0,0 +1,97 @@
+package com.renanwillian.easyproxy.traffic;
+
+import com.renanwillian.easyproxy.log.LogEntry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the last exchanges in a fixed-size ring of slots in one direct buffer, outside the Java heap. Each exchange
+ * is written in the compact form of {@link ExchangeCodec} to the slot of its sequence number, overwriting the
+ * exchange recorded a full turn of the ring earlier. Entries are only turned back into objects when read.
+ */
+public class TrafficRecorder implements ExchangeRecorder {
+
+    public static final int MIN_SLOT_SIZE = 1024;
+
+    private final ByteBuffer[] slots;
+    private final Object[] locks;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param capacity number of exchanges kept.
+     * @param slotSize bytes available to each exchange, bodies are cut to fit.
+     */
+    public TrafficRecorder(int capacity, int slotSize) {
+        if (capacity < 1) throw new IllegalArgumentException("The traffic buffer must keep at least one exchange");
+        if (slotSize < MIN_SLOT_SIZE) {
+            throw new IllegalArgumentException("The traffic slot size must be at least " + MIN_SLOT_SIZE + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.multiplyExact(capacity, slotSize));
+        this.slots = new ByteBuffer[capacity];
+        this.locks = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = buffer.slice(i * slotSize, slotSize);
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public void record(LogEntry entry) {
+        long id = sequence.incrementAndGet();
+        int index = indexOf(id);
+        synchronized (locks[index]) {
+            // A slower writer from a previous turn of the ring must not overwrite a newer exchange.
+            if (ExchangeCodec.readId(slots[index]) > id) return;
+            ExchangeCodec.encode(id, entry, slots[index]);
+        }
+    }
+
+    /**
+     * @return the recorded exchange with its headers and bodies, or null when it was overwritten or never existed.
+     */
+    public RecordedExchange get(long id) {
+        if (id < 1 || id > sequence.get()) return null;
+        int index = indexOf(id);
+        synchronized (locks[index]) {
+            if (ExchangeCodec.readId(slots[index]) != id) return null;
+            return ExchangeCodec.decode(slots[index], true);
+        }
+    }
+
+    /**
+     * @return summaries of the most recent exchanges matching the filter, newest first.
+     */
+    public List<RecordedExchange> list(Predicate<RecordedExchange> filter, int limit) {
+        List<RecordedExchange> exchanges = new ArrayList<>();
+        long latest = sequence.get();
+        for (long id = latest; id > 0 && id > latest - slots.length && exchanges.size() < limit; id--) {
+            int index = indexOf(id);
+            RecordedExchange summary;
+            synchronized (locks[index]) {
+                if (ExchangeCodec.readId(slots[index]) != id) continue;
+                summary = ExchangeCodec.decode(slots[index], false);
+            }
+            if (filter.test(summary)) exchanges.add(summary);
+        }
+        return exchanges;
+    }
+
+    /**
+     * @return the number of exchanges recorded since the start, including overwritten ones.
+     */
+    public long getRecordedCount() {
+        return sequence.get();
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    private int indexOf(long id) {
+        return (int) ((id - 1) % slots.length);
+    }
+}
@@ -0,0 +1,12 @@
+package com.renanwillian.easyproxy.upstream;
+
+import java.io.IOException;
+
+public class PoolExhaustedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PoolExhaustedException(String message) {
+        super(message);
+    }
+}
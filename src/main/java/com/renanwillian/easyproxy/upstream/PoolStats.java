@@ -0,0 +1,15 @@
+package com.renanwillian.easyproxy.upstream;
+
+/**
+ * Snapshot of the upstream connection usage.
+ *
+ * @param maxConnections maximum concurrent connections allowed per target.
+ * @param active         connections currently carrying an exchange.
+ * @param peakActive     highest number of concurrently active connections seen.
+ * @param requests       total exchanges sent upstream.
+ * @param waited         exchanges that had to wait for a free connection.
+ * @param exhausted      exchanges that gave up waiting for a free connection.
+ * @param http2          exchanges the target answered over HTTP/2.
+ */
+public record PoolStats(int maxConnections, int active, int peakActive, long requests, long waited, long exhausted,
+                        long http2) {}
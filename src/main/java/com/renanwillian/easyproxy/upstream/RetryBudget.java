@@ -0,0 +1,80 @@
+package com.renanwillian.easyproxy.upstream;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the extra attempts sent to the upstream, retries and hedges alike, to a fraction of the requests. Every
+ * request adds {@code ratio} of an attempt to the balance, up to {@link #MAX_BALANCE}, and every extra attempt takes
+ * a whole one. A target that fails every request therefore gets at most {@code 1 + ratio} times the load instead of
+ * {@code 1 + retries} times.
+ */
+public class RetryBudget {
+
+    /**
+     * Extra attempts that can be spent at once, which is also the balance a new budget starts with.
+     */
+    static final int MAX_BALANCE = 10;
+
+    // The balance is kept in thousandths of an attempt so a fractional ratio adds up exactly.
+    private static final long UNIT = 1000;
+
+    private volatile long deposit;
+    private final AtomicLong balance;
+    private final LongAdder exhausted = new LongAdder();
+
+    /**
+     * @param ratio extra attempts allowed per request, 0 to allow none.
+     */
+    public RetryBudget(double ratio) {
+        this.deposit = toDeposit(ratio);
+        this.balance = new AtomicLong(deposit > 0 ? MAX_BALANCE * UNIT : 0);
+    }
+
+    /**
+     * Changes the share of extra attempts from now on, the current balance is kept.
+     */
+    public void setRatio(double ratio) {
+        this.deposit = toDeposit(ratio);
+    }
+
+    private static long toDeposit(double ratio) {
+        if (ratio < 0) throw new IllegalArgumentException("The retry budget cannot be negative");
+        return Math.round(ratio * UNIT);
+    }
+
+    /**
+     * Credits the budget for a request sent to the upstream.
+     */
+    public void onRequest() {
+        long deposit = this.deposit;
+        if (deposit == 0) return;
+        long current;
+        do {
+            current = balance.get();
+            if (current >= MAX_BALANCE * UNIT) return;
+        } while (!balance.compareAndSet(current, Math.min(MAX_BALANCE * UNIT, current + deposit)));
+    }
+
+    /**
+     * @return true if an extra attempt may be sent, false when the budget is spent.
+     */
+    public boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < UNIT) {
+                exhausted.increment();
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - UNIT));
+        return true;
+    }
+
+    /**
+     * @return extra attempts refused because the budget was spent.
+     */
+    public long getExhaustedCount() {
+        return exhausted.sum();
+    }
+}
@@ -0,0 +1,37 @@
+package com.renanwillian.easyproxy.upstream;
+
+import com.renanwillian.easyproxy.metrics.MetricsRegistry;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+/**
+ * Wraps a body publisher to measure how long the upstream client took to get a connection ready for the request.
+ * The client subscribes to the body only once the connection is established and the request headers are out, so
+ * the elapsed time since creation covers pool wait, connect and TLS handshake.
+ * <p>
+ * The client never subscribes to an empty body, so only requests carrying one are measured.
+ */
+public class TimedBodyPublisher implements HttpRequest.BodyPublisher {
+
+    private final HttpRequest.BodyPublisher delegate;
+    private final MetricsRegistry metrics;
+    private final long createdAt = System.nanoTime();
+
+    public TimedBodyPublisher(HttpRequest.BodyPublisher delegate, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public long contentLength() {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        metrics.recordUpstreamConnect(System.nanoTime() - createdAt);
+        delegate.subscribe(subscriber);
+    }
+}
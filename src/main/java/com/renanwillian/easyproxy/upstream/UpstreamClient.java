@@ -0,0 +1,108 @@
+package com.renanwillian.easyproxy.upstream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends requests to the upstream targets over a shared {@link HttpClient}, which keeps connections alive and reuses
+ * them between exchanges. The number of concurrent exchanges per target is bounded by {@code maxConnections}: with
+ * HTTP/1.1 that is the number of connections, with HTTP/2 the number of streams sharing one connection.
+ */
+public class UpstreamClient {
+
+    /**
+     * Defaults of {@code --connect-timeout} and {@code --request-timeout}.
+     */
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    public static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+
+    private final HttpClient httpClient;
+    private final int maxConnections;
+    private final Duration connectTimeout;
+    private final Map<String, Semaphore> connectionPermits = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+    private final LongAdder http2 = new LongAdder();
+
+    public UpstreamClient(int maxConnections) {
+        this(maxConnections, UpstreamProtocol.HTTP1_1);
+    }
+
+    public UpstreamClient(int maxConnections, UpstreamProtocol protocol) {
+        this(maxConnections, protocol, CONNECT_TIMEOUT);
+    }
+
+    /**
+     * @param connectTimeout how long opening a connection, or waiting for a free one, may take.
+     */
+    public UpstreamClient(int maxConnections, UpstreamProtocol protocol, Duration connectTimeout) {
+        this.maxConnections = maxConnections;
+        this.connectTimeout = connectTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                                    .version(protocol.getVersion())
+                                    .followRedirects(HttpClient.Redirect.NEVER)
+                                    .connectTimeout(connectTimeout)
+                                    .build();
+    }
+
+    /**
+     * Sets how long idle upstream connections are kept alive. The JDK only offers the
+     * {@code jdk.httpclient.keepalive.timeout} system property for it. The property is process-wide, so it applies to
+     * every {@link HttpClient} in the JVM. It is also read only once, when the client classes load, so later values are
+     * ignored. Call this once at startup, before any client is created. A property given with {@code -D} wins.
+     */
+    public static void setKeepAliveTimeout(int idleTimeoutSeconds) {
+        if (System.getProperty(KEEP_ALIVE_PROPERTY) == null) {
+            System.setProperty(KEEP_ALIVE_PROPERTY, String.valueOf(idleTimeoutSeconds));
+        }
+    }
+
+    public UpstreamResponse send(HttpRequest request) throws IOException, InterruptedException {
+        Semaphore permits = connectionPermits.computeIfAbsent(request.uri().getAuthority(),
+                                                              k -> new Semaphore(maxConnections, true));
+        acquire(permits);
+        requests.increment();
+        peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        Runnable release = () -> {
+            active.decrementAndGet();
+            permits.release();
+        };
+        try {
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.version() == HttpClient.Version.HTTP_2) http2.increment();
+            return new UpstreamResponse(response, release);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    private void acquire(Semaphore permits) throws InterruptedException, PoolExhaustedException {
+        if (permits.tryAcquire()) return;
+        waited.increment();
+        if (!permits.tryAcquire(connectTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            exhausted.increment();
+            throw new PoolExhaustedException("No upstream connection available after " + connectTimeout.toMillis() + "ms");
+        }
+    }
+
+    public PoolStats getStats() {
+        return new PoolStats(maxConnections, active.get(), peakActive.get(), requests.sum(), waited.sum(),
+                             exhausted.sum(), http2.sum());
+    }
+}
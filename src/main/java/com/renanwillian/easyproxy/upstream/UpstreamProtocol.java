@@ -0,0 +1,26 @@
+package com.renanwillian.easyproxy.upstream;
+
+import java.net.http.HttpClient;
+
+/**
+ * HTTP version spoken to the upstream targets.
+ */
+public enum UpstreamProtocol {
+    /** One exchange at a time per connection. */
+    HTTP1_1(HttpClient.Version.HTTP_1_1),
+    /**
+     * Concurrent exchanges multiplexed as streams over one connection per target: negotiated with ALPN for https
+     * targets and with an h2c upgrade for http targets, falling back to HTTP/1.1 when the target declines.
+     */
+    HTTP2(HttpClient.Version.HTTP_2);
+
+    private final HttpClient.Version version;
+
+    UpstreamProtocol(HttpClient.Version version) {
+        this.version = version;
+    }
+
+    public HttpClient.Version getVersion() {
+        return version;
+    }
+}
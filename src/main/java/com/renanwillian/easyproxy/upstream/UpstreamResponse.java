@@ -0,0 +1,47 @@
+package com.renanwillian.easyproxy.upstream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+
+/**
+ * An upstream response whose body is still being streamed. Closing it releases the connection back to the pool.
+ */
+public class UpstreamResponse implements AutoCloseable {
+
+    private final HttpResponse<InputStream> response;
+    private final Runnable release;
+    private boolean closed = false;
+
+    UpstreamResponse(HttpResponse<InputStream> response, Runnable release) {
+        this.response = response;
+        this.release = release;
+    }
+
+    public int statusCode() {
+        return response.statusCode();
+    }
+
+    public HttpResponse<InputStream> response() {
+        return response;
+    }
+
+    public InputStream body() {
+        return response.body();
+    }
+
+    public long contentLength() {
+        return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            response.body().close();
+        } finally {
+            release.run();
+        }
+    }
+}
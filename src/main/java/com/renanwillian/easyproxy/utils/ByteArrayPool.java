@@ -0,0 +1,88 @@
+package com.renanwillian.easyproxy.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Byte arrays reused across requests, in power-of-two size classes from {@link #MIN_SIZE} to {@link #MAX_SIZE}.
+ * Handler threads may be virtual and short-lived, so instead of one pool per thread the arrays of each class live in
+ * a few slots of a stripe picked from the thread id: taking or returning an array is one atomic swap on a slot that
+ * other threads rarely touch, and a stripe never holds more than {@link #SLOTS_PER_STRIPE} arrays of a class.
+ */
+public final class ByteArrayPool {
+
+    public static final int MIN_SIZE = 4 * 1024;
+    public static final int MAX_SIZE = 64 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+    private static final int SLOTS_PER_STRIPE = 4;
+
+    private static final ByteArrayPool SHARED = new ByteArrayPool(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final int stripeMask;
+    private final List<AtomicReferenceArray<byte[]>> classes;
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two.
+     */
+    ByteArrayPool(int stripes) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripeMask = stripeCount - 1;
+        List<AtomicReferenceArray<byte[]>> classes = new ArrayList<>(CLASSES);
+        for (int i = 0; i < CLASSES; i++) {
+            classes.add(new AtomicReferenceArray<>(stripeCount * SLOTS_PER_STRIPE));
+        }
+        this.classes = List.copyOf(classes);
+    }
+
+    public static ByteArrayPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return an array of at least {@code minSize} bytes with unspecified content, which should be given back with
+     * {@link #release} once it is no longer used. Sizes above {@link #MAX_SIZE} are allocated and never pooled.
+     */
+    public byte[] acquire(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        if (sizeClass < 0) return new byte[minSize];
+
+        AtomicReferenceArray<byte[]> slots = classes.get(sizeClass);
+        int first = stripe() * SLOTS_PER_STRIPE;
+        for (int i = first; i < first + SLOTS_PER_STRIPE; i++) {
+            if (slots.getPlain(i) == null) continue;
+            byte[] array = slots.getAndSet(i, null);
+            if (array != null) return array;
+        }
+        return new byte[MIN_SIZE << sizeClass];
+    }
+
+    /**
+     * Returns an array taken with {@link #acquire}, dropping it when its stripe is full or it was not pooled.
+     */
+    public void release(byte[] array) {
+        int sizeClass = sizeClass(array.length);
+        if (sizeClass < 0 || array.length != MIN_SIZE << sizeClass) return;
+
+        AtomicReferenceArray<byte[]> slots = classes.get(sizeClass);
+        int first = stripe() * SLOTS_PER_STRIPE;
+        for (int i = first; i < first + SLOTS_PER_STRIPE; i++) {
+            if (slots.getPlain(i) == null && slots.compareAndSet(i, null, array)) return;
+        }
+    }
+
+    /**
+     * @return the index of the smallest class holding {@code size} bytes, or -1 when it is above {@link #MAX_SIZE}.
+     */
+    private static int sizeClass(int size) {
+        if (size > MAX_SIZE) return -1;
+        if (size <= MIN_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private int stripe() {
+        return (int) Thread.currentThread().threadId() & stripeMask;
+    }
+}
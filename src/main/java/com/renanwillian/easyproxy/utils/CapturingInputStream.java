@@ -0,0 +1,34 @@
+package com.renanwillian.easyproxy.utils;
+
+import com.renanwillian.easyproxy.log.BodyCapture;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Copies everything read from the wrapped stream into a {@link BodyCapture}.
+ */
+public class CapturingInputStream extends FilterInputStream {
+
+    private final BodyCapture capture;
+
+    public CapturingInputStream(InputStream in, BodyCapture capture) {
+        super(in);
+        this.capture = capture;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) capture.write(new byte[]{(byte) b}, 0, 1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int bytesRead = super.read(b, off, len);
+        if (bytesRead > 0) capture.write(b, off, bytesRead);
+        return bytesRead;
+    }
+}
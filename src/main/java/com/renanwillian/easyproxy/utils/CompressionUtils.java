@@ -0,0 +1,122 @@
+package com.renanwillian.easyproxy.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public class CompressionUtils {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private CompressionUtils() {}
+
+    /**
+     * @return whether {@link #decompress} can decode the content encoding.
+     */
+    public static boolean isSupported(String contentEncoding) {
+        String encoding = normalize(contentEncoding);
+        return encoding.equals(GZIP) || encoding.equals("x-gzip") || encoding.equals(DEFLATE);
+    }
+
+    /**
+     * Inflates at most {@code limit} bytes of a gzip or deflate body, so only what is needed is decompressed. A body
+     * cut short, such as a bounded log capture, yields what could be inflated before the cut.
+     *
+     * @param data            the compressed bytes.
+     * @param contentEncoding gzip, x-gzip or deflate.
+     * @param limit           maximum number of decompressed bytes to return.
+     * @return the first decompressed bytes, {@code limit + 1} of them when the body inflates to more than the limit.
+     */
+    public static byte[] decompress(byte[] data, String contentEncoding, int limit) throws IOException {
+        byte[] buffer = new byte[Math.min(8192, limit + 1)];
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.min(limit + 1, data.length * 4 + 64));
+        try (InputStream in = open(data, normalize(contentEncoding))) {
+            int bytesRead;
+            while (output.size() <= limit && (bytesRead = in.read(buffer, 0, Math.min(buffer.length, limit + 1 - output.size()))) != -1) {
+                output.write(buffer, 0, bytesRead);
+            }
+        } catch (EOFException e) {
+            // Truncated input, keep what was inflated.
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Wraps {@code out} in a compressing stream. Flushing it pushes out everything written so far, so a streamed
+     * body still reaches the client as it is produced. Closing it finishes the compressed data and closes {@code out}.
+     *
+     * @param contentEncoding gzip, x-gzip or deflate.
+     * @param level           deflate level, from 1 (fastest) to 9 (smallest).
+     */
+    public static OutputStream compressor(OutputStream out, String contentEncoding, int level) throws IOException {
+        String encoding = normalize(contentEncoding);
+        if (encoding.equals(GZIP) || encoding.equals("x-gzip")) {
+            return new GZIPOutputStream(out, StreamUtils.BUFFER_SIZE, true) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        if (encoding.equals(DEFLATE)) return new OwnedDeflaterOutputStream(out, new Deflater(level));
+        throw new IOException("Unsupported content encoding: " + encoding);
+    }
+
+    public static byte[] compress(byte[] data, String contentEncoding, int level) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (OutputStream out = compressor(output, contentEncoding, level)) {
+            out.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    private static InputStream open(byte[] data, String encoding) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        if (encoding.equals(GZIP) || encoding.equals("x-gzip")) return new GZIPInputStream(in);
+        if (encoding.equals(DEFLATE)) {
+            // "deflate" should be zlib wrapped, but some servers send raw deflate data.
+            return new InflaterInputStream(in, new Inflater(!hasZlibHeader(data)));
+        }
+        throw new IOException("Unsupported content encoding: " + encoding);
+    }
+
+    private static boolean hasZlibHeader(byte[] data) {
+        if (data.length < 2) return false;
+        int header = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+        return (data[0] & 0x0F) == 8 && header % 31 == 0;
+    }
+
+    private static String normalize(String contentEncoding) {
+        return contentEncoding == null ? "" : contentEncoding.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Releases the native memory of its own deflater on close, which a {@link DeflaterOutputStream} given a deflater
+     * does not do.
+     */
+    private static final class OwnedDeflaterOutputStream extends DeflaterOutputStream {
+
+        OwnedDeflaterOutputStream(OutputStream out, Deflater deflater) {
+            super(out, deflater, StreamUtils.BUFFER_SIZE, true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.renanwillian.easyproxy.utils;
+
+import com.renanwillian.easyproxy.log.BodyCapture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class StreamUtils {
+
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    private StreamUtils() {}
+
+    /**
+     * Copies the input to the output as it arrives, flushing after every read so the client sees bytes as soon as
+     * the upstream produces them. The copy buffer comes from the {@link ByteArrayPool#shared() shared pool}.
+     *
+     * @param in      the source stream.
+     * @param out     the destination stream.
+     * @param capture receives a bounded copy of the transferred bytes, may be null.
+     * @return the total number of bytes transferred.
+     */
+    public static long transfer(InputStream in, OutputStream out, BodyCapture capture) throws IOException {
+        ByteArrayPool pool = ByteArrayPool.shared();
+        byte[] buffer = pool.acquire(BUFFER_SIZE);
+        try {
+            long total = 0;
+            int bytesRead;
+            while ((bytesRead = in.read(buffer, 0, BUFFER_SIZE)) != -1) {
+                out.write(buffer, 0, bytesRead);
+                out.flush();
+                if (capture != null) capture.write(buffer, 0, bytesRead);
+                total += bytesRead;
+            }
+            return total;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+}
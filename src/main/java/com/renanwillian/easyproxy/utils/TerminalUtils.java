@@ -13,6 +13,11 @@ public class TerminalUtils {
         System.out.println(message);
     }
 
+    public static void print(String message) {
+        System.out.print(message);
+        System.out.flush();
+    }
+
     public static void printlnError(String message) {
         System.err.println(message);
     }
@@ -1,5 +1,10 @@
 package com.renanwillian.easyproxy.utils;
 
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class UrlUtils {
 
     private static final String HTTP_PROTOCOL = "http://";
@@ -24,4 +29,23 @@ public class UrlUtils {
 
         return url;
     }
+
+    /**
+     * Decodes a raw query string into its parameters, keeping the first value of repeated ones.
+     *
+     * @param rawQuery the query without the leading '?', may be null.
+     * @return the parameters in the order they appear.
+     */
+    public static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return parameters;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) continue;
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals >= 0 ? pair.substring(0, equals) : pair, StandardCharsets.UTF_8);
+            String value = equals >= 0 ? URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8) : "";
+            parameters.putIfAbsent(name, value);
+        }
+        return parameters;
+    }
 }
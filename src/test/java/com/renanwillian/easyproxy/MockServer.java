@@ -12,12 +12,17 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MockServer {
 
     private HttpServer server;
     private final int port;
     private final List<MockEndpoint> endpoints = new ArrayList<>();
+    private Duration responseDelay = Duration.ZERO;
+    private ExecutorService executor;
     private boolean isRunning = false;
 
     public MockServer(int port) {
@@ -27,7 +32,12 @@ public class MockServer {
     public void start() throws IOException {
         server = HttpServer.create(new InetSocketAddress(port), 0);
         for (MockEndpoint endpoint : endpoints) {
-            server.createContext(endpoint.path(), new GenericHandler(endpoint));
+            server.createContext(endpoint.path(), new GenericHandler(endpoint, responseDelay));
+        }
+        // Delayed endpoints answer concurrently, as a slow upstream would.
+        if (!responseDelay.isZero()) {
+            executor = Executors.newCachedThreadPool();
+            server.setExecutor(executor);
         }
         server.start();
         isRunning = true;
@@ -36,21 +46,42 @@ public class MockServer {
     public void stop() {
         if (server != null) {
             server.stop(0);
+            if (executor != null) executor.shutdownNow();
             isRunning = false;
         }
     }
 
     public void addEndpoint(String path, String method, int statusCode, String responseBody) {
-        endpoints.add(new MockEndpoint(path, method, statusCode, responseBody));
+        addEndpoint(path, method, statusCode, responseBody, Map.of());
+    }
+
+    public void addEndpoint(String path, String method, int statusCode, String responseBody,
+                            Map<String, String> responseHeaders) {
+        endpoints.add(new MockEndpoint(path, method, statusCode, responseBody, responseHeaders, new AtomicInteger()));
+    }
+
+    /**
+     * Makes every endpoint wait before answering, to be called before {@link #start()}.
+     */
+    public void setResponseDelay(Duration responseDelay) {
+        this.responseDelay = responseDelay;
+    }
+
+    public int getRequestCount(String path) {
+        return endpoints.stream()
+                        .filter(endpoint -> endpoint.path().equals(path))
+                        .mapToInt(endpoint -> endpoint.requestCount().get())
+                        .sum();
     }
 
     public boolean isRunning() {
         return isRunning;
     }
 
-    private record MockEndpoint(String path, String method, int statusCode, String responseBody) {}
+    private record MockEndpoint(String path, String method, int statusCode, String responseBody,
+                                Map<String, String> responseHeaders, AtomicInteger requestCount) {}
 
-    private record GenericHandler(MockEndpoint endpoint) implements HttpHandler {
+    private record GenericHandler(MockEndpoint endpoint, Duration responseDelay) implements HttpHandler {
 
         public static final int METHOD_NOT_ALLOWED = 405;
 
@@ -61,6 +92,17 @@ public class MockServer {
                 return;
             }
 
+            endpoint.requestCount().incrementAndGet();
+            // Unread request bytes make the server reset the connection, possibly before the response is delivered.
+            exchange.getRequestBody().readAllBytes();
+            if (!responseDelay.isZero()) {
+                try {
+                    Thread.sleep(responseDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            endpoint.responseHeaders().forEach(exchange.getResponseHeaders()::add);
             byte[] responseBytes = endpoint.responseBody().getBytes();
             exchange.sendResponseHeaders(endpoint.statusCode(), responseBytes.length);
 
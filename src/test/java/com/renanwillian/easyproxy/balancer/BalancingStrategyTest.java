@@ -0,0 +1,86 @@
+package com.renanwillian.easyproxy.balancer;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BalancingStrategyTest {
+
+    private final Upstream a = new Upstream("http://a");
+    private final Upstream b = new Upstream("http://b");
+    private final Upstream c = new Upstream("http://c");
+    private final List<Upstream> upstreams = List.of(a, b, c);
+
+    @Test
+    @DisplayName("Round robin should rotate and skip ejected targets")
+    void roundRobinShouldRotateAndSkipEjectedTargets() {
+        RoundRobinStrategy strategy = new RoundRobinStrategy();
+        assertSame(a, strategy.select(upstreams, null));
+        assertSame(b, strategy.select(upstreams, null));
+
+        for (int i = 0; i < Upstream.FAILURES_BEFORE_EJECTION; i++) c.onFailure();
+        assertFalse(c.isAvailable());
+        assertSame(a, strategy.select(upstreams, null));
+        assertEquals(1, c.getEjections());
+    }
+
+    @Test
+    @DisplayName("Least in flight should pick the idlest target")
+    void leastInFlightShouldPickTheIdlestTarget() {
+        a.onRequestStart();
+        b.onRequestStart();
+        assertSame(c, new LeastInFlightStrategy().select(upstreams, null));
+    }
+
+    @Test
+    @DisplayName("Power of two choices should never pick the busier of two targets")
+    void powerOfTwoShouldNeverPickTheBusierTarget() {
+        a.onRequestStart();
+        PowerOfTwoChoicesStrategy strategy = new PowerOfTwoChoicesStrategy();
+        for (int i = 0; i < 100; i++) {
+            assertNotSame(a, strategy.select(List.of(a, b), null));
+        }
+    }
+
+    @Test
+    @DisplayName("Consistent hash should keep a key on the same target")
+    void consistentHashShouldKeepAKeyOnTheSameTarget() {
+        ConsistentHashStrategy strategy = new ConsistentHashStrategy(upstreams);
+        Upstream first = strategy.select(upstreams, "user-42");
+        for (int i = 0; i < 10; i++) {
+            assertSame(first, strategy.select(upstreams, "user-42"));
+        }
+
+        for (int i = 0; i < Upstream.FAILURES_BEFORE_EJECTION; i++) first.onFailure();
+        Upstream fallback = strategy.select(upstreams, "user-42");
+        assertNotSame(first, fallback);
+        assertSame(fallback, strategy.select(upstreams, "user-42"));
+    }
+
+    @Test
+    @DisplayName("Pool should pick another available target for a second attempt")
+    void poolShouldPickAnotherAvailableTargetForASecondAttempt() {
+        UpstreamPool pool = UpstreamPool.of(upstreams, Balancing.CONSISTENT_HASH, null);
+        Upstream first = pool.select("user-42");
+        for (int i = 0; i < 10; i++) {
+            assertNotSame(first, pool.selectOther("user-42", first));
+        }
+
+        for (Upstream upstream : upstreams) {
+            if (upstream != first) {
+                for (int i = 0; i < Upstream.FAILURES_BEFORE_EJECTION; i++) upstream.onFailure();
+            }
+        }
+        assertNull(pool.selectOther("user-42", first));
+
+        UpstreamPool single = UpstreamPool.single("http://a");
+        assertNull(single.selectOther("user-42", single.select("user-42")));
+    }
+}
@@ -0,0 +1,118 @@
+package com.renanwillian.easyproxy.balancer;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class CircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+    private CircuitBreaker breaker() {
+        return new CircuitBreaker(10, 4, 0.5, 0.8, TimeUnit.SECONDS.toNanos(1), OPEN_NANOS, 2, now::get);
+    }
+
+    @Test
+    @DisplayName("Should open once the failure rate reaches the threshold and reject calls")
+    void shouldOpenOnceTheFailureRateReachesTheThresholdAndRejectCalls() {
+        CircuitBreaker breaker = breaker();
+
+        call(breaker, true, FAST);
+        call(breaker, true, FAST);
+        call(breaker, false, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, false, FAST);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isCallPermitted());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        assertEquals(1, breaker.getRejectedCount());
+        assertEquals(1, breaker.getOpenedCount());
+    }
+
+    @Test
+    @DisplayName("Should open once most calls are slow")
+    void shouldOpenOnceMostCallsAreSlow() {
+        CircuitBreaker breaker = breaker();
+
+        call(breaker, false, FAST);
+        for (int i = 0; i < 3; i++) call(breaker, false, SLOW);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, false, SLOW);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    @DisplayName("Should close after the half-open probes succeed")
+    void shouldCloseAfterTheHalfOpenProbesSucceed() {
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 4; i++) call(breaker, true, FAST);
+
+        now.addAndGet(OPEN_NANOS);
+        long first = breaker.tryAcquire();
+        long second = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, first);
+        assertNotEquals(CircuitBreaker.REJECTED, second);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+        breaker.onResult(first, false, FAST);
+        breaker.onResult(second, false, FAST);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNotEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+    }
+
+    @Test
+    @DisplayName("Should open again when a probe fails")
+    void shouldOpenAgainWhenAProbeFails() {
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 4; i++) call(breaker, true, FAST);
+
+        now.addAndGet(OPEN_NANOS);
+        long probe = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, probe);
+        breaker.onResult(probe, true, FAST);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        assertEquals(2, breaker.getOpenedCount());
+    }
+
+    @Test
+    @DisplayName("Should ignore a call let through while closed that completes once the circuit is half-open")
+    void shouldIgnoreACallLetThroughWhileClosedThatCompletesOnceTheCircuitIsHalfOpen() {
+        CircuitBreaker breaker = breaker();
+        long stale = breaker.tryAcquire();
+        for (int i = 0; i < 4; i++) call(breaker, true, FAST);
+
+        now.addAndGet(OPEN_NANOS);
+        long first = breaker.tryAcquire();
+        breaker.onResult(stale, true, SLOW);
+        breaker.onCancelled(stale);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        long second = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, second);
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        breaker.onResult(first, false, FAST);
+        breaker.onResult(second, false, FAST);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private static void call(CircuitBreaker breaker, boolean failed, long latencyNanos) {
+        breaker.onResult(breaker.tryAcquire(), failed, latencyNanos);
+    }
+}
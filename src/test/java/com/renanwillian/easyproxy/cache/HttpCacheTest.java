@@ -0,0 +1,94 @@
+package com.renanwillian.easyproxy.cache;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpCacheTest {
+
+    @Test
+    @DisplayName("Should prefer s-maxage over max-age and subtract Age")
+    void shouldComputeFreshnessFromCacheControl() {
+        assertEquals(50_000, HttpCache.freshnessMillis(Map.of("Cache-Control", "max-age=10, s-maxage=60", "Age", "10")));
+        assertEquals(0, HttpCache.freshnessMillis(Map.of("Cache-Control", "max-age=60, no-cache")));
+    }
+
+    @Test
+    @DisplayName("Should only store responses allowed in a shared cache")
+    void shouldOnlyStoreResponsesAllowedInASharedCache() {
+        assertTrue(HttpCache.isStorable(200, Map.of("Cache-Control", "max-age=60")));
+        assertTrue(HttpCache.isStorable(200, Map.of("ETag", "\"v1\"")));
+        assertFalse(HttpCache.isStorable(200, Map.of("Cache-Control", "private, max-age=60")));
+        assertFalse(HttpCache.isStorable(500, Map.of("Cache-Control", "max-age=60")));
+        assertFalse(HttpCache.isStorable(200, Map.of()));
+    }
+
+    @Test
+    @DisplayName("Should match stored responses on Vary headers")
+    void shouldMatchStoredResponsesOnVaryHeaders() throws IOException {
+        HttpCache cache = new HttpCache(1024, null);
+        cache.store("GET /a", 200, Map.of("Cache-Control", "max-age=60", "Vary", "Accept"),
+                    Map.of("Accept", "text/html"), "html".getBytes());
+
+        assertNotNull(cache.lookup("GET /a", Map.of("Accept", "text/html")));
+        assertNull(cache.lookup("GET /a", Map.of("Accept", "application/json")));
+    }
+
+    @Test
+    @DisplayName("Should evict least recently used responses past the size limit")
+    void shouldEvictLeastRecentlyUsedResponses() throws IOException {
+        HttpCache cache = new HttpCache(800, null);
+        Map<String, String> headers = Map.of("Cache-Control", "max-age=60");
+        for (String key : new String[]{"GET /1", "GET /2", "GET /3", "GET /4"}) {
+            cache.store(key, 200, headers, Map.of(), new byte[100]);
+        }
+        cache.lookup("GET /1", Map.of());
+        for (String key : new String[]{"GET /5", "GET /6", "GET /7", "GET /8", "GET /9"}) {
+            cache.store(key, 200, headers, Map.of(), new byte[100]);
+        }
+
+        assertNotNull(cache.lookup("GET /1", Map.of()));
+        assertNull(cache.lookup("GET /2", Map.of()));
+        assertEquals(8, cache.getStats().entries());
+        assertEquals(1, cache.getStats().evictions());
+    }
+
+    @Test
+    @DisplayName("Should write every stored body to its own file and delete the files of a previous run")
+    void shouldWriteEveryStoredBodyToItsOwnFileAndDeleteTheFilesOfAPreviousRun(@TempDir Path directory)
+            throws IOException {
+        Path leftover = Files.writeString(directory.resolve("0123456789abcdef-42.body"), "stale");
+        Path unrelated = Files.writeString(directory.resolve("notes.txt"), "kept");
+        HttpCache cache = new HttpCache(1024, directory);
+        assertFalse(Files.exists(leftover));
+        assertTrue(Files.exists(unrelated));
+
+        Map<String, String> headers = Map.of("Cache-Control", "max-age=60");
+        cache.store("GET /a", 200, headers, Map.of(), "first".getBytes());
+        CachedResponse first = cache.lookup("GET /a", Map.of());
+        try (InputStream servedBody = first.openBody()) {
+            cache.store("GET /a", 200, headers, Map.of(), "second, longer".getBytes());
+            CachedResponse second = cache.lookup("GET /a", Map.of());
+
+            assertNotEquals(first.getBodyFile(), second.getBodyFile());
+            assertFalse(Files.exists(first.getBodyFile()));
+            assertEquals("first", new String(servedBody.readAllBytes()));
+            try (InputStream in = second.openBody()) {
+                assertEquals("second, longer", new String(in.readAllBytes()));
+            }
+        }
+    }
+}
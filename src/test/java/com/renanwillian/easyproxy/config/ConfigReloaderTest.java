@@ -0,0 +1,62 @@
+package com.renanwillian.easyproxy.config;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfigReloaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static void touch(Path file, long secondsAhead) throws Exception {
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(secondsAhead)));
+    }
+
+    @Test
+    @DisplayName("Should apply the configuration once its file changes and keep the current one when it is invalid")
+    void shouldApplyTheConfigurationOnceItsFileChangesAndKeepTheCurrentOneWhenItIsInvalid() throws Exception {
+        Path file = tempDir.resolve("proxy.conf");
+        Files.writeString(file, "--retries=1\n");
+        List<ProxyConfig> applied = new ArrayList<>();
+        try (ConfigReloader reloader = new ConfigReloader(file, 0, () -> {
+            int retries = Integer.parseInt(Files.readString(file).strip().substring("--retries=".length()));
+            ProxyConfig config = ProxyConfig.of(8888, "http://localhost:9999");
+            config.setRetries(retries);
+            return config;
+        }, config -> {
+            if (config.getRetries() < 0) throw new IllegalArgumentException("Negative retries");
+            applied.add(config);
+        })) {
+            assertFalse(reloader.reloadIfChanged());
+
+            Files.writeString(file, "--retries=2\n");
+            touch(file, 10);
+            assertTrue(reloader.reloadIfChanged());
+            assertFalse(reloader.reloadIfChanged());
+
+            Files.writeString(file, "--retries=-1\n");
+            touch(file, 20);
+            assertFalse(reloader.reloadIfChanged());
+            Files.writeString(file, "--retries=two\n");
+            touch(file, 30);
+            assertFalse(reloader.reloadIfChanged());
+
+            assertEquals(1, applied.size());
+            assertEquals(2, applied.get(0).getRetries());
+            assertEquals(1, reloader.getReloadCount());
+            assertEquals(2, reloader.getReloadFailedCount());
+        }
+    }
+}
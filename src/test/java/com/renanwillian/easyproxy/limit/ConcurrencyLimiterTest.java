@@ -0,0 +1,94 @@
+package com.renanwillian.easyproxy.limit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Test
+    @DisplayName("Should reject requests over the limit")
+    void shouldRejectRequestsOverTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 2);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.getLimitedCount());
+
+        limiter.release();
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    @DisplayName("Should back off once per latency window when upstream latency rises or calls fail and recover while the limit is in use")
+    void shouldBackOffAndRecover() {
+        long[] now = {0};
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 10, () -> now[0]);
+        complete(limiter, ConcurrencyLimiter.BASELINE_SAMPLES, FAST, false);
+
+        complete(limiter, 10, SLOW, false);
+        assertEquals(9, limiter.getLimit());
+        now[0] += SLOW;
+        complete(limiter, 1, SLOW, false);
+        assertEquals(8, limiter.getLimit());
+        now[0] += SLOW;
+        complete(limiter, 1, SLOW, true);
+        assertEquals(7, limiter.getLimit());
+
+        for (int round = 0; round < 20; round++) {
+            int inFlight = limiter.getLimit();
+            for (int i = 0; i < inFlight; i++) assertTrue(limiter.tryAcquire());
+            for (int i = 0; i < inFlight; i++) limiter.onUpstreamCall(FAST, false);
+            for (int i = 0; i < inFlight; i++) limiter.release();
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    @DisplayName("Should keep the limit when fast and slow upstream calls are mixed")
+    void shouldKeepTheLimitWhenFastAndSlowUpstreamCallsAreMixed() {
+        long[] now = {0};
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 10, () -> now[0]);
+        for (int i = 0; i < 1000; i++) {
+            now[0] += FAST;
+            complete(limiter, 1, i % 2 == 0 ? TimeUnit.MILLISECONDS.toNanos(1) : TimeUnit.MILLISECONDS.toNanos(20), false);
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    @DisplayName("Should lower the limit at once and raise it gradually when the maximum changes")
+    void shouldLowerTheLimitAtOnceAndRaiseItGraduallyWhenTheMaximumChanges() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 10);
+        complete(limiter, 1, FAST, false);
+
+        limiter.setMaxLimit(3);
+        assertEquals(3, limiter.getLimit());
+        for (int i = 0; i < 3; i++) assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        for (int i = 0; i < 3; i++) limiter.release();
+
+        limiter.setMaxLimit(20);
+        assertEquals(3, limiter.getLimit());
+        assertThrows(IllegalArgumentException.class, () -> limiter.setMaxLimit(0));
+    }
+
+    private static void complete(ConcurrencyLimiter limiter, int requests, long latencyNanos, boolean failed) {
+        for (int i = 0; i < requests; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onUpstreamCall(latencyNanos, failed);
+            limiter.release();
+        }
+    }
+}
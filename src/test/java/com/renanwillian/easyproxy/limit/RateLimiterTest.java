@@ -0,0 +1,77 @@
+package com.renanwillian.easyproxy.limit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+    @Test
+    @DisplayName("Should allow a burst and then the rate for each key")
+    void shouldAllowABurstAndThenTheRateForEachKey() {
+        RateLimiter limiter = new RateLimiter(10, 3, 100, now::get);
+
+        for (int i = 0; i < 3; i++) assertEquals(0, limiter.acquire("alice"));
+        long wait = limiter.acquire("alice");
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), wait);
+        assertEquals(0, limiter.acquire("bob"));
+
+        now.addAndGet(wait);
+        assertEquals(0, limiter.acquire("alice"));
+        assertTrue(limiter.acquire("alice") > 0);
+        assertEquals(2, limiter.getLimitedCount());
+    }
+
+    @Test
+    @DisplayName("Should apply a new rate to the tokens already spent")
+    void shouldApplyANewRateToTheTokensAlreadySpent() {
+        RateLimiter limiter = new RateLimiter(10, 2, 100, now::get);
+        limiter.acquire("alice");
+        limiter.acquire("alice");
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.acquire("alice"));
+
+        limiter.setRate(1, 4);
+
+        // The bucket still lacks 200ms of refill, so three of its four new tokens are left.
+        for (int i = 0; i < 3; i++) assertEquals(0, limiter.acquire("alice"));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), limiter.acquire("alice"));
+    }
+
+    @Test
+    @DisplayName("Should sweep full buckets once there are too many keys")
+    void shouldSweepFullBucketsOnceThereAreTooManyKeys() {
+        RateLimiter limiter = new RateLimiter(1, 1, 2, now::get);
+        limiter.acquire("a");
+        limiter.acquire("b");
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        limiter.acquire("c");
+
+        assertEquals(1, limiter.getBucketCount());
+    }
+
+    @Test
+    @DisplayName("Should share an overflow bucket between new keys while the tracked buckets have not refilled")
+    void shouldShareAnOverflowBucketBetweenNewKeysWhileTheTrackedBucketsHaveNotRefilled() {
+        RateLimiter limiter = new RateLimiter(1, 1, 2, now::get);
+        limiter.acquire("a");
+        limiter.acquire("b");
+
+        assertEquals(0, limiter.acquire("c"));
+        assertTrue(limiter.acquire("d") > 0);
+        assertEquals(2, limiter.getBucketCount());
+        assertEquals(2, limiter.getOverflowCount());
+
+        // Once the sweep interval has passed, the next new key drops the buckets that refilled.
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        limiter.acquire("e");
+        assertEquals(1, limiter.getBucketCount());
+    }
+}
@@ -0,0 +1,205 @@
+package com.renanwillian.easyproxy.log;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogServiceTest {
+
+    @Test
+    @DisplayName("Should print queued entries on the writer thread")
+    void shouldPrintQueuedEntriesOnTheWriterThread() {
+        List<String> output = new CopyOnWriteArrayList<>();
+        try (LogService logService = new LogService(false, false, 16, OverflowPolicy.DROP, output::add)) {
+            logService.log(entry("/first"));
+            logService.log(entry("/second"));
+        }
+
+        String printed = String.join("", output);
+        assertTrue(printed.contains("/first"));
+        assertTrue(printed.contains("/second"));
+    }
+
+    @Test
+    @DisplayName("Should drop and count entries when the queue is full")
+    void shouldDropAndCountEntriesWhenTheQueueIsFull() throws InterruptedException {
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        CountDownLatch releaseWriter = new CountDownLatch(1);
+        List<String> output = new CopyOnWriteArrayList<>();
+        try (LogService logService = new LogService(false, false, 2, OverflowPolicy.DROP, batch -> {
+            writerBlocked.countDown();
+            awaitQuietly(releaseWriter);
+            output.add(batch);
+        })) {
+            logService.log(entry("/blocking"));
+            assertTrue(writerBlocked.await(2, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 5; i++) {
+                logService.log(entry("/queued-" + i));
+            }
+
+            assertEquals(3, logService.getDroppedCount());
+            releaseWriter.countDown();
+        }
+
+        assertTrue(String.join("", output).contains("3 log entries dropped"));
+    }
+
+    @Test
+    @DisplayName("Should only inflate a gzip body up to the preview size")
+    void shouldOnlyInflateAGzipBodyUpToThePreviewSize() throws IOException {
+        String text = "a".repeat(100) + "b".repeat(10_000);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        String printed = formatResponse(compressed.toByteArray(), Map.of("Content-Encoding", "gzip"), 100);
+
+        assertTrue(printed.contains("a".repeat(100)));
+        assertFalse(printed.contains("ab"));
+        assertTrue(printed.contains("(truncated, " + compressed.size() + " bytes total)"));
+    }
+
+    @Test
+    @DisplayName("Should decode deflate bodies")
+    void shouldDecodeDeflateBodies() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(compressed)) {
+            deflate.write("{\"deflated\":true}".getBytes(StandardCharsets.UTF_8));
+        }
+
+        String printed = formatResponse(compressed.toByteArray(), Map.of("Content-Encoding", "deflate"), 4096);
+
+        assertTrue(printed.contains("{\"deflated\":true}"));
+    }
+
+    @Test
+    @DisplayName("Should summarize binary bodies instead of decoding them")
+    void shouldSummarizeBinaryBodiesInsteadOfDecodingThem() {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', 0, 0, 0, 13};
+
+        assertTrue(formatResponse(png, Map.of("Content-Type", "image/png"), 4096)
+                           .contains("(binary image/png body, 8 bytes not shown)"));
+        assertTrue(formatResponse(png, Map.of(), 4096).contains("(binary body, 8 bytes not shown)"));
+        assertTrue(formatResponse(png, Map.of("Content-Encoding", "br"), 4096)
+                           .contains("(br encoded body, 8 bytes not shown)"));
+    }
+
+    @Test
+    @DisplayName("Should print only the entries matching a log filter")
+    void shouldPrintOnlyTheEntriesMatchingALogFilter() {
+        List<String> output = new CopyOnWriteArrayList<>();
+        try (LogService logService = new LogService(false, false, 16, OverflowPolicy.DROP, output::add)) {
+            logService.setPolicy(new LogPolicy(List.of(LogFilter.parse("method=post,PUT;path=/api/*/users/**;status=5xx"),
+                                                       LogFilter.parse("path=/slow;duration=500-")), 1, 0, 0, true));
+
+            LogEntry failed = entry("/api/v1/users/42?expand=true", "POST", 503, 1);
+            assertTrue(logService.sample(failed));
+            logService.log(failed);
+            LogEntry succeeded = entry("/api/v1/users/42", "POST", 201, 1);
+            assertTrue(logService.sample(succeeded));
+            logService.log(succeeded);
+            LogEntry otherPath = entry("/api/v1/v2/users/42", "POST", 503, 1);
+            assertFalse(logService.sample(otherPath));
+            logService.log(otherPath);
+            logService.log(entry("/slow?page=1", "GET", 200, 700));
+            logService.log(entry("/slow", "GET", 200, 20));
+
+            assertEquals(3, logService.getSkippedCount());
+        }
+
+        String printed = String.join("", output);
+        assertTrue(printed.contains("/api/v1/users/42?expand=true"));
+        assertTrue(printed.contains("/slow?page=1"));
+        assertFalse(printed.contains("201"));
+        assertFalse(printed.contains("/api/v1/v2/users/42"));
+        assertFalse(printed.contains("(20ms)"));
+        assertThrows(IllegalArgumentException.class, () -> LogFilter.parse("colour=red"));
+        assertThrows(IllegalArgumentException.class, () -> LogFilter.parse("status=599-500"));
+        assertThrows(IllegalArgumentException.class, () -> LogFilter.parse("duration=-"));
+    }
+
+    @Test
+    @DisplayName("Should still print the failed and slow entries that were sampled out")
+    void shouldStillPrintTheFailedAndSlowEntriesThatWereSampledOut() {
+        List<String> output = new CopyOnWriteArrayList<>();
+        try (LogService logService = new LogService(false, false, 16, OverflowPolicy.DROP, output::add)) {
+            logService.setPolicy(new LogPolicy(List.of(), Integer.MAX_VALUE, 0, 500, true));
+
+            LogEntry sampledOut = entry("/fast", "GET", 200, 1);
+            assertFalse(logService.sample(sampledOut));
+            logService.log(sampledOut);
+            logService.log(entry("/failed", "GET", 502, 1));
+            logService.log(entry("/unanswered", "GET", 0, 1));
+            logService.log(entry("/slow", "GET", 200, 500));
+
+            assertEquals(1, logService.getSkippedCount());
+
+            LogPolicy limited = new LogPolicy(List.of(), 1, 2, 0, false);
+            assertTrue(limited.sample("GET", "/"));
+            assertTrue(limited.sample("GET", "/"));
+            assertFalse(limited.sample("GET", "/"));
+            assertFalse(limited.shouldPrint(entry("/failed", "GET", 502, 1), false));
+        }
+
+        String printed = String.join("", output);
+        assertFalse(printed.contains("/fast"));
+        assertTrue(printed.contains("/failed"));
+        assertTrue(printed.contains("/unanswered"));
+        assertTrue(printed.contains("/slow"));
+    }
+
+    private static String formatResponse(byte[] body, Map<String, String> headers, int previewSize) {
+        LogEntry entry = entry("/body");
+        entry.setResponseHeaders(headers);
+        entry.setResponseBody(body);
+        entry.setResponseBodySize(body.length);
+        try (LogService logService = new LogService(false, true, 16, OverflowPolicy.DROP, previewSize, batch -> {})) {
+            return logService.format(entry);
+        }
+    }
+
+    private static LogEntry entry(String path, String method, int statusCode, long duration) {
+        LogEntry entry = entry(path);
+        entry.setMethod(method);
+        entry.setStatusCode(statusCode);
+        entry.setDuration(duration);
+        return entry;
+    }
+
+    private static LogEntry entry(String path) {
+        LogEntry entry = new LogEntry();
+        entry.setMethod("GET");
+        entry.setPath(path);
+        entry.setStatusCode(200);
+        entry.setResponseMessage("OK");
+        entry.setDuration(1L);
+        entry.setTimestamp(LocalDateTime.now());
+        return entry;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.renanwillian.easyproxy.metrics;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    @DisplayName("Should report percentiles within the bucket precision")
+    void shouldReportPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 10_000; micros++) {
+            histogram.recordMicros(micros);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertWithin(5_000, histogram.percentileMicros(0.5));
+        assertWithin(9_900, histogram.percentileMicros(0.99));
+        assertWithin(10_000, histogram.percentileMicros(1.0));
+    }
+
+    @Test
+    @DisplayName("Should keep bucket bounds consistent with bucket indexes")
+    void shouldKeepBucketBoundsConsistent() {
+        for (long value : new long[]{0, 15, 16, 17, 1_000, 123_456_789}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(LatencyHistogram.bucketUpperBound(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.bucketUpperBound(index - 1) < value);
+        }
+    }
+
+    @Test
+    @DisplayName("Should report zero when empty")
+    void shouldReportZeroWhenEmpty() {
+        assertEquals(0, new LatencyHistogram().percentileMicros(0.99));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected * 0.07, "expected ~" + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,67 @@
+package com.renanwillian.easyproxy.nio;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BodyFramerTest {
+
+    @Test
+    @DisplayName("Should stop a fixed length body at its length")
+    void shouldStopFixedLengthBodyAtItsLength() throws IOException {
+        BodyFramer framer = BodyFramer.fixed(5);
+
+        assertEquals(3, framer.scan(buffer("abc")));
+        assertFalse(framer.isComplete());
+        assertEquals(2, framer.scan(buffer("deGET / HTTP/1.1")));
+        assertTrue(framer.isComplete());
+    }
+
+    @Test
+    @DisplayName("Should find the end of a chunked body split across reads")
+    void shouldFindEndOfChunkedBodySplitAcrossReads() throws IOException {
+        String body = "4;ext=1\r\nWiki\r\n6\r\npedia \r\nE\r\nin \r\n\r\nchunks.\r\n0\r\nExpires: never\r\n\r\n";
+        String next = "GET / HTTP/1.1\r\n";
+        byte[] bytes = (body + next).getBytes(StandardCharsets.ISO_8859_1);
+
+        for (int split = 1; split < body.length(); split++) {
+            BodyFramer framer = BodyFramer.chunked();
+            int first = framer.scan(ByteBuffer.wrap(bytes, 0, split).slice());
+            assertEquals(split, first);
+            assertFalse(framer.isComplete());
+
+            int second = framer.scan(ByteBuffer.wrap(bytes, split, bytes.length - split).slice());
+            assertEquals(body.length() - split, second);
+            assertTrue(framer.isComplete());
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject invalid chunk sizes")
+    void shouldRejectInvalidChunkSizes() {
+        assertThrows(IOException.class, () -> BodyFramer.chunked().scan(buffer("zz\r\n")));
+    }
+
+    @Test
+    @DisplayName("Should end a close delimited body at end of stream")
+    void shouldEndCloseDelimitedBodyAtEndOfStream() throws IOException {
+        BodyFramer framer = BodyFramer.untilClose();
+
+        assertEquals(3, framer.scan(buffer("abc")));
+        assertFalse(framer.isComplete());
+        framer.onEndOfStream();
+        assertTrue(framer.isComplete());
+    }
+
+    private static ByteBuffer buffer(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
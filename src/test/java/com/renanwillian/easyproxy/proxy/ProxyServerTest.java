@@ -1,39 +1,65 @@
 package com.renanwillian.easyproxy.proxy;
 
 import com.renanwillian.easyproxy.MockServer;
+import com.renanwillian.easyproxy.balancer.CircuitBreaker;
+import com.renanwillian.easyproxy.balancer.Upstream;
+import com.renanwillian.easyproxy.config.ProxyConfig;
 import com.renanwillian.easyproxy.log.LogEntry;
 import com.renanwillian.easyproxy.log.LogService;
+import com.renanwillian.easyproxy.stub.StubMiss;
+import com.renanwillian.easyproxy.tls.TlsTerminator;
+import com.renanwillian.easyproxy.upstream.PoolStats;
+import com.renanwillian.easyproxy.upstream.UpstreamProtocol;
+import com.renanwillian.easyproxy.utils.CompressionUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
-import static org.mockito.Mockito.only;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class ProxyServerTest {
@@ -53,6 +79,9 @@ class ProxyServerTest {
 
     @BeforeEach
     void setUp() throws IOException {
+        // Bodies are only kept for the log when details are shown.
+        lenient().when(logService.isShowingDetails()).thenReturn(true);
+        lenient().when(logService.sample(any())).thenReturn(true);
         mockServer = new MockServer(MOCK_SERVER_PORT);
         proxyServer = new ProxyServer(PROXY_SERVER_PORT, TARGET_URL, logService);
         proxyServer.start();
@@ -175,7 +204,7 @@ class ProxyServerTest {
         assertTrue(logHappened);
 
         ArgumentCaptor<LogEntry> logEntryCaptor = ArgumentCaptor.forClass(LogEntry.class);
-        verify(logService, only()).log(logEntryCaptor.capture());
+        verify(logService, times(1)).log(logEntryCaptor.capture());
 
         LogEntry capturedEntry = logEntryCaptor.getValue();
         assertNotNull(capturedEntry);
@@ -220,7 +249,7 @@ class ProxyServerTest {
             assertTrue(logHappened, "Logging should happen within timeout");
 
             ArgumentCaptor<LogEntry> logEntryCaptor = ArgumentCaptor.forClass(LogEntry.class);
-            verify(logService, only()).log(logEntryCaptor.capture());
+            verify(logService, times(1)).log(logEntryCaptor.capture());
 
             LogEntry capturedEntry = logEntryCaptor.getValue();
             assertNotNull(capturedEntry);
@@ -231,6 +260,65 @@ class ProxyServerTest {
             assertEquals(responseBody, new String(capturedEntry.getResponseBody()));
         }
 
+        @Test
+        @DisplayName("Should stream large bodies and log only a bounded prefix")
+        void shouldStreamLargeBodiesAndLogBoundedPrefix() throws IOException, InterruptedException {
+            CountDownLatch latch = new CountDownLatch(1);
+            doAnswer(invocation -> {
+                latch.countDown();
+                return null;
+            }).when(logService).log(any());
+
+            String responseBody = "x".repeat(ProxyHandler.LOG_BODY_LIMIT * 3);
+            startMockServer(200, "GET", "/large", responseBody);
+
+            HttpResponse<String> response = sendRequestToProxyServer("/large", "GET");
+
+            assertEquals(200, response.statusCode());
+            assertEquals(responseBody, response.body());
+
+            boolean logHappened = latch.await(2, TimeUnit.SECONDS);
+            assertTrue(logHappened, "Logging should happen within timeout");
+
+            ArgumentCaptor<LogEntry> logEntryCaptor = ArgumentCaptor.forClass(LogEntry.class);
+            verify(logService, times(1)).log(logEntryCaptor.capture());
+
+            LogEntry capturedEntry = logEntryCaptor.getValue();
+            assertEquals(ProxyHandler.LOG_BODY_LIMIT, capturedEntry.getResponseBody().length);
+            assertEquals(responseBody.length(), capturedEntry.getResponseBodySize());
+        }
+
+        @Test
+        @DisplayName("Should not copy the bodies of requests sampled out of the log")
+        void shouldNotCopyTheBodiesOfRequestsSampledOutOfTheLog() throws IOException, InterruptedException {
+            CountDownLatch latch = new CountDownLatch(1);
+            doAnswer(invocation -> {
+                latch.countDown();
+                return null;
+            }).when(logService).log(any());
+            when(logService.sample(any())).thenReturn(false);
+
+            String requestBody = "{\"test\":\"data\"}";
+            startMockServer(201, "POST", "/sampled-out", "{}");
+
+            HttpRequest request = HttpRequest.newBuilder()
+                                             .uri(URI.create(PROXY_URL + "/sampled-out"))
+                                             .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                                             .build();
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(201, response.statusCode());
+            assertEquals("{}", response.body());
+            assertTrue(latch.await(2, TimeUnit.SECONDS), "Logging should happen within timeout");
+
+            ArgumentCaptor<LogEntry> logEntryCaptor = ArgumentCaptor.forClass(LogEntry.class);
+            verify(logService).log(logEntryCaptor.capture());
+            LogEntry capturedEntry = logEntryCaptor.getValue();
+            assertEquals(0, capturedEntry.getRequestBody().length);
+            assertEquals(requestBody.length(), capturedEntry.getRequestBodySize());
+            assertEquals(0, capturedEntry.getResponseBody().length);
+        }
+
         @Test
         @DisplayName("Should log errors when upstream server is unavailable")
         void shouldLogErrorsWhenUpstreamServerIsUnavailable() throws IOException, InterruptedException {
@@ -285,6 +373,753 @@ class ProxyServerTest {
         }
     }
 
+    @Nested
+    @DisplayName("Executor Mode Tests")
+    class ExecutorModeTests {
+        @ParameterizedTest
+        @EnumSource(ExecutorMode.class)
+        @DisplayName("Should forward requests with every executor mode")
+        void shouldForwardRequestsWithEveryExecutorMode(ExecutorMode mode) throws Exception {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setExecutorMode(mode);
+            config.setThreads(2);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+
+            startMockServer(200, "GET", "/executor", "ok");
+
+            HttpResponse<String> response = sendRequestToProxyServer("/executor", "GET");
+            assertEquals(200, response.statusCode());
+            assertEquals("ok", response.body());
+        }
+
+        @Test
+        @DisplayName("Should shed tasks that do not fit in the fixed executor")
+        void shouldShedTasksThatDoNotFitInTheFixedExecutor() throws Exception {
+            LoadSheddingExecutor executor = new LoadSheddingExecutor(1, 0);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch shed = new CountDownLatch(1);
+            try {
+                executor.execute(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                executor.execute(() -> {
+                    if (LoadSheddingExecutor.isShedding()) shed.countDown();
+                });
+
+                assertTrue(shed.await(2, TimeUnit.SECONDS));
+                assertEquals(1, executor.getShedCount());
+            } finally {
+                release.countDown();
+                executor.shutdown();
+            }
+        }
+
+        @Test
+        @DisplayName("Should still answer shed tasks once the shedding pool is saturated")
+        void shouldStillAnswerShedTasksOnceTheSheddingPoolIsSaturated() throws Exception {
+            LoadSheddingExecutor executor = new LoadSheddingExecutor(1, 0);
+            Thread caller = Thread.currentThread();
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch shed = new CountDownLatch(5);
+            AtomicInteger shedOnCaller = new AtomicInteger();
+            Runnable task = () -> {
+                if (LoadSheddingExecutor.isShedding()) {
+                    shed.countDown();
+                    if (Thread.currentThread() == caller) {
+                        shedOnCaller.incrementAndGet();
+                        return;
+                    }
+                }
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            try {
+                // One task runs in the pool, one in the shedding pool and one waits in its queue, the others run here.
+                for (int i = 0; i < 6; i++) executor.execute(task);
+
+                assertEquals(5, executor.getShedCount());
+                assertEquals(3, shedOnCaller.get());
+                release.countDown();
+                assertTrue(shed.await(2, TimeUnit.SECONDS));
+            } finally {
+                release.countDown();
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Cache Tests")
+    class CacheTests {
+        @BeforeEach
+        void startCachingProxy() throws IOException {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setCacheSize(1);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+        }
+
+        @Test
+        @DisplayName("Should serve fresh responses from the cache")
+        void shouldServeFreshResponsesFromTheCache() throws Exception {
+            mockServer.addEndpoint("/cached", "GET", 200, "cached", Map.of("Cache-Control", "max-age=60"));
+            mockServer.start();
+
+            HttpResponse<String> first = sendRequestToProxyServer("/cached", "GET");
+            HttpResponse<String> second = sendRequestToProxyServer("/cached", "GET");
+
+            assertEquals("cached", first.body());
+            assertEquals("cached", second.body());
+            assertEquals("HIT", second.headers().firstValue("X-Cache").orElse(null));
+            assertEquals(1, mockServer.getRequestCount("/cached"));
+            assertEquals(1, proxyServer.getCacheStats().hits());
+        }
+
+        @Test
+        @DisplayName("Should not cache no-store responses")
+        void shouldNotCacheNoStoreResponses() throws Exception {
+            mockServer.addEndpoint("/uncached", "GET", 200, "fresh", Map.of("Cache-Control", "no-store"));
+            mockServer.start();
+
+            sendRequestToProxyServer("/uncached", "GET");
+            sendRequestToProxyServer("/uncached", "GET");
+
+            assertEquals(2, mockServer.getRequestCount("/uncached"));
+            assertEquals(0, proxyServer.getCacheStats().entries());
+        }
+    }
+
+    @Nested
+    @DisplayName("Limit Tests")
+    class LimitTests {
+        @Test
+        @DisplayName("Should answer 429 once a client exceeds its rate")
+        void shouldAnswer429OnceAClientExceedsItsRate() throws Exception {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setRateLimit(0.5);
+            config.setRateLimitBurst(2);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+            startMockServer(200, "GET", "/limited", "ok");
+
+            assertEquals(200, sendRequestToProxyServer("/limited", "GET").statusCode());
+            assertEquals(200, sendRequestToProxyServer("/limited", "GET").statusCode());
+            HttpResponse<String> limited = sendRequestToProxyServer("/limited", "GET");
+
+            assertEquals(429, limited.statusCode());
+            assertEquals("2", limited.headers().firstValue("Retry-After").orElse(null));
+            assertEquals(2, mockServer.getRequestCount("/limited"));
+            assertEquals(1, proxyServer.getRateLimiter().getLimitedCount());
+        }
+
+        @Test
+        @DisplayName("Should answer 503 over the concurrency limit")
+        void shouldAnswer503OverTheConcurrencyLimit() throws Exception {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setConcurrencyLimit(1);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+            mockServer.setResponseDelay(Duration.ofMillis(500));
+            startMockServer(200, "GET", "/slow", "ok");
+
+            HttpRequest request = HttpRequest.newBuilder().uri(URI.create(PROXY_URL + "/slow")).GET().build();
+            CompletableFuture<HttpResponse<String>> first = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (proxyServer.getConcurrencyLimiter().getInFlight() == 0 && System.nanoTime() < deadline) Thread.onSpinWait();
+
+            HttpResponse<String> rejected = sendRequestToProxyServer("/slow", "GET");
+
+            assertEquals(503, rejected.statusCode());
+            assertEquals(200, first.get(5, TimeUnit.SECONDS).statusCode());
+            assertEquals(1, mockServer.getRequestCount("/slow"));
+            assertEquals(1, proxyServer.getConcurrencyLimiter().getLimitedCount());
+        }
+    }
+
+    @Nested
+    @DisplayName("Retry Tests")
+    class RetryTests {
+        private static final String UNAVAILABLE_TARGET_URL = "http://localhost:9998";
+
+        @BeforeEach
+        void startRetryingProxy() throws IOException {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, UNAVAILABLE_TARGET_URL, TARGET_URL);
+            config.setRetries(1);
+            config.setRetryBackoff(0);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+        }
+
+        @Test
+        @DisplayName("Should retry an idempotent request on the next target")
+        void shouldRetryAnIdempotentRequestOnTheNextTarget() throws Exception {
+            startMockServer(200, "GET", "/retried", "ok");
+
+            // Round robin sends each request to the unavailable target first, then retries it on the mock server.
+            assertEquals(200, sendRequestToProxyServer("/retried", "GET").statusCode());
+            assertEquals(200, sendRequestToProxyServer("/retried", "GET").statusCode());
+
+            assertEquals(2, mockServer.getRequestCount("/retried"));
+            assertEquals(2, proxyServer.getUpstreamCaller().getRetriedCount());
+            ArgumentCaptor<LogEntry> logEntryCaptor = ArgumentCaptor.forClass(LogEntry.class);
+            verify(logService, timeout(2000).times(2)).log(logEntryCaptor.capture());
+            assertEquals(4, logEntryCaptor.getAllValues().stream().mapToInt(LogEntry::getAttempts).sum());
+            assertTrue(logEntryCaptor.getAllValues().stream().allMatch(entry -> entry.getTarget().equals(TARGET_URL)));
+        }
+
+        @Test
+        @DisplayName("Should not retry a request that is not idempotent")
+        void shouldNotRetryARequestThatIsNotIdempotent() throws Exception {
+            startMockServer(201, "POST", "/created", "{}");
+
+            int first = sendRequestToProxyServer("/created", "POST").statusCode();
+            int second = sendRequestToProxyServer("/created", "POST").statusCode();
+
+            assertEquals(Set.of(201, 502), Set.of(first, second));
+            assertEquals(0, proxyServer.getUpstreamCaller().getRetriedCount());
+        }
+    }
+
+    @Nested
+    @DisplayName("TLS Tests")
+    class TlsTests {
+        @Test
+        @DisplayName("Should serve HTTPS and resume the session of a returning client")
+        void shouldServeHttpsAndResumeTheSessionOfAReturningClient() throws Exception {
+            startMockServer(200, "GET", "/secure", "ok");
+            Path keyStorePath = Path.of(getClass().getResource("/tls/localhost.p12").toURI());
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setTlsCert(keyStorePath);
+            config.setTlsPassword("changeit");
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+
+            KeyStore trusted = KeyStore.getInstance("PKCS12");
+            try (InputStream in = Files.newInputStream(keyStorePath)) {
+                trusted.load(in, "changeit".toCharArray());
+            }
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(trusted);
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, trustManagers.getTrustManagers(), null);
+
+            // Two clients sharing the SSL context open two connections, the second one resumes the first session.
+            for (int i = 0; i < 2; i++) {
+                HttpClient client = HttpClient.newBuilder().sslContext(sslContext).build();
+                HttpRequest request = HttpRequest.newBuilder(URI.create("https://localhost:" + PROXY_SERVER_PORT + "/secure")).build();
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+                assertEquals(200, response.statusCode());
+                assertEquals("ok", response.body());
+            }
+            TlsTerminator tls = proxyServer.getTlsTerminator();
+            assertEquals(1, tls.getFullHandshakeCount());
+            assertEquals(1, tls.getResumedHandshakeCount());
+        }
+    }
+
+    @Nested
+    @DisplayName("Circuit Breaker Tests")
+    class CircuitBreakerTests {
+        @Test
+        @DisplayName("Should fail fast with 503 once the circuit of the target opens")
+        void shouldFailFastWith503OnceTheCircuitOfTheTargetOpens() throws Exception {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setCircuitBreaker(true);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+
+            for (int i = 0; i < CircuitBreaker.DEFAULT_MINIMUM_CALLS; i++) {
+                assertEquals(502, sendRequestToProxyServer("/down", "GET").statusCode());
+            }
+            HttpResponse<String> rejected = sendRequestToProxyServer("/down", "GET");
+
+            assertEquals(503, rejected.statusCode());
+            assertEquals("Service Unavailable: The upstream circuit is open.", rejected.body());
+            CircuitBreaker breaker = proxyServer.getUpstreams().get(0).getCircuitBreaker();
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            assertEquals(1, breaker.getRejectedCount());
+        }
+    }
+
+    @Nested
+    @DisplayName("Routing Tests")
+    class RoutingTests {
+        @Test
+        @DisplayName("Should send each prefix to its route, rewritten, and answer 404 when no route matches")
+        void shouldSendEachPrefixToItsRouteRewrittenAndAnswer404WhenNoRouteMatches() throws Exception {
+            mockServer.addEndpoint("/files", "GET", 200, "files");
+            startMockServer(200, "GET", "/v1/users", "users");
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT);
+            config.setRoutes(List.of("/api=" + TARGET_URL + ";rewrite=/v1;header=X-Env:test",
+                                     "/static=" + TARGET_URL + ";rewrite=/"));
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+
+            HttpResponse<String> api = sendRequestToProxyServer("/api/users", "GET");
+            HttpResponse<String> files = sendRequestToProxyServer("/static/files", "GET");
+            HttpResponse<String> unrouted = sendRequestToProxyServer("/other", "GET");
+
+            assertEquals("users", api.body());
+            assertEquals("files", files.body());
+            assertEquals(404, unrouted.statusCode());
+            assertEquals("Not Found: No route matches the path.", unrouted.body());
+            assertEquals(1, mockServer.getRequestCount("/v1/users"));
+            assertEquals(1, proxyServer.getUpstreams().size());
+        }
+    }
+
+    @Nested
+    @DisplayName("Reload Tests")
+    class ReloadTests {
+        @Test
+        @DisplayName("Should apply new targets, timeouts and logging without a restart")
+        void shouldApplyNewTargetsTimeoutsAndLoggingWithoutARestart() throws Exception {
+            startMockServer(200, "GET", "/reloaded", "ok");
+            proxyServer.stop();
+            proxyServer = new ProxyServer(ProxyConfig.of(PROXY_SERVER_PORT, "http://localhost:9998"), logService);
+            proxyServer.start();
+            assertEquals(502, sendRequestToProxyServer("/reloaded", "GET").statusCode());
+
+            ProxyConfig next = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            next.setRequestTimeout(2000);
+            next.setRetries(1);
+            next.setShowHeaders(true);
+            proxyServer.reconfigure(next);
+
+            assertEquals(200, sendRequestToProxyServer("/reloaded", "GET").statusCode());
+            assertEquals(Duration.ofMillis(2000), proxyServer.getUpstreamCaller().getRequestTimeout());
+            assertEquals(1, proxyServer.getUpstreamCaller().getPolicy().retries());
+            assertEquals(List.of(TARGET_URL), proxyServer.getUpstreams().stream().map(Upstream::getUrl).toList());
+            verify(logService).setVerbosity(true, false);
+
+            ProxyConfig invalid = ProxyConfig.of(PROXY_SERVER_PORT);
+            invalid.setRoutes(List.of("/api"));
+            assertThrows(IllegalArgumentException.class, () -> proxyServer.reconfigure(invalid));
+            assertEquals(200, sendRequestToProxyServer("/reloaded", "GET").statusCode());
+        }
+
+        @Test
+        @DisplayName("Should stop accepting on shutdown and let the requests in progress complete")
+        void shouldStopAcceptingOnShutdownAndLetTheRequestsInProgressComplete() throws Exception {
+            mockServer.setResponseDelay(Duration.ofMillis(500));
+            startMockServer(200, "GET", "/draining", "drained");
+            HttpRequest request = HttpRequest.newBuilder().uri(URI.create(PROXY_URL + "/draining")).GET().build();
+            CompletableFuture<HttpResponse<String>> inProgress = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            Thread.sleep(200);
+
+            proxyServer.stop();
+
+            assertEquals("drained", inProgress.get(1, TimeUnit.SECONDS).body());
+            assertThrows(IOException.class, () -> sendRequestToProxyServer("/draining", "GET"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Coalescing Tests")
+    class CoalescingTests {
+        @BeforeEach
+        void startCoalescingProxy() throws IOException {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setCoalesce(true);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+        }
+
+        @Test
+        @DisplayName("Should send identical concurrent requests to the target once")
+        void shouldSendIdenticalConcurrentRequestsToTheTargetOnce() throws Exception {
+            mockServer.setResponseDelay(Duration.ofMillis(500));
+            startMockServer(200, "GET", "/popular", "popular");
+
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                HttpRequest request = HttpRequest.newBuilder().uri(URI.create(PROXY_URL + "/popular")).GET().build();
+                responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+            }
+
+            for (CompletableFuture<HttpResponse<String>> response : responses) {
+                assertEquals(200, response.get(5, TimeUnit.SECONDS).statusCode());
+                assertEquals("popular", response.get().body());
+            }
+            assertEquals(1, mockServer.getRequestCount("/popular"));
+            assertEquals(4, proxyServer.getCoalescer().getCoalescedCount());
+        }
+    }
+
+    @Nested
+    @DisplayName("Compression Tests")
+    class CompressionTests {
+        private static final String JSON = "{\"items\":[" + "{\"name\":\"item\"},".repeat(50) + "{}]}";
+
+        @BeforeEach
+        void startCompressingProxy() throws IOException {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setCacheSize(1);
+            config.setCompression(true);
+            config.setCompressionMinSize(64);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+        }
+
+        @Test
+        @DisplayName("Should compress responses for clients that accept gzip")
+        void shouldCompressResponsesForClientsThatAcceptGzip() throws Exception {
+            mockServer.addEndpoint("/json", "GET", 200, JSON, Map.of("Content-Type", "application/json"));
+            mockServer.start();
+
+            HttpResponse<byte[]> response = sendAcceptingEncoding("/json", "deflate;q=0.5, gzip");
+
+            assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+            assertEquals("Accept-Encoding", response.headers().firstValue("Vary").orElse(null));
+            assertTrue(response.body().length < JSON.length());
+            assertEquals(JSON, new String(CompressionUtils.decompress(response.body(), "gzip", Integer.MAX_VALUE - 1)));
+        }
+
+        @Test
+        @DisplayName("Should not compress small, binary or unaccepted responses")
+        void shouldNotCompressSmallBinaryOrUnacceptedResponses() throws Exception {
+            mockServer.addEndpoint("/small", "GET", 200, "{}", Map.of("Content-Type", "application/json"));
+            mockServer.addEndpoint("/binary", "GET", 200, JSON, Map.of("Content-Type", "application/octet-stream"));
+            mockServer.addEndpoint("/plain", "GET", 200, JSON, Map.of("Content-Type", "application/json"));
+            mockServer.start();
+
+            assertTrue(sendAcceptingEncoding("/small", "gzip").headers().firstValue("Content-Encoding").isEmpty());
+            assertTrue(sendAcceptingEncoding("/binary", "gzip").headers().firstValue("Content-Encoding").isEmpty());
+            HttpResponse<byte[]> identity = sendAcceptingEncoding("/plain", "br, gzip;q=0");
+            assertTrue(identity.headers().firstValue("Content-Encoding").isEmpty());
+            assertEquals(JSON, new String(identity.body()));
+            assertEquals(0, proxyServer.getCompressor().getCompressedCount());
+        }
+
+        @Test
+        @DisplayName("Should memoize the compressed body of cached responses")
+        void shouldMemoizeTheCompressedBodyOfCachedResponses() throws Exception {
+            mockServer.addEndpoint("/cached-json", "GET", 200, JSON,
+                                   Map.of("Content-Type", "application/json", "Cache-Control", "max-age=60"));
+            mockServer.start();
+
+            for (int i = 0; i < 3; i++) {
+                HttpResponse<byte[]> response = sendAcceptingEncoding("/cached-json", "gzip");
+                assertEquals(JSON, new String(CompressionUtils.decompress(response.body(), "gzip", Integer.MAX_VALUE - 1)));
+            }
+
+            assertEquals(1, mockServer.getRequestCount("/cached-json"));
+            assertEquals(2, proxyServer.getCompressor().getCompressedCount());
+            assertEquals(1, proxyServer.getCompressor().getMemoizedCount());
+        }
+
+        private HttpResponse<byte[]> sendAcceptingEncoding(String path, String acceptEncoding) throws Exception {
+            HttpRequest request = HttpRequest.newBuilder()
+                                             .uri(URI.create(PROXY_URL + path))
+                                             .header("Accept-Encoding", acceptEncoding)
+                                             .GET()
+                                             .build();
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        }
+    }
+
+    @Nested
+    @DisplayName("Stub Tests")
+    class StubTests {
+        @TempDir
+        Path stubs;
+
+        @BeforeEach
+        void writeStubs() throws IOException {
+            Files.createDirectories(stubs.resolve("GET/api"));
+            Files.writeString(stubs.resolve("GET/api/users"), "[{\"name\":\"stub\"}]");
+            Files.writeString(stubs.resolve("GET/api/users.headers"), "HTTP/1.1 203 Non-Authoritative Information\n"
+                    + "Content-Type: application/json\n");
+            Files.writeString(stubs.resolve("GET/search%3Fq=proxy&page=2"), "results");
+        }
+
+        private void startStubbingProxy(StubMiss miss) throws IOException {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setStubPath(stubs);
+            config.setStubMiss(miss);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+        }
+
+        @Test
+        @DisplayName("Should serve matching stubs without contacting the target")
+        void shouldServeMatchingStubsWithoutContactingTheTarget() throws Exception {
+            startStubbingProxy(StubMiss.FORWARD);
+            startMockServer(200, "GET", "/api/users", "upstream");
+
+            HttpResponse<String> users = sendRequestToProxyServer("/api/users", "GET");
+            HttpResponse<String> search = sendRequestToProxyServer("/search?page=2&q=proxy", "GET");
+
+            assertEquals(203, users.statusCode());
+            assertEquals("[{\"name\":\"stub\"}]", users.body());
+            assertEquals("application/json", users.headers().firstValue("Content-Type").orElse(null));
+            assertEquals("results", search.body());
+            assertEquals(0, mockServer.getRequestCount("/api/users"));
+            assertEquals(2, proxyServer.getStubStore().getHitCount());
+        }
+
+        @Test
+        @DisplayName("Should forward or fail requests no stub matches")
+        void shouldForwardOrFailRequestsNoStubMatches() throws Exception {
+            startStubbingProxy(StubMiss.FORWARD);
+            startMockServer(200, "GET", "/unstubbed", "upstream");
+
+            assertEquals("upstream", sendRequestToProxyServer("/unstubbed", "GET").body());
+
+            startStubbingProxy(StubMiss.FAIL);
+            assertEquals(502, sendRequestToProxyServer("/unstubbed", "GET").statusCode());
+            assertEquals(502, sendRequestToProxyServer("/api/users", "POST").statusCode());
+            assertEquals(1, mockServer.getRequestCount("/unstubbed"));
+        }
+    }
+
+    @Nested
+    @DisplayName("NIO Engine Tests")
+    class NioEngineTests {
+        @BeforeEach
+        void startNioProxy() throws IOException {
+            proxyServer.stop();
+            ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+            config.setEngine(Engine.NIO);
+            proxyServer = new ProxyServer(config, logService);
+            proxyServer.start();
+        }
+
+        @ParameterizedTest
+        @CsvSource({
+                "GET,200",
+                "POST,201",
+                "DELETE,204",
+                "HEAD,200"
+        })
+        @DisplayName("Should forward requests through the nio engine")
+        void shouldForwardRequests(String method, int expectedStatusCode) throws Exception {
+            String responseBody = expectedStatusCode != 204 && !method.equals("HEAD") ? "ok" : "";
+            startMockServer(expectedStatusCode, method, "/nio", responseBody);
+
+            HttpResponse<String> response = sendRequestToProxyServer("/nio", method);
+
+            assertEquals(expectedStatusCode, response.statusCode());
+            assertEquals(responseBody, response.body());
+        }
+
+        @Test
+        @DisplayName("Should relay request and response bodies larger than a buffer")
+        void shouldRelayLargeBodies() throws Exception {
+            CountDownLatch latch = new CountDownLatch(1);
+            doAnswer(invocation -> {
+                latch.countDown();
+                return null;
+            }).when(logService).log(any());
+
+            String responseBody = "y".repeat(1024 * 1024);
+            startMockServer(200, "POST", "/upload", responseBody);
+
+            HttpRequest request = HttpRequest.newBuilder()
+                                             .uri(URI.create(PROXY_URL + "/upload"))
+                                             .POST(HttpRequest.BodyPublishers.ofString("x".repeat(256 * 1024)))
+                                             .build();
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertEquals(responseBody, response.body());
+
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            ArgumentCaptor<LogEntry> logEntryCaptor = ArgumentCaptor.forClass(LogEntry.class);
+            verify(logService).log(logEntryCaptor.capture());
+            assertEquals(256 * 1024, logEntryCaptor.getValue().getRequestBodySize());
+            assertEquals(responseBody.length(), logEntryCaptor.getValue().getResponseBodySize());
+        }
+
+        @Test
+        @DisplayName("Should reuse upstream connections between requests")
+        void shouldReuseUpstreamConnections() throws Exception {
+            startMockServer(200, "GET", "/keep-alive", "ok");
+
+            for (int i = 0; i < 5; i++) {
+                assertEquals("ok", sendRequestToProxyServer("/keep-alive", "GET").body());
+            }
+
+            assertEquals(5, mockServer.getRequestCount("/keep-alive"));
+            assertEquals(1, proxyServer.getMetrics().getUpstreamConnectLatency().getCount());
+        }
+
+        @Test
+        @DisplayName("Should return Bad Gateway when upstream server is unavailable")
+        void shouldReturnBadGatewayWhenUpstreamServerIsUnavailable() throws Exception {
+            HttpResponse<String> response = sendRequestToProxyServer("/unavailable", "GET");
+
+            assertEquals(502, response.statusCode());
+            assertEquals("Bad Gateway: Unable to connect to upstream server.", response.body());
+        }
+
+        @Test
+        @DisplayName("Should reject https targets")
+        void shouldRejectHttpsTargets() {
+            ProxyConfig config = ProxyConfig.of(8889, "https://localhost:9443");
+            config.setEngine(Engine.NIO);
+            try (ProxyServer httpsServer = new ProxyServer(config, logService)) {
+                assertThrows(IllegalArgumentException.class, httpsServer::start);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should spread requests across several targets")
+    void shouldSpreadRequestsAcrossSeveralTargets() throws Exception {
+        int secondMockPort = MOCK_SERVER_PORT - 1;
+        MockServer secondMockServer = new MockServer(secondMockPort);
+        try {
+            secondMockServer.addEndpoint("/balanced", "GET", 200, "second");
+            secondMockServer.start();
+            startMockServer(200, "GET", "/balanced", "first");
+
+            proxyServer.stop();
+            proxyServer = new ProxyServer(ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL, "localhost:" + secondMockPort),
+                                          logService);
+            proxyServer.start();
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals(200, sendRequestToProxyServer("/balanced", "GET").statusCode());
+            }
+
+            assertEquals(2, mockServer.getRequestCount("/balanced"));
+            assertEquals(2, secondMockServer.getRequestCount("/balanced"));
+        } finally {
+            secondMockServer.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("Should report upstream pool usage")
+    void shouldReportUpstreamPoolUsage() throws Exception {
+        startMockServer(200, "GET", "/pooled", "ok");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, sendRequestToProxyServer("/pooled", "GET").statusCode());
+        }
+
+        // The client can have the whole body before the handler thread releases its upstream connection.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (proxyServer.getUpstreamStats().active() > 0 && System.nanoTime() < deadline) Thread.onSpinWait();
+
+        PoolStats stats = proxyServer.getUpstreamStats();
+        assertEquals(3, stats.requests());
+        assertEquals(0, stats.active());
+        assertEquals(0, stats.exhausted());
+    }
+
+    @Test
+    @DisplayName("Should expose Prometheus metrics on the admin port")
+    void shouldExposeMetricsOnTheAdminPort() throws Exception {
+        mockServer.addEndpoint("/measured/create", "POST", 201, "created");
+        startMockServer(200, "GET", "/measured", "ok");
+
+        proxyServer.stop();
+        ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+        config.setAdminPort(PROXY_SERVER_PORT + 2);
+        proxyServer = new ProxyServer(config, logService);
+        proxyServer.start();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, sendRequestToProxyServer("/measured", "GET").statusCode());
+        }
+        HttpRequest post = HttpRequest.newBuilder()
+                                      .uri(URI.create(PROXY_URL + "/measured/create"))
+                                      .POST(HttpRequest.BodyPublishers.ofString("payload"))
+                                      .build();
+        assertEquals(201, httpClient.send(post, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest request = HttpRequest.newBuilder()
+                                         .uri(URI.create("http://localhost:" + (PROXY_SERVER_PORT + 2) + "/metrics"))
+                                         .GET()
+                                         .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        assertTrue(response.body().contains("easyproxy_responses_total{status=\"200\"} 3"));
+        assertTrue(response.body().contains("easyproxy_request_duration_seconds_count{phase=\"total\"} 4"));
+        assertEquals(1, proxyServer.getMetrics().getUpstreamConnectLatency().getCount());
+        assertEquals(4, proxyServer.getMetrics().getUpstreamFirstByteLatency().getCount());
+    }
+
+    @Test
+    @DisplayName("Should serve recorded exchanges on the admin traffic API")
+    void shouldServeRecordedExchangesOnTheAdminTrafficApi() throws Exception {
+        mockServer.addEndpoint("/recorded/missing", "GET", 404, "nothing here");
+        startMockServer(200, "GET", "/recorded", "recorded body");
+
+        proxyServer.stop();
+        ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+        config.setAdminPort(PROXY_SERVER_PORT + 2);
+        config.setTrafficBuffer(16);
+        proxyServer = new ProxyServer(config, logService);
+        proxyServer.start();
+
+        sendRequestToProxyServer("/recorded", "GET");
+        sendRequestToProxyServer("/recorded/missing", "GET");
+
+        String adminUrl = "http://localhost:" + (PROXY_SERVER_PORT + 2);
+        HttpResponse<String> list = httpClient.send(HttpRequest.newBuilder(URI.create(adminUrl + "/traffic?status=4xx")).build(),
+                                                    HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> detail = httpClient.send(HttpRequest.newBuilder(URI.create(adminUrl + "/traffic/1")).build(),
+                                                      HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> body = httpClient.send(HttpRequest.newBuilder(URI.create(adminUrl + "/traffic/1/response")).build(),
+                                                    HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, list.statusCode());
+        assertTrue(list.body().contains("\"path\":\"/recorded/missing\""));
+        assertFalse(list.body().contains("\"path\":\"/recorded\""));
+        assertTrue(detail.body().contains("\"responseBody\":\"recorded body\""));
+        assertEquals("recorded body", body.body());
+    }
+
+    @Test
+    @DisplayName("Should fall back to HTTP/1.1 when the target declines the HTTP/2 upgrade")
+    void shouldFallBackToHttp11WhenTheTargetDeclinesHttp2() throws Exception {
+        mockServer.addEndpoint("/h2/create", "POST", 201, "created");
+        startMockServer(200, "GET", "/h2", "ok");
+
+        proxyServer.stop();
+        ProxyConfig config = ProxyConfig.of(PROXY_SERVER_PORT, TARGET_URL);
+        config.setUpstreamProtocol(UpstreamProtocol.HTTP2);
+        proxyServer = new ProxyServer(config, logService);
+        proxyServer.start();
+
+        HttpResponse<String> response = sendRequestToProxyServer("/h2", "GET");
+        HttpRequest post = HttpRequest.newBuilder()
+                                      .uri(URI.create(PROXY_URL + "/h2/create"))
+                                      .POST(HttpRequest.BodyPublishers.ofString("payload"))
+                                      .build();
+
+        assertEquals(200, response.statusCode());
+        assertEquals("ok", response.body());
+        assertEquals(201, httpClient.send(post, HttpResponse.BodyHandlers.ofString()).statusCode());
+        assertEquals(2, proxyServer.getUpstreamStats().requests());
+        assertEquals(0, proxyServer.getUpstreamStats().http2());
+    }
+
     @Test
     @DisplayName("Should close connection with AutoCloseable")
     void testAutoCloseableImplementation() throws Exception {
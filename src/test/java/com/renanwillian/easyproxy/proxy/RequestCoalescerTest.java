@@ -0,0 +1,82 @@
+package com.renanwillian.easyproxy.proxy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestCoalescerTest {
+
+    private static final RequestCoalescer.SharedResponse RESPONSE =
+            new RequestCoalescer.SharedResponse(200, Map.of(), "http://target", "ok".getBytes());
+
+    @Test
+    @DisplayName("Should only coalesce bodiless, unconditional GET and HEAD requests with the same vary headers")
+    void shouldOnlyCoalesceIdenticalRequests() {
+        RequestCoalescer coalescer = new RequestCoalescer(1000, 10, List.of("Authorization"));
+
+        assertTrue(RequestCoalescer.isCoalescable("GET", Map.of("Accept", "*/*")));
+        assertTrue(RequestCoalescer.isCoalescable("HEAD", Map.of("Content-Length", "0")));
+        assertFalse(RequestCoalescer.isCoalescable("POST", Map.of()));
+        assertFalse(RequestCoalescer.isCoalescable("GET", Map.of("Range", "bytes=0-10")));
+        assertFalse(RequestCoalescer.isCoalescable("GET", Map.of("If-None-Match", "\"v1\"")));
+        assertEquals(coalescer.key("GET", "/a", Map.of("Authorization", "alice", "Accept", "text/html")),
+                     coalescer.key("get", "/a", Map.of("Authorization", "alice")));
+        assertNotEquals(coalescer.key("GET", "/a", Map.of("Authorization", "alice")),
+                        coalescer.key("GET", "/a", Map.of("Authorization", "bob")));
+    }
+
+    @Test
+    @DisplayName("Should share the leader response with the waiters and end the flight")
+    void shouldShareTheLeaderResponseWithTheWaiters() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(2000, 1, List.of());
+        RequestCoalescer.Flight leader = coalescer.join("GET /a");
+        RequestCoalescer.Flight waiter = coalescer.join("GET /a");
+
+        assertTrue(leader.isLeader());
+        assertFalse(waiter.isLeader());
+        assertNull(coalescer.join("GET /a"));
+        assertEquals(1, coalescer.getOverflowedCount());
+
+        CompletableFuture<RequestCoalescer.SharedResponse> shared = CompletableFuture.supplyAsync(() -> {
+            try {
+                return waiter.await();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        leader.complete(RESPONSE);
+
+        assertSame(RESPONSE, shared.get(2, TimeUnit.SECONDS));
+        assertEquals(1, coalescer.getCoalescedCount());
+        assertTrue(coalescer.join("GET /a").isLeader());
+    }
+
+    @Test
+    @DisplayName("Should pass the leader failure on and let waiters go alone after the timeout")
+    void shouldPassTheLeaderFailureOnAndTimeOut() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(50, 10, List.of());
+        RequestCoalescer.Flight leader = coalescer.join("GET /failing");
+        RequestCoalescer.Flight waiter = coalescer.join("GET /failing");
+        leader.fail(new ConnectException("refused"));
+
+        assertThrows(IOException.class, waiter::await);
+
+        coalescer.join("GET /slow");
+        assertNull(coalescer.join("GET /slow").await());
+        assertEquals(1, coalescer.getTimedOutCount());
+    }
+}
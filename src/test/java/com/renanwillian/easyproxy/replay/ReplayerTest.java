@@ -0,0 +1,58 @@
+package com.renanwillian.easyproxy.replay;
+
+import com.renanwillian.easyproxy.MockServer;
+import com.renanwillian.easyproxy.traffic.RecordedExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplayerTest {
+
+    private static final int MOCK_SERVER_PORT = 9997;
+
+    private final MockServer mockServer = new MockServer(MOCK_SERVER_PORT);
+
+    @AfterEach
+    void teardown() {
+        if (mockServer.isRunning()) mockServer.stop();
+    }
+
+    @Test
+    @DisplayName("Should replay captured requests at the requested rate and report the responses")
+    void shouldReplayCapturedRequests() throws IOException, InterruptedException {
+        mockServer.addEndpoint("/replayed", "GET", 200, "ok");
+        mockServer.addEndpoint("/replayed/missing", "POST", 404, "missing");
+        mockServer.start();
+
+        List<RecordedExchange> exchanges = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            exchanges.add(exchange(i, 1_000_000 + i * 100L, i % 5 == 0 ? "/replayed/missing" : "/replayed"));
+        }
+
+        ReplayReport report = new Replayer("http://localhost:" + MOCK_SERVER_PORT, 10, 4).replay(exchanges);
+
+        assertEquals(10, report.requests());
+        assertEquals(8, report.statusClasses()[2]);
+        assertEquals(2, report.statusClasses()[4]);
+        assertEquals(0, report.errors());
+        assertEquals(10, report.latency().getCount());
+        assertTrue(report.durationMillis() >= 90, "the 900ms of captured traffic should take about 90ms at rate 10");
+        assertEquals(8, mockServer.getRequestCount("/replayed"));
+    }
+
+    private static RecordedExchange exchange(long id, long timestamp, String path) {
+        boolean post = path.endsWith("missing");
+        byte[] body = post ? "payload".getBytes() : new byte[0];
+        return new RecordedExchange(id, timestamp, post ? "POST" : "GET", path, null, 200, "OK", 1, null,
+                                    Map.of("Host", "production.example.com", "Accept", "*/*"), Map.of(), body,
+                                    body.length, new byte[0], 0);
+    }
+}
@@ -0,0 +1,116 @@
+package com.renanwillian.easyproxy.route;
+
+import com.renanwillian.easyproxy.balancer.Balancing;
+import com.renanwillian.easyproxy.balancer.Upstream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RouterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static Router router(List<String> routes, List<String> defaultTargets) throws Exception {
+        return new Router(routes, null, defaultTargets, Balancing.ROUND_ROBIN, null, null, 0);
+    }
+
+    private static String prefixOf(Router router, String path) {
+        Route route = router.match(path);
+        return route != null ? route.getPrefix() : null;
+    }
+
+    @Test
+    @DisplayName("Should pick the longest prefix that ends on a segment boundary")
+    void shouldPickTheLongestPrefixThatEndsOnASegmentBoundary() throws Exception {
+        try (Router router = router(List.of("/api=http://a", "/api/v2=http://b", "/apis/=http://c", "/static=http://d"),
+                                    List.of("http://default"))) {
+            assertEquals("/api", prefixOf(router, "/api"));
+            assertEquals("/api", prefixOf(router, "/api/users"));
+            assertEquals("/api/v2", prefixOf(router, "/api/v2"));
+            assertEquals("/api/v2", prefixOf(router, "/api/v2/users"));
+            assertEquals("/api", prefixOf(router, "/api/v20"));
+            assertEquals("/apis", prefixOf(router, "/apis/list"));
+            assertEquals("/", prefixOf(router, "/apiary"));
+            assertEquals("/", prefixOf(router, "/stat"));
+            assertEquals("/", prefixOf(router, "/"));
+        }
+        try (Router router = router(List.of("/api=http://a"), List.of())) {
+            assertNull(router.match("/other"));
+            assertNull(router.match("/"));
+        }
+    }
+
+    @Test
+    @DisplayName("Should rewrite the prefix and keep the rest of the path and the query")
+    void shouldRewriteThePrefixAndKeepTheRestOfThePathAndTheQuery() throws Exception {
+        try (Router router = router(List.of("/api=http://a;rewrite=/v1;timeout=250;header=X-Env:prod",
+                                            "/strip=http://a;rewrite=/"), List.of())) {
+            Route api = router.match("/api/users");
+            assertEquals("/v1/users?page=2", api.rewrite("/api/users?page=2"));
+            assertEquals("/v1", api.rewrite("/api"));
+            assertEquals("/v1?q=1", api.rewrite("/api?q=1"));
+            assertEquals(Duration.ofMillis(250), api.getRequestTimeout());
+            assertEquals("prod", api.getHeaders().get("x-env"));
+
+            Route strip = router.match("/strip/files");
+            assertEquals("/files", strip.rewrite("/strip/files"));
+            assertEquals("/", strip.rewrite("/strip"));
+            assertEquals("/?q=1", strip.rewrite("/strip?q=1"));
+            assertNull(strip.getRequestTimeout());
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject malformed and duplicate routes")
+    void shouldRejectMalformedAndDuplicateRoutes() {
+        assertThrows(IllegalArgumentException.class, () -> RouteDefinition.parse("/api"));
+        assertThrows(IllegalArgumentException.class, () -> RouteDefinition.parse("/api="));
+        assertThrows(IllegalArgumentException.class, () -> RouteDefinition.parse("/api=http://a;retries=2"));
+        assertThrows(IllegalArgumentException.class, () -> RouteDefinition.parse("/api=http://a;timeout=soon"));
+        assertThrows(IllegalArgumentException.class, () -> RouteDefinition.parse("/api=http://a;header=Host:b"));
+        assertThrows(IllegalArgumentException.class, () -> router(List.of("/api=http://a", "/api/=http://b"), List.of()));
+        assertThrows(IllegalArgumentException.class, () -> router(List.of(), List.of()));
+    }
+
+    @Test
+    @DisplayName("Should reload the routes file, keep the targets it still uses and survive a broken file")
+    void shouldReloadTheRoutesFileKeepTheTargetsItStillUsesAndSurviveABrokenFile() throws Exception {
+        Path file = tempDir.resolve("routes");
+        Files.writeString(file, "# Routes\n/api=http://a,http://b\n\n/web=http://c\n");
+        try (Router router = new Router(List.of(), file, List.of(), Balancing.ROUND_ROBIN, null, null, 0)) {
+            assertFalse(router.reloadIfChanged());
+            Upstream a = router.getUpstreams().get(0);
+            assertEquals(3, router.getUpstreams().size());
+
+            Files.writeString(file, "/api=http://a\n/api/v2=http://d\n");
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(10)));
+            assertTrue(router.reloadIfChanged());
+            assertEquals("/api/v2", prefixOf(router, "/api/v2/users"));
+            assertNull(router.match("/web"));
+            assertSame(a, router.match("/api").getPool().getUpstreams().get(0));
+            assertEquals(List.of("http://a", "http://d"), router.getUpstreams().stream().map(Upstream::getUrl).toList());
+
+            Files.writeString(file, "/api=http://a;bogus=1\n");
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(20)));
+            assertFalse(router.reloadIfChanged());
+            assertEquals("/api/v2", prefixOf(router, "/api/v2/users"));
+            assertEquals(1, router.getReloadCount());
+            assertEquals(1, router.getReloadFailedCount());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.renanwillian.easyproxy.stub;
+
+import com.renanwillian.easyproxy.log.LogEntry;
+import com.renanwillian.easyproxy.traffic.CaptureWriter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StubStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Should index directory files by method, path and query")
+    void shouldIndexDirectoryFilesByMethodPathAndQuery() throws IOException {
+        Files.createDirectories(directory.resolve("GET/docs"));
+        Files.createDirectories(directory.resolve("DELETE/items"));
+        Files.writeString(directory.resolve("GET/index"), "home");
+        Files.writeString(directory.resolve("GET/docs/index"), "docs");
+        Files.writeString(directory.resolve("GET/docs/guide.html"), "<h1>guide</h1>");
+        Files.writeString(directory.resolve("GET/docs%3Fb=2&a=1"), "query");
+        Files.writeString(directory.resolve("DELETE/items/1"), "");
+        Files.writeString(directory.resolve("DELETE/items/1.headers"), "HTTP/1.1 204 No Content\n");
+        Files.writeString(directory.resolve("README"), "not a stub");
+
+        StubStore store = StubStore.load(directory, StubMiss.FORWARD);
+
+        assertEquals(5, store.size());
+        assertEquals("home", body(store.lookup("GET", "/")));
+        assertEquals("docs", body(store.lookup("get", "/docs")));
+        assertEquals("query", body(store.lookup("GET", "/docs?a=1&b=2")));
+        assertEquals("text/html", store.lookup("GET", "/docs/guide.html").headers().get("content-type"));
+        assertEquals(204, store.lookup("DELETE", "/items/1").statusCode());
+        assertNull(store.lookup("GET", "/items/1"));
+        assertEquals(5, store.getHitCount());
+        assertEquals(1, store.getMissCount());
+    }
+
+    @Test
+    @DisplayName("Should load the last complete response of each request from a capture")
+    void shouldLoadTheLastCompleteResponseOfEachRequestFromACapture() throws IOException {
+        Path capture = directory.resolve("traffic.capture");
+        try (CaptureWriter writer = new CaptureWriter(capture, 1024 * 1024)) {
+            writer.record(entry("/orders?id=1", 200, "first"));
+            writer.record(entry("/orders?id=1", 200, "second"));
+            writer.record(entry("/failed", 0, ""));
+            LogEntry truncated = entry("/large", 200, "partial");
+            truncated.setResponseBodySize(1024 * 1024);
+            writer.record(truncated);
+        }
+
+        StubStore store = StubStore.load(capture, StubMiss.FAIL);
+
+        assertEquals(1, store.size());
+        StubResponse stub = store.lookup("GET", "/orders?id=1");
+        assertNotNull(stub);
+        assertEquals("second", body(stub));
+        assertEquals("text/plain", stub.headers().get("Content-Type"));
+    }
+
+    @Test
+    @DisplayName("Should reject a path that is neither a directory nor a capture")
+    void shouldRejectAPathThatIsNeitherADirectoryNorACapture() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> StubStore.load(directory.resolve("missing"), StubMiss.FORWARD));
+    }
+
+    private static String body(StubResponse stub) {
+        byte[] bytes = new byte[stub.getBodySize()];
+        stub.openBody().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static LogEntry entry(String path, int statusCode, String responseBody) {
+        LogEntry entry = new LogEntry();
+        entry.setMethod("GET");
+        entry.setPath(path);
+        entry.setStatusCode(statusCode);
+        entry.setTimestamp(LocalDateTime.now());
+        entry.setResponseHeaders(Map.of("Content-Type", "text/plain"));
+        entry.setResponseBody(responseBody.getBytes(StandardCharsets.UTF_8));
+        entry.setResponseBodySize(responseBody.length());
+        return entry;
+    }
+}
@@ -0,0 +1,90 @@
+package com.renanwillian.easyproxy.tls;
+
+import com.renanwillian.easyproxy.config.ProxyConfig;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TlsTerminatorTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    @TempDir
+    Path tempDir;
+
+    private static Path resource(String name) throws URISyntaxException {
+        return Path.of(TlsTerminatorTest.class.getResource("/tls/" + name).toURI());
+    }
+
+    private ProxyConfig config(Path cert) {
+        ProxyConfig config = ProxyConfig.of(8443, "http://localhost:9999");
+        config.setTlsCert(cert);
+        config.setTlsPassword(new String(PASSWORD));
+        config.setTlsReloadInterval(0);
+        return config;
+    }
+
+    @Test
+    @DisplayName("Should load the key and certificate from a PKCS12 keystore or a PEM file")
+    void shouldLoadTheKeyAndCertificateFromAPkcs12KeystoreOrAPemFile() throws Exception {
+        for (String name : List.of("localhost.p12", "localhost.pem")) {
+            KeyStore keyStore = KeyMaterial.load(resource(name), null, PASSWORD);
+
+            assertNotNull(keyStore.getKey(KeyMaterial.ALIAS, new char[0]), name);
+            assertEquals(1, keyStore.getCertificateChain(KeyMaterial.ALIAS).length, name);
+        }
+    }
+
+    @Test
+    @DisplayName("Should reload the certificate once its file changes and keep it when the new one is broken")
+    void shouldReloadTheCertificateOnceItsFileChangesAndKeepItWhenTheNewOneIsBroken() throws Exception {
+        Path cert = tempDir.resolve("cert");
+        Files.copy(resource("localhost.p12"), cert);
+        try (TlsTerminator terminator = new TlsTerminator(config(cert))) {
+            assertFalse(terminator.reloadIfChanged());
+
+            Files.copy(resource("localhost.pem"), cert, StandardCopyOption.REPLACE_EXISTING);
+            touch(cert, 1);
+            assertTrue(terminator.reloadIfChanged());
+            assertFalse(terminator.reloadIfChanged());
+
+            Files.writeString(cert, "-----BEGIN CERTIFICATE-----");
+            touch(cert, 2);
+            assertFalse(terminator.reloadIfChanged());
+
+            assertEquals(1, terminator.getReloadCount());
+            assertEquals(1, terminator.getReloadFailedCount());
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject a cipher suite the JDK does not support")
+    void shouldRejectACipherSuiteTheJdkDoesNotSupport() throws Exception {
+        ProxyConfig config = config(resource("localhost.p12"));
+        config.setTlsCiphers(List.of("TLS_AES_128_GCM_SHA256", "TLS_NOT_A_CIPHER"));
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> new TlsTerminator(config));
+        assertEquals("Unsupported TLS cipher suite: TLS_NOT_A_CIPHER", error.getMessage());
+    }
+
+    // The modification time is moved explicitly, a copy within the same second may otherwise not change it.
+    private static void touch(Path path, int minutes) throws IOException {
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().plusSeconds(minutes * 60L)));
+    }
+}
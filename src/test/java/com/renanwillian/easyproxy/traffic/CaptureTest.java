@@ -0,0 +1,95 @@
+package com.renanwillian.easyproxy.traffic;
+
+import com.renanwillian.easyproxy.log.LogEntry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CaptureTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 5, 1, 10, 0);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Should read back every exchange across segments and runs")
+    void shouldReadBackEveryExchangeAcrossSegmentsAndRuns() throws IOException {
+        Path capture = directory.resolve("traffic.capture");
+        try (CaptureWriter writer = new CaptureWriter(capture, 1024 * 1024)) {
+            for (int i = 0; i < 8; i++) writer.record(entry(i));
+        }
+        try (CaptureWriter writer = new CaptureWriter(capture, 1024 * 1024)) {
+            writer.record(entry(8));
+        }
+
+        List<RecordedExchange> exchanges = new ArrayList<>();
+        new CaptureReader(capture, 0).forEach(exchanges::add);
+
+        assertEquals(2, CaptureReader.segments(capture).size());
+        assertEquals(9, exchanges.size());
+        assertEquals("/items/0", exchanges.get(0).path());
+        assertEquals("/items/8", exchanges.get(8).path());
+        assertEquals("text/plain", exchanges.get(3).requestHeaders().get("Content-Type"));
+        assertArrayEquals("body 3".getBytes(), exchanges.get(3).requestBody());
+    }
+
+    @Test
+    @DisplayName("Should roll to a new segment when the current one is full")
+    void shouldRollToANewSegmentWhenTheCurrentOneIsFull() throws IOException {
+        Path capture = directory.resolve("large.capture");
+        try (CaptureWriter writer = new CaptureWriter(capture, 1024 * 1024)) {
+            for (int i = 0; i < 6; i++) {
+                LogEntry entry = entry(i);
+                entry.setResponseBody(new byte[200 * 1024]);
+                writer.record(entry);
+            }
+        }
+
+        List<RecordedExchange> exchanges = new ArrayList<>();
+        new CaptureReader(capture, 0).forEach(exchanges::add);
+
+        assertEquals(2, CaptureReader.segments(capture).size());
+        assertEquals(6, exchanges.size());
+        assertEquals(200 * 1024, exchanges.get(5).responseBody().length);
+    }
+
+    @Test
+    @DisplayName("Should seek to the requested time with the index")
+    void shouldSeekToTheRequestedTime() throws IOException {
+        Path capture = directory.resolve("traffic.capture");
+        try (CaptureWriter writer = new CaptureWriter(capture, 1024 * 1024)) {
+            for (int i = 0; i < 8; i++) writer.record(entry(i));
+        }
+
+        long from = START.plusSeconds(5).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        List<String> paths = new ArrayList<>();
+        new CaptureReader(capture, from).forEach(exchange -> paths.add(exchange.path()));
+
+        assertEquals(List.of("/items/5", "/items/6", "/items/7"), paths);
+    }
+
+    private static LogEntry entry(int i) {
+        LogEntry entry = new LogEntry();
+        entry.setMethod("POST");
+        entry.setPath("/items/" + i);
+        entry.setStatusCode(200);
+        entry.setDuration(1L);
+        entry.setTimestamp(START.plusSeconds(i));
+        entry.setRequestHeaders(Map.of("Content-Type", "text/plain"));
+        entry.setRequestBody(("body " + i).getBytes());
+        entry.setRequestBodySize(entry.getRequestBody().length);
+        return entry;
+    }
+}
@@ -0,0 +1,82 @@
+package com.renanwillian.easyproxy.traffic;
+
+import com.renanwillian.easyproxy.log.LogEntry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrafficRecorderTest {
+
+    @Test
+    @DisplayName("Should read back a recorded exchange with headers and bodies")
+    void shouldReadBackARecordedExchange() {
+        TrafficRecorder recorder = new TrafficRecorder(4, 4096);
+        LogEntry entry = entry("/orders", 201);
+        entry.setRequestHeaders(Map.of("Content-Type", "application/json"));
+        entry.setRequestBody("{\"id\":1}".getBytes());
+        entry.setRequestBodySize(8);
+        entry.setResponseHeaders(Map.of("Location", "/orders/1"));
+        recorder.record(entry);
+
+        RecordedExchange recorded = recorder.get(1);
+
+        assertEquals("POST", recorded.method());
+        assertEquals("/orders", recorded.path());
+        assertEquals(201, recorded.statusCode());
+        assertEquals("application/json", recorded.requestHeaders().get("content-type"));
+        assertEquals("/orders/1", recorded.responseHeaders().get("Location"));
+        assertArrayEquals("{\"id\":1}".getBytes(), recorded.requestBody());
+        assertEquals(0, recorded.responseBody().length);
+    }
+
+    @Test
+    @DisplayName("Should overwrite the oldest exchanges and list the newest first")
+    void shouldOverwriteTheOldestExchanges() {
+        TrafficRecorder recorder = new TrafficRecorder(3, 1024);
+        for (int i = 1; i <= 5; i++) {
+            recorder.record(entry("/item/" + i, i == 4 ? 500 : 200));
+        }
+
+        List<RecordedExchange> all = recorder.list(exchange -> true, 10);
+        List<RecordedExchange> errors = recorder.list(exchange -> exchange.statusCode() >= 500, 10);
+
+        assertEquals(List.of(5L, 4L, 3L), all.stream().map(RecordedExchange::id).toList());
+        assertEquals(List.of(4L), errors.stream().map(RecordedExchange::id).toList());
+        assertNull(recorder.get(2));
+        assertEquals("/item/3", recorder.get(3).path());
+    }
+
+    @Test
+    @DisplayName("Should cut bodies to the slot size and keep their total size")
+    void shouldCutBodiesToTheSlotSize() {
+        TrafficRecorder recorder = new TrafficRecorder(1, 1024);
+        LogEntry entry = entry("/large", 200);
+        entry.setResponseBody(new byte[4096]);
+        entry.setResponseBodySize(1_000_000);
+        recorder.record(entry);
+
+        RecordedExchange recorded = recorder.get(1);
+
+        assertTrue(recorded.responseBody().length < 1024);
+        assertEquals(1_000_000, recorded.responseBodySize());
+    }
+
+    private static LogEntry entry(String path, int statusCode) {
+        LogEntry entry = new LogEntry();
+        entry.setMethod(statusCode == 201 ? "POST" : "GET");
+        entry.setPath(path);
+        entry.setStatusCode(statusCode);
+        entry.setResponseMessage("OK");
+        entry.setDuration(3L);
+        entry.setTimestamp(LocalDateTime.now());
+        return entry;
+    }
+}
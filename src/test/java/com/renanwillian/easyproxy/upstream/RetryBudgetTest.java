@@ -0,0 +1,38 @@
+package com.renanwillian.easyproxy.upstream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryBudgetTest {
+
+    @Test
+    @DisplayName("Should allow a burst and then the ratio of the requests")
+    void shouldAllowABurstAndThenTheRatioOfTheRequests() {
+        RetryBudget budget = new RetryBudget(0.2);
+
+        for (int i = 0; i < RetryBudget.MAX_BALANCE; i++) {
+            assertTrue(budget.tryWithdraw());
+        }
+        assertFalse(budget.tryWithdraw());
+
+        for (int i = 0; i < 4; i++) budget.onRequest();
+        assertFalse(budget.tryWithdraw());
+        budget.onRequest();
+        assertTrue(budget.tryWithdraw());
+        assertEquals(2, budget.getExhaustedCount());
+    }
+
+    @Test
+    @DisplayName("Should never allow an extra attempt with a zero budget")
+    void shouldNeverAllowAnExtraAttemptWithAZeroBudget() {
+        RetryBudget budget = new RetryBudget(0);
+
+        for (int i = 0; i < 100; i++) budget.onRequest();
+
+        assertFalse(budget.tryWithdraw());
+    }
+}
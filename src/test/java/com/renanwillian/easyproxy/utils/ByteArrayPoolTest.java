@@ -0,0 +1,43 @@
+package com.renanwillian.easyproxy.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ByteArrayPoolTest {
+
+    @Test
+    @DisplayName("Should round sizes up to their class and reuse released arrays")
+    void shouldRoundSizesUpToTheirClassAndReuseReleasedArrays() {
+        ByteArrayPool pool = new ByteArrayPool(1);
+
+        byte[] small = pool.acquire(100);
+        byte[] medium = pool.acquire(10_000);
+        assertEquals(ByteArrayPool.MIN_SIZE, small.length);
+        assertEquals(16 * 1024, medium.length);
+        assertEquals(ByteArrayPool.MAX_SIZE, pool.acquire(ByteArrayPool.MAX_SIZE).length);
+
+        pool.release(small);
+        pool.release(medium);
+        assertSame(medium, pool.acquire(16 * 1024));
+        assertSame(small, pool.acquire(ByteArrayPool.MIN_SIZE));
+        assertNotSame(small, pool.acquire(ByteArrayPool.MIN_SIZE));
+    }
+
+    @Test
+    @DisplayName("Should not pool arrays above the largest class or of other sizes")
+    void shouldNotPoolArraysAboveTheLargestClassOrOfOtherSizes() {
+        ByteArrayPool pool = new ByteArrayPool(1);
+
+        byte[] large = pool.acquire(ByteArrayPool.MAX_SIZE + 1);
+        assertEquals(ByteArrayPool.MAX_SIZE + 1, large.length);
+        pool.release(large);
+        pool.release(new byte[5000]);
+
+        assertNotSame(large, pool.acquire(ByteArrayPool.MAX_SIZE + 1));
+        assertEquals(8 * 1024, pool.acquire(5000).length);
+    }
+}